@@ -2,6 +2,8 @@ import experiments.ApologyExperiment;
 import experiments.EnvTestingExperimentAlternateThresholds;
 import experiments.EnvTestingExperimentIndividualVF;
 import experiments.FlexibleMIExperimentWithExcelOutput;
+import experiments.SessionHost;
+import experiments.TrialScheduler;
 
 import java.io.File;  // Import the File class
 import java.io.IOException;  // Import the IOException class to handle errors
@@ -9,10 +11,28 @@ import java.io.IOException;  // Import the IOException class to handle errors
 
 import agents.*;
 import env.*;
+import org.rlcommunity.rlglue.codec.network.Network;
+import tools.glue.LocalMOGlue;
+import tools.glue.MOGlue;
+import tools.glue.MOGlueServer;
 
 
 public class MORL_Glue_Driver
 {
+	// When true, the agent, environment and experiment all run on the main thread and talk to each other through
+	// LocalMOGlue, so the morlglue_x64.exe server isn't needed. Set to false to launch the server and connect the
+	// three over TCP in their own threads as before.
+	private static final boolean IN_PROCESS_GLUE = true;
+	// When running over TCP, use the Java MOGlueServer rather than launching morlglue_x64.exe
+	private static final boolean JAVA_GLUE_SERVER = true;
+	// When running in-process, the number of trials to run at once, each with its own agent and environment.
+	// 0 runs the trials one after another through a single agent and environment.
+	private static final int TRIAL_THREADS = Runtime.getRuntime().availableProcessors();
+	// When above 0, host this many independent experiment sessions (agent, environment and experiment each) in
+	// this JVM instead, each writing to sessions/session<n>/. A session that fails is reported without stopping
+	// the others.
+	private static final int NUM_SESSIONS = 0;
+
 	public static void createFile(String name) {
 		try {
 			File output = new File(name);
@@ -31,14 +51,85 @@ public class MORL_Glue_Driver
 	}
 
 
+	public static void createOutputFiles() {
+		createFile("AdditionalConsoleOutput.txt");
+		createFile("WatcherOutput.txt");
+		createFile("ConscienceOutput.txt");
+		createFile("SimpleOutput.txt");
+//		createFile("ThresholdOutput.txt");
+	}
+
+	// Run the experiment with the agent and environment called directly, without the server
+	public static void runInProcess()
+	{
+		createOutputFiles();
+		System.out.println("Running agent, environment and experiment in-process");
+		if (TRIAL_THREADS > 0)
+		{
+			System.out.println("Running up to " + TRIAL_THREADS + " trials at once");
+			TrialScheduler scheduler = new TrialScheduler(TRIAL_THREADS, SatisficingMOMIAgent::new, WatchedLivingRoomWithTableAndCat::new);
+			new ApologyExperiment().runExperiment(scheduler);
+			return;
+		}
+		MOGlue.setGlue(new LocalMOGlue(new WatchedLivingRoomWithTableAndCat(), new SatisficingMOMIAgent()));
+		new ApologyExperiment().runExperiment();
+	}
+
+	// Run NUM_SESSIONS copies of the experiment side by side, as many at once as there are cores
+	public static void runSessions()
+	{
+		System.out.println("Hosting " + NUM_SESSIONS + " sessions in-process");
+		SessionHost host = new SessionHost(Runtime.getRuntime().availableProcessors());
+		try (SessionHost.Scope scope = host.open(false))
+		{
+			for (int i = 0; i < NUM_SESSIONS; i++)
+			{
+				scope.fork("session" + i, SatisficingMOMIAgent::new, WatchedLivingRoomWithTableAndCat::new,
+						glue -> new ApologyExperiment().runExperiment(glue));
+			}
+			scope.join();
+		}
+		catch (SessionHost.SessionsFailedException e)
+		{
+			System.err.println(e.getMessage());
+			e.printStackTrace();
+		}
+		catch (InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+		}
+		finally
+		{
+			host.shutdown();
+		}
+	}
+
+
 	public static void main(String[] args) 
 	{
+			if (NUM_SESSIONS > 0)
+			{
+				runSessions();
+				return;
+			}
+			if (IN_PROCESS_GLUE)
+			{
+				runInProcess();
+				return;
+			}
 			Process server = null;
 			// try to launch the MORL_Glue server
 			Runtime rt = Runtime.getRuntime();
 			try 
 			{
-				server = rt.exec("morlglue_x64.exe");//local path
+				if (JAVA_GLUE_SERVER)
+				{
+					MOGlueServer.launch(Network.kDefaultPort);
+				}
+				else
+				{
+					server = rt.exec("morlglue_x64.exe");//local path
+				}
 				System.out.println("Launching server");
 			} 
 			catch (Exception e) 
@@ -46,11 +137,7 @@ public class MORL_Glue_Driver
 				e.printStackTrace();
 			}
 
-			createFile("AdditionalConsoleOutput.txt");
-			createFile("WatcherOutput.txt");
-			createFile("ConscienceOutput.txt");
-			createFile("SimpleOutput.txt");
-//			createFile("ThresholdOutput.txt");
+			createOutputFiles();
 			// Create Console Output Catcher File
 //		try {
 //			File output = new File("AdditionalConsoleOutput.txt");
@@ -2,6 +2,7 @@ package agents;
 
 import java.io.FileWriter;
 import java.io.IOException;
+import tools.trials.TrialOutput;
 
 public class Conscience {
     // Stores and calculates the response to potential harm, produces the response
@@ -22,6 +23,17 @@ public class Conscience {
         priorRewards = new double[]{0, 0, 0}; // initial set
     }
 
+    // a copy of another conscience part way through a run - unlike a new one, it doesn't start a new output file
+    Conscience(Conscience other) {
+        episode = other.episode;
+        step = other.step;
+        notThis = other.notThis;
+        resetDelay = other.resetDelay;
+        apologised = other.apologised;
+        priorRewards = other.priorRewards == null ? null : other.priorRewards.clone();
+        theseRewards = other.theseRewards == null ? null : other.theseRewards.clone();
+    }
+
     public void cleanUp() {
         episode = -1;
     }
@@ -122,7 +134,7 @@ public class Conscience {
 
     public void printToConscienceOutputFile(String ep, String step, String attitude, String justification) {
         try {
-            FileWriter myWriter = new FileWriter("ConscienceOutput.txt", true);
+            FileWriter myWriter = new FileWriter(TrialOutput.fileName("ConscienceOutput.txt"), true);
             myWriter.write(ep + ", " + step + ", "  + attitude + ", " + justification + System.lineSeparator());
             myWriter.close();
 //            System.out.println("Successfully wrote to the file.");
@@ -11,7 +11,6 @@ package agents;
 import java.math.BigDecimal;
 import java.util.ArrayList;
 import java.util.Random;
-import java.util.Stack;
 
 import org.rlcommunity.rlglue.codec.AgentInterface;
 import org.rlcommunity.rlglue.codec.taskspec.TaskSpecVRLGLUE3;
@@ -23,7 +22,7 @@ import org.rlcommunity.rlglue.codec.util.AgentLoader;
 import tools.hypervolume.Point;
 import tools.staterep.DummyStateConverter;
 import tools.staterep.interfaces.StateConverter;
-import tools.traces.StateActionDiscrete;
+import tools.traces.ReplacingTrace;
 import tools.valuefunction.SafetyFirstLookupTable;
 import tools.valuefunction.TLO_LookupTable;
 import tools.valuefunction.interfaces.ActionSelector;
@@ -35,7 +34,7 @@ public class SafetyFirstMOAgent implements AgentInterface {
     double impactThreshold = -0.1; // sets threshold on the acceptable level of environmental disruption - use high value to 'switch off' thresholding
 	
 	SafetyFirstLookupTable vf = null;
-    Stack<StateActionDiscrete> tracingStack = null;
+    ReplacingTrace trace = null;
 
     private boolean policyFrozen = false;
     private boolean debugging = false;
@@ -78,11 +77,10 @@ public class SafetyFirstMOAgent implements AgentInterface {
         vf = new SafetyFirstLookupTable(numOfObjectives, numActions, numStates, 0, impactThreshold);
 
         random = new Random(471);
-        tracingStack = new Stack<>();
+        trace = new ReplacingTrace(MAX_STACK_SIZE, numActions);
 
         //set the model of converting MDP observation to an int state representation
         stateConverter = new DummyStateConverter();
-        StateActionDiscrete.setStateConverter( stateConverter );
         resetForNewTrial();
 
     }
@@ -106,7 +104,7 @@ public class SafetyFirstMOAgent implements AgentInterface {
         numOfSteps = 0; 
         accumulatedImpact = 0.0;
         vf.setAccumulatedImpact(accumulatedImpact);    	
-        tracingStack.clear();
+        trace.clear();
     }
 
     @Override
@@ -118,7 +116,7 @@ public class SafetyFirstMOAgent implements AgentInterface {
 
         Action returnAction = new Action(1, 0, 0);
         returnAction.intArray[0] = action;
-        tracingStack.add(new StateActionDiscrete(observation, returnAction)); // put executed action on the stack
+        trace.add(state, action); // put executed action on the trace
     	if (debugging)
     	{
         	for (int i=0; i<numActions; i++)
@@ -153,13 +151,11 @@ public class SafetyFirstMOAgent implements AgentInterface {
 
         if (!policyFrozen) {
             double currentLambda = lambda;
-            for (int i = tracingStack.size() - 1; i >= 0; i--) {
-                StateActionDiscrete pair = tracingStack.get(i);
+            for (int i = 0; i < trace.size(); i++) {
+                int prevAction = trace.getAction(i);
+                int prevState = trace.getState(i);
 
-                int prevAction = pair.getAction().getInt(0);
-                int prevState = stateConverter.getStateNumber(pair.getObservation());
-
-                if (i + 1 == tracingStack.size()) // this is the most recent action
+                if (i == 0) // this is the most recent action
                 {
                     vf.calculateErrors(prevAction, prevState, greedyAction, state, gamma, reward);
                     vf.update(prevAction, prevState, 1.0, alpha);
@@ -167,8 +163,7 @@ public class SafetyFirstMOAgent implements AgentInterface {
                 else {
                 	// if there is no more recent entry for this state-action pair then update it
                 	// this is to implement replacing rather than accumulating traces
-                    int index = tracingStack.indexOf(pair, i + 1);
-                    if (index == -1) {
+                    if (trace.isLatest(i)) {
                         vf.update(prevAction, prevState, currentLambda, alpha);
                     }
                     currentLambda *= lambda;
@@ -181,20 +176,13 @@ public class SafetyFirstMOAgent implements AgentInterface {
 
         Action returnAction = new Action(1, 0, 0);
         returnAction.intArray[0] = action;
-        // clear trace if this action is not greedy, otherwise trim stack if neccesary
-        if (isGreedy(state,action))
-        {
-	        if( tracingStack.size() == MAX_STACK_SIZE ) 
-	        {
-	            tracingStack.remove(0);
-	        }
-        }
-        else
+        // clear trace if this action is not greedy (a full trace drops its oldest entry when this one is added)
+        if (!isGreedy(state,action))
         {
-        	tracingStack.clear();
+        	trace.clear();
         }
-        // in either case, can now add this state-action to the trace stack
-        tracingStack.add( new StateActionDiscrete(observation, returnAction ) );
+        // in either case, can now add this state-action to the trace
+        trace.add(state, action);
         if (debugging)
         {
         	for (int i=0; i<numActions; i++)
@@ -223,13 +211,11 @@ public class SafetyFirstMOAgent implements AgentInterface {
   	  	temperature *= temperatureDecayRatio;
         if (!policyFrozen) {
             double currentLambda = lambda;
-            for (int i = tracingStack.size() - 1; i >= 0; i--) {
-                StateActionDiscrete pair = tracingStack.get(i);
-
-                int prevAction = pair.getAction().getInt(0);
-                int prevState = stateConverter.getStateNumber(pair.getObservation());
+            for (int i = 0; i < trace.size(); i++) {
+                int prevAction = trace.getAction(i);
+                int prevState = trace.getState(i);
 
-                if (i + 1 == tracingStack.size()) 
+                if (i == 0) 
                 {
                     vf.calculateTerminalErrors(prevAction, prevState, gamma, reward);
                     vf.update(prevAction, prevState, 1.0, alpha);
@@ -238,8 +224,7 @@ public class SafetyFirstMOAgent implements AgentInterface {
                 {
                 	// if there is no more recent entry for this state-action pair then update it
                 	// this is to implement replacing rather than accumulating traces
-                    int index = tracingStack.indexOf(pair, i + 1);
-                    if (index == -1) {
+                    if (trace.isLatest(i)) {
                         vf.update(prevAction, prevState, currentLambda, alpha);
                     }
                     currentLambda *= lambda;
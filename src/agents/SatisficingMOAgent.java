@@ -13,7 +13,6 @@ package agents;
 import java.math.BigDecimal;
 import java.util.ArrayList;
 import java.util.Random;
-import java.util.Stack;
 
 import org.rlcommunity.rlglue.codec.AgentInterface;
 import org.rlcommunity.rlglue.codec.taskspec.TaskSpecVRLGLUE3;
@@ -25,7 +24,7 @@ import org.rlcommunity.rlglue.codec.util.AgentLoader;
 import tools.hypervolume.Point;
 import tools.staterep.DummyStateConverter;
 import tools.staterep.interfaces.StateConverter;
-import tools.traces.StateActionIndexPair;
+import tools.traces.ReplacingTrace;
 import tools.valuefunction.SatisficingLookupTable;
 import tools.valuefunction.TLO_LookupTable;
 import tools.valuefunction.interfaces.ActionSelector;
@@ -54,7 +53,7 @@ public class SatisficingMOAgent implements AgentInterface {
     double discretisationGranularity = 0.001 + (maxPrimaryReward - minPrimaryReward)/(numDiscretisationsOfReward); // how big is each cell in the discretisation of the accumulated reward? Add 0.001 to avoid rounding up the max value to be out of the index range
     
 	SatisficingLookupTable vf = null;
-    Stack<StateActionIndexPair> tracingStack = null;
+    ReplacingTrace trace = null;
 
     private boolean policyFrozen = false;
     private boolean debugging = false;
@@ -103,7 +102,7 @@ public class SatisficingMOAgent implements AgentInterface {
         vf = new SatisficingLookupTable(numOfObjectives, numActions, numStates, 0, primaryRewardThreshold, safetyThreshold);
 
         random = new Random(471);
-        tracingStack = new Stack<>();
+        trace = new ReplacingTrace(MAX_STACK_SIZE, numActions);
 
         //set the model of converting MDP observation to an int state representation
         stateConverter = new DummyStateConverter();
@@ -135,7 +134,7 @@ public class SatisficingMOAgent implements AgentInterface {
         accumulatedPrimaryReward = 0.0; accumulatedImpact = 0.0;
         vf.setAccumulatedReward(accumulatedPrimaryReward);    
         vf.setAccumulatedImpact(accumulatedImpact);
-        tracingStack.clear();
+        trace.clear();
         
         //DEBUGGING STUFF
         for (int s=0; s<numStates; s++)
@@ -185,7 +184,7 @@ public class SatisficingMOAgent implements AgentInterface {
 
         Action returnAction = new Action(1, 0, 0);
         returnAction.intArray[0] = action;
-        tracingStack.add(new StateActionIndexPair(state, returnAction)); // put executed action on the stack
+        trace.add(state, action); // put executed action on the trace
     	if (debugging)
     	{
         	for (int i=0; i<numActions; i++)
@@ -222,13 +221,11 @@ public class SatisficingMOAgent implements AgentInterface {
 
         if (!policyFrozen) {
             double currentLambda = lambda;
-            for (int i = tracingStack.size() - 1; i >= 0; i--) {
-                StateActionIndexPair pair = tracingStack.get(i);
+            for (int i = 0; i < trace.size(); i++) {
+                int prevAction = trace.getAction(i);
+                int prevState = trace.getState(i);
 
-                int prevAction = pair.getAction().getInt(0);
-                int prevState = pair.getState();
-
-                if (i + 1 == tracingStack.size()) // this is the most recent action
+                if (i == 0) // this is the most recent action
                 {
                     vf.calculateErrors(prevAction, prevState, greedyAction, state, gamma, reward);
                     vf.update(prevAction, prevState, 1.0, alpha);
@@ -236,8 +233,7 @@ public class SatisficingMOAgent implements AgentInterface {
                 else {
                 	// if there is no more recent entry for this state-action pair then update it
                 	// this is to implement replacing rather than accumulating traces
-                    int index = tracingStack.indexOf(pair, i + 1);
-                    if (index == -1) {
+                    if (trace.isLatest(i)) {
                         vf.update(prevAction, prevState, currentLambda, alpha);
                     }
                     currentLambda *= lambda;
@@ -250,20 +246,13 @@ public class SatisficingMOAgent implements AgentInterface {
 
         Action returnAction = new Action(1, 0, 0);
         returnAction.intArray[0] = action;
-        // clear trace if this action is not greedy, otherwise trim stack if neccesary
-        if (isGreedy(state,action))
-        {
-	        if( tracingStack.size() == MAX_STACK_SIZE ) 
-	        {
-	            tracingStack.remove(0);
-	        }
-        }
-        else
+        // clear trace if this action is not greedy (a full trace drops its oldest entry when this one is added)
+        if (!isGreedy(state,action))
         {
-        	tracingStack.clear();
+        	trace.clear();
         }
-        // in either case, can now add this state-action to the trace stack
-        tracingStack.add( new StateActionIndexPair(state, returnAction ) );
+        // in either case, can now add this state-action to the trace
+        trace.add(state, action);
         if (debugging)
         {
         	for (int i=0; i<numActions; i++)
@@ -292,13 +281,11 @@ public class SatisficingMOAgent implements AgentInterface {
   	  	temperature *= temperatureDecayRatio;
         if (!policyFrozen) {
             double currentLambda = lambda;
-            for (int i = tracingStack.size() - 1; i >= 0; i--) {
-                StateActionIndexPair pair = tracingStack.get(i);
-
-                int prevAction = pair.getAction().getInt(0);
-                int prevState = pair.getState();
+            for (int i = 0; i < trace.size(); i++) {
+                int prevAction = trace.getAction(i);
+                int prevState = trace.getState(i);
 
-                if (i + 1 == tracingStack.size()) 
+                if (i == 0) 
                 {
                     vf.calculateTerminalErrors(prevAction, prevState, gamma, reward);
                     vf.update(prevAction, prevState, 1.0, alpha);
@@ -307,8 +294,7 @@ public class SatisficingMOAgent implements AgentInterface {
                 {
                 	// if there is no more recent entry for this state-action pair then update it
                 	// this is to implement replacing rather than accumulating traces
-                    int index = tracingStack.indexOf(pair, i + 1);
-                    if (index == -1) {
+                    if (trace.isLatest(i)) {
                         vf.update(prevAction, prevState, currentLambda, alpha);
                     }
                     currentLambda *= lambda;
@@ -17,21 +17,30 @@ import org.rlcommunity.rlglue.codec.types.Action;
 import org.rlcommunity.rlglue.codec.types.Observation;
 import org.rlcommunity.rlglue.codec.types.Reward;
 import org.rlcommunity.rlglue.codec.util.AgentLoader;
+import tools.glue.Copyable;
+import tools.random.Randoms;
+import tools.random.SplitMix;
 import tools.staterep.DummyStateConverter;
 import tools.staterep.interfaces.StateConverter;
-import tools.traces.StateActionIndexPair;
+import tools.traces.ReplacingTrace;
 import tools.valuefunction.SatisficingLookupTable;
 import tools.valuefunction.SatisficingMILookupTable;
 import tools.valuefunction.TLO_LookupTable;
+import tools.valuefunction.ValueFunctionCheckpointer;
+import tools.valuefunction.interfaces.ActionSelection;
 import tools.valuefunction.interfaces.ActionSelector;
+import tools.valuefunction.storage.QValueStorage;
+import tools.valuefunction.storage.ValueFunctionAverager;
 
+import java.io.File;
 import java.io.FileWriter;
 import java.io.IOException;
+import java.util.List;
 import java.util.Random;
-import java.util.Stack;
+import tools.trials.TrialOutput;
 
 
-public class SatisficingMOMIAgent implements AgentInterface {
+public class SatisficingMOMIAgent implements AgentInterface, Copyable<SatisficingMOMIAgent> {
 
     boolean isApologetic = false; // set by message call
     boolean conscienceInit = false;
@@ -87,11 +96,13 @@ public class SatisficingMOMIAgent implements AgentInterface {
     double discretisationGranularity = 0.001 + (maxPrimaryReward - minPrimaryReward)/(numDiscretisationsOfReward); // how big is each cell in the discretisation of the accumulated reward? Add 0.001 to avoid rounding up the max value to be out of the index range
     
 	SatisficingMILookupTable vf = null;
-    Stack<StateActionIndexPair> tracingStack = null;
+    ReplacingTrace trace = null;
 
     private boolean policyFrozen = false;
     private boolean debugging = false;
     private Random random;
+    // the experiment seed this agent's random number streams are derived from, set by a set_seed: message
+    private long seed = Randoms.DEFAULT_SEED;
 
     private int numActions = 0;
     private int numEnvtStates = 0; // number of states in the environment
@@ -99,7 +110,20 @@ public class SatisficingMOMIAgent implements AgentInterface {
     int numOfObjectives;
 
     private final double initQValues[]={0,0,0,0};  //was {0,0,0}
+    // how the Q-values are laid out in memory - state-major keeps all of a state's values together for action selection
+    // (SPARSE only stores the states actually visited, for environments advertising far more observations than they reach)
+    private final int Q_LAYOUT = QValueStorage.STATE_MAJOR;
+    private final boolean COMPRESS_SAVED_VF = false; // deflate saved value functions (see QValueFile)
+    // checkpoint the value function in the background every so many episodes and/or seconds of learning (0 for
+    // neither), keeping the latest few - set_checkpointing: changes these, resume_checkpoint carries on from the latest
+    private final int CHECKPOINT_EVERY_EPISODES = 0;
+    private final double CHECKPOINT_EVERY_SECONDS = 0;
+    private final int CHECKPOINT_GENERATIONS = 3;
+    // after each full checkpoint write this many deltas of just the states updated since (0 for all full ones)
+    private final int CHECKPOINT_DELTAS = 10;
     int explorationStrategy; // flag used to indicate which type of exploration strategy is being used
+    // each step's action selection, reused so that choosing actions allocates nothing
+    private final ActionSelection selection = new ActionSelection();
     //if using eGreedy exploration
     double startingEpsilon;
     double epsilonLinearDecay;
@@ -114,6 +138,12 @@ public class SatisficingMOMIAgent implements AgentInterface {
     double lambda;
     final int MAX_STACK_SIZE = 20;
 
+    int checkpointEpisodes = CHECKPOINT_EVERY_EPISODES;
+    double checkpointSeconds = CHECKPOINT_EVERY_SECONDS;
+    int checkpointGenerations = CHECKPOINT_GENERATIONS;
+    int checkpointDeltas = CHECKPOINT_DELTAS;
+    ValueFunctionCheckpointer checkpointer = null;
+
     int numOfSteps;
     int numEpisodes;
     int numTrial;
@@ -129,6 +159,103 @@ public class SatisficingMOMIAgent implements AgentInterface {
 
     StateConverter stateConverter = null;
 
+    // per-copy episode state for agent_start_batch/agent_step_batch
+    private double batchPrimaryReward[];
+    private double batchImpact1[];
+    private double batchImpact2[];
+    private boolean batchEnded[];
+
+    public SatisficingMOMIAgent() {
+    }
+
+    // A complete copy of another agent part way through a run - Q-values, traces, thresholds, exploration settings,
+    // accumulated rewards and random number streams - which shares nothing mutable with it. Used to branch several
+    // offline evaluations off one trained agent (see LocalMOGlue.fork()); take the copy between episodes.
+    private SatisficingMOMIAgent(SatisficingMOMIAgent other) {
+        if (other.vf == null) {
+            throw new IllegalStateException("SatisficingMOMIAgent - can't copy an agent before agent_init");
+        }
+        isApologetic = other.isApologetic;
+        conscienceInit = other.conscienceInit;
+        apologisedFor = other.apologisedFor.clone();
+        myConscience = other.myConscience == null ? null : new Conscience(other.myConscience);
+        thresholdIndex = other.thresholdIndex;
+        thresholdMinimum = other.thresholdMinimum.clone();
+        thresholdMaximum = other.thresholdMaximum.clone();
+        delta = other.delta.clone();
+        allThresholds = new double[other.allThresholds.length][];
+        for (int i = 0; i < allThresholds.length; i++) {
+            allThresholds[i] = other.allThresholds[i].clone();
+        }
+        currentThresholds = other.currentThresholds == null ? null : other.currentThresholds.clone();
+        primaryRewardThreshold = other.primaryRewardThreshold;
+        impactThreshold1 = other.impactThreshold1;
+        impactThreshold2 = other.impactThreshold2;
+        minPrimaryReward = other.minPrimaryReward;
+        maxPrimaryReward = other.maxPrimaryReward;
+        numDiscretisationsOfReward = other.numDiscretisationsOfReward;
+        discretisationGranularity = other.discretisationGranularity;
+
+        vf = new SatisficingMILookupTable(other.vf);
+        trace = new ReplacingTrace(other.trace);
+        policyFrozen = other.policyFrozen;
+        debugging = other.debugging;
+        random = Randoms.copy(other.random);
+        seed = other.seed;
+
+        numActions = other.numActions;
+        numEnvtStates = other.numEnvtStates;
+        numStates = other.numStates;
+        numOfObjectives = other.numOfObjectives;
+        explorationStrategy = other.explorationStrategy;
+        startingEpsilon = other.startingEpsilon;
+        epsilonLinearDecay = other.epsilonLinearDecay;
+        epsilon = other.epsilon;
+        startingTemperature = other.startingTemperature;
+        temperatureDecayRatio = other.temperatureDecayRatio;
+        temperature = other.temperature;
+        alpha = other.alpha;
+        gamma = other.gamma;
+        lambda = other.lambda;
+
+        checkpointEpisodes = other.checkpointEpisodes;
+        checkpointSeconds = other.checkpointSeconds;
+        checkpointGenerations = other.checkpointGenerations;
+        checkpointDeltas = other.checkpointDeltas;
+        checkpointer = null; // a copy is for evaluation, and mustn't write over the original's checkpoints
+
+        numOfSteps = other.numOfSteps;
+        numEpisodes = other.numEpisodes;
+        numTrial = other.numTrial;
+        thisTrial = other.thisTrial;
+        vfSaved = other.vfSaved;
+        accumulatedPrimaryReward = other.accumulatedPrimaryReward;
+        accumulatedImpact1 = other.accumulatedImpact1;
+        accumulatedImpact2 = other.accumulatedImpact2;
+        saVisits = new int[other.saVisits.length][];
+        for (int s = 0; s < saVisits.length; s++) {
+            saVisits[s] = other.saVisits[s].clone();
+        }
+        stateConverter = new DummyStateConverter();
+    }
+
+    @Override
+    public SatisficingMOMIAgent copy() {
+        return new SatisficingMOMIAgent(this);
+    }
+
+    // the Q-values the agent is learning
+    public QValueStorage getQValues() {
+        return vf.getStorage();
+    }
+
+    // Learn into the given Q-values rather than the agent's own, e.g. a ConcurrentQValueStorage other agents are
+    // learning into on other threads at the same time (see experiments.ParallelActorLearner). They must be the size
+    // of the agent's table.
+    public void shareQValues(QValueStorage values) {
+        vf.setStorage(values);
+    }
+
     @Override
     public void agent_init(String taskSpecification) {
     	System.out.println("SatisficingMOMIAgent launched");
@@ -140,9 +267,10 @@ public class SatisficingMOMIAgent implements AgentInterface {
 //        numStates = numEnvtStates * numDiscretisationsOfReward; // agent state = environmental-state U accumulated-primary-reward
         numStates = numEnvtStates * 3; // agent state = environmental-state U accumulated-primary-reward
         numOfObjectives = theTaskSpec.getNumOfObjectives();
-        thisTrial = -2;
+        thisTrial = -1;
         apologisedFor = new boolean[]{false, false, false};
-        vf = new SatisficingMILookupTable(numOfObjectives, numActions, numStates, 0, primaryRewardThreshold, impactThreshold1, impactThreshold2);
+        vf = new SatisficingMILookupTable(numOfObjectives, numActions, numStates, 0, primaryRewardThreshold, impactThreshold1, impactThreshold2, Q_LAYOUT);
+        vf.setCompressSavedValues(COMPRESS_SAVED_VF);
         printSimpleOutput("Episode", "Reason", "Justification");
 
 //        if (isApologetic) {
@@ -154,8 +282,8 @@ public class SatisficingMOMIAgent implements AgentInterface {
         System.out.println(str);
         printToFile(str);
 
-        random = new Random(); // 471 seed removed
-        tracingStack = new Stack<>();
+        random = SplitMix.derive(seed, "trial", 0, "agent");
+        trace = new ReplacingTrace(MAX_STACK_SIZE, numActions);
 
         //set the model of converting MDP observation to an int state representation
         stateConverter = new DummyStateConverter();
@@ -168,7 +296,6 @@ public class SatisficingMOMIAgent implements AgentInterface {
 
     private void resetForNewTrial()
     {
-        thisTrial += 1;
 //        System.out.println("Reset Agent for new trial: " + thisTrial);
     	policyFrozen = false;
     	vfSaved = false;
@@ -194,7 +321,7 @@ public class SatisficingMOMIAgent implements AgentInterface {
         vf.setAccumulatedReward(accumulatedPrimaryReward);
         vf.setAccumulatedImpact1(accumulatedImpact1);
         vf.setAccumulatedImpact2(accumulatedImpact2);
-        tracingStack.clear();
+        trace.clear();
 
         if (isApologetic) {
             myConscience.nextEpisode();
@@ -210,6 +337,11 @@ public class SatisficingMOMIAgent implements AgentInterface {
     private int getAugmentedStateIndex(Observation observation)
     {
     	int observedState = stateConverter.getStateNumber( observation );
+    	return getAugmentedStateIndex(observedState, accumulatedPrimaryReward);
+    }
+
+    private int getAugmentedStateIndex(int observedState, double accumulatedPrimaryReward)
+    {
 //    	int rewardState = (int)Math.floor((accumulatedPrimaryReward-minPrimaryReward)/discretisationGranularity);
 
         int rewardState;
@@ -250,11 +382,12 @@ public class SatisficingMOMIAgent implements AgentInterface {
     	//if (debugging) debugHelper();
     	resetForNewEpisode();
         int state = getAugmentedStateIndex(observation);
-        int action = getAction(state);
+        selectAction(state);
+        int action = selection.action;
 
         Action returnAction = new Action(1, 0, 0);
         returnAction.intArray[0] = action;
-        tracingStack.add(new StateActionIndexPair(state, returnAction)); // put executed action on the stack
+        trace.add(state, action); // put executed action on the trace
     	if (debugging)
     	{
         	for (int i=0; i<numActions; i++)
@@ -314,7 +447,7 @@ public class SatisficingMOMIAgent implements AgentInterface {
         accumulatedImpact1 += reward.getDouble(1); // get the first impact-measuring reward
         vf.setAccumulatedImpact1(accumulatedImpact1);
         accumulatedImpact2 += reward.getDouble(2); // get the second impact-measuring reward
-        vf.setAccumulatedImpact1(accumulatedImpact2);
+        vf.setAccumulatedImpact2(accumulatedImpact2);
 
 
         int state = getAugmentedStateIndex(observation);
@@ -323,49 +456,37 @@ public class SatisficingMOMIAgent implements AgentInterface {
 
         if (!policyFrozen) {
             double currentLambda = lambda;
-            for (int i = tracingStack.size() - 1; i >= 0; i--) {
-                StateActionIndexPair pair = tracingStack.get(i);
-
-                int prevAction = pair.getAction().getInt(0);
-                int prevState = pair.getState();
+            for (int i = 0; i < trace.size(); i++) {
+                int prevAction = trace.getAction(i);
+                int prevState = trace.getState(i);
 
-                if (i + 1 == tracingStack.size()) // this is the most recent action
+                if (i == 0) // this is the most recent action
                 {
-                    vf.calculateErrors(prevAction, prevState, greedyAction, state, gamma, reward);
-                    vf.update(prevAction, prevState, 1.0, alpha);
+                    vf.calculateErrorsAndUpdate(prevAction, prevState, greedyAction, state, gamma, reward, alpha);
                 } 
                 else {
                 	// if there is no more recent entry for this state-action pair then update it
                 	// this is to implement replacing rather than accumulating traces
-                    int index = tracingStack.indexOf(pair, i + 1);
-                    if (index == -1) {
+                    if (trace.isLatest(i)) {
                         vf.update(prevAction, prevState, currentLambda, alpha);
                     }
                     currentLambda *= lambda;
                 }
             }
-            action = getAction(state);
-        } else {// if frozen, don't learn and follow greedy policy
-
-            action = greedyAction;
         }
+        // if frozen, don't learn and follow greedy policy
+        selectAction(state);
+        action = selection.action;
 
         Action returnAction = new Action(1, 0, 0);
         returnAction.intArray[0] = action;
-        // clear trace if this action is not greedy, otherwise trim stack if neccesary
-        if (isGreedy(state,action))
-        {
-	        if( tracingStack.size() == MAX_STACK_SIZE ) 
-	        {
-	            tracingStack.remove(0);
-	        }
-        }
-        else
+        // clear trace if this action is not greedy (a full trace drops its oldest entry when this one is added)
+        if (!selection.actionIsGreedy)
         {
-        	tracingStack.clear();
+        	trace.clear();
         }
-        // in either case, can now add this state-action to the trace stack
-        tracingStack.add( new StateActionIndexPair(state, returnAction ) );
+        // in either case, can now add this state-action to the trace
+        trace.add(state, action);
         if (debugging)
         {
         	for (int i=0; i<numActions; i++)
@@ -394,28 +515,27 @@ public class SatisficingMOMIAgent implements AgentInterface {
   	  	temperature *= temperatureDecayRatio;
         if (!policyFrozen) {
             double currentLambda = lambda;
-            for (int i = tracingStack.size() - 1; i >= 0; i--) {
-                StateActionIndexPair pair = tracingStack.get(i);
-
-                int prevAction = pair.getAction().getInt(0);
-                int prevState = pair.getState();
+            for (int i = 0; i < trace.size(); i++) {
+                int prevAction = trace.getAction(i);
+                int prevState = trace.getState(i);
 
-                if (i + 1 == tracingStack.size()) 
+                if (i == 0) 
                 {
-                    vf.calculateTerminalErrors(prevAction, prevState, gamma, reward);
-                    vf.update(prevAction, prevState, 1.0, alpha);
+                    vf.calculateTerminalErrorsAndUpdate(prevAction, prevState, reward, alpha);
                 } 
                 else 
                 {
                 	// if there is no more recent entry for this state-action pair then update it
                 	// this is to implement replacing rather than accumulating traces
-                    int index = tracingStack.indexOf(pair, i + 1);
-                    if (index == -1) {
+                    if (trace.isLatest(i)) {
                         vf.update(prevAction, prevState, currentLambda, alpha);
                     }
                     currentLambda *= lambda;
                 }
             }
+            if (checkpointer != null) {
+                checkpointer.episodeEnded(vf, numEpisodes);
+            }
         }
         
         //DEBUGGING STUFF
@@ -436,47 +556,112 @@ public class SatisficingMOMIAgent implements AgentInterface {
         }
     }
 
+    // Batched equivalents of agent_start/agent_step/agent_end, for running the frozen policy on K independent copies
+    // of an environment in lockstep (e.g. env.VectorisedLivingRoomWithTableAndCat). Observations are the
+    // environment's state indices, and copy k's action is written to actions[k]. Each copy keeps its own accumulated
+    // rewards, and its action is chosen exactly as agent_step chooses it when learning is frozen - a batch of one
+    // gives the same episode as the unbatched calls. With more copies the random tie-breaks are shared out between
+    // them in a different order, so single episodes differ but their distribution doesn't. Learning and apology both
+    // work on a single episode's trace and conscience, so only the frozen, non-apologetic policy can be batched.
+    public void agent_start_batch(int observations[], int actions[])
+    {
+        if (!policyFrozen || isApologetic)
+        {
+            throw new IllegalStateException("SatisficingMOMIAgent - batched episodes need frozen learning and apology off");
+        }
+        int numCopies = observations.length;
+        if (batchEnded == null || batchEnded.length != numCopies)
+        {
+            batchPrimaryReward = new double[numCopies];
+            batchImpact1 = new double[numCopies];
+            batchImpact2 = new double[numCopies];
+            batchEnded = new boolean[numCopies];
+        }
+        numOfSteps = 0;
+        for (int k = 0; k < numCopies; k++)
+        {
+            numEpisodes++;
+            batchPrimaryReward[k] = 0.0;
+            batchImpact1[k] = 0.0;
+            batchImpact2[k] = 0.0;
+            batchEnded[k] = false;
+            vf.setAccumulatedReward(0.0);
+            vf.setAccumulatedImpact1(0.0);
+            vf.setAccumulatedImpact2(0.0);
+            actions[k] = ((ActionSelector)vf).chooseGreedyAction(getAugmentedStateIndex(observations[k], 0.0));
+        }
+    }
+
+    // Copies flagged terminal are ended (as agent_end) the first time they're seen, and ignored after that.
+    // rewards is indexed [objective][copy].
+    public void agent_step_batch(double rewards[][], int observations[], boolean terminal[], int actions[])
+    {
+        numOfSteps++;
+        for (int k = 0; k < batchEnded.length; k++)
+        {
+            if (batchEnded[k])
+            {
+                continue;
+            }
+            if (terminal[k])
+            {
+                batchEnded[k] = true;
+                epsilon -= epsilonLinearDecay;
+                temperature *= temperatureDecayRatio;
+                continue;
+            }
+            batchPrimaryReward[k] += rewards[0][k];
+            batchImpact1[k] += rewards[1][k];
+            batchImpact2[k] += rewards[2][k];
+            // set the table's accumulators as agent_step does, so each copy sees what a single episode would
+            vf.setAccumulatedReward(batchPrimaryReward[k]);
+            vf.setAccumulatedImpact1(batchImpact1[k]);
+            vf.setAccumulatedImpact2(batchImpact2[k]);
+            int state = getAugmentedStateIndex(observations[k], batchPrimaryReward[k]);
+            ((ActionSelector)vf).selectAction(temperature, state, false, selection);
+            actions[k] = selection.action;
+        }
+    }
+
     @Override
     public void agent_cleanup() {
+        if (checkpointer != null) {
+            checkpointer.close();
+            checkpointer = null;
+        }
         vf = null;
         policyFrozen = false;
     }
     
-    private int getAction(int state) {
-        ActionSelector valueFunction = (ActionSelector) vf;
-        int action;
-        if (!policyFrozen)
-        {
-        	switch (explorationStrategy)
-        	{
-	        	case TLO_LookupTable.EGREEDY: 
-	        		action = valueFunction.choosePossiblyExploratoryAction(epsilon, state); 
-	        		break;
-	        	case TLO_LookupTable.SOFTMAX_TOURNAMENT: 
-	        	case TLO_LookupTable.SOFTMAX_ADDITIVE_EPSILON : 
-	        		action = valueFunction.choosePossiblyExploratoryAction(temperature, state);
-	        		break;
-	        	default:
-	        		action = -1; // this should never happen - if it does we'll return an invalid value to force the program to halt
-        	}
-        } 
-        else 
-        {
-        	action = valueFunction.chooseGreedyAction(state);
+    private ValueFunctionCheckpointer newCheckpointer() {
+        ValueFunctionCheckpointer c = new ValueFunctionCheckpointer(TrialOutput.path("Checkpoint_T" + numTrial),
+                checkpointEpisodes, checkpointSeconds, checkpointGenerations);
+        c.setCompress(COMPRESS_SAVED_VF);
+        c.setIncremental(checkpointDeltas);
+        return c;
+    }
+
+    // start checkpointing the current trial, if it's on, finishing off any checkpoint of the last one first. The
+    // Q-values move into copy-on-write storage, so taking a checkpoint doesn't copy them all.
+    private void restartCheckpointing() {
+        if (checkpointer != null) {
+            checkpointer.close();
+            checkpointer = null;
+        }
+        if (checkpointEpisodes > 0 || checkpointSeconds > 0) {
+            vf.changeLayout(QValueStorage.COPY_ON_WRITE);
+            checkpointer = newCheckpointer();
         }
+    }
+
+    // Choose the action for this state - exploring unless learning is frozen - into selection, which also says
+    // whether it's greedy
+    private void selectAction(int state) {
+        double parameter = explorationStrategy == TLO_LookupTable.EGREEDY ? epsilon : temperature;
+        ((ActionSelector) vf).selectAction(parameter, state, !policyFrozen, selection);
         
         //DEBUGGING STUFF
-        saVisits[state][action]++;
-        
-        return action;
-    }
-    
-    // returns true if the specified action is amongst the greedy actions for the 
-    // specified state, false otherwise
-    private boolean isGreedy(int state, int action)
-    {
-        ActionSelector valueFunction = (ActionSelector) vf;
-        return valueFunction.isGreedy(state,action);  	
+        saVisits[state][selection.action]++;
     }
 
     private void refreshThresholds() {
@@ -621,7 +806,7 @@ public class SatisficingMOMIAgent implements AgentInterface {
             vfSaved = true;
 //            if (!vfSaved) {
                 vf.saveValueFunction(
-                        "ValueFunction_T" + parts[1] + "_I" + parts[2] + ".txt");
+                        TrialOutput.path("ValueFunction_T" + parts[1] + "_I" + parts[2] + ".txt"));
 //                vfSaved = true;
 //            }
             System.out.println("Value Function has been saved");
@@ -632,27 +817,71 @@ public class SatisficingMOMIAgent implements AgentInterface {
 //            specs = Integer.valueOf(parts[1]).intValue();
 //            if (!vfSaved) {
             vf.loadValueFunction(
-                    "ValueFunction_T" + parts[1] + "_I" + parts[2] + ".txt");
+                    TrialOutput.inputPath("ValueFunction_T" + parts[1] + "_I" + parts[2] + ".txt"));
             policyFrozen = true;
 //                vfSaved = true;
 //            }
             System.out.println("Value Function has been loaded with learning paused");
             return "message understood, vf loaded";
         }
-        if (message.startsWith("average_vf:")) {
+        if (message.startsWith("set_checkpointing:")) {
+            // set_checkpointing:<episodes>:<seconds>:<generations>[:<deltas>] - 0 episodes and 0 seconds turns it off
             String[] parts = message.split(":");
+            checkpointEpisodes = Integer.parseInt(parts[1]);
+            checkpointSeconds = Double.parseDouble(parts[2]);
+            checkpointGenerations = Integer.parseInt(parts[3]);
+            if (parts.length > 4) {
+                checkpointDeltas = Integer.parseInt(parts[4]);
+            }
+            restartCheckpointing();
+            return "message understood, checkpointing " + (checkpointer == null ? "off" : "on");
+        }
+        if (message.equals("checkpoint_vf")) {
+            // save_vf without holding up learning
+            if (checkpointer == null) {
+                return "checkpointing is off";
+            }
+            checkpointer.checkpoint(vf, numEpisodes);
+            return "message understood, checkpoint started";
+        }
+        if (message.equals("resume_checkpoint")) {
+            // carry on the current trial from its latest checkpoint, with exploration decayed as it was then
+            ValueFunctionCheckpointer resumer = checkpointer != null ? checkpointer : newCheckpointer();
+            int episode = resumer.resume(vf);
+            if (resumer != checkpointer) {
+                resumer.close();
+            }
+            if (episode < 0) {
+                System.err.println("No checkpoint to resume trial " + numTrial + " from");
+                return "message understood, no checkpoint to resume from";
+            }
+            numEpisodes = episode;
+            epsilon = startingEpsilon - episode * epsilonLinearDecay;
+            temperature = startingTemperature * Math.pow(temperatureDecayRatio, episode);
+            System.out.println("Resumed trial " + numTrial + " from its checkpoint after episode " + episode);
+            return "message understood, resumed from episode " + episode;
+        }
+        if (message.startsWith("average_vf:")) {
+            // average_vf:<trial> averages every ValueFunction_T<trial>_I*.txt saved for the trial;
+            // average_vf:<trial>:<files> averages the given comma-separated files or globs instead
+            String[] parts = message.split(":", 3);
             String trialNum = parts[1];
-
-            String[] vfList = {
-                    "ValueFunction_T" + trialNum + "_I0.txt",
-                    "ValueFunction_T" + trialNum + "_I1.txt",
-                    "ValueFunction_T" + trialNum + "_I2.txt",
-                    "ValueFunction_T" + trialNum + "_I3.txt",
-                    "ValueFunction_T" + trialNum + "_I4.txt",
-                    "ValueFunction_T" + trialNum + "_I5.txt",
-                    "ValueFunction_T" + trialNum + "_I6.txt",
-                    "ValueFunction_T" + trialNum + "_I7.txt"};
-
+            String[] patterns = parts.length > 2 ? parts[2].split(",")
+                    : new String[]{"ValueFunction_T" + trialNum + "_I*.txt"};
+            for (int i = 0; i < patterns.length; i++) {
+                patterns[i] = TrialOutput.inputPath(patterns[i]);
+            }
+            String[] vfList;
+            try {
+                List<File> files = ValueFunctionAverager.expand(patterns);
+                vfList = new String[files.size()];
+                for (int i = 0; i < vfList.length; i++) {
+                    vfList[i] = files.get(i).getPath();
+                }
+            } catch (IOException ex) {
+                System.err.println("Problem finding value functions to average :: " + ex.getMessage());
+                return "message understood, no value functions to aggregate";
+            }
 
 //            specs = Integer.valueOf(parts[1]).intValue();
 //            if (!vfSaved) {
@@ -756,10 +985,27 @@ public class SatisficingMOMIAgent implements AgentInterface {
         else if (message.startsWith("start_new_trial:")){
             String[] parts = message.split(":");
             numTrial = Integer.valueOf(parts[1]);
+            // follow the experiment's trial number rather than counting trials, so an agent created afresh for
+            // trial N (e.g. by the TrialScheduler) still writes ThresholdsOutput_TN
+            thisTrial = numTrial;
+            // seed exploration from the trial number, and start with a fresh conscience, so a trial gives the same
+            // results whether or not it runs after other trials in the same agent
+            vf.reseed(seed, numTrial);
+            random = SplitMix.derive(seed, "trial", numTrial, "agent");
+            conscienceInit = false;
         	resetForNewTrial();
+            restartCheckpointing();
             System.out.println("New trial started: Q-values and other variables reset");
             return "New trial started: Q-values and other variables reset";
         }
+        else if (message.startsWith("set_seed:")){
+            // derive every random number stream from this experiment seed, starting with the current trial's
+            seed = Randoms.parseSeed(message);
+            int trial = Math.max(numTrial, 0);
+            vf.reseed(seed, trial);
+            random = SplitMix.derive(seed, "trial", trial, "agent");
+            return "Seed set: " + seed;
+        }
         else if (message.equals("start-debugging"))
     	{
     		debugging = true;
@@ -813,7 +1059,7 @@ public class SatisficingMOMIAgent implements AgentInterface {
 
     public void printToFile(String str) {
         try {
-            FileWriter myWriter = new FileWriter("AdditionalConsoleOutput.txt", true);
+            FileWriter myWriter = new FileWriter(TrialOutput.fileName("AdditionalConsoleOutput.txt"), true);
             myWriter.write(str + System.lineSeparator());
             myWriter.close();
 //            System.out.println("Successfully wrote to the file.");
@@ -825,7 +1071,7 @@ public class SatisficingMOMIAgent implements AgentInterface {
 
     public void printSimpleOutput(String ep, String reason, String justification) {
         try {
-            FileWriter myWriter = new FileWriter("SimpleOutput.txt", true);
+            FileWriter myWriter = new FileWriter(TrialOutput.fileName("SimpleOutput.txt"), true);
             myWriter.write(ep + "," + reason + "," + justification + System.lineSeparator());
             myWriter.close();
 //            System.out.println("Successfully wrote to the file.");
@@ -837,7 +1083,7 @@ public class SatisficingMOMIAgent implements AgentInterface {
 
     public void printThresholds(int episodeNum, double [] thresholds) {
         try {
-            FileWriter myWriter = new FileWriter("ThresholdsOutput_T"+ thisTrial +".txt", true);
+            FileWriter myWriter = new FileWriter(TrialOutput.path("ThresholdsOutput_T"+ thisTrial +".txt"), true);
             myWriter.write(episodeNum +", "
                     + thresholds[0] +", "
                     + thresholds[1] +", "
@@ -2,7 +2,6 @@
 package agents.notInUse;
 
 import java.util.Random;
-import java.util.Stack;
 
 import org.rlcommunity.rlglue.codec.AgentInterface;
 import org.rlcommunity.rlglue.codec.taskspec.TaskSpecVRLGLUE3;
@@ -13,7 +12,7 @@ import org.rlcommunity.rlglue.codec.util.AgentLoader;
 
 import tools.staterep.DummyStateConverter;
 import tools.staterep.interfaces.StateConverter;
-import tools.traces.StateActionDiscrete;
+import tools.traces.ReplacingTrace;
 import tools.valuefunction.TLO_LookupTable;
 import tools.valuefunction.interfaces.ActionSelector;
 
@@ -21,7 +20,7 @@ import tools.valuefunction.interfaces.ActionSelector;
 public class TLO_Agent implements AgentInterface {
 
     TLO_LookupTable vf = null;
-    Stack<StateActionDiscrete> tracingStack = null;
+    ReplacingTrace trace = null;
 
     private boolean clearTraces; 
     public static final boolean WATKINS = true; // use Watkin's traces (clear on non-greedy actions)
@@ -77,11 +76,10 @@ public class TLO_Agent implements AgentInterface {
         vf = new TLO_LookupTable( numOfObjectives, numActions, numStates, 0, thresholds);
 
         random = new Random(471);
-        tracingStack = new Stack<>();
+        trace = new ReplacingTrace(MAX_STACK_SIZE, numActions);
 
         //set the model of converting MDP observation to an int state representation
         stateConverter = new DummyStateConverter();
-        StateActionDiscrete.setStateConverter( stateConverter );
         resetForNewTrial();
 
     }
@@ -103,13 +101,13 @@ public class TLO_Agent implements AgentInterface {
     	//System.out.println("Starting episode " + numEpisodes + " Temperature = " + temperature);
     	if (fubar) System.out.println();
     	numOfSteps = 0;
-        tracingStack.clear();
+        trace.clear();
         int state = stateConverter.getStateNumber( observation );
         int action = getAction(state);
 
         Action returnAction = new Action(1, 0, 0);
         returnAction.intArray[0] = action;
-        tracingStack.add(new StateActionDiscrete(observation, returnAction)); // put executed action on the stack
+        trace.add(state, action); // put executed action on the trace
         lastState = state;
         stateRepetitionCounter = 0;
         return returnAction;
@@ -127,13 +125,11 @@ public class TLO_Agent implements AgentInterface {
 
         if (!policyFrozen) {
             double currentLambda = lambda;
-            for (int i = tracingStack.size() - 1; i >= 0; i--) {
-                StateActionDiscrete pair = tracingStack.get(i);
+            for (int i = 0; i < trace.size(); i++) {
+                int prevAction = trace.getAction(i);
+                int prevState = trace.getState(i);
 
-                int prevAction = pair.getAction().getInt(0);
-                int prevState = stateConverter.getStateNumber(pair.getObservation());
-
-                if (i + 1 == tracingStack.size()) // this is the most recent action
+                if (i == 0) // this is the most recent action
                 {
                     vf.calculateErrors(prevAction, prevState, greedyAction, state, gamma, reward);
                     vf.update(prevAction, prevState, 1.0, alpha);
@@ -141,8 +137,7 @@ public class TLO_Agent implements AgentInterface {
                 else {
                 	// if there is no more recent entry for this state-action pair then update it
                 	// this is to implement replacing rather than accumulating traces
-                    int index = tracingStack.indexOf(pair, i + 1);
-                    if (index == -1) {
+                    if (trace.isLatest(i)) {
                         vf.update(prevAction, prevState, currentLambda, alpha);
                     }
                     currentLambda *= lambda;
@@ -155,20 +150,13 @@ public class TLO_Agent implements AgentInterface {
 
         Action returnAction = new Action(1, 0, 0);
         returnAction.intArray[0] = action;
-        // clear trace if this action is not greedy and we are using Watkin's approach to traces, otherwise trim stack if neccesary
+        // clear trace if this action is not greedy and we are using Watkin's approach to traces (a full trace drops its oldest entry when this one is added)
         if (clearTraces && !isGreedy(state,action))
         {
-        	tracingStack.clear();
-        }
-        else
-        {
-	        if( tracingStack.size() == MAX_STACK_SIZE ) 
-	        {
-	            tracingStack.remove(0);
-	        }
+        	trace.clear();
         }
-        // in either case, can now add this state-action to the trace stack
-        tracingStack.add( new StateActionDiscrete(observation, returnAction ) );
+        // in either case, can now add this state-action to the trace
+        trace.add(state, action);
 
         return returnAction;
     }
@@ -183,13 +171,11 @@ public class TLO_Agent implements AgentInterface {
   	  	temperature *= temperatureDecayRatio;
         if (!policyFrozen) {
             double currentLambda = lambda;
-            for (int i = tracingStack.size() - 1; i >= 0; i--) {
-                StateActionDiscrete pair = tracingStack.get(i);
-
-                int prevAction = pair.getAction().getInt(0);
-                int prevState = stateConverter.getStateNumber(pair.getObservation());
+            for (int i = 0; i < trace.size(); i++) {
+                int prevAction = trace.getAction(i);
+                int prevState = trace.getState(i);
 
-                if (i + 1 == tracingStack.size()) 
+                if (i == 0) 
                 {
                     vf.calculateTerminalErrors(prevAction, prevState, gamma, reward);
                     vf.update(prevAction, prevState, 1.0, alpha);
@@ -198,8 +184,7 @@ public class TLO_Agent implements AgentInterface {
                 {
                 	// if there is no more recent entry for this state-action pair then update it
                 	// this is to implement replacing rather than accumulating traces
-                    int index = tracingStack.indexOf(pair, i + 1);
-                    if (index == -1) {
+                    if (trace.isLatest(i)) {
                         vf.update(prevAction, prevState, currentLambda, alpha);
                     }
                     currentLambda *= lambda;
@@ -6,7 +6,6 @@
 package agents.notInUse;
 
 import java.util.Random;
-import java.util.Stack;
 
 import org.rlcommunity.rlglue.codec.AgentInterface;
 import org.rlcommunity.rlglue.codec.taskspec.TaskSpecVRLGLUE3;
@@ -17,7 +16,7 @@ import org.rlcommunity.rlglue.codec.util.AgentLoader;
 
 import tools.staterep.DummyStateConverter;
 import tools.staterep.interfaces.StateConverter;
-import tools.traces.StateActionIndexPair;
+import tools.traces.ReplacingTrace;
 import tools.valuefunction.TLOConditionedLookupTable;
 import tools.valuefunction.TLO_LookupTable;
 import tools.valuefunction.interfaces.ActionSelector;
@@ -41,7 +40,7 @@ public class TLO_Agent_Conditioned_On_Expected_Rewards implements AgentInterface
     int lastState, lastAction; // the most recent environmental state and last action - needed for updating the immediate reward estimates
     
 	TLOConditionedLookupTable vf = null;
-    Stack<StateActionIndexPair> tracingStack = null;
+    ReplacingTrace trace = null;
 
     private boolean policyFrozen = false;
     private boolean debugging = false;
@@ -105,7 +104,7 @@ public class TLO_Agent_Conditioned_On_Expected_Rewards implements AgentInterface
         // first trial is started
 
         random = new Random(471);
-        tracingStack = new Stack<>();
+        trace = new ReplacingTrace(MAX_STACK_SIZE, numActions);
 
         //set the model of converting MDP observation to an int state representation
         stateConverter = new DummyStateConverter();
@@ -148,7 +147,7 @@ public class TLO_Agent_Conditioned_On_Expected_Rewards implements AgentInterface
         	accumulatedRewards[i]=0;
         }
         vf.setConditioningValues(accumulatedRewards);
-        tracingStack.clear();
+        trace.clear();
         
         //DEBUGGING STUFF
         for (int s=0; s<numStates; s++)
@@ -194,7 +193,7 @@ public class TLO_Agent_Conditioned_On_Expected_Rewards implements AgentInterface
 
         Action returnAction = new Action(1, 0, 0);
         returnAction.intArray[0] = action;
-        tracingStack.add(new StateActionIndexPair(state, returnAction)); // put executed action on the stack
+        trace.add(state, action); // put executed action on the trace
     	if (debugging)
     	{
         	for (int i=0; i<numActions; i++)
@@ -246,13 +245,11 @@ public class TLO_Agent_Conditioned_On_Expected_Rewards implements AgentInterface
 
         if (!policyFrozen) {
             double currentLambda = lambda;
-            for (int i = tracingStack.size() - 1; i >= 0; i--) {
-                StateActionIndexPair pair = tracingStack.get(i);
+            for (int i = 0; i < trace.size(); i++) {
+                int prevAction = trace.getAction(i);
+                int prevState = trace.getState(i);
 
-                int prevAction = pair.getAction().getInt(0);
-                int prevState = pair.getState();
-
-                if (i + 1 == tracingStack.size()) // this is the most recent action
+                if (i == 0) // this is the most recent action
                 {
                     vf.calculateErrors(prevAction, prevState, greedyAction, state, gamma, reward);
                     vf.update(prevAction, prevState, 1.0, alpha);
@@ -260,8 +257,7 @@ public class TLO_Agent_Conditioned_On_Expected_Rewards implements AgentInterface
                 else {
                 	// if there is no more recent entry for this state-action pair then update it
                 	// this is to implement replacing rather than accumulating traces
-                    int index = tracingStack.indexOf(pair, i + 1);
-                    if (index == -1) {
+                    if (trace.isLatest(i)) {
                         vf.update(prevAction, prevState, currentLambda, alpha);
                     }
                     currentLambda *= lambda;
@@ -274,20 +270,13 @@ public class TLO_Agent_Conditioned_On_Expected_Rewards implements AgentInterface
 
         Action returnAction = new Action(1, 0, 0);
         returnAction.intArray[0] = action;
-        // clear trace if this action is not greedy, otherwise trim stack if neccesary
-        if (isGreedy(state,action))
-        {
-	        if( tracingStack.size() == MAX_STACK_SIZE ) 
-	        {
-	            tracingStack.remove(0);
-	        }
-        }
-        else
+        // clear trace if this action is not greedy (a full trace drops its oldest entry when this one is added)
+        if (!isGreedy(state,action))
         {
-        	tracingStack.clear();
+        	trace.clear();
         }
-        // in either case, can now add this state-action to the trace stack
-        tracingStack.add( new StateActionIndexPair(state, returnAction ) );
+        // in either case, can now add this state-action to the trace
+        trace.add(state, action);
         if (debugging)
         {
         	for (int i=0; i<numActions; i++)
@@ -330,13 +319,11 @@ public class TLO_Agent_Conditioned_On_Expected_Rewards implements AgentInterface
   	  	alpha -= alphaDecay;
         if (!policyFrozen) {
             double currentLambda = lambda;
-            for (int i = tracingStack.size() - 1; i >= 0; i--) {
-                StateActionIndexPair pair = tracingStack.get(i);
-
-                int prevAction = pair.getAction().getInt(0);
-                int prevState = pair.getState();
+            for (int i = 0; i < trace.size(); i++) {
+                int prevAction = trace.getAction(i);
+                int prevState = trace.getState(i);
 
-                if (i + 1 == tracingStack.size()) 
+                if (i == 0) 
                 {
                     vf.calculateTerminalErrors(prevAction, prevState, gamma, reward);
                     vf.update(prevAction, prevState, 1.0, alpha);
@@ -345,8 +332,7 @@ public class TLO_Agent_Conditioned_On_Expected_Rewards implements AgentInterface
                 {
                 	// if there is no more recent entry for this state-action pair then update it
                 	// this is to implement replacing rather than accumulating traces
-                    int index = tracingStack.indexOf(pair, i + 1);
-                    if (index == -1) {
+                    if (trace.isLatest(i)) {
                         vf.update(prevAction, prevState, currentLambda, alpha);
                     }
                     currentLambda *= lambda;
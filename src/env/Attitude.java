@@ -1,23 +1,47 @@
 package env;
 
+// The attitude and justification most recently shown by the actor watching the agent. The actor in the environment
+// sets these and the agent's conscience reads them.
+// By default there is a single shared attitude, which is what the agent and environment threads use when talking
+// through the glue server. A thread running a whole trial in-process can instead call beginScope() to get an
+// attitude of its own, so that several trials can run side by side without seeing each other's actors.
 public final class Attitude {
 
-    private static int attitude = 0;
-    private static int justification = -1;
+    private static final Attitude shared = new Attitude();
+    private static final ThreadLocal<Attitude> scoped = new ThreadLocal<>();
+
+    private int attitude = 0;
+    private int justification = -1;
+
+    private Attitude() {
+    }
+
+    private static Attitude current() {
+        Attitude a = scoped.get();
+        return a == null ? shared : a;
+    }
+
+    public static void beginScope() {
+        scoped.set(new Attitude());
+    }
+
+    public static void endScope() {
+        scoped.remove();
+    }
 
     public static int getAttitude() {
-        return attitude;
+        return current().attitude;
     }
 
     public static void setAttitude(int attitude) {
-        Attitude.attitude = attitude;
+        current().attitude = attitude;
     }
 
     public static int getJustification() {
-        return justification;
+        return current().justification;
     }
 
     public static void setJustification(int justification) {
-        Attitude.justification = justification;
+        current().justification = justification;
     }
 }
@@ -8,6 +8,9 @@ import java.io.FileWriter;
 import java.io.IOException;
 import java.util.Random;
 import env.Attitude;
+import tools.random.Randoms;
+import tools.random.SplitMix;
+import tools.trials.TrialOutput;
 
 public class ConfigurableActor implements ActorInterface{
 
@@ -37,11 +40,16 @@ public class ConfigurableActor implements ActorInterface{
     private double persistence;
 
     public ConfigurableActor(String type){
+        this(type, SplitMix.derive(Randoms.DEFAULT_SEED, "trial", 0, "actor"));
+    }
+
+    // an actor which draws its reactions from the given random number stream
+    public ConfigurableActor(String type, Random random){
         setAttitude(0, -1);  // neutral attitude
         justification = -1; // neutral justification
         agentType = type;
         episode = -1;
-        random = new Random(578);
+        this.random = random;
         System.out.println("Initiating Actor: " + type);
         persistence = 1;
 
@@ -82,6 +90,29 @@ public class ConfigurableActor implements ActorInterface{
 
     }
 
+    // a copy of another actor part way through a run, with its own copy of the random number stream. The shared
+    // Attitude isn't touched, as the copy may be for another thread - it's set again at the start of each episode.
+    private ConfigurableActor(ConfigurableActor other) {
+        attitude = other.attitude;
+        justification = other.justification;
+        agentType = other.agentType;
+        random = Randoms.copy(other.random);
+        episode = other.episode;
+        step = other.step;
+        storedJust = other.storedJust;
+        sensitivity = other.sensitivity.clone();
+        persistence = other.persistence;
+    }
+
+    public ConfigurableActor copy() {
+        return new ConfigurableActor(this);
+    }
+
+    // switch to another random number stream, e.g. one derived from a new experiment seed
+    public void setRandom(Random random) {
+        this.random = random;
+    }
+
     public void cleanUp() {
         setAttitude(0, -1);
         justification = -1; // neutral justification
@@ -203,7 +234,7 @@ public class ConfigurableActor implements ActorInterface{
 
     public void printFourToFile(String ep, String step, String attitude, String justification) {
         try {
-            FileWriter myWriter = new FileWriter("WatcherOutput.txt", true);
+            FileWriter myWriter = new FileWriter(TrialOutput.fileName("WatcherOutput.txt"), true);
             myWriter.write(ep + ", " + step + ", "  + attitude + ", " + justification + System.lineSeparator());
             myWriter.close();
 //            System.out.println("Successfully wrote to the file.");
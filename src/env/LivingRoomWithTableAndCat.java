@@ -39,6 +39,7 @@ import org.rlcommunity.rlglue.codec.types.Reward_observation_terminal;
 import org.rlcommunity.rlglue.codec.util.EnvironmentLoader;
 import java.io.FileWriter;   // Import the FileWriter class
 import java.io.IOException;  // Import the IOException class to handle errors
+import tools.trials.TrialOutput;
 
 
 public class LivingRoomWithTableAndCat implements EnvironmentInterface
@@ -402,7 +403,7 @@ public class LivingRoomWithTableAndCat implements EnvironmentInterface
 
     public void printToFile(String str) {
         try {
-            FileWriter myWriter = new FileWriter("AdditionalConsoleOutput.txt", true);
+            FileWriter myWriter = new FileWriter(TrialOutput.fileName("AdditionalConsoleOutput.txt"), true);
             myWriter.write(str + System.lineSeparator());
             myWriter.close();
 //            System.out.println("Successfully wrote to the file.");
@@ -40,9 +40,14 @@ import org.rlcommunity.rlglue.codec.util.EnvironmentLoader;
 
 import java.io.FileWriter;
 import java.io.IOException;
+import java.util.Random;
+import tools.glue.Copyable;
+import tools.random.Randoms;
+import tools.random.SplitMix;
+import tools.trials.TrialOutput;
 
 
-public class WatchedLivingRoomWithTableAndCat implements EnvironmentInterface
+public class WatchedLivingRoomWithTableAndCat implements EnvironmentInterface, Copyable<WatchedLivingRoomWithTableAndCat>
 {
     // define the structure of
     // the environment - 16 cells laid out as below
@@ -133,6 +138,9 @@ public class WatchedLivingRoomWithTableAndCat implements EnvironmentInterface
     public ConfigurableActor watcher;
     private boolean[] watchedStates;
 
+    // the experiment seed the watcher's random number streams are derived from, set by a set_seed: message
+    private long seed = Randoms.DEFAULT_SEED;
+
     // Implemented for use in debugging the TLO-PA agent. Lets me generate the state index for a given state so I can
     // look it up in the agent's Q-table
 //    private void printStateIndex(int agent, int table, int rubbishInHand, int rubbishOnFloor)
@@ -145,6 +153,33 @@ public class WatchedLivingRoomWithTableAndCat implements EnvironmentInterface
 //                +"\t" + getState());
 //    }
 
+    public WatchedLivingRoomWithTableAndCat()
+    {
+    }
+
+    // a copy of another environment part way through a run, watcher included, for LocalMOGlue.fork()
+    private WatchedLivingRoomWithTableAndCat(WatchedLivingRoomWithTableAndCat other)
+    {
+        agentLocation = other.agentLocation;
+        tableLocation = other.tableLocation;
+        carriedRubbish = other.carriedRubbish;
+        catTailRunOver = other.catTailRunOver;
+        rewards = other.rewards.duplicate();
+        terminal = other.terminal;
+        debugging = other.debugging;
+        reporting = other.reporting;
+        numEpisode = other.numEpisode;
+        numTrial = other.numTrial;
+        seed = other.seed;
+        watcher = other.watcher == null ? null : other.watcher.copy();
+        watchedStates = other.watchedStates == null ? null : other.watchedStates.clone();
+    }
+
+    public WatchedLivingRoomWithTableAndCat copy()
+    {
+        return new WatchedLivingRoomWithTableAndCat(this);
+    }
+
     public String env_init()
     {
         //initialize the problem - starting position is always at the home location
@@ -182,7 +217,7 @@ public class WatchedLivingRoomWithTableAndCat implements EnvironmentInterface
         String taskSpecString = theTaskSpecObject.toTaskSpec();
         TaskSpec.checkTaskSpec(taskSpecString);
         String[] actorTypes = new String[]{"IndifferentIra", "TidyToni", "QuietQuinn", "SensitiveSami"};
-        this.watcher = new ConfigurableActor("TidyToni"); // IndifferentIra, TidyToni, QuietQuinn, SensitiveSami
+        this.watcher = newWatcher("TidyToni"); // IndifferentIra, TidyToni, QuietQuinn, SensitiveSami
 
         return taskSpecString;
     }
@@ -245,10 +280,23 @@ public class WatchedLivingRoomWithTableAndCat implements EnvironmentInterface
     private void resetForNewTrial()
     {
         numEpisode = 0;
+        // a new actor for each trial, so its mood and random stream don't carry over from the previous trial
+        watcher = newWatcher(watcher.agentType);
         printToFile("Environment reset for new Trial:" + numTrial);
 
     }
 
+    // the watcher's random number stream for the current trial
+    private Random getActorRandom()
+    {
+        return SplitMix.derive(seed, "trial", numTrial, "actor");
+    }
+
+    private ConfigurableActor newWatcher(String type)
+    {
+        return new ConfigurableActor(type, getActorRandom());
+    }
+
     public void updateWatchedStates(){
         this.watchedStates[0] = (tableLocation == TABLE_START);
         this.watchedStates[1] = (catTailRunOver == 0);
@@ -277,6 +325,17 @@ public class WatchedLivingRoomWithTableAndCat implements EnvironmentInterface
             debugging = false;
             return "Debugging disabled in envt";
         }
+        else if (message.startsWith("set_actor:")){
+            // replace the watching actor with one of another type, e.g. set_actor:QuietQuinn
+            watcher = newWatcher(message.substring("set_actor:".length()));
+            return "Actor set: " + watcher.agentType;
+        }
+        else if (message.startsWith("set_seed:")){
+            // derive the watcher's random numbers from this experiment seed from now on
+            seed = Randoms.parseSeed(message);
+            watcher.setRandom(getActorRandom());
+            return "Seed set: " + seed;
+        }
         else if (message.startsWith("start_new_trial:")){
             String[] parts = message.split(":");
             numTrial = Integer.valueOf(parts[1]);
@@ -447,7 +506,7 @@ public class WatchedLivingRoomWithTableAndCat implements EnvironmentInterface
 
     public void printToFile(String str) {
         try {
-            FileWriter myWriter = new FileWriter("AdditionalConsoleOutput.txt", true);
+            FileWriter myWriter = new FileWriter(TrialOutput.fileName("AdditionalConsoleOutput.txt"), true);
             myWriter.write(str + System.lineSeparator());
             myWriter.close();
 //            System.out.println("Successfully wrote to the file.");
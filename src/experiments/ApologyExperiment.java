@@ -3,17 +3,24 @@
 
 package experiments;
 
-import org.rlcommunity.rlglue.codec.RLGlue;
+import org.rlcommunity.rlglue.codec.RLGlueInterface;
 import org.rlcommunity.rlglue.codec.taskspec.TaskSpecVRLGLUE3;
-import org.rlcommunity.rlglue.codec.types.Reward;
+import tools.glue.MOGlue;
+import tools.spreadsheet.BufferedExcelWriter;
 import tools.spreadsheet.ExcelWriter;
 import tools.spreadsheet.JxlExcelWriter;
+import tools.trials.TrialOutput;
 import tools.valuefunction.TLO_LookupTable;
+import tools.valuefunction.ValueFunctionStatistics;
+import tools.valuefunction.storage.QValueFile;
+import tools.valuefunction.storage.ValueFunctionAverager;
 
 import java.io.File;
 import java.io.FileWriter;
 import java.io.IOException;
+import java.io.PrintStream;
 import java.sql.Timestamp;
+import java.util.List;
 
 public class ApologyExperiment
 {
@@ -37,6 +44,8 @@ public class ApologyExperiment
     private final String ENVIRONMENT_PREFIX = "TableAndCat";
 
     private final boolean LOAD_VF = true;
+    private final String LOAD_VF_ID = "A8"; // the trials load ValueFunction_T<trial>_I<LOAD_VF_ID>.txt
+    private final boolean VF_STATISTICS = false; // summarise how the loaded value functions differ between trials
     private final int [] NUM_EPISODES_PER_SERIES = {10, 10, 10};//{4000, 10, 10, 10, 10, 10, 10, 10, 10};
     private final boolean [] SERIES_IS_ONLINE = {false, false, false};
     private final boolean [] SERIES_IS_APOLOGETIC = {false, true, false};
@@ -49,25 +58,45 @@ public class ApologyExperiment
     private ExcelWriter excel;
 
     // store the data for the most recent Reward. The strings indicates a value or label to be written in the first two columns
-    private void saveReward(String labels, Reward r)
+    private void saveReward(ExcelWriter excel, String labels, double[] r)
     {
-        excel.writeNextRowTextAndNumbers(labels, r.doubleArray);
-//        System.out.println("reward 1: " + r.doubleArray[0] + " 2: " + r.doubleArray[1] + " length = "+ r.doubleArray.length);
+        excel.writeNextRowTextAndNumbers(labels, r);
+//        System.out.println("reward 1: " + r[0] + " 2: " + r[1] + " length = "+ r.length);
     }
 
-    // Run One Episode of length maximum cutOff
-    private Reward runEpisode(int stepLimit) {
-        int terminal = RLGlue.RL_episode(stepLimit);
-        int totalSteps = RLGlue.RL_num_steps();
-        Reward totalReward = RLGlue.RL_return();
-        return totalReward;
+    // Run a series of episodes back to back, each of length maximum stepLimit, returning the [episode][objective]
+    // return of each one
+    private double[][] runSeries(RLGlueInterface glue, int numEpisodes, int stepLimit) {
+        return MOGlue.RL_series(glue, numEpisodes, stepLimit).getReturns();
+    }
+
+    // Send the agent its learning parameters - done once per agent, after RL_init
+    private void configure(RLGlueInterface glue) {
+        String agentMessageString = "set_learning_parameters" + " " + ALPHA + " " + LAMBDA + " " + GAMMA + " " + EXPLORATION;
+        glue.RL_agent_message(agentMessageString);
+        glue.RL_agent_message(PARAM_CHANGE_STRING + " " + EXPLORATION_PARAMETER + " " + EXPLORATION_DECAY_LENGTH);
     }
 
     public void runExperiment() {
+        runExperiment((TrialScheduler) null);
+    }
+
+    // With a scheduler, the trials run concurrently with an agent and environment each, and their sheets are
+    // merged into the workbook in trial order at the end. Without one they run in turn through RLGlue as before.
+    public void runExperiment(TrialScheduler scheduler) {
+        runExperiment(scheduler == null ? MOGlue.getGlue() : scheduler.newGlue(), scheduler);
+    }
+
+    // Run the trials in turn through the given glue, e.g. one session's glue when hosted by a SessionHost
+    public void runExperiment(RLGlueInterface glue) {
+        runExperiment(glue, null);
+    }
+
+    private void runExperiment(RLGlueInterface glue, TrialScheduler scheduler) {
 
         if (!(NUM_EPISODES_PER_SERIES.length == SERIES_IS_ONLINE.length)) {
-            System.out.println("ERROR!!! Experiment Series settings inconsistent lengths!");
-            System.exit(0); // shut down the experiment + hopefully everything else launched by the Driver program (server, agent, environment)
+            // throw rather than exit, so a misconfigured experiment doesn't take down everything else in the JVM
+            throw new IllegalStateException("ERROR!!! Experiment Series settings inconsistent lengths!");
         }
         int totalNumEpisodes = 0;
         for(int series : NUM_EPISODES_PER_SERIES) {
@@ -79,91 +108,38 @@ public class ApologyExperiment
         System.out.println("Begin experiment. Current Time Stamp: " + bts);
 
         // set up data structures to store reward history
-        String taskSpec = RLGlue.RL_init();
+        String taskSpec = glue.RL_init();
         TaskSpecVRLGLUE3 theTaskSpec = new TaskSpecVRLGLUE3(taskSpec);
         numObjectives = theTaskSpec.getNumOfObjectives();
 
         // configure agent, set up files etc
-        String agentMessageString = "set_learning_parameters" + " " + ALPHA + " " + LAMBDA + " " + GAMMA + " " + EXPLORATION;
-        RLGlue.RL_agent_message(agentMessageString);
-        String agentName = RLGlue.RL_agent_message("get_agent_name");
+        configure(glue);
+        String agentName = glue.RL_agent_message("get_agent_name");
         final String fileName = FILENAME_PREFIX+"-"+agentName+"-"+METHOD_PREFIX+EXPLORATION_PARAMETER+"-alpha"+ALPHA+"-lambda"+LAMBDA;
-        excel = new JxlExcelWriter(fileName);
-
+        excel = new JxlExcelWriter(TrialOutput.path(fileName));
 
-        RLGlue.RL_agent_message(PARAM_CHANGE_STRING + " " + EXPLORATION_PARAMETER + " " + EXPLORATION_DECAY_LENGTH);
         // run the trials
-        for (int trial=0; trial<NUM_TRIALS; trial++)
-        {
-            createFile("ThresholdsOutput_T" + trial +".txt");
-
-            printNewTrial(trial);
-            // start new excel sheet and include header row
-            excel.moveToNewSheet("Trial"+trial, trial);
-            excel.writeNextRowText(" &Episode number&R^P&R^A1&R^A2&R^*");
-            // run the trial and save the results to the spreadsheet
-            System.out.println("Trial " + trial);
-            RLGlue.RL_agent_message("start_new_trial:"+trial);
-            RLGlue.RL_env_message("start_new_trial:"+trial);
-            if(LOAD_VF) { RLGlue.RL_agent_message("load_vf:"+trial+":"+"A8"); }  // hardcoded to load A8 vfs
-//            if (AVERAGE_VF) { RLGlue.RL_agent_message("average_vf:"+trial); }
-
-            // Set the threshold used
-            RLGlue.RL_agent_message("update_threshold:" + INIT_THRESHOLD_INDEX);
-
-            // Iterate through to run the simulations
-            int episodeCounter = 0;
-            for (int seriesNum = 0; seriesNum<(NUM_EPISODES_PER_SERIES.length); seriesNum++) {
-                // set up labelling
-
-//                // if the first series is online, train a new vf from scratch, else load
-//                if (!NEW_VF) {
-//                    RLGlue.RL_agent_message("load_vf");        // load the value function
-//                }
-
-//                String lab;
-//                if (SERIES_IS_ONLINE[seriesNum]) {
-//                    lab = "Online" + seriesNum + "&";
-//                    RLGlue.RL_agent_message("unfreeze_learning");		// turn on learning and exploration
-//                } else {
-//                    lab = "Offline" + seriesNum + "&";
-//                    RLGlue.RL_agent_message("freeze_learning");		// turn off learning and exploration for offline assessment of the final policy
-//                }
-
-                RLGlue.RL_agent_message("freeze_learning"); // learning frozen for all apologetic scenarios
-                String lab;
-                if (SERIES_IS_APOLOGETIC[seriesNum]) {
-                    lab = "Apologetic" + seriesNum + "&";
-                    RLGlue.RL_agent_message("apologetic_true");		// turn on learning and exploration
-                } else {
-                    lab = "UnApologetic" + seriesNum + "&";
-                    RLGlue.RL_agent_message("apologetic_false");		// turn off learning and exploration for offline assessment of the final policy
-                }
-
-//                // Set the threshold used
-//                RLGlue.RL_agent_message("update_threshold:" + SERIES_THRESHOLD_INDEX[seriesNum]);
-
-
-                for (int episodeNum = 0; episodeNum < NUM_EPISODES_PER_SERIES[seriesNum]; episodeNum++) {
-
-                    saveReward(lab + (1 + episodeNum), runEpisode(MAX_EPISODE_LENGTH));
-                }
-//                RLGlue.RL_agent_message("save_vf");		// save the value function
-            }  // end series 'for' loop
-            // Iterate through to print averages
-            for (int seriesNum = 0; seriesNum<(NUM_EPISODES_PER_SERIES.length); seriesNum++) {
-                String formulas = "AVERAGE(" + excel.getAddress(2,episodeCounter + 1) + ":" + excel.getAddress(2,NUM_EPISODES_PER_SERIES[seriesNum] + episodeCounter) + ")"
-                        + "&AVERAGE(" + excel.getAddress(3,episodeCounter + 1) + ":" + excel.getAddress(3,NUM_EPISODES_PER_SERIES[seriesNum] + episodeCounter) + ")"
-                        + "&AVERAGE(" + excel.getAddress(4,episodeCounter + 1) + ":" + excel.getAddress(4,NUM_EPISODES_PER_SERIES[seriesNum] + episodeCounter) + ")"
-                        + "&AVERAGE(" + excel.getAddress(5,episodeCounter + 1) + ":" + excel.getAddress(5,NUM_EPISODES_PER_SERIES[seriesNum] + episodeCounter) + ")";
-                excel.writeNextRowTextAndFormula("Mean over all series " + seriesNum + " episodes& ", formulas);
-                episodeCounter += NUM_EPISODES_PER_SERIES[seriesNum];
-            } // end series Averaging "for" loop
-//            RLGlue.RL_agent_message("save_vf:"+trial+":"+INIT_THRESHOLD_INDEX);
-
-            // Get Timestamp
-            Timestamp ts = new Timestamp(System.currentTimeMillis());
-            System.out.println("End of trial. Current Time Stamp: " + ts);
+        if (scheduler == null) {
+            for (int trial=0; trial<NUM_TRIALS; trial++) {
+                runTrial(glue, excel, trial);
+            }
+        } else {
+            glue.RL_cleanup(); // only needed to name the workbook - each trial has its own agent and environment
+            final BufferedExcelWriter[] sheets = new BufferedExcelWriter[NUM_TRIALS];
+            scheduler.runTrials(NUM_TRIALS, (trialGlue, trial) -> {
+                trialGlue.RL_init();
+                configure(trialGlue);
+                sheets[trial] = new BufferedExcelWriter();
+                runTrial(trialGlue, sheets[trial], trial);
+                trialGlue.RL_cleanup();
+            });
+            for (BufferedExcelWriter sheet : sheets) {
+                sheet.replayInto(excel);
+            }
+        }
+
+        if (VF_STATISTICS) {
+            summariseValueFunctions();
         }
 
         // sum num episodes total
@@ -185,7 +161,9 @@ public class ApologyExperiment
 //            excel.writeNextRowTextAndFormula(text, lookups);
 //        }
         excel.closeFile();
-        RLGlue.RL_cleanup();
+        if (scheduler == null) {
+            glue.RL_cleanup();
+        }
         System.out.println("********************************************** Experiment finished");
         // Get Timestamp
         long et = System.currentTimeMillis();
@@ -195,11 +173,110 @@ public class ApologyExperiment
         System.out.println("Average runtime per trial: " + diff + "s");
     }
 
+    // Write the per-cell statistics of the trials' value functions to ValueFunctionStatistics_I<id>.bin and a
+    // summary of the states they disagree about most to ValueFunctionStatistics_I<id>.txt
+    private void summariseValueFunctions() {
+        String name = "ValueFunctionStatistics_I" + LOAD_VF_ID;
+        try {
+            List<File> files = ValueFunctionAverager.expand(
+                    TrialOutput.inputPath("ValueFunction_T*_I" + LOAD_VF_ID + ".txt"));
+            int[] size = QValueFile.readSize(files.get(0));
+            if (size == null) {
+                throw new IOException(files.get(0) + " doesn't record its size");
+            }
+            // greedy by TLO_MI, as the SatisficingMOMIAgent which saved them
+            ValueFunctionStatistics stats = new ValueFunctionStatistics(size[0], size[1], size[2], true);
+            stats.addAll(files);
+            stats.save(new File(TrialOutput.path(name + ".bin")));
+            PrintStream summary = new PrintStream(TrialOutput.path(name + ".txt"));
+            stats.printSummary(summary, 20);
+            summary.close();
+            System.out.println("Statistics of " + files.size() + " value functions written to " + name);
+        } catch (IOException e) {
+            System.err.println("Problem summarising the value functions :: " + e.getMessage());
+        }
+    }
+
+    // Run one trial on the given glue, writing its results to a new sheet
+    private void runTrial(RLGlueInterface glue, ExcelWriter excel, int trial)
+    {
+        createFile(TrialOutput.path("ThresholdsOutput_T" + trial +".txt"));
+
+        printNewTrial(trial);
+        // start new excel sheet and include header row
+        excel.moveToNewSheet("Trial"+trial, trial);
+        excel.writeNextRowText(" &Episode number&R^P&R^A1&R^A2&R^*");
+        // run the trial and save the results to the spreadsheet
+        System.out.println("Trial " + trial);
+        glue.RL_agent_message("start_new_trial:"+trial);
+        glue.RL_env_message("start_new_trial:"+trial);
+        if(LOAD_VF) { glue.RL_agent_message("load_vf:"+trial+":"+LOAD_VF_ID); }
+//        if (AVERAGE_VF) { glue.RL_agent_message("average_vf:"+trial); }
+
+        // Set the threshold used
+        glue.RL_agent_message("update_threshold:" + INIT_THRESHOLD_INDEX);
+
+        // Iterate through to run the simulations
+        int episodeCounter = 0;
+        for (int seriesNum = 0; seriesNum<(NUM_EPISODES_PER_SERIES.length); seriesNum++) {
+            // set up labelling
+
+//            // if the first series is online, train a new vf from scratch, else load
+//            if (!NEW_VF) {
+//                glue.RL_agent_message("load_vf");        // load the value function
+//            }
+
+//            String lab;
+//            if (SERIES_IS_ONLINE[seriesNum]) {
+//                lab = "Online" + seriesNum + "&";
+//                glue.RL_agent_message("unfreeze_learning");		// turn on learning and exploration
+//            } else {
+//                lab = "Offline" + seriesNum + "&";
+//                glue.RL_agent_message("freeze_learning");		// turn off learning and exploration for offline assessment of the final policy
+//            }
+
+            glue.RL_agent_message("freeze_learning"); // learning frozen for all apologetic scenarios
+            String lab;
+            if (SERIES_IS_APOLOGETIC[seriesNum]) {
+                lab = "Apologetic" + seriesNum + "&";
+                glue.RL_agent_message("apologetic_true");		// turn on learning and exploration
+            } else {
+                lab = "UnApologetic" + seriesNum + "&";
+                glue.RL_agent_message("apologetic_false");		// turn off learning and exploration for offline assessment of the final policy
+            }
+
+//            // Set the threshold used
+//            glue.RL_agent_message("update_threshold:" + SERIES_THRESHOLD_INDEX[seriesNum]);
+
+
+            double[][] seriesReturns = runSeries(glue, NUM_EPISODES_PER_SERIES[seriesNum], MAX_EPISODE_LENGTH);
+            for (int episodeNum = 0; episodeNum < NUM_EPISODES_PER_SERIES[seriesNum]; episodeNum++) {
+
+                saveReward(excel, lab + (1 + episodeNum), seriesReturns[episodeNum]);
+            }
+//            glue.RL_agent_message("save_vf");		// save the value function
+        }  // end series 'for' loop
+        // Iterate through to print averages
+        for (int seriesNum = 0; seriesNum<(NUM_EPISODES_PER_SERIES.length); seriesNum++) {
+            String formulas = "AVERAGE(" + excel.getAddress(2,episodeCounter + 1) + ":" + excel.getAddress(2,NUM_EPISODES_PER_SERIES[seriesNum] + episodeCounter) + ")"
+                    + "&AVERAGE(" + excel.getAddress(3,episodeCounter + 1) + ":" + excel.getAddress(3,NUM_EPISODES_PER_SERIES[seriesNum] + episodeCounter) + ")"
+                    + "&AVERAGE(" + excel.getAddress(4,episodeCounter + 1) + ":" + excel.getAddress(4,NUM_EPISODES_PER_SERIES[seriesNum] + episodeCounter) + ")"
+                    + "&AVERAGE(" + excel.getAddress(5,episodeCounter + 1) + ":" + excel.getAddress(5,NUM_EPISODES_PER_SERIES[seriesNum] + episodeCounter) + ")";
+            excel.writeNextRowTextAndFormula("Mean over all series " + seriesNum + " episodes& ", formulas);
+            episodeCounter += NUM_EPISODES_PER_SERIES[seriesNum];
+        } // end series Averaging "for" loop
+//        glue.RL_agent_message("save_vf:"+trial+":"+INIT_THRESHOLD_INDEX);
+
+        // Get Timestamp
+        Timestamp ts = new Timestamp(System.currentTimeMillis());
+        System.out.println("End of trial. Current Time Stamp: " + ts);
+    }
+
     private void printNewTrial(int trialNum) {
         String[] files = {"AdditionalConsoleOutput.txt","WatcherOutput.txt","ConscienceOutput.txt"};
         for (String file : files)
             try {
-                FileWriter myWriter = new FileWriter(file, true);
+                FileWriter myWriter = new FileWriter(TrialOutput.fileName(file), true);
                 myWriter.write("New Trial started: " + trialNum + System.lineSeparator());
                 myWriter.close();
 //            System.out.println("Successfully wrote to the file.");
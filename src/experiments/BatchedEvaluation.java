@@ -0,0 +1,100 @@
+// Offline evaluation of a frozen SatisficingMOMIAgent on K copies of the living room at once, using
+// VectorisedLivingRoomWithTableAndCat and the agent's batched start/step calls, without any per-step Observation,
+// Action or Reward objects. The returns follow the same distribution as K episodes run one at a time through the
+// glue (a batch of one gives exactly the same episode). main() runs a quick comparison of the two, timing each.
+
+package experiments;
+
+import agents.SatisficingMOMIAgent;
+import env.VectorisedLivingRoomWithTableAndCat;
+import env.WatchedLivingRoomWithTableAndCat;
+import tools.glue.EpisodeSeries;
+import tools.glue.LocalMOGlue;
+
+public class BatchedEvaluation
+{
+    private BatchedEvaluation()
+    {
+    }
+
+    // Run one episode in every copy of env with the agent's frozen policy, each cut off after maxSteps steps
+    // (0 means no limit). Returns each copy's summed reward vector, indexed [copy][objective].
+    public static double[][] run(SatisficingMOMIAgent agent, VectorisedLivingRoomWithTableAndCat env, int maxSteps)
+    {
+        int numCopies = env.getNumCopies();
+        int observations[] = new int[numCopies];
+        int actions[] = new int[numCopies];
+        double returns[][] = new double[numCopies][VectorisedLivingRoomWithTableAndCat.NUM_OBJECTIVES];
+        env.start(observations);
+        agent.agent_start_batch(observations, actions);
+        int steps = 0;
+        while (env.getNumActive() > 0 && (maxSteps == 0 || steps < maxSteps))
+        {
+            env.step(actions, observations);
+            steps++;
+            double rewards[][] = env.getRewards();
+            for (int o = 0; o < VectorisedLivingRoomWithTableAndCat.NUM_OBJECTIVES; o++)
+            {
+                double r[] = rewards[o];
+                for (int k = 0; k < numCopies; k++)
+                {
+                    returns[k][o] += r[k];
+                }
+            }
+            agent.agent_step_batch(rewards, observations, env.getTerminal(), actions);
+        }
+        return returns;
+    }
+
+    private static double[] mean(double returns[][])
+    {
+        double m[] = new double[returns[0].length];
+        for (double r[] : returns)
+        {
+            for (int o = 0; o < m.length; o++)
+            {
+                m[o] += r[o] / returns.length;
+            }
+        }
+        return m;
+    }
+
+    private static String format(double v[])
+    {
+        StringBuilder sb = new StringBuilder();
+        for (double d : v)
+        {
+            sb.append(String.format("%10.3f", d));
+        }
+        return sb.toString();
+    }
+
+    // Usage: BatchedEvaluation [numCopies] [maxSteps]
+    public static void main(String[] args)
+    {
+        int numCopies = args.length > 0 ? Integer.parseInt(args[0]) : 1000;
+        int maxSteps = args.length > 1 ? Integer.parseInt(args[1]) : 1000;
+
+        SatisficingMOMIAgent scalarAgent = new SatisficingMOMIAgent();
+        LocalMOGlue glue = new LocalMOGlue(new WatchedLivingRoomWithTableAndCat(), scalarAgent);
+        glue.RL_init();
+        glue.RL_agent_message("freeze_learning");
+        long start = System.nanoTime();
+        EpisodeSeries series = glue.RL_series(numCopies, maxSteps);
+        long scalarNanos = System.nanoTime() - start;
+        glue.RL_cleanup();
+
+        SatisficingMOMIAgent batchAgent = new SatisficingMOMIAgent();
+        batchAgent.agent_init(VectorisedLivingRoomWithTableAndCat.getTaskSpec());
+        batchAgent.agent_message("freeze_learning");
+        VectorisedLivingRoomWithTableAndCat env = new VectorisedLivingRoomWithTableAndCat(numCopies);
+        start = System.nanoTime();
+        double batchReturns[][] = run(batchAgent, env, maxSteps);
+        long batchNanos = System.nanoTime() - start;
+        batchAgent.agent_cleanup();
+
+        System.out.println(numCopies + " episodes, at most " + maxSteps + " steps each");
+        System.out.println("Mean return, one at a time: " + format(mean(series.getReturns())) + "   " + scalarNanos / 1000000 + "ms");
+        System.out.println("Mean return, batched:       " + format(mean(batchReturns)) + "   " + batchNanos / 1000000 + "ms");
+    }
+}
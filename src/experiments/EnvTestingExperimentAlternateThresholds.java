@@ -5,7 +5,7 @@ package experiments;
 
 import org.rlcommunity.rlglue.codec.RLGlue;
 import org.rlcommunity.rlglue.codec.taskspec.TaskSpecVRLGLUE3;
-import org.rlcommunity.rlglue.codec.types.Reward;
+import tools.glue.MOGlue;
 import tools.spreadsheet.ExcelWriter;
 import tools.spreadsheet.JxlExcelWriter;
 import tools.valuefunction.TLO_LookupTable;
@@ -136,25 +136,23 @@ public class EnvTestingExperimentAlternateThresholds
     private ExcelWriter excel;
 
     // store the data for the most recent Reward. The strings indicates a value or label to be written in the first two columns
-    private void saveReward(String labels, Reward r)
+    private void saveReward(String labels, double[] r)
     {
-        excel.writeNextRowTextAndNumbers(labels, r.doubleArray);
-//        System.out.println("reward 1: " + r.doubleArray[0] + " 2: " + r.doubleArray[1] + " length = "+ r.doubleArray.length);
+        excel.writeNextRowTextAndNumbers(labels, r);
+//        System.out.println("reward 1: " + r[0] + " 2: " + r[1] + " length = "+ r.length);
     }
 
-    // Run One Episode of length maximum cutOff
-    private Reward runEpisode(int stepLimit) {
-        int terminal = RLGlue.RL_episode(stepLimit);
-        int totalSteps = RLGlue.RL_num_steps();
-        Reward totalReward = RLGlue.RL_return();
-        return totalReward;
+    // Run a series of episodes back to back, each of length maximum stepLimit, returning the [episode][objective]
+    // return of each one
+    private double[][] runSeries(int numEpisodes, int stepLimit) {
+        return MOGlue.RL_series(numEpisodes, stepLimit).getReturns();
     }
 
     public void runExperiment() {
 
         if (!(NUM_EPISODES_PER_SERIES.length == SERIES_IS_ONLINE.length & NUM_EPISODES_PER_SERIES.length == SERIES_THRESHOLD_INDEX.length)) {
-            System.out.println("ERROR!!! Experiment Series settings inconsistent lengths!");
-            System.exit(0); // shut down the experiment + hopefully everything else launched by the Driver program (server, agent, environment)
+            // throw rather than exit, so a misconfigured experiment doesn't take down everything else in the JVM
+            throw new IllegalStateException("ERROR!!! Experiment Series settings inconsistent lengths!");
         }
         int totalNumEpisodes = 0;
         for(int series : NUM_EPISODES_PER_SERIES) {
@@ -217,11 +215,20 @@ public class EnvTestingExperimentAlternateThresholds
                 else {System.out.println("Threshold Index: alternating thresholds");}
 
 
-                for (int episodeNum = 0; episodeNum < NUM_EPISODES_PER_SERIES[seriesNum]; episodeNum++) {
-                    // if thresholds set to 'iterating' (-1 value) then use episodeNum mod 8 to set the thresholds (0 to 7 repeating)
-                    if (SERIES_THRESHOLD_INDEX[seriesNum] < 0) {RLGlue.RL_agent_message("update_threshold_suppressed:" + (episodeNum%8)); }
+                if (SERIES_THRESHOLD_INDEX[seriesNum] >= 0) {
+                    // fixed threshold, so the whole series can be run in one batch
+                    double[][] seriesReturns = runSeries(NUM_EPISODES_PER_SERIES[seriesNum], MAX_EPISODE_LENGTH);
+                    for (int episodeNum = 0; episodeNum < NUM_EPISODES_PER_SERIES[seriesNum]; episodeNum++) {
+                        saveReward(lab + (1 + episodeNum), seriesReturns[episodeNum]);
+                    }
+                }
+                else {
+                    for (int episodeNum = 0; episodeNum < NUM_EPISODES_PER_SERIES[seriesNum]; episodeNum++) {
+                        // thresholds set to 'iterating' (-1 value), so use episodeNum mod 8 to set the thresholds (0 to 7 repeating)
+                        RLGlue.RL_agent_message("update_threshold_suppressed:" + (episodeNum%8));
 
-                    saveReward(lab + (1 + episodeNum), runEpisode(MAX_EPISODE_LENGTH));
+                        saveReward(lab + (1 + episodeNum), runSeries(1, MAX_EPISODE_LENGTH)[0]);
+                    }
                 }
 //                RLGlue.RL_agent_message("save_vf");		// save the value function
             }  // end series 'for' loop
@@ -3,11 +3,13 @@
 
 package experiments;
 
-import org.rlcommunity.rlglue.codec.RLGlue;
+import org.rlcommunity.rlglue.codec.RLGlueInterface;
 import org.rlcommunity.rlglue.codec.taskspec.TaskSpecVRLGLUE3;
-import org.rlcommunity.rlglue.codec.types.Reward;
+import tools.glue.MOGlue;
+import tools.spreadsheet.BufferedExcelWriter;
 import tools.spreadsheet.ExcelWriter;
 import tools.spreadsheet.JxlExcelWriter;
+import tools.trials.TrialOutput;
 import tools.valuefunction.TLO_LookupTable;
 
 import java.io.FileWriter;
@@ -136,25 +138,36 @@ public class EnvTestingExperimentIndividualVF
     private ExcelWriter excel;
 
     // store the data for the most recent Reward. The strings indicates a value or label to be written in the first two columns
-    private void saveReward(String labels, Reward r)
+    private void saveReward(ExcelWriter excel, String labels, double[] r)
     {
-        excel.writeNextRowTextAndNumbers(labels, r.doubleArray);
-//        System.out.println("reward 1: " + r.doubleArray[0] + " 2: " + r.doubleArray[1] + " length = "+ r.doubleArray.length);
+        excel.writeNextRowTextAndNumbers(labels, r);
+//        System.out.println("reward 1: " + r[0] + " 2: " + r[1] + " length = "+ r.length);
     }
 
-    // Run One Episode of length maximum cutOff
-    private Reward runEpisode(int stepLimit) {
-        int terminal = RLGlue.RL_episode(stepLimit);
-        int totalSteps = RLGlue.RL_num_steps();
-        Reward totalReward = RLGlue.RL_return();
-        return totalReward;
+    // Run a series of episodes back to back, each of length maximum stepLimit, returning the [episode][objective]
+    // return of each one
+    private double[][] runSeries(RLGlueInterface glue, int numEpisodes, int stepLimit) {
+        return MOGlue.RL_series(glue, numEpisodes, stepLimit).getReturns();
+    }
+
+    // Send the agent its learning parameters - done once per agent, after RL_init
+    private void configure(RLGlueInterface glue) {
+        String agentMessageString = "set_learning_parameters" + " " + ALPHA + " " + LAMBDA + " " + GAMMA + " " + EXPLORATION;
+        glue.RL_agent_message(agentMessageString);
+        glue.RL_agent_message(PARAM_CHANGE_STRING + " " + EXPLORATION_PARAMETER + " " + EXPLORATION_DECAY_LENGTH);
     }
 
     public void runExperiment() {
+        runExperiment(null);
+    }
+
+    // With a scheduler, the trials run concurrently with an agent and environment each, and their sheets are
+    // merged into the workbook in trial order at the end. Without one they run in turn through RLGlue as before.
+    public void runExperiment(TrialScheduler scheduler) {
 
         if (!(NUM_EPISODES_PER_SERIES.length == SERIES_IS_ONLINE.length & NUM_EPISODES_PER_SERIES.length == SERIES_THRESHOLD_INDEX.length)) {
-            System.out.println("ERROR!!! Experiment Series settings inconsistent lengths!");
-            System.exit(0); // shut down the experiment + hopefully everything else launched by the Driver program (server, agent, environment)
+            // throw rather than exit, so a misconfigured experiment doesn't take down everything else in the JVM
+            throw new IllegalStateException("ERROR!!! Experiment Series settings inconsistent lengths!");
         }
         int totalNumEpisodes = 0;
         for(int series : NUM_EPISODES_PER_SERIES) {
@@ -166,76 +179,35 @@ public class EnvTestingExperimentIndividualVF
         System.out.println("Begin experiment. Current Time Stamp: " + bts);
 
         // set up data structures to store reward history
-        String taskSpec = RLGlue.RL_init();
+        RLGlueInterface glue = scheduler == null ? MOGlue.getGlue() : scheduler.newGlue();
+        String taskSpec = glue.RL_init();
         TaskSpecVRLGLUE3 theTaskSpec = new TaskSpecVRLGLUE3(taskSpec);
         numObjectives = theTaskSpec.getNumOfObjectives();
 
         // configure agent, set up files etc
-        String agentMessageString = "set_learning_parameters" + " " + ALPHA + " " + LAMBDA + " " + GAMMA + " " + EXPLORATION;
-        RLGlue.RL_agent_message(agentMessageString);
-        String agentName = RLGlue.RL_agent_message("get_agent_name");
+        configure(glue);
+        String agentName = glue.RL_agent_message("get_agent_name");
         final String fileName = FILENAME_PREFIX+"-"+agentName+"-"+METHOD_PREFIX+EXPLORATION_PARAMETER+"-alpha"+ALPHA+"-lambda"+LAMBDA;
         excel = new JxlExcelWriter(fileName);
 
-
-        RLGlue.RL_agent_message(PARAM_CHANGE_STRING + " " + EXPLORATION_PARAMETER + " " + EXPLORATION_DECAY_LENGTH);
         // run the trials
-        for (int trial=0; trial<NUM_TRIALS; trial++)
-        {
-            printNewTrial(trial);
-            // start new excel sheet and include header row
-            excel.moveToNewSheet("Trial"+trial, trial);
-            excel.writeNextRowText(" &Episode number&R^P&R^A1&R^A2&R^*");
-            // run the trial and save the results to the spreadsheet
-            System.out.println("Trial " + trial);
-            RLGlue.RL_agent_message("start_new_trial:"+trial);
-            RLGlue.RL_env_message("start_new_trial:"+trial);
-            if(LOAD_VF) { RLGlue.RL_agent_message("load_vf:"+trial+":"+initThresholdIndex); }
-            if (AVERAGE_VF) { RLGlue.RL_agent_message("average_vf:"+trial); }
-
-
-            // Iterate through to run the simulations
-            int episodeCounter = 0;
-            for (int seriesNum = 0; seriesNum<(NUM_EPISODES_PER_SERIES.length); seriesNum++) {
-                // set up labelling
-
-//                // if the first series is online, train a new vf from scratch, else load
-//                if (!NEW_VF) {
-//                    RLGlue.RL_agent_message("load_vf");        // load the value function
-//                }
-                String lab;
-                if (SERIES_IS_ONLINE[seriesNum]) {
-                    lab = "Online" + seriesNum + "&";
-                    RLGlue.RL_agent_message("unfreeze_learning");		// turn on learning and exploration
-                } else {
-                    lab = "Offline" + seriesNum + "&";
-                    RLGlue.RL_agent_message("freeze_learning");		// turn off learning and exploration for offline assessment of the final policy
-                }
-
-                // Set the threshold used
-                RLGlue.RL_agent_message("update_threshold:" + SERIES_THRESHOLD_INDEX[seriesNum]);
-
-
-                for (int episodeNum = 0; episodeNum < NUM_EPISODES_PER_SERIES[seriesNum]; episodeNum++) {
-
-                    saveReward(lab + (1 + episodeNum), runEpisode(MAX_EPISODE_LENGTH));
-                }
-//                RLGlue.RL_agent_message("save_vf");		// save the value function
-            }  // end series 'for' loop
-            // Iterate through to print averages
-            for (int seriesNum = 0; seriesNum<(NUM_EPISODES_PER_SERIES.length); seriesNum++) {
-                String formulas = "AVERAGE(" + excel.getAddress(2,episodeCounter + 1) + ":" + excel.getAddress(2,NUM_EPISODES_PER_SERIES[seriesNum] + episodeCounter) + ")"
-                        + "&AVERAGE(" + excel.getAddress(3,episodeCounter + 1) + ":" + excel.getAddress(3,NUM_EPISODES_PER_SERIES[seriesNum] + episodeCounter) + ")"
-                        + "&AVERAGE(" + excel.getAddress(4,episodeCounter + 1) + ":" + excel.getAddress(4,NUM_EPISODES_PER_SERIES[seriesNum] + episodeCounter) + ")"
-                        + "&AVERAGE(" + excel.getAddress(5,episodeCounter + 1) + ":" + excel.getAddress(5,NUM_EPISODES_PER_SERIES[seriesNum] + episodeCounter) + ")";
-                excel.writeNextRowTextAndFormula("Mean over all series " + seriesNum + " episodes& ", formulas);
-                episodeCounter += NUM_EPISODES_PER_SERIES[seriesNum];
-            } // end series Averaging "for" loop
-            RLGlue.RL_agent_message("save_vf:"+trial+":"+initThresholdIndex);
-
-            // Get Timestamp
-            Timestamp ts = new Timestamp(System.currentTimeMillis());
-            System.out.println("End of trial. Current Time Stamp: " + ts);
+        if (scheduler == null) {
+            for (int trial=0; trial<NUM_TRIALS; trial++) {
+                runTrial(glue, excel, trial);
+            }
+        } else {
+            glue.RL_cleanup(); // only needed to name the workbook - each trial has its own agent and environment
+            final BufferedExcelWriter[] sheets = new BufferedExcelWriter[NUM_TRIALS];
+            scheduler.runTrials(NUM_TRIALS, (trialGlue, trial) -> {
+                trialGlue.RL_init();
+                configure(trialGlue);
+                sheets[trial] = new BufferedExcelWriter();
+                runTrial(trialGlue, sheets[trial], trial);
+                trialGlue.RL_cleanup();
+            });
+            for (BufferedExcelWriter sheet : sheets) {
+                sheet.replayInto(excel);
+            }
         }
 
         // sum num episodes total
@@ -257,7 +229,9 @@ public class EnvTestingExperimentIndividualVF
 //            excel.writeNextRowTextAndFormula(text, lookups);
 //        }
         excel.closeFile();
-        RLGlue.RL_cleanup();
+        if (scheduler == null) {
+            glue.RL_cleanup();
+        }
         System.out.println("********************************************** Experiment finished");
         // Get Timestamp
         long et = System.currentTimeMillis();
@@ -267,11 +241,71 @@ public class EnvTestingExperimentIndividualVF
         System.out.println("Average runtime per trial: " + diff + "s");
     }
 
+    // Run one trial on the given glue, writing its results to a new sheet
+    private void runTrial(RLGlueInterface glue, ExcelWriter excel, int trial)
+    {
+        printNewTrial(trial);
+        // start new excel sheet and include header row
+        excel.moveToNewSheet("Trial"+trial, trial);
+        excel.writeNextRowText(" &Episode number&R^P&R^A1&R^A2&R^*");
+        // run the trial and save the results to the spreadsheet
+        System.out.println("Trial " + trial);
+        glue.RL_agent_message("start_new_trial:"+trial);
+        glue.RL_env_message("start_new_trial:"+trial);
+        if(LOAD_VF) { glue.RL_agent_message("load_vf:"+trial+":"+initThresholdIndex); }
+        if (AVERAGE_VF) { glue.RL_agent_message("average_vf:"+trial); }
+
+
+        // Iterate through to run the simulations
+        int episodeCounter = 0;
+        for (int seriesNum = 0; seriesNum<(NUM_EPISODES_PER_SERIES.length); seriesNum++) {
+            // set up labelling
+
+//            // if the first series is online, train a new vf from scratch, else load
+//            if (!NEW_VF) {
+//                glue.RL_agent_message("load_vf");        // load the value function
+//            }
+            String lab;
+            if (SERIES_IS_ONLINE[seriesNum]) {
+                lab = "Online" + seriesNum + "&";
+                glue.RL_agent_message("unfreeze_learning");		// turn on learning and exploration
+            } else {
+                lab = "Offline" + seriesNum + "&";
+                glue.RL_agent_message("freeze_learning");		// turn off learning and exploration for offline assessment of the final policy
+            }
+
+            // Set the threshold used
+            glue.RL_agent_message("update_threshold:" + SERIES_THRESHOLD_INDEX[seriesNum]);
+
+
+            double[][] seriesReturns = runSeries(glue, NUM_EPISODES_PER_SERIES[seriesNum], MAX_EPISODE_LENGTH);
+            for (int episodeNum = 0; episodeNum < NUM_EPISODES_PER_SERIES[seriesNum]; episodeNum++) {
+
+                saveReward(excel, lab + (1 + episodeNum), seriesReturns[episodeNum]);
+            }
+//            glue.RL_agent_message("save_vf");		// save the value function
+        }  // end series 'for' loop
+        // Iterate through to print averages
+        for (int seriesNum = 0; seriesNum<(NUM_EPISODES_PER_SERIES.length); seriesNum++) {
+            String formulas = "AVERAGE(" + excel.getAddress(2,episodeCounter + 1) + ":" + excel.getAddress(2,NUM_EPISODES_PER_SERIES[seriesNum] + episodeCounter) + ")"
+                    + "&AVERAGE(" + excel.getAddress(3,episodeCounter + 1) + ":" + excel.getAddress(3,NUM_EPISODES_PER_SERIES[seriesNum] + episodeCounter) + ")"
+                    + "&AVERAGE(" + excel.getAddress(4,episodeCounter + 1) + ":" + excel.getAddress(4,NUM_EPISODES_PER_SERIES[seriesNum] + episodeCounter) + ")"
+                    + "&AVERAGE(" + excel.getAddress(5,episodeCounter + 1) + ":" + excel.getAddress(5,NUM_EPISODES_PER_SERIES[seriesNum] + episodeCounter) + ")";
+            excel.writeNextRowTextAndFormula("Mean over all series " + seriesNum + " episodes& ", formulas);
+            episodeCounter += NUM_EPISODES_PER_SERIES[seriesNum];
+        } // end series Averaging "for" loop
+        glue.RL_agent_message("save_vf:"+trial+":"+initThresholdIndex);
+
+        // Get Timestamp
+        Timestamp ts = new Timestamp(System.currentTimeMillis());
+        System.out.println("End of trial. Current Time Stamp: " + ts);
+    }
+
     private void printNewTrial(int trialNum) {
         String[] files = {"AdditionalConsoleOutput.txt","WatcherOutput.txt","ConscienceOutput.txt"};
         for (String file : files)
             try {
-                FileWriter myWriter = new FileWriter(file, true);
+                FileWriter myWriter = new FileWriter(TrialOutput.fileName(file), true);
                 myWriter.write("New Trial started: " + trialNum + System.lineSeparator());
                 myWriter.close();
 //            System.out.println("Successfully wrote to the file.");
@@ -0,0 +1,524 @@
+// A declarative description of an experiment, read from a properties file, so a configuration can be changed (or
+// swept over a grid) without commenting blocks of constants in and out of the experiment classes. For example:
+//
+//   name = TableAndCat
+//   environment = env.WatchedLivingRoomWithTableAndCat
+//   agent = agents.SatisficingMOMIAgent
+//   actor = TidyToni
+//   alpha = 0.1
+//   lambda = 0.95
+//   gamma = 1.0
+//   exploration = SOFTMAX_TOURNAMENT                  (or EGREEDY, SOFTMAX_ADDITIVE_EPSILON)
+//   exploration_parameter = 10
+//   exploration_decay_length = 4000
+//   trials = 10
+//   max_episode_length = 1000
+//   seed = 12345                                       (optional - sends set_seed:N to the agent and environment)
+//   series.episodes = 4000, 10, 10
+//   series.online = true, false, false
+//   series.threshold = 0, 0, 1                         (optional - sends update_threshold:N before each series)
+//   series.apologetic = false, false, true             (optional - sends apologetic_true/false before each series)
+//   trial.start.agent_messages = start_new_trial:{trial}
+//   trial.start.env_messages = start_new_trial:{trial}
+//   series.start.agent_messages =                      (sent after the series' threshold and learning settings)
+//   trial.end.agent_messages = save_vf:{trial}:0
+//
+// Message lists are separated by ';', and {trial}, {series} and {threshold} are replaced by the current values.
+// Any setting can instead be given as a sweep over several values separated by '|', e.g.
+//   sweep.alpha = 0.05 | 0.1 | 0.2 | 0.4
+// and expand() returns one spec for every combination of the swept values.
+
+package experiments;
+
+import org.rlcommunity.rlglue.codec.AgentInterface;
+import org.rlcommunity.rlglue.codec.EnvironmentInterface;
+import tools.valuefunction.TLO_LookupTable;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.TreeSet;
+
+public class ExperimentSpec
+{
+    private static final String SWEEP_PREFIX = "sweep.";
+
+    private final Properties properties;
+    private final String id;
+
+    private final String name;
+    private final String environmentClass;
+    private final String agentClass;
+    private final String actor;
+    private final double alpha;
+    private final double lambda;
+    private final double gamma;
+    private final int exploration;
+    private final double explorationParameter;
+    private final int explorationDecayLength;
+    private final int numTrials;
+    private final int maxEpisodeLength;
+    private final Long seed;
+    private final int seriesEpisodes[];
+    private final boolean seriesOnline[];
+    private final int seriesThreshold[];
+    private final boolean seriesApologetic[];
+    private final String columnHeaders;
+    private final String trialStartAgentMessages[];
+    private final String trialStartEnvMessages[];
+    private final String trialEndAgentMessages[];
+    private final String seriesStartAgentMessages[];
+
+    public ExperimentSpec(Properties properties)
+    {
+        this(properties, "");
+    }
+
+    private ExperimentSpec(Properties properties, String id)
+    {
+        this.properties = properties;
+        this.id = id;
+        name = getString("name", "Experiment");
+        environmentClass = getString("environment", null);
+        agentClass = getString("agent", null);
+        actor = getString("actor", "");
+        alpha = getDouble("alpha", 0.1);
+        lambda = getDouble("lambda", 0.95);
+        gamma = getDouble("gamma", 1.0);
+        exploration = parseExploration(getString("exploration", "SOFTMAX_TOURNAMENT"));
+        explorationParameter = getDouble("exploration_parameter", 10);
+        explorationDecayLength = getInt("exploration_decay_length", 4000);
+        numTrials = getInt("trials", 1);
+        maxEpisodeLength = getInt("max_episode_length", 1000);
+        seed = getLong("seed");
+        seriesEpisodes = getIntList("series.episodes", true);
+        seriesOnline = getBooleanList("series.online", true);
+        seriesThreshold = getIntList("series.threshold", false);
+        seriesApologetic = getBooleanList("series.apologetic", false);
+        columnHeaders = getString("columns", "R^P&R^A1&R^A2&R^*");
+        trialStartAgentMessages = getMessages("trial.start.agent_messages");
+        trialStartEnvMessages = getMessages("trial.start.env_messages");
+        trialEndAgentMessages = getMessages("trial.end.agent_messages");
+        seriesStartAgentMessages = getMessages("series.start.agent_messages");
+
+        int numSeries = seriesEpisodes.length;
+        if (seriesOnline.length != numSeries
+                || (seriesThreshold != null && seriesThreshold.length != numSeries)
+                || (seriesApologetic != null && seriesApologetic.length != numSeries))
+        {
+            throw new IllegalArgumentException("ExperimentSpec - series settings have inconsistent lengths");
+        }
+        if (numTrials < 1)
+        {
+            throw new IllegalArgumentException("ExperimentSpec - trials must be at least 1");
+        }
+    }
+
+    public static ExperimentSpec load(String fileName) throws IOException
+    {
+        Properties p = new Properties();
+        InputStream in = new FileInputStream(fileName);
+        try
+        {
+            p.load(in);
+        }
+        finally
+        {
+            in.close();
+        }
+        return new ExperimentSpec(p);
+    }
+
+    // One spec for each combination of the values of the sweep.* settings, or just this spec if there are none
+    public List<ExperimentSpec> expand()
+    {
+        List<String> keys = new ArrayList<String>();
+        for (String key : new TreeSet<String>(properties.stringPropertyNames()))
+        {
+            if (key.startsWith(SWEEP_PREFIX))
+            {
+                keys.add(key);
+            }
+        }
+        List<ExperimentSpec> specs = new ArrayList<ExperimentSpec>();
+        if (keys.isEmpty())
+        {
+            specs.add(this);
+            return specs;
+        }
+        String values[][] = new String[keys.size()][];
+        for (int k = 0; k < keys.size(); k++)
+        {
+            values[k] = properties.getProperty(keys.get(k)).split("\\|");
+        }
+        int choice[] = new int[keys.size()];
+        while (true)
+        {
+            Properties p = new Properties();
+            for (String key : properties.stringPropertyNames())
+            {
+                if (!key.startsWith(SWEEP_PREFIX))
+                {
+                    p.setProperty(key, properties.getProperty(key));
+                }
+            }
+            StringBuilder configId = new StringBuilder();
+            for (int k = 0; k < keys.size(); k++)
+            {
+                String key = keys.get(k).substring(SWEEP_PREFIX.length());
+                String value = values[k][choice[k]].trim();
+                p.setProperty(key, value);
+                if (configId.length() > 0)
+                {
+                    configId.append('_');
+                }
+                configId.append(key).append(value);
+            }
+            specs.add(new ExperimentSpec(p, configId.toString().replaceAll("[^A-Za-z0-9._-]", "-")));
+            // advance to the next combination, odometer style
+            int k = keys.size() - 1;
+            while (k >= 0 && ++choice[k] == values[k].length)
+            {
+                choice[k] = 0;
+                k--;
+            }
+            if (k < 0)
+            {
+                return specs;
+            }
+        }
+    }
+
+    public AgentInterface newAgent()
+    {
+        return (AgentInterface) newInstance(agentClass);
+    }
+
+    public EnvironmentInterface newEnvironment()
+    {
+        return (EnvironmentInterface) newInstance(environmentClass);
+    }
+
+    private static Object newInstance(String className)
+    {
+        try
+        {
+            return Class.forName(className).getDeclaredConstructor().newInstance();
+        }
+        catch (ReflectiveOperationException | RuntimeException e)
+        {
+            throw new IllegalArgumentException("ExperimentSpec - unable to create " + className, e);
+        }
+    }
+
+    // Replace {trial}, {series} and {threshold} in a message with the given values
+    public static String substitute(String message, int trial, int series, int threshold)
+    {
+        return message.replace("{trial}", Integer.toString(trial))
+                .replace("{series}", Integer.toString(series))
+                .replace("{threshold}", Integer.toString(threshold));
+    }
+
+    private String getString(String key, String defaultValue)
+    {
+        String value = properties.getProperty(key);
+        if (value == null)
+        {
+            if (defaultValue == null)
+            {
+                throw new IllegalArgumentException("ExperimentSpec - missing setting " + key);
+            }
+            return defaultValue;
+        }
+        return value.trim();
+    }
+
+    private double getDouble(String key, double defaultValue)
+    {
+        String value = properties.getProperty(key);
+        try
+        {
+            return value == null ? defaultValue : Double.parseDouble(value.trim());
+        }
+        catch (NumberFormatException e)
+        {
+            throw new IllegalArgumentException("ExperimentSpec - " + key + " should be a number, not " + value);
+        }
+    }
+
+    private int getInt(String key, int defaultValue)
+    {
+        String value = properties.getProperty(key);
+        try
+        {
+            return value == null ? defaultValue : Integer.parseInt(value.trim());
+        }
+        catch (NumberFormatException e)
+        {
+            throw new IllegalArgumentException("ExperimentSpec - " + key + " should be a whole number, not " + value);
+        }
+    }
+
+    // returns null if the setting is missing
+    private Long getLong(String key)
+    {
+        String value = properties.getProperty(key);
+        try
+        {
+            return value == null ? null : Long.valueOf(value.trim());
+        }
+        catch (NumberFormatException e)
+        {
+            throw new IllegalArgumentException("ExperimentSpec - " + key + " should be a whole number, not " + value);
+        }
+    }
+
+    private String[] getList(String key, boolean required)
+    {
+        String value = properties.getProperty(key);
+        if (value == null)
+        {
+            if (required)
+            {
+                throw new IllegalArgumentException("ExperimentSpec - missing setting " + key);
+            }
+            return null;
+        }
+        String items[] = value.split(",");
+        for (int i = 0; i < items.length; i++)
+        {
+            items[i] = items[i].trim();
+        }
+        return items;
+    }
+
+    private int[] getIntList(String key, boolean required)
+    {
+        String items[] = getList(key, required);
+        if (items == null)
+        {
+            return null;
+        }
+        int values[] = new int[items.length];
+        for (int i = 0; i < items.length; i++)
+        {
+            try
+            {
+                values[i] = Integer.parseInt(items[i]);
+            }
+            catch (NumberFormatException e)
+            {
+                throw new IllegalArgumentException("ExperimentSpec - " + key + " should be whole numbers, not " + items[i]);
+            }
+        }
+        return values;
+    }
+
+    private boolean[] getBooleanList(String key, boolean required)
+    {
+        String items[] = getList(key, required);
+        if (items == null)
+        {
+            return null;
+        }
+        boolean values[] = new boolean[items.length];
+        for (int i = 0; i < items.length; i++)
+        {
+            if (!items[i].equalsIgnoreCase("true") && !items[i].equalsIgnoreCase("false"))
+            {
+                throw new IllegalArgumentException("ExperimentSpec - " + key + " should be true or false, not " + items[i]);
+            }
+            values[i] = Boolean.parseBoolean(items[i]);
+        }
+        return values;
+    }
+
+    private String[] getMessages(String key)
+    {
+        String value = properties.getProperty(key);
+        if (value == null || value.trim().isEmpty())
+        {
+            return new String[0];
+        }
+        String messages[] = value.split(";");
+        for (int i = 0; i < messages.length; i++)
+        {
+            messages[i] = messages[i].trim();
+        }
+        return messages;
+    }
+
+    private static int parseExploration(String name)
+    {
+        if (name.equals("EGREEDY"))
+        {
+            return TLO_LookupTable.EGREEDY;
+        }
+        if (name.equals("SOFTMAX_TOURNAMENT"))
+        {
+            return TLO_LookupTable.SOFTMAX_TOURNAMENT;
+        }
+        if (name.equals("SOFTMAX_ADDITIVE_EPSILON"))
+        {
+            return TLO_LookupTable.SOFTMAX_ADDITIVE_EPSILON;
+        }
+        throw new IllegalArgumentException("ExperimentSpec - unknown exploration " + name);
+    }
+
+    // The prefix the experiment classes use for this exploration strategy in their file names
+    public String getMethodPrefix()
+    {
+        switch (exploration)
+        {
+            case TLO_LookupTable.EGREEDY:
+                return "EGREEDY";
+            case TLO_LookupTable.SOFTMAX_ADDITIVE_EPSILON:
+                return "SOFTMAX_E";
+            default:
+                return "SOFTMAX_T";
+        }
+    }
+
+    // The agent message which sets this strategy's exploration parameter and decay
+    public String getParamChangeString()
+    {
+        return exploration == TLO_LookupTable.EGREEDY ? "set_egreedy_parameters" : "set_softmax_parameters";
+    }
+
+    public Properties getProperties()
+    {
+        return properties;
+    }
+
+    // Identifies this configuration within a sweep, e.g. "alpha0.1_lambda0.95". Empty if not from a sweep.
+    public String getId()
+    {
+        return id;
+    }
+
+    public String getName()
+    {
+        return name;
+    }
+
+    public String getEnvironmentClass()
+    {
+        return environmentClass;
+    }
+
+    public String getAgentClass()
+    {
+        return agentClass;
+    }
+
+    // The type of actor to watch the agent, or an empty string to leave the environment's default
+    public String getActor()
+    {
+        return actor;
+    }
+
+    public double getAlpha()
+    {
+        return alpha;
+    }
+
+    public double getLambda()
+    {
+        return lambda;
+    }
+
+    public double getGamma()
+    {
+        return gamma;
+    }
+
+    public int getExploration()
+    {
+        return exploration;
+    }
+
+    public double getExplorationParameter()
+    {
+        return explorationParameter;
+    }
+
+    public int getExplorationDecayLength()
+    {
+        return explorationDecayLength;
+    }
+
+    public int getNumTrials()
+    {
+        return numTrials;
+    }
+
+    public int getMaxEpisodeLength()
+    {
+        return maxEpisodeLength;
+    }
+
+    // The experiment seed every random number stream is derived from, or null to leave the components' defaults
+    public Long getSeed()
+    {
+        return seed;
+    }
+
+    public int getNumSeries()
+    {
+        return seriesEpisodes.length;
+    }
+
+    public int getSeriesEpisodes(int series)
+    {
+        return seriesEpisodes[series];
+    }
+
+    public boolean isSeriesOnline(int series)
+    {
+        return seriesOnline[series];
+    }
+
+    // The threshold index for the series, or -1 if the spec doesn't set thresholds
+    public int getSeriesThreshold(int series)
+    {
+        return seriesThreshold == null ? -1 : seriesThreshold[series];
+    }
+
+    public boolean hasApologeticSeries()
+    {
+        return seriesApologetic != null;
+    }
+
+    public boolean isSeriesApologetic(int series)
+    {
+        return seriesApologetic != null && seriesApologetic[series];
+    }
+
+    public String getColumnHeaders()
+    {
+        return columnHeaders;
+    }
+
+    public String[] getTrialStartAgentMessages()
+    {
+        return trialStartAgentMessages;
+    }
+
+    public String[] getTrialStartEnvMessages()
+    {
+        return trialStartEnvMessages;
+    }
+
+    public String[] getTrialEndAgentMessages()
+    {
+        return trialEndAgentMessages;
+    }
+
+    public String[] getSeriesStartAgentMessages()
+    {
+        return seriesStartAgentMessages;
+    }
+}
@@ -5,12 +5,16 @@ package experiments;
 
 import org.rlcommunity.rlglue.codec.RLGlue;
 import org.rlcommunity.rlglue.codec.taskspec.TaskSpecVRLGLUE3;
-import org.rlcommunity.rlglue.codec.types.Reward;
+import tools.glue.LocalMOGlue;
+import tools.glue.MOGlue;
 import tools.spreadsheet.ExcelWriter;
 import tools.spreadsheet.JxlExcelWriter;
+import tools.trials.TrialOutput;
 import tools.valuefunction.TLO_LookupTable;
 
 import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.List;
 
 public class FlexibleMIExperimentWithExcelOutput
 {
@@ -125,31 +129,71 @@ public class FlexibleMIExperimentWithExcelOutput
     private final int EXPLORATION_DECAY_LENGTH = 4000; // Sub in for parameters measured off learning
     private final int MAX_EPISODE_LENGTH = 1000;
 
+    // When running in-process, evaluate the offline series after the last online series concurrently, each on its
+    // own fork of the trained agent (see ForkedEvaluation), rather than one after another via save_vf/load_vf
+    private final boolean FORK_OFFLINE_SERIES = true;
+    private final int FORK_THREADS = Runtime.getRuntime().availableProcessors();
+
 
 
     private final String FILENAME_PREFIX = ENVIRONMENT_PREFIX + "-";
     private ExcelWriter excel;
 
     // store the data for the most recent Reward. The strings indicates a value or label to be written in the first two columns
-    private void saveReward(String labels, Reward r)
+    private void saveReward(String labels, double[] r)
     {
-        excel.writeNextRowTextAndNumbers(labels, r.doubleArray);
-//        System.out.println("reward 1: " + r.doubleArray[0] + " 2: " + r.doubleArray[1] + " length = "+ r.doubleArray.length);
+        excel.writeNextRowTextAndNumbers(labels, r);
+//        System.out.println("reward 1: " + r[0] + " 2: " + r[1] + " length = "+ r.length);
     }
 
-    // Run One Episode of length maximum cutOff
-    private Reward runEpisode(int stepLimit) {
-        int terminal = RLGlue.RL_episode(stepLimit);
-        int totalSteps = RLGlue.RL_num_steps();
-        Reward totalReward = RLGlue.RL_return();
-        return totalReward;
+    // Run a series of episodes back to back, each of length maximum stepLimit, returning the [episode][objective]
+    // return of each one
+    private double[][] runSeries(int numEpisodes, int stepLimit) {
+        return MOGlue.RL_series(numEpisodes, stepLimit).getReturns();
+    }
+
+    // The series from which on everything is offline and can be forked from the agent as trained so far, or the
+    // number of series if forking isn't possible (forking needs the agent and environment in this JVM)
+    private int getFirstForkedSeries() {
+        if (!FORK_OFFLINE_SERIES || !(MOGlue.getGlue() instanceof LocalMOGlue)) {
+            return NUM_EPISODES_PER_SERIES.length;
+        }
+        int first = NUM_EPISODES_PER_SERIES.length;
+        while (first > 0 && !SERIES_IS_ONLINE[first - 1]) {
+            first--;
+        }
+        return first;
+    }
+
+    // Run the series from firstForked on as concurrent forks of the agent, writing their rows in series order
+    private void runForkedSeries(int firstForked, int trial) {
+        List<ForkedEvaluation.Branch> branches = new ArrayList<ForkedEvaluation.Branch>();
+        for (int seriesNum = firstForked; seriesNum < NUM_EPISODES_PER_SERIES.length; seriesNum++) {
+            branches.add(new ForkedEvaluation.Branch("T" + trial + "_Offline" + seriesNum, NUM_EPISODES_PER_SERIES[seriesNum])
+                    .agentMessage("freeze_learning")
+                    .agentMessage("update_threshold:" + SERIES_THRESHOLD_INDEX[seriesNum]));
+        }
+        double[][][] returns;
+        try {
+            returns = new ForkedEvaluation(FORK_THREADS, TrialOutput.path("Forks"))
+                    .run((LocalMOGlue) MOGlue.getGlue(), branches, MAX_EPISODE_LENGTH);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while running the offline series", e);
+        }
+        for (int b = 0; b < branches.size(); b++) {
+            String lab = "Offline" + (firstForked + b) + "&";
+            for (int episodeNum = 0; episodeNum < returns[b].length; episodeNum++) {
+                saveReward(lab + (1 + episodeNum), returns[b][episodeNum]);
+            }
+        }
     }
 
     public void runExperiment() {
 
         if (!(NUM_EPISODES_PER_SERIES.length == SERIES_IS_ONLINE.length & NUM_EPISODES_PER_SERIES.length == SERIES_THRESHOLD_INDEX.length)) {
-            System.out.println("ERROR!!! Experiment Series settings inconsistent lengths!");
-            System.exit(0); // shut down the experiment + hopefully everything else launched by the Driver program (server, agent, environment)
+            // throw rather than exit, so a misconfigured experiment doesn't take down everything else in the JVM
+            throw new IllegalStateException("ERROR!!! Experiment Series settings inconsistent lengths!");
         }
         // Get Timestamp
         long bt = System.currentTimeMillis();
@@ -183,7 +227,8 @@ public class FlexibleMIExperimentWithExcelOutput
 
             // Iterate through to run the simulations
             int episodeCounter = 0;
-            for (int seriesNum = 0; seriesNum<(NUM_EPISODES_PER_SERIES.length); seriesNum++) {
+            int firstForked = getFirstForkedSeries();
+            for (int seriesNum = 0; seriesNum<firstForked; seriesNum++) {
                 // set up labelling
 
                 // if the first series is online, train a new vf from scratch, else load
@@ -203,12 +248,16 @@ public class FlexibleMIExperimentWithExcelOutput
                 RLGlue.RL_agent_message("update_threshold:" + SERIES_THRESHOLD_INDEX[seriesNum]);
 
 
+                double[][] seriesReturns = runSeries(NUM_EPISODES_PER_SERIES[seriesNum], MAX_EPISODE_LENGTH);
                 for (int episodeNum = 0; episodeNum < NUM_EPISODES_PER_SERIES[seriesNum]; episodeNum++) {
 
-                    saveReward(lab + (1 + episodeNum), runEpisode(MAX_EPISODE_LENGTH));
+                    saveReward(lab + (1 + episodeNum), seriesReturns[episodeNum]);
                 }
                 RLGlue.RL_agent_message("save_vf");		// save the value function
             }
+            if (firstForked < NUM_EPISODES_PER_SERIES.length) {
+                runForkedSeries(firstForked, trial);
+            }
             // Iterate through to print averages
             for (int seriesNum = 0; seriesNum<(NUM_EPISODES_PER_SERIES.length); seriesNum++) {
                 String formulas = "AVERAGE(" + excel.getAddress(2,episodeCounter + 1) + ":" + excel.getAddress(2,NUM_EPISODES_PER_SERIES[seriesNum] + episodeCounter) + ")"
@@ -0,0 +1,173 @@
+// Branches several offline evaluations off one trained agent, and runs them side by side. Rather than saving the
+// value function after training and loading it back before each evaluation series in turn, each branch runs on its
+// own LocalMOGlue.fork() of the trained glue - a complete in-memory copy of the agent (Q-values, thresholds,
+// exploration settings, random number streams) and environment - so the branches can't disturb each other or the
+// original, and run concurrently on a SessionHost. A branch applies its own environment and agent messages first,
+// e.g. set_actor:QuietQuinn or update_threshold:3, then runs its episodes.
+//
+//   List<ForkedEvaluation.Branch> branches = new ArrayList<ForkedEvaluation.Branch>();
+//   for (int i = 0; i < 8; i++)
+//       branches.add(new ForkedEvaluation.Branch("Threshold" + i, 100)
+//               .agentMessage("freeze_learning").agentMessage("update_threshold:" + i));
+//   double[][][] returns = new ForkedEvaluation(4, "forks").run(trainedGlue, branches, 1000);
+
+package experiments;
+
+import agents.SatisficingMOMIAgent;
+import env.WatchedLivingRoomWithTableAndCat;
+import org.rlcommunity.rlglue.codec.RLGlueInterface;
+import tools.glue.LocalMOGlue;
+import tools.glue.MOGlue;
+import tools.valuefunction.TLO_LookupTable;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+public class ForkedEvaluation
+{
+    // One evaluation: the messages to send to the forked environment and agent, then how many episodes to run
+    public static class Branch
+    {
+        private final String name;
+        private final int numEpisodes;
+        private final List<String> envMessages = new ArrayList<String>();
+        private final List<String> agentMessages = new ArrayList<String>();
+
+        public Branch(String name, int numEpisodes)
+        {
+            this.name = name;
+            this.numEpisodes = numEpisodes;
+        }
+
+        public Branch envMessage(String message)
+        {
+            envMessages.add(message);
+            return this;
+        }
+
+        public Branch agentMessage(String message)
+        {
+            agentMessages.add(message);
+            return this;
+        }
+
+        public String getName()
+        {
+            return name;
+        }
+    }
+
+    private final int numThreads;
+    private final String baseDirectory;
+
+    // At most numThreads branches run at once. Each branch's files go in baseDirectory/<branch name>.
+    public ForkedEvaluation(int numThreads, String baseDirectory)
+    {
+        this.numThreads = numThreads;
+        this.baseDirectory = baseDirectory;
+    }
+
+    // Run every branch on its own fork of the trained glue, which is left as it was. The trained agent and
+    // environment must be Copyable and between episodes. Returns [branch][episode][objective].
+    public double[][][] run(LocalMOGlue trained, List<Branch> branches, final int maxStepsPerEpisode)
+            throws InterruptedException
+    {
+        final double[][][] returns = new double[branches.size()][][];
+        SessionHost host = new SessionHost(Math.max(1, Math.min(numThreads, branches.size())), baseDirectory);
+        try (SessionHost.Scope scope = host.open(true))
+        {
+            for (int b = 0; b < branches.size(); b++)
+            {
+                final int index = b;
+                final Branch branch = branches.get(b);
+                // fork here rather than on the session's thread, so the trained glue is only ever read by this one
+                final LocalMOGlue fork = trained.fork();
+                scope.fork(branch.name, () -> fork, glue -> returns[index] = runBranch(glue, branch, maxStepsPerEpisode));
+            }
+            scope.join();
+        }
+        finally
+        {
+            host.shutdown();
+        }
+        return returns;
+    }
+
+    // As run(), but one branch after another on the calling thread - the results are identical
+    public double[][][] runSerially(LocalMOGlue trained, List<Branch> branches, int maxStepsPerEpisode)
+    {
+        double[][][] returns = new double[branches.size()][][];
+        for (int b = 0; b < branches.size(); b++)
+        {
+            returns[b] = runBranch(trained.fork(), branches.get(b), maxStepsPerEpisode);
+        }
+        return returns;
+    }
+
+    private static double[][] runBranch(RLGlueInterface glue, Branch branch, int maxStepsPerEpisode)
+    {
+        for (String message : branch.envMessages)
+        {
+            glue.RL_env_message(message);
+        }
+        for (String message : branch.agentMessages)
+        {
+            glue.RL_agent_message(message);
+        }
+        return MOGlue.RL_series(glue, branch.numEpisodes, maxStepsPerEpisode).getReturns();
+    }
+
+    // Trains a SatisficingMOMIAgent on the TableAndCat environment, then evaluates each of its 8 thresholds both
+    // serially and as concurrent forks, checking the two give the same returns.
+    // Usage: ForkedEvaluation [trainingEpisodes] [evaluationEpisodes] [threads]
+    public static void main(String[] args) throws Exception
+    {
+        int trainingEpisodes = args.length > 0 ? Integer.parseInt(args[0]) : 200;
+        int evaluationEpisodes = args.length > 1 ? Integer.parseInt(args[1]) : 20;
+        int threads = args.length > 2 ? Integer.parseInt(args[2]) : Runtime.getRuntime().availableProcessors();
+        final int maxEpisodeLength = 1000;
+
+        LocalMOGlue glue = new LocalMOGlue(new WatchedLivingRoomWithTableAndCat(), new SatisficingMOMIAgent());
+        glue.RL_init();
+        glue.RL_agent_message("set_learning_parameters 0.1 0.95 1.0 " + TLO_LookupTable.SOFTMAX_TOURNAMENT);
+        glue.RL_agent_message("set_softmax_parameters 10 " + trainingEpisodes);
+        glue.RL_agent_message("start_new_trial:0");
+        glue.RL_agent_message("unfreeze_learning");
+        long start = System.currentTimeMillis();
+        MOGlue.RL_series(glue, trainingEpisodes, maxEpisodeLength);
+        System.out.println("ForkedEvaluation - trained for " + trainingEpisodes + " episodes in "
+                + (System.currentTimeMillis() - start) + "ms");
+
+        List<Branch> branches = new ArrayList<Branch>();
+        for (int i = 0; i < 8; i++)
+        {
+            branches.add(new Branch("Threshold" + i, evaluationEpisodes)
+                    .agentMessage("freeze_learning").agentMessage("update_threshold:" + i));
+        }
+        ForkedEvaluation evaluation = new ForkedEvaluation(threads, "forks");
+        start = System.currentTimeMillis();
+        double[][][] serial = evaluation.runSerially(glue, branches, maxEpisodeLength);
+        long serialTime = System.currentTimeMillis() - start;
+        start = System.currentTimeMillis();
+        double[][][] forked = evaluation.run(glue, branches, maxEpisodeLength);
+        long forkedTime = System.currentTimeMillis() - start;
+
+        for (int b = 0; b < branches.size(); b++)
+        {
+            double[] mean = new double[forked[b][0].length];
+            for (double[] episode : forked[b])
+            {
+                for (int o = 0; o < mean.length; o++)
+                {
+                    mean[o] += episode[o] / forked[b].length;
+                }
+            }
+            System.out.println(branches.get(b).getName() + "\tmean return " + Arrays.toString(mean));
+        }
+        boolean same = Arrays.deepEquals(serial, forked);
+        System.out.println("ForkedEvaluation - serial " + serialTime + "ms, " + threads + " thread(s) " + forkedTime
+                + "ms, results " + (same ? "identical" : "DIFFER"));
+        System.exit(same ? 0 : 1);
+    }
+}
@@ -5,7 +5,7 @@ package experiments;
 
 import org.rlcommunity.rlglue.codec.RLGlue;
 import org.rlcommunity.rlglue.codec.taskspec.TaskSpecVRLGLUE3;
-import org.rlcommunity.rlglue.codec.types.Reward;
+import tools.glue.MOGlue;
 import tools.spreadsheet.ExcelWriter;
 import tools.spreadsheet.JxlExcelWriter;
 import tools.valuefunction.TLO_LookupTable;
@@ -91,18 +91,16 @@ public class MIExperimentWithExcelOutput
     private ExcelWriter excel;
 
     // store the data for the most recent Reward. The strings indicates a value or label to be written in the first two columns
-    private void saveReward(String labels, Reward r)
+    private void saveReward(String labels, double[] r)
     {
-        excel.writeNextRowTextAndNumbers(labels, r.doubleArray);
-//        System.out.println("reward 1: " + r.doubleArray[0] + " 2: " + r.doubleArray[1] + " length = "+ r.doubleArray.length);
+        excel.writeNextRowTextAndNumbers(labels, r);
+//        System.out.println("reward 1: " + r[0] + " 2: " + r[1] + " length = "+ r.length);
     }
 
-    // Run One Episode of length maximum cutOff
-    private Reward runEpisode(int stepLimit) {
-        int terminal = RLGlue.RL_episode(stepLimit);
-        int totalSteps = RLGlue.RL_num_steps();
-        Reward totalReward = RLGlue.RL_return();
-        return totalReward;
+    // Run a series of episodes back to back, each of length maximum stepLimit, returning the [episode][objective]
+    // return of each one
+    private double[][] runSeries(int numEpisodes, int stepLimit) {
+        return MOGlue.RL_series(numEpisodes, stepLimit).getReturns();
     }
 
     public void runExperiment() {
@@ -135,22 +133,21 @@ public class MIExperimentWithExcelOutput
             // run the trial and save the results to the spreadsheet
             System.out.println("Trial " + trial);
             RLGlue.RL_agent_message("start_new_trial");
+            double[][] onlineReturns = runSeries(NUM_ONLINE_EPISODES_PER_TRIAL, MAX_EPISODE_LENGTH);
             for (int episodeNum=0; episodeNum<NUM_ONLINE_EPISODES_PER_TRIAL; episodeNum++)
             {
-                saveReward("Online&"+(1+episodeNum),runEpisode(MAX_EPISODE_LENGTH));
+                saveReward("Online&"+(1+episodeNum),onlineReturns[episodeNum]);
             }
 //            RLGlue.RL_agent_message("save_vf");		// save the value function
             RLGlue.RL_agent_message("load_vf");		// load the value function
             RLGlue.RL_agent_message("freeze_learning");		// turn off learning and exploration for offline assessment of the final policy
+            // turn on debugging for the offline runs
+            //RLGlue.RL_env_message("start-debugging");
+            //RLGlue.RL_agent_message("start-debugging");
+            double[][] offlineReturns = runSeries(NUM_OFFLINE_EPISODES_PER_TRIAL, MAX_EPISODE_LENGTH);
             for (int episodeNum=0; episodeNum<NUM_OFFLINE_EPISODES_PER_TRIAL; episodeNum++)
             {
-                // turn on debugging for the final offline run
-                if (episodeNum==NUM_OFFLINE_EPISODES_PER_TRIAL-1)
-                {
-                    //RLGlue.RL_env_message("start-debugging");
-                    //RLGlue.RL_agent_message("start-debugging");
-                }
-                saveReward("Offline&"+(1+episodeNum),runEpisode(MAX_EPISODE_LENGTH));
+                saveReward("Offline&"+(1+episodeNum),offlineReturns[episodeNum]);
             }
             RLGlue.RL_env_message("stop-debugging");
             RLGlue.RL_agent_message("stop-debugging");
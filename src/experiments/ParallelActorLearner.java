@@ -0,0 +1,138 @@
+// Learns one value function with several workers at once, each its own SatisficingMOMIAgent and environment on its
+// own thread, all learning into a single ConcurrentQValueStorage - so with K cores, up to K episodes' worth of
+// experience can go into the table in the time one would take (unmeasured so far - see ParallelLearningBenchmark).
+// The workers are LocalMOGlue.fork()s of a prototype glue, set up as for ordinary learning (learning parameters,
+// trial, unfrozen), and start from its Q-values. Each has its own trace, exploration and random number streams:
+// worker 0 carries on the prototype's, and the others are reseeded from the given seed. The tables can't cache
+// greedy actions over shared values, so they work them out every time they're asked - even one worker needn't
+// learn episode for episode as the prototype would have. Only tables which allow concurrent storage (see
+// LookupTable.allowsConcurrentStorage()) can share it; the others throw.
+// The workers run on a SessionHost, each with its own output directory, and claim the episodes of a learn() call
+// one at a time, so a slow worker just runs fewer of them. How their updates are reconciled is the storage's write
+// mode (see ConcurrentQValueStorage). Exploration decays per worker, as each agent counts its own episodes - give
+// the prototype a schedule for the episodes one worker will run.
+//
+//   LocalMOGlue glue = new LocalMOGlue(new WatchedLivingRoomWithTableAndCat(), new SatisficingMOMIAgent());
+//   glue.RL_init();
+//   ... set_learning_parameters, set_softmax_parameters, start_new_trial:0, unfreeze_learning
+//   ParallelActorLearner learner = new ParallelActorLearner(glue, 4, ConcurrentQValueStorage.HOGWILD, seed, "workers");
+//   learner.learn(2000, 1000);
+//   MOGlue.RL_series(learner.snapshot(), 10, 1000);   // e.g. after freeze_learning
+//   learner.shutdown();
+//
+// See ParallelLearningBenchmark for how the time to a converged policy goes with the number of workers.
+
+package experiments;
+
+import agents.SatisficingMOMIAgent;
+import tools.glue.LocalMOGlue;
+import tools.random.SplitMix;
+import tools.valuefunction.storage.ConcurrentQValueStorage;
+import tools.valuefunction.storage.QValueStorage;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class ParallelActorLearner
+{
+    private final LocalMOGlue[] workers;
+    private final ConcurrentQValueStorage values;
+    private final SessionHost host;
+    private int episodes = 0;
+
+    // Fork numWorkers workers off the prototype, whose agent must be a SatisficingMOMIAgent and whose environment
+    // must be Copyable, between episodes. Worker k's files go in baseDirectory/Worker<k>.
+    public ParallelActorLearner(LocalMOGlue prototype, int numWorkers, int writeMode, long seed, String baseDirectory)
+    {
+        if (numWorkers < 1)
+        {
+            throw new IllegalArgumentException("ParallelActorLearner - needs at least one worker, not " + numWorkers);
+        }
+        if (!(prototype.getAgent() instanceof SatisficingMOMIAgent))
+        {
+            throw new IllegalArgumentException("ParallelActorLearner - can't share the Q-values of "
+                    + prototype.getAgent().getClass().getSimpleName());
+        }
+        QValueStorage start = ((SatisficingMOMIAgent) prototype.getAgent()).getQValues();
+        values = new ConcurrentQValueStorage(start.getNumberOfObjectives(), start.getNumberOfActions(),
+                start.getNumberOfStates(), writeMode);
+        for (int i = 0; i < start.getNumberOfObjectives(); i++)
+        {
+            for (int a = 0; a < start.getNumberOfActions(); a++)
+            {
+                for (int s = 0; s < start.getNumberOfStates(); s++)
+                {
+                    values.set(i, a, s, start.get(i, a, s));
+                }
+            }
+        }
+        workers = new LocalMOGlue[numWorkers];
+        for (int k = 0; k < numWorkers; k++)
+        {
+            workers[k] = prototype.fork();
+            ((SatisficingMOMIAgent) workers[k].getAgent()).shareQValues(values);
+            if (k > 0)
+            {
+                long workerSeed = SplitMix.derive(seed, "worker", k).nextLong();
+                workers[k].RL_env_message("set_seed:" + workerSeed);
+                workers[k].RL_agent_message("set_seed:" + workerSeed);
+            }
+        }
+        host = new SessionHost(numWorkers, baseDirectory);
+    }
+
+    public int getNumberOfWorkers()
+    {
+        return workers.length;
+    }
+
+    // the Q-values the workers are learning into
+    public ConcurrentQValueStorage getValues()
+    {
+        return values;
+    }
+
+    // how many episodes the workers have run between them
+    public int getEpisodeCount()
+    {
+        return episodes;
+    }
+
+    // Run numEpisodes more episodes between the workers, each taking the next as it finishes one, and return how
+    // many each ran. If any worker fails, the others are stopped and the failure thrown (see SessionHost).
+    public int[] learn(int numEpisodes, final int maxStepsPerEpisode) throws InterruptedException
+    {
+        final AtomicInteger remaining = new AtomicInteger(numEpisodes);
+        final int[] ran = new int[workers.length];
+        try (SessionHost.Scope scope = host.open(true))
+        {
+            for (int k = 0; k < workers.length; k++)
+            {
+                final int worker = k;
+                final LocalMOGlue glue = workers[k];
+                scope.fork("Worker" + k, () -> glue, g -> {
+                    while (remaining.getAndDecrement() > 0)
+                    {
+                        glue.RL_episode(maxStepsPerEpisode);
+                        ran[worker]++;
+                    }
+                });
+            }
+            scope.join();
+        }
+        episodes += numEpisodes;
+        return ran;
+    }
+
+    // A glue joining a copy of worker 0's agent - with a copy of the Q-values learnt so far, which the workers
+    // carry on without - and environment, e.g. to evaluate the policy between calls to learn()
+    public LocalMOGlue snapshot()
+    {
+        return workers[0].fork();
+    }
+
+    // stop the workers' threads once they're idle
+    public void shutdown()
+    {
+        host.shutdown();
+    }
+}
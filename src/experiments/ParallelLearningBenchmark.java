@@ -0,0 +1,130 @@
+// How the wall-clock time to a converged policy on WatchedLivingRoomWithTableAndCat goes with the number of
+// ParallelActorLearner workers, for each write mode. For 1, 2, 4 ... workers, a fresh SatisficingMOMIAgent learns
+// for the same total number of episodes, shared between the workers, a stage at a time; after each stage the greedy
+// policy for threshold 0 is evaluated on a snapshot (not counted in the time). The policy has converged at the first
+// stage from which every later evaluation gives the same mean return as the last. Prints one line per stage, then a
+// summary line per run: learning time, episodes per second, and the time and episodes it took to converge.
+// Usage: ParallelLearningBenchmark [totalEpisodes] [stageEpisodes] [maxWorkers] [evaluationEpisodes] [modes]
+// where modes is a comma-separated list of hogwild, atomic and locked.
+// The point is the speed-up from more cores, so run it on a machine with several - on a single processor the workers
+// just take turns, and the times say nothing about how the modes compare under real contention. None of the modes'
+// scaling has been measured on more than one processor yet.
+
+package experiments;
+
+import agents.SatisficingMOMIAgent;
+import env.WatchedLivingRoomWithTableAndCat;
+import tools.glue.LocalMOGlue;
+import tools.glue.MOGlue;
+import tools.random.Randoms;
+import tools.valuefunction.TLO_LookupTable;
+import tools.valuefunction.storage.ConcurrentQValueStorage;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+public class ParallelLearningBenchmark
+{
+    private static final int MAX_EPISODE_LENGTH = 1000;
+
+    // mean return of the greedy policy for threshold 0
+    private static double[] evaluate(ParallelActorLearner learner, int evaluationEpisodes)
+    {
+        LocalMOGlue glue = learner.snapshot();
+        glue.RL_agent_message("freeze_learning");
+        glue.RL_agent_message("update_threshold:0");
+        double[][] returns = MOGlue.RL_series(glue, evaluationEpisodes, MAX_EPISODE_LENGTH).getReturns();
+        double[] mean = new double[returns[0].length];
+        for (double[] episode : returns)
+        {
+            for (int o = 0; o < mean.length; o++)
+            {
+                mean[o] += episode[o] / returns.length;
+            }
+        }
+        return mean;
+    }
+
+    private static int parseMode(String mode)
+    {
+        for (int m = ConcurrentQValueStorage.HOGWILD; m <= ConcurrentQValueStorage.LOCKED; m++)
+        {
+            if (ConcurrentQValueStorage.modeToString(m).equals(mode))
+            {
+                return m;
+            }
+        }
+        throw new IllegalArgumentException("ParallelLearningBenchmark - unknown write mode " + mode);
+    }
+
+    public static void main(String[] args) throws Exception
+    {
+        int totalEpisodes = args.length > 0 ? Integer.parseInt(args[0]) : 2000;
+        int stageEpisodes = args.length > 1 ? Integer.parseInt(args[1]) : 100;
+        int maxWorkers = args.length > 2 ? Integer.parseInt(args[2]) : Runtime.getRuntime().availableProcessors();
+        int evaluationEpisodes = args.length > 3 ? Integer.parseInt(args[3]) : 5;
+        String[] modes = (args.length > 4 ? args[4] : "hogwild,atomic,locked").split(",");
+
+        List<String> summary = new ArrayList<String>();
+        for (String modeName : modes)
+        {
+            int mode = parseMode(modeName);
+            for (int workers = 1; workers <= maxWorkers; workers *= 2)
+            {
+                LocalMOGlue glue = new LocalMOGlue(new WatchedLivingRoomWithTableAndCat(), new SatisficingMOMIAgent());
+                glue.RL_init();
+                glue.RL_agent_message("set_learning_parameters 0.1 0.95 1.0 " + TLO_LookupTable.SOFTMAX_TOURNAMENT);
+                // each worker's exploration decays over its share of the episodes
+                glue.RL_agent_message("set_softmax_parameters 10 " + Math.max(1, totalEpisodes / workers));
+                glue.RL_agent_message("start_new_trial:0");
+                glue.RL_agent_message("unfreeze_learning");
+                ParallelActorLearner learner = new ParallelActorLearner(glue, workers, mode, Randoms.DEFAULT_SEED,
+                        "parallel/" + modeName + "_W" + workers);
+
+                List<double[]> evaluations = new ArrayList<double[]>();
+                List<Long> times = new ArrayList<Long>();
+                long learning = 0;
+                try
+                {
+                    while (learner.getEpisodeCount() < totalEpisodes)
+                    {
+                        int stage = Math.min(stageEpisodes, totalEpisodes - learner.getEpisodeCount());
+                        long start = System.nanoTime();
+                        learner.learn(stage, MAX_EPISODE_LENGTH);
+                        learning += System.nanoTime() - start;
+                        double[] mean = evaluate(learner, evaluationEpisodes);
+                        evaluations.add(mean);
+                        times.add(learning);
+                        System.out.println(modeName + "\t" + workers + " worker(s)\t" + learner.getEpisodeCount()
+                                + " episodes\t" + learning / 1000000 + "ms\tgreedy return " + Arrays.toString(mean));
+                    }
+                }
+                finally
+                {
+                    learner.shutdown();
+                }
+
+                int converged = evaluations.size() - 1;
+                double[] last = evaluations.get(converged);
+                while (converged > 0 && Arrays.equals(evaluations.get(converged - 1), last))
+                {
+                    converged--;
+                }
+                int convergedEpisodes = Math.min(totalEpisodes, (converged + 1) * stageEpisodes);
+                summary.add(String.format("%s\t%d worker(s)\t%dms\t%.1f episodes/s\tconverged to %s after %d episodes,"
+                                + " %dms", modeName, workers, learning / 1000000, totalEpisodes * 1e9 / learning,
+                        Arrays.toString(last), convergedEpisodes, times.get(converged) / 1000000));
+            }
+        }
+        int processors = Runtime.getRuntime().availableProcessors();
+        System.out.println("ParallelLearningBenchmark - " + totalEpisodes + " episodes, " + processors
+                + " processor(s)" + (processors == 1 ? " - the workers only took turns, so this says nothing about"
+                + " scaling" : ""));
+        for (String line : summary)
+        {
+            System.out.println(line);
+        }
+        System.exit(0);
+    }
+}
@@ -0,0 +1,261 @@
+// Hosts many independent sessions - each an agent, an environment and an experiment driving them - inside one JVM.
+// A session talks to its agent and environment through its own LocalMOGlue, so every glue call is a plain method
+// call on the session's thread rather than a blocking socket round trip between three threads. That makes a session
+// cost one pooled thread while it runs and nothing while it waits, so hundreds can be queued on a pool sized to the
+// cores. Each session also gets its own actor Attitude and output directory (see TrialOutput).
+// Sessions are forked within a Scope, which owns them: join() waits for all of them and reports every failure
+// together, and closing the scope cancels anything still running. With failFast, the first failure cancels the rest.
+// A failing session only ever throws - nothing here, or in the experiments it runs, calls System.exit.
+//
+//   SessionHost host = new SessionHost(Runtime.getRuntime().availableProcessors());
+//   try (SessionHost.Scope scope = host.open(false)) {
+//       for (int i = 0; i < 200; i++)
+//           scope.fork("session" + i, SatisficingMOMIAgent::new, WatchedLivingRoomWithTableAndCat::new,
+//                   glue -> new ApologyExperiment().runExperiment(glue));
+//       scope.join();
+//   }
+
+package experiments;
+
+import env.Attitude;
+import org.rlcommunity.rlglue.codec.AgentInterface;
+import org.rlcommunity.rlglue.codec.EnvironmentInterface;
+import org.rlcommunity.rlglue.codec.RLGlueInterface;
+import tools.glue.LocalMOGlue;
+import tools.trials.TrialOutput;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+public class SessionHost
+{
+    // The experiment side of a session, run on the session's thread with the glue joining its agent and environment
+    public interface Session
+    {
+        void run(RLGlueInterface glue) throws Exception;
+    }
+
+    // Thrown by Scope.join() when one or more sessions failed. The first failure is the cause and the rest are
+    // attached as suppressed exceptions.
+    public static class SessionsFailedException extends RuntimeException
+    {
+        private static final long serialVersionUID = 1L;
+
+        private final List<String> failedSessions;
+
+        SessionsFailedException(List<String> failedSessions, List<Throwable> failures)
+        {
+            super("SessionHost - " + failedSessions.size() + " session(s) failed: " + failedSessions, failures.get(0));
+            this.failedSessions = failedSessions;
+            for (int i = 1; i < failures.size(); i++)
+            {
+                addSuppressed(failures.get(i));
+            }
+        }
+
+        public List<String> getFailedSessions()
+        {
+            return failedSessions;
+        }
+    }
+
+    private final ExecutorService pool;
+    private final String baseDirectory;
+
+    // numThreads sessions run at once; the rest wait their turn. Each session's files go in baseDirectory/<name>.
+    public SessionHost(int numThreads, String baseDirectory)
+    {
+        if (numThreads < 1)
+        {
+            throw new IllegalArgumentException("SessionHost needs at least one thread, not " + numThreads);
+        }
+        this.pool = Executors.newFixedThreadPool(numThreads, new WorkerFactory());
+        this.baseDirectory = baseDirectory;
+    }
+
+    public SessionHost(int numThreads)
+    {
+        this(numThreads, "sessions");
+    }
+
+    // Open a scope to fork sessions into. With failFast, a session failing cancels all the others in the scope.
+    public Scope open(boolean failFast)
+    {
+        return new Scope(failFast);
+    }
+
+    // Stop accepting sessions and let the pool's threads finish once any running scopes are done
+    public void shutdown()
+    {
+        pool.shutdown();
+    }
+
+    public class Scope implements AutoCloseable
+    {
+        private final boolean failFast;
+        private final List<String> names = new ArrayList<String>();
+        private final List<Future<?>> sessions = new ArrayList<Future<?>>();
+        private volatile boolean failed = false;
+        // sessions which have started and not yet finished - a cancelled session's future completes straight away,
+        // but join() still waits for its thread to stop
+        private int running = 0;
+
+        private Scope(boolean failFast)
+        {
+            this.failFast = failFast;
+        }
+
+        // Start a session with a new agent and environment from the given factories
+        public Future<?> fork(final String name, final Supplier<? extends AgentInterface> agentFactory,
+                              final Supplier<? extends EnvironmentInterface> environmentFactory,
+                              final Session session)
+        {
+            return fork(name, () -> new LocalMOGlue(environmentFactory.get(), agentFactory.get()), session);
+        }
+
+        // Start a session on a glue from the given factory, e.g. a LocalMOGlue.fork() of an agent trained elsewhere
+        public synchronized Future<?> fork(final String name, final Supplier<? extends LocalMOGlue> glueFactory,
+                                           final Session session)
+        {
+            final String dir = new File(baseDirectory, name).getPath();
+            final int index = sessions.size();
+            Future<?> f = pool.submit(() -> {
+                runInScope(index, dir, glueFactory.get(), session);
+                return null;
+            });
+            names.add(name);
+            sessions.add(f);
+            return f;
+        }
+
+        private void runInScope(int index, String dir, LocalMOGlue glue, Session session) throws Exception
+        {
+            if (failFast && failed)
+            {
+                throw new CancellationException("SessionHost - cancelled after another session failed");
+            }
+            synchronized (this)
+            {
+                running++;
+            }
+            Attitude.beginScope();
+            TrialOutput.setDirectory(dir);
+            try
+            {
+                session.run(glue);
+            }
+            catch (Exception | Error e)
+            {
+                if (failFast && !failed)
+                {
+                    failed = true;
+                    cancel(index);
+                }
+                throw e;
+            }
+            finally
+            {
+                TrialOutput.setDirectory(null);
+                Attitude.endScope();
+                synchronized (this)
+                {
+                    running--;
+                    notifyAll();
+                }
+            }
+        }
+
+        // Interrupt every session - running ones stop at the start of their next episode (see LocalMOGlue)
+        public void cancelAll()
+        {
+            cancel(-1);
+        }
+
+        // Interrupt every session except the one with the given index, which has failed and is reporting it
+        private synchronized void cancel(int except)
+        {
+            for (int i = 0; i < sessions.size(); i++)
+            {
+                if (i != except)
+                {
+                    sessions.get(i).cancel(true);
+                }
+            }
+        }
+
+        // Wait for every session forked so far. Throws SessionsFailedException listing the sessions which failed
+        // or were cancelled, if any.
+        public void join() throws InterruptedException
+        {
+            List<String> failedNames = new ArrayList<String>();
+            List<Throwable> failures = new ArrayList<Throwable>();
+            int n;
+            synchronized (this)
+            {
+                n = sessions.size();
+            }
+            for (int i = 0; i < n; i++)
+            {
+                Future<?> f;
+                String name;
+                synchronized (this)
+                {
+                    f = sessions.get(i);
+                    name = names.get(i);
+                }
+                try
+                {
+                    f.get();
+                }
+                catch (ExecutionException e)
+                {
+                    failedNames.add(name);
+                    failures.add(e.getCause());
+                }
+                catch (CancellationException e)
+                {
+                    failedNames.add(name);
+                    failures.add(e);
+                }
+            }
+            synchronized (this)
+            {
+                while (running > 0)
+                {
+                    wait();
+                }
+            }
+            if (!failures.isEmpty())
+            {
+                throw new SessionsFailedException(failedNames, failures);
+            }
+        }
+
+        // Cancel anything still running, so no session outlives its scope
+        public void close()
+        {
+            cancelAll();
+        }
+    }
+
+    private static class WorkerFactory implements ThreadFactory
+    {
+        private final AtomicInteger count = new AtomicInteger();
+
+        public Thread newThread(Runnable r)
+        {
+            Thread t = new Thread(r, "Session-" + count.getAndIncrement());
+            t.setDaemon(true);
+            return t;
+        }
+    }
+}
@@ -0,0 +1,335 @@
+// Runs the experiment described by an ExperimentSpec, in the same way as the hand-configured experiment classes:
+// one sheet per trial with a row per episode and the mean of each series, then a summary sheet across the trials.
+// Trials run through a TrialScheduler, so each has its own agent and environment, and everything the run writes -
+// the workbook, saved value functions, thresholds and diagnostic files - goes to the given output directory.
+// A single trial can also be run on its own with runSingleTrial, which saves its returns to a file in the output
+// directory instead; mergeTrials later gathers those into the same workbook (see SweepCoordinator).
+
+package experiments;
+
+import org.rlcommunity.rlglue.codec.RLGlueInterface;
+import org.rlcommunity.rlglue.codec.taskspec.TaskSpecVRLGLUE3;
+import tools.glue.LocalMOGlue;
+import tools.glue.MOGlue;
+import tools.spreadsheet.ExcelWriter;
+import tools.spreadsheet.JxlExcelWriter;
+import tools.trials.TrialOutput;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.List;
+
+public class SpecExperiment
+{
+    private final ExperimentSpec spec;
+    // read from the task spec and agent by probe()
+    private int numObjectives = 0;
+    private String agentName = null;
+
+    public SpecExperiment(ExperimentSpec spec)
+    {
+        this.spec = spec;
+    }
+
+    // Send the agent its learning parameters and the environment its actor - done once per agent, after RL_init.
+    // The seed goes first, so the actor's random numbers come from it too.
+    private void configure(RLGlueInterface glue)
+    {
+        if (spec.getSeed() != null)
+        {
+            glue.RL_env_message("set_seed:" + spec.getSeed());
+            glue.RL_agent_message("set_seed:" + spec.getSeed());
+        }
+        if (!spec.getActor().isEmpty())
+        {
+            glue.RL_env_message("set_actor:" + spec.getActor());
+        }
+        glue.RL_agent_message("set_learning_parameters" + " " + spec.getAlpha() + " " + spec.getLambda() + " "
+                + spec.getGamma() + " " + spec.getExploration());
+        glue.RL_agent_message(spec.getParamChangeString() + " " + spec.getExplorationParameter() + " "
+                + spec.getExplorationDecayLength());
+    }
+
+    // Create an agent and environment just to read the number of objectives and the agent's name
+    private void probe(String outputDirectory)
+    {
+        if (agentName != null)
+        {
+            return;
+        }
+        TrialOutput.setDirectory(outputDirectory);
+        try
+        {
+            RLGlueInterface glue = new LocalMOGlue(spec.newEnvironment(), spec.newAgent());
+            TaskSpecVRLGLUE3 theTaskSpec = new TaskSpecVRLGLUE3(glue.RL_init());
+            numObjectives = theTaskSpec.getNumOfObjectives();
+            configure(glue);
+            agentName = glue.RL_agent_message("get_agent_name");
+            glue.RL_cleanup();
+        }
+        finally
+        {
+            TrialOutput.setDirectory(null);
+        }
+    }
+
+    // The workbook's name, without the .xls extension
+    private String getWorkbookName(String outputDirectory)
+    {
+        probe(outputDirectory);
+        return new File(outputDirectory, spec.getName() + "-" + agentName + "-" + spec.getMethodPrefix()
+                + spec.getExplorationParameter() + "-alpha" + spec.getAlpha() + "-lambda" + spec.getLambda()).getPath();
+    }
+
+    // Run all the trials with up to numThreads at once, writing the results to outputDirectory (created if needed).
+    // Returns the name of the workbook written, without the .xls extension.
+    public String run(int numThreads, String outputDirectory)
+    {
+        long bt = System.currentTimeMillis();
+        System.out.println("Begin experiment " + spec.getName() + " " + spec.getId() + ". Current Time Stamp: " + new Timestamp(bt));
+        new File(outputDirectory).mkdirs();
+        String fileName = getWorkbookName(outputDirectory);
+        TrialScheduler scheduler = new TrialScheduler(numThreads, spec::newAgent, spec::newEnvironment);
+        scheduler.setOutputDirectory(outputDirectory);
+
+        final int numTrials = spec.getNumTrials();
+        final double[][][][] returns = new double[numTrials][][][];
+        scheduler.runTrials(numTrials, (trialGlue, trial) -> returns[trial] = runTrial(trialGlue, trial));
+        writeWorkbook(fileName, returns);
+
+        long et = System.currentTimeMillis();
+        System.out.println("********************************************** Experiment finished");
+        System.out.println("Current Time Stamp: " + new Timestamp(et));
+        System.out.println("Average runtime per trial: " + ((et - bt) / numTrials) / 1000 + "s");
+        return fileName;
+    }
+
+    // Run just the given trial on the calling thread, saving its returns to outputDirectory/Trial<N>.returns
+    public void runSingleTrial(int trial, String outputDirectory) throws IOException
+    {
+        new File(outputDirectory).mkdirs();
+        TrialOutput.setDirectory(outputDirectory);
+        TrialOutput.enter(trial);
+        try
+        {
+            RLGlueInterface glue = new LocalMOGlue(spec.newEnvironment(), spec.newAgent());
+            saveReturns(new File(outputDirectory, getReturnsFileName(trial)), runTrial(glue, trial));
+        }
+        finally
+        {
+            TrialOutput.exit();
+            TrialOutput.setDirectory(null);
+        }
+    }
+
+    public static String getReturnsFileName(int trial)
+    {
+        return "Trial" + trial + ".returns";
+    }
+
+    // Gather the returns saved by runSingleTrial for every trial into the workbook, as run() would have written it.
+    // Returns the name of the workbook, without the .xls extension.
+    public String mergeTrials(String outputDirectory) throws IOException
+    {
+        double[][][][] returns = new double[spec.getNumTrials()][][][];
+        for (int trial = 0; trial < returns.length; trial++)
+        {
+            returns[trial] = loadReturns(new File(outputDirectory, getReturnsFileName(trial)));
+        }
+        String fileName = getWorkbookName(outputDirectory);
+        writeWorkbook(fileName, returns);
+        return fileName;
+    }
+
+    // Write one sheet per trial then the summary sheet. returns is indexed [trial][series][episode][objective].
+    private void writeWorkbook(String fileName, double[][][][] returns)
+    {
+        ExcelWriter excel = new JxlExcelWriter(fileName);
+        for (int trial = 0; trial < returns.length; trial++)
+        {
+            writeTrialSheet(excel, trial, returns[trial]);
+        }
+        int totalNumEpisodes = 0;
+        for (int s = 0; s < spec.getNumSeries(); s++)
+        {
+            totalNumEpisodes += spec.getSeriesEpisodes(s);
+        }
+        // the extra rows capture the mean of each series as well as the individual episode results
+        excel.makeSummarySheet(returns.length, spec.getColumnHeaders(), 2, 1, numObjectives, totalNumEpisodes + spec.getNumSeries());
+        excel.closeFile();
+    }
+
+    // Run one trial on the given glue, returning the [series][episode][objective] returns
+    private double[][][] runTrial(RLGlueInterface glue, int trial)
+    {
+        glue.RL_init();
+        configure(glue);
+        System.out.println("Trial " + trial);
+        for (String message : spec.getTrialStartAgentMessages())
+        {
+            glue.RL_agent_message(ExperimentSpec.substitute(message, trial, 0, spec.getSeriesThreshold(0)));
+        }
+        for (String message : spec.getTrialStartEnvMessages())
+        {
+            glue.RL_env_message(ExperimentSpec.substitute(message, trial, 0, spec.getSeriesThreshold(0)));
+        }
+
+        double[][][] returns = new double[spec.getNumSeries()][][];
+        for (int seriesNum = 0; seriesNum < spec.getNumSeries(); seriesNum++)
+        {
+            int threshold = spec.getSeriesThreshold(seriesNum);
+            if (threshold >= 0)
+            {
+                glue.RL_agent_message("update_threshold:" + threshold);
+            }
+            glue.RL_agent_message(spec.isSeriesOnline(seriesNum) ? "unfreeze_learning" : "freeze_learning");
+            if (spec.hasApologeticSeries())
+            {
+                glue.RL_agent_message(spec.isSeriesApologetic(seriesNum) ? "apologetic_true" : "apologetic_false");
+            }
+            for (String message : spec.getSeriesStartAgentMessages())
+            {
+                glue.RL_agent_message(ExperimentSpec.substitute(message, trial, seriesNum, threshold));
+            }
+            returns[seriesNum] = MOGlue.RL_series(glue, spec.getSeriesEpisodes(seriesNum), spec.getMaxEpisodeLength()).getReturns();
+        }
+
+        int lastThreshold = spec.getSeriesThreshold(spec.getNumSeries() - 1);
+        for (String message : spec.getTrialEndAgentMessages())
+        {
+            glue.RL_agent_message(ExperimentSpec.substitute(message, trial, spec.getNumSeries() - 1, lastThreshold));
+        }
+        glue.RL_cleanup();
+        System.out.println("End of trial. Current Time Stamp: " + new Timestamp(System.currentTimeMillis()));
+        return returns;
+    }
+
+    // Write a trial's sheet - a row per episode, then the mean of each objective over each series
+    private void writeTrialSheet(ExcelWriter excel, int trial, double[][][] returns)
+    {
+        excel.moveToNewSheet("Trial" + trial, trial);
+        excel.writeNextRowText(" &Episode number&" + spec.getColumnHeaders());
+        for (int seriesNum = 0; seriesNum < returns.length; seriesNum++)
+        {
+            String lab = (spec.isSeriesOnline(seriesNum) ? "Online" : "Offline") + seriesNum + "&";
+            for (int episodeNum = 0; episodeNum < returns[seriesNum].length; episodeNum++)
+            {
+                excel.writeNextRowTextAndNumbers(lab + (1 + episodeNum), returns[seriesNum][episodeNum]);
+            }
+        }
+        int episodeCounter = 0;
+        for (int seriesNum = 0; seriesNum < returns.length; seriesNum++)
+        {
+            int first = episodeCounter + 1;
+            int last = episodeCounter + returns[seriesNum].length;
+            StringBuilder formulas = new StringBuilder();
+            for (int o = 0; o < numObjectives; o++)
+            {
+                if (o > 0)
+                {
+                    formulas.append('&');
+                }
+                formulas.append("AVERAGE(").append(excel.getAddress(2 + o, first)).append(':')
+                        .append(excel.getAddress(2 + o, last)).append(')');
+            }
+            excel.writeNextRowTextAndFormula("Mean over all series " + seriesNum + " episodes& ", formulas.toString());
+            episodeCounter = last;
+        }
+    }
+
+    // Save a trial's returns as text: a "series <episodes>" line for each series, followed by one line of
+    // comma-separated objective returns per episode. Written to a temporary file then renamed, so a reader never
+    // sees a partial file.
+    public static void saveReturns(File file, double[][][] returns) throws IOException
+    {
+        File tmp = new File(file.getPath() + ".tmp");
+        PrintWriter out = new PrintWriter(new FileWriter(tmp));
+        try
+        {
+            for (double[][] series : returns)
+            {
+                out.println("series " + series.length);
+                for (double[] episode : series)
+                {
+                    StringBuilder line = new StringBuilder();
+                    for (int o = 0; o < episode.length; o++)
+                    {
+                        if (o > 0)
+                        {
+                            line.append(',');
+                        }
+                        line.append(episode[o]);
+                    }
+                    out.println(line);
+                }
+            }
+        }
+        finally
+        {
+            out.close();
+        }
+        if (!tmp.renameTo(file))
+        {
+            file.delete();
+            if (!tmp.renameTo(file))
+            {
+                throw new IOException("SpecExperiment - unable to write " + file);
+            }
+        }
+    }
+
+    public static double[][][] loadReturns(File file) throws IOException
+    {
+        List<double[][]> series = new ArrayList<double[][]>();
+        BufferedReader in = new BufferedReader(new FileReader(file));
+        try
+        {
+            String line;
+            while ((line = in.readLine()) != null)
+            {
+                if (!line.startsWith("series "))
+                {
+                    throw new IOException("SpecExperiment - unexpected line in " + file + ": " + line);
+                }
+                double[][] episodes = new double[Integer.parseInt(line.substring(7).trim())][];
+                for (int e = 0; e < episodes.length; e++)
+                {
+                    String[] values = in.readLine().split(",");
+                    episodes[e] = new double[values.length];
+                    for (int o = 0; o < values.length; o++)
+                    {
+                        episodes[e][o] = Double.parseDouble(values[o]);
+                    }
+                }
+                series.add(episodes);
+            }
+        }
+        finally
+        {
+            in.close();
+        }
+        return series.toArray(new double[series.size()][][]);
+    }
+
+    // Usage: SpecExperiment specFile [threads] [outputDirectory]
+    // A spec containing sweep settings runs only its first configuration - use SweepRunner to run them all.
+    public static void main(String[] args) throws Exception
+    {
+        if (args.length < 1)
+        {
+            System.err.println("Usage: SpecExperiment specFile [threads] [outputDirectory]");
+            System.exit(1);
+        }
+        ExperimentSpec spec = ExperimentSpec.load(args[0]).expand().get(0);
+        int threads = args.length > 1 ? Integer.parseInt(args[1]) : Runtime.getRuntime().availableProcessors();
+        String dir = args.length > 2 ? args[2] : ".";
+        new SpecExperiment(spec).run(threads, dir);
+        System.exit(0);
+    }
+}
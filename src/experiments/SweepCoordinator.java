@@ -0,0 +1,315 @@
+// Runs a parameter sweep across several worker JVMs on this machine, for sweeps too big to run in one heap. Each
+// trial of each configuration becomes a job in a file queue under the sweep directory (see SweepWorker for the
+// layout), dealt out evenly to N worker processes started with ProcessBuilder; a worker which runs out of jobs of its
+// own steals from the others. The coordinator watches the workers, and if one dies its claimed jobs go back on the
+// queue and a replacement worker is started. A job that has killed MAX_ATTEMPTS workers is given up on.
+// Once every job is finished the per-trial returns are merged into one workbook per configuration, exactly as
+// SweepRunner would have written it, and results.csv at the top of the sweep directory lists every configuration's
+// trials with the mean return of each series and the value function files the trial saved.
+// Trials which already have saved returns are not rerun, so a sweep that was stopped can be resumed.
+
+package experiments;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+public class SweepCoordinator
+{
+    private static final int MAX_ATTEMPTS = 3;
+    private static final long POLL_MILLIS = 500;
+
+    private final SweepRunner sweep;
+    private final File sweepDirectory;
+    private final int numWorkers;
+    private final Process[] workers;
+    // how many times each job has been requeued after its worker died
+    private final Map<String, Integer> attempts = new HashMap<String, Integer>();
+
+    public SweepCoordinator(ExperimentSpec spec, String sweepDirectory, int numWorkers)
+    {
+        if (numWorkers < 1)
+        {
+            throw new IllegalArgumentException("SweepCoordinator needs at least one worker, not " + numWorkers);
+        }
+        this.sweep = new SweepRunner(spec, sweepDirectory);
+        this.sweepDirectory = new File(sweepDirectory);
+        this.numWorkers = numWorkers;
+        this.workers = new Process[numWorkers];
+    }
+
+    private File dir(String... names)
+    {
+        File f = sweepDirectory;
+        for (String name : names)
+        {
+            f = new File(f, name);
+        }
+        return f;
+    }
+
+    private static int count(File directory)
+    {
+        String[] files = directory.list();
+        return files == null ? 0 : files.length;
+    }
+
+    private static void clear(File directory)
+    {
+        File[] files = directory.listFiles();
+        if (files != null)
+        {
+            for (File f : files)
+            {
+                if (f.isDirectory())
+                {
+                    clear(f);
+                }
+                f.delete();
+            }
+        }
+    }
+
+    private int countQueued()
+    {
+        int n = 0;
+        for (int w = 0; w < numWorkers; w++)
+        {
+            n += count(dir(SweepWorker.QUEUE, Integer.toString(w)));
+        }
+        return n;
+    }
+
+    // Write every configuration's settings and queue a job for each trial without saved returns. Returns the
+    // number of jobs queued.
+    private int queueJobs() throws IOException
+    {
+        for (String name : new String[]{SweepWorker.QUEUE, SweepWorker.RUNNING, SweepWorker.DONE, SweepWorker.FAILED})
+        {
+            clear(dir(name));
+        }
+        int numJobs = 0;
+        for (ExperimentSpec configuration : sweep.getConfigurations())
+        {
+            String configDir = sweep.getDirectory(configuration);
+            SweepRunner.saveSettings(configuration, configDir);
+            String id = new File(configDir).getName();
+            for (int trial = 0; trial < configuration.getNumTrials(); trial++)
+            {
+                if (new File(configDir, SpecExperiment.getReturnsFileName(trial)).exists())
+                {
+                    continue;
+                }
+                File job = dir(SweepWorker.QUEUE, Integer.toString(numJobs % numWorkers), SweepWorker.getJobName(id, trial));
+                job.getParentFile().mkdirs();
+                if (!job.createNewFile())
+                {
+                    throw new IOException("SweepCoordinator - unable to queue " + job);
+                }
+                numJobs++;
+            }
+        }
+        return numJobs;
+    }
+
+    private Process startWorker(int w) throws IOException
+    {
+        String java = new File(new File(System.getProperty("java.home"), "bin"), "java").getPath();
+        ProcessBuilder pb = new ProcessBuilder(java, "-cp", System.getProperty("java.class.path"),
+                SweepWorker.class.getName(), sweepDirectory.getPath(), Integer.toString(w), Integer.toString(numWorkers));
+        File log = dir("logs", "worker" + w + ".log");
+        log.getParentFile().mkdirs();
+        pb.redirectErrorStream(true);
+        pb.redirectOutput(ProcessBuilder.Redirect.appendTo(log));
+        return pb.start();
+    }
+
+    // Put a dead worker's claimed jobs back on its queue, or give up on any that have now killed too many workers
+    private void requeue(int w) throws IOException
+    {
+        File running = dir(SweepWorker.RUNNING, Integer.toString(w));
+        String[] jobs = running.list();
+        if (jobs == null)
+        {
+            return;
+        }
+        for (String job : jobs)
+        {
+            int tries = attempts.containsKey(job) ? attempts.get(job) + 1 : 1;
+            attempts.put(job, tries);
+            if (tries >= MAX_ATTEMPTS)
+            {
+                System.err.println("SweepCoordinator - giving up on " + job + " after " + tries + " worker failures");
+                SweepWorker.move(new File(running, job), dir(SweepWorker.FAILED, job));
+            }
+            else
+            {
+                System.err.println("SweepCoordinator - requeueing " + job);
+                SweepWorker.move(new File(running, job), dir(SweepWorker.QUEUE, Integer.toString(w), job));
+            }
+        }
+    }
+
+    // Run every queued job to completion, replacing workers that die
+    private void runWorkers(int numJobs) throws IOException, InterruptedException
+    {
+        for (int w = 0; w < numWorkers; w++)
+        {
+            workers[w] = startWorker(w);
+        }
+        try
+        {
+            while (count(dir(SweepWorker.DONE)) + count(dir(SweepWorker.FAILED)) < numJobs)
+            {
+                Thread.sleep(POLL_MILLIS);
+                for (int w = 0; w < numWorkers; w++)
+                {
+                    if (workers[w] == null || workers[w].isAlive())
+                    {
+                        continue;
+                    }
+                    int exitCode = workers[w].exitValue();
+                    requeue(w);
+                    if (countQueued() > 0)
+                    {
+                        System.err.println("SweepCoordinator - worker " + w + " exited with " + exitCode + ", restarting it");
+                        workers[w] = startWorker(w);
+                    }
+                    else
+                    {
+                        workers[w] = null;
+                    }
+                }
+                // every worker has exited but jobs are still queued, e.g. requeued after the last worker died
+                if (countQueued() > 0 && Arrays.stream(workers).allMatch(p -> p == null))
+                {
+                    workers[0] = startWorker(0);
+                }
+            }
+        }
+        finally
+        {
+            for (Process p : workers)
+            {
+                if (p != null)
+                {
+                    p.destroy();
+                }
+            }
+        }
+    }
+
+    // Run the sweep and merge the results. Returns the number of configurations without a complete set of trials.
+    public int run() throws IOException, InterruptedException
+    {
+        int numJobs = queueJobs();
+        System.out.println("SweepCoordinator - " + sweep.getConfigurations().size() + " configurations, " + numJobs
+                + " trials to run on " + numWorkers + " workers");
+        runWorkers(numJobs);
+        return merge();
+    }
+
+    // Gather each complete configuration's trials into its workbook, and list them all in results.csv
+    private int merge() throws IOException
+    {
+        int incomplete = 0;
+        PrintWriter csv = new PrintWriter(new FileWriter(dir("results.csv")));
+        try
+        {
+            csv.println("configuration,trial,series,episodes,mean returns,value functions");
+            for (ExperimentSpec configuration : sweep.getConfigurations())
+            {
+                File configDir = new File(sweep.getDirectory(configuration));
+                List<String> missing = new ArrayList<String>();
+                for (int trial = 0; trial < configuration.getNumTrials(); trial++)
+                {
+                    File returnsFile = new File(configDir, SpecExperiment.getReturnsFileName(trial));
+                    if (!returnsFile.exists())
+                    {
+                        missing.add(Integer.toString(trial));
+                        continue;
+                    }
+                    double[][][] returns = SpecExperiment.loadReturns(returnsFile);
+                    String vfs = listValueFunctions(configDir, trial);
+                    for (int s = 0; s < returns.length; s++)
+                    {
+                        csv.println(configDir.getName() + "," + trial + "," + s + "," + returns[s].length + ","
+                                + formatMean(returns[s]) + "," + vfs);
+                    }
+                }
+                if (missing.isEmpty())
+                {
+                    String workbook = new SpecExperiment(configuration).mergeTrials(configDir.getPath());
+                    System.out.println("SweepCoordinator - " + configDir.getName() + " merged: " + workbook + ".xls");
+                }
+                else
+                {
+                    incomplete++;
+                    System.err.println("SweepCoordinator - " + configDir.getName() + " is missing trials " + missing);
+                }
+            }
+        }
+        finally
+        {
+            csv.close();
+        }
+        return incomplete;
+    }
+
+    // The mean return of each objective over a series, separated by spaces
+    private static String formatMean(double[][] series)
+    {
+        if (series.length == 0)
+        {
+            return "";
+        }
+        double[] mean = new double[series[0].length];
+        for (double[] episode : series)
+        {
+            for (int o = 0; o < mean.length; o++)
+            {
+                mean[o] += episode[o] / series.length;
+            }
+        }
+        StringBuilder sb = new StringBuilder();
+        for (int o = 0; o < mean.length; o++)
+        {
+            sb.append(o > 0 ? " " : "").append(mean[o]);
+        }
+        return sb.toString();
+    }
+
+    // The value function files saved for a trial, separated by spaces
+    private static String listValueFunctions(File configDir, final int trial)
+    {
+        String[] files = configDir.list((d, name) -> name.startsWith("ValueFunction_T" + trial + "_"));
+        if (files == null)
+        {
+            return "";
+        }
+        Arrays.sort(files);
+        return String.join(" ", files);
+    }
+
+    // Usage: SweepCoordinator specFile [workers]
+    public static void main(String[] args) throws Exception
+    {
+        if (args.length < 1)
+        {
+            System.err.println("Usage: SweepCoordinator specFile [workers]");
+            System.exit(1);
+        }
+        ExperimentSpec spec = ExperimentSpec.load(args[0]);
+        int numWorkers = args.length > 1 ? Integer.parseInt(args[1]) : Runtime.getRuntime().availableProcessors();
+        SweepCoordinator coordinator = new SweepCoordinator(spec, spec.getName() + "-sweep", numWorkers);
+        int incomplete = coordinator.run();
+        System.out.println("SweepCoordinator - finished, " + incomplete + " configuration(s) incomplete");
+        System.exit(incomplete == 0 ? 0 : 1);
+    }
+}
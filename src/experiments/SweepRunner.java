@@ -0,0 +1,113 @@
+// Runs every configuration of a parameter sweep described by an ExperimentSpec file. The configurations are run
+// concurrently on a fixed pool of threads, each as a SpecExperiment with its trials run one after another, and each
+// writes everything to a directory of its own - <name>-sweep/<configuration id>/ - along with a copy of the settings
+// it was run with, so results from different configurations can't overwrite each other. A configuration which fails
+// is reported and doesn't stop the others.
+
+package experiments;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+public class SweepRunner
+{
+    private final List<ExperimentSpec> configurations;
+    private final String sweepDirectory;
+
+    public SweepRunner(ExperimentSpec spec, String sweepDirectory)
+    {
+        this.configurations = spec.expand();
+        this.sweepDirectory = sweepDirectory;
+    }
+
+    public List<ExperimentSpec> getConfigurations()
+    {
+        return configurations;
+    }
+
+    // The directory a configuration's results are written to
+    public String getDirectory(ExperimentSpec configuration)
+    {
+        String id = configuration.getId().isEmpty() ? "default" : configuration.getId();
+        return new File(sweepDirectory, id).getPath();
+    }
+
+    // Run all the configurations, at most numThreads at once. Returns the number which failed.
+    public int run(int numThreads)
+    {
+        ExecutorService pool = Executors.newFixedThreadPool(Math.max(1, Math.min(numThreads, configurations.size())));
+        List<Future<String>> results = new ArrayList<Future<String>>();
+        for (final ExperimentSpec configuration : configurations)
+        {
+            final String dir = getDirectory(configuration);
+            results.add(pool.submit(() -> {
+                saveSettings(configuration, dir);
+                return new SpecExperiment(configuration).run(1, dir);
+            }));
+        }
+        pool.shutdown();
+
+        int failures = 0;
+        for (int i = 0; i < configurations.size(); i++)
+        {
+            String id = configurations.get(i).getId();
+            try
+            {
+                System.out.println("SweepRunner - " + id + " finished: " + results.get(i).get() + ".xls");
+            }
+            catch (ExecutionException e)
+            {
+                failures++;
+                System.err.println("SweepRunner - " + id + " failed");
+                e.getCause().printStackTrace();
+            }
+            catch (InterruptedException e)
+            {
+                Thread.currentThread().interrupt();
+                pool.shutdownNow();
+                throw new RuntimeException("SweepRunner interrupted", e);
+            }
+        }
+        return failures;
+    }
+
+    static void saveSettings(ExperimentSpec configuration, String dir) throws IOException
+    {
+        new File(dir).mkdirs();
+        OutputStream out = new FileOutputStream(new File(dir, "experiment.properties"));
+        try
+        {
+            configuration.getProperties().store(out, configuration.getName() + " " + configuration.getId());
+        }
+        finally
+        {
+            out.close();
+        }
+    }
+
+    // Usage: SweepRunner specFile [threads]
+    public static void main(String[] args) throws Exception
+    {
+        if (args.length < 1)
+        {
+            System.err.println("Usage: SweepRunner specFile [threads]");
+            System.exit(1);
+        }
+        ExperimentSpec spec = ExperimentSpec.load(args[0]);
+        int threads = args.length > 1 ? Integer.parseInt(args[1]) : Runtime.getRuntime().availableProcessors();
+        SweepRunner runner = new SweepRunner(spec, spec.getName() + "-sweep");
+        System.out.println("SweepRunner - " + runner.getConfigurations().size() + " configurations on " + threads + " threads");
+        int failures = runner.run(threads);
+        System.out.println("SweepRunner - " + (runner.getConfigurations().size() - failures) + " configurations finished, "
+                + failures + " failed");
+        System.exit(failures == 0 ? 0 : 1);
+    }
+}
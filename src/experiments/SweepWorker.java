@@ -0,0 +1,145 @@
+// A worker process for SweepCoordinator. Repeatedly claims a job - one trial of one sweep configuration - from the
+// coordinator's file queue, runs it with SpecExperiment.runSingleTrial in the configuration's directory, and marks
+// it done. Jobs are claimed by atomically renaming the job file out of a queue directory into this worker's running
+// directory, so two workers can never claim the same job. A worker takes jobs from its own queue first, then steals
+// from the other workers' queues, and exits once there's nothing left to claim. A job which throws is moved to the
+// failed directory along with its stack trace, and the worker carries on with the next one.
+//
+// Queue layout, under the sweep directory:
+//   queue/<worker>/<configuration>@<trial>.job   jobs waiting, dealt out to each worker
+//   running/<worker>/...                         jobs a worker has claimed
+//   done/...  failed/...                         finished jobs
+
+package experiments;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+
+public class SweepWorker
+{
+    static final String QUEUE = "queue";
+    static final String RUNNING = "running";
+    static final String DONE = "done";
+    static final String FAILED = "failed";
+    static final String JOB_SUFFIX = ".job";
+
+    private final File sweepDirectory;
+    private final int worker;
+    private final int numWorkers;
+
+    public SweepWorker(File sweepDirectory, int worker, int numWorkers)
+    {
+        this.sweepDirectory = sweepDirectory;
+        this.worker = worker;
+        this.numWorkers = numWorkers;
+    }
+
+    static String getJobName(String configurationId, int trial)
+    {
+        return configurationId + "@" + trial + JOB_SUFFIX;
+    }
+
+    // Move a file, atomically where the file system allows. Returns false if the file has already gone, i.e.
+    // another worker got to it first.
+    static boolean move(File from, File to) throws IOException
+    {
+        to.getParentFile().mkdirs();
+        try
+        {
+            Files.move(from.toPath(), to.toPath(), StandardCopyOption.ATOMIC_MOVE);
+            return true;
+        }
+        catch (NoSuchFileException e)
+        {
+            return false;
+        }
+        catch (AtomicMoveNotSupportedException e)
+        {
+            return from.renameTo(to);
+        }
+    }
+
+    // Claim the next job, from this worker's own queue if possible, otherwise from the other queues in turn
+    private File claim() throws IOException
+    {
+        File running = new File(new File(sweepDirectory, RUNNING), Integer.toString(worker));
+        for (int i = 0; i < numWorkers; i++)
+        {
+            File queue = new File(new File(sweepDirectory, QUEUE), Integer.toString((worker + i) % numWorkers));
+            String[] jobs = queue.list();
+            if (jobs == null)
+            {
+                continue;
+            }
+            Arrays.sort(jobs);
+            // steal from the far end of another worker's queue, so the two aren't racing for the same job
+            for (int j = 0; j < jobs.length; j++)
+            {
+                String job = i == 0 ? jobs[j] : jobs[jobs.length - 1 - j];
+                if (job.endsWith(JOB_SUFFIX) && move(new File(queue, job), new File(running, job)))
+                {
+                    if (i > 0)
+                    {
+                        System.out.println("SweepWorker " + worker + " - stole " + job + " from worker " + (worker + i) % numWorkers);
+                    }
+                    return new File(running, job);
+                }
+            }
+        }
+        return null;
+    }
+
+    // Run jobs until the queues are empty. Returns the number of jobs which failed.
+    public int run() throws IOException
+    {
+        int failures = 0;
+        File job;
+        while ((job = claim()) != null)
+        {
+            String name = job.getName();
+            int at = name.lastIndexOf('@');
+            String configurationId = name.substring(0, at);
+            int trial = Integer.parseInt(name.substring(at + 1, name.length() - JOB_SUFFIX.length()));
+            File dir = new File(sweepDirectory, configurationId);
+            System.out.println("SweepWorker " + worker + " - running " + configurationId + " trial " + trial);
+            try
+            {
+                ExperimentSpec spec = ExperimentSpec.load(new File(dir, "experiment.properties").getPath());
+                new SpecExperiment(spec).runSingleTrial(trial, dir.getPath());
+                move(job, new File(new File(sweepDirectory, DONE), name));
+            }
+            catch (Exception e)
+            {
+                failures++;
+                System.err.println("SweepWorker " + worker + " - " + name + " failed");
+                e.printStackTrace();
+                File failed = new File(new File(sweepDirectory, FAILED), name);
+                move(job, failed);
+                PrintWriter out = new PrintWriter(new FileWriter(failed, true));
+                e.printStackTrace(out);
+                out.close();
+            }
+        }
+        return failures;
+    }
+
+    // Usage: SweepWorker sweepDirectory worker numWorkers
+    public static void main(String[] args) throws Exception
+    {
+        if (args.length < 3)
+        {
+            System.err.println("Usage: SweepWorker sweepDirectory worker numWorkers");
+            System.exit(2);
+        }
+        SweepWorker w = new SweepWorker(new File(args[0]), Integer.parseInt(args[1]), Integer.parseInt(args[2]));
+        int failures = w.run();
+        System.exit(failures == 0 ? 0 : 1);
+    }
+}
@@ -0,0 +1,165 @@
+// Times the TLO action-selection and TD-update kernels the tables use against the code they replace, at 4, 8 and 16
+// actions:
+//  - greedy actions: what a table works out when its greedy cache misses - TLO_MI.greedyAction then another pass
+//    to find every action tied with it (so the tie can be broken afresh on later hits), against
+//    TLO_MI.greedyActions, which finds them all in the one pass, then GreedyCache.choose to break the tie. Plain
+//    greedyAction, which finds one action and nothing to cache, is shown as well.
+//  - TD update: one get() and set() per objective, as LookupTable.update used to, against QValueStorage.applyErrors,
+//    for the objective-major and state-major layouts
+// The Q-values are small integers, so there are plenty of ties, as in our gridworlds.
+// Comparing every action against the incumbent in vector lanes (jdk.incubator.vector) isn't possible on Java 8, and
+// the column-wise scalar kernel tried in its place - one comparison key across all actions at a time - timed 2-2.5x
+// slower than TLO_MI.greedyAction at these sizes (104 / 417 / 1091ns against 44 / 156 / 413ns), so it was dropped.
+// Usage: TLOBenchmark [objectives] [milliseconds per measurement]
+
+package experiments;
+
+import tools.random.SplitMix;
+import tools.valuefunction.TLO_MI;
+import tools.valuefunction.storage.QValueStorage;
+
+import java.util.Random;
+
+public class TLOBenchmark
+{
+    private static final int NUM_STATES = 1024;
+
+    // set by the measurements so the JIT can't discard them
+    private static long sink;
+
+    private interface Kernel
+    {
+        void run(int state);
+    }
+
+    // nanoseconds per call, after a warm-up as long as the measurement
+    private static double time(Kernel kernel, long millis)
+    {
+        for (int pass = 0; pass < 2; pass++)
+        {
+            long calls = 0;
+            long start = System.nanoTime();
+            long end = start + millis * 1000000L;
+            long now;
+            do
+            {
+                for (int s = 0; s < NUM_STATES; s++)
+                {
+                    kernel.run(s);
+                }
+                calls += NUM_STATES;
+                now = System.nanoTime();
+            }
+            while (now < end);
+            if (pass == 1)
+            {
+                return (double) (now - start) / calls;
+            }
+        }
+        return 0; // not reached
+    }
+
+    // the greedy actions as the tables found them before TLO_MI.greedyActions: a tie-broken greedy action, then a
+    // second pass for the actions tied with it
+    private static long greedyThenTied(double actionValues[][], double thresholds[], Random rand)
+    {
+        int best = TLO_MI.greedyAction(actionValues, thresholds, rand);
+        long tied = 0;
+        for (int a = 0; a < actionValues.length; a++)
+        {
+            if (a == best || TLO_MI.compare(actionValues[a], actionValues[best], thresholds) == 0)
+            {
+                tied |= 1L << a;
+            }
+        }
+        return tied;
+    }
+
+    // reservoir sampling over a mask, as GreedyCache.choose (which is package-private to the tables)
+    private static int choose(long greedyActions, Random rand)
+    {
+        int greedy = -1;
+        int numTied = 0;
+        for (long remaining = greedyActions; remaining != 0; remaining &= remaining - 1)
+        {
+            numTied++;
+            if (numTied == 1 || rand.nextInt(numTied) == 0)
+            {
+                greedy = Long.numberOfTrailingZeros(remaining);
+            }
+        }
+        return greedy;
+    }
+
+    public static void main(String[] args)
+    {
+        final int numObjectives = args.length > 0 ? Integer.parseInt(args[0]) : 4;
+        long millis = args.length > 1 ? Long.parseLong(args[1]) : 1000;
+        final double thresholds[] = new double[Math.min(3, numObjectives)];
+        java.util.Arrays.fill(thresholds, 1.0);
+
+        System.out.println("actions\tgreedy only\tgreedy + tied pass\tgreedyActions + choose\tspeedup"
+                + "\tupdate obj-major (get/set)\tupdate obj-major (applyErrors)\tspeedup"
+                + "\tupdate state-major (get/set)\tupdate state-major (applyErrors)\tspeedup");
+        for (final int numActions : new int[]{4, 8, 16})
+        {
+            SplitMix rand = SplitMix.derive(1, "TLOBenchmark", numActions);
+            final double values[][][] = new double[NUM_STATES][numActions][numObjectives];
+            for (double[][] state : values)
+            {
+                for (double[] action : state)
+                {
+                    for (int i = 0; i < numObjectives; i++)
+                    {
+                        action[i] = rand.nextInt(4) - 1;
+                    }
+                }
+            }
+            // the two ways of finding the greedy actions must agree
+            for (int s = 0; s < NUM_STATES; s++)
+            {
+                if (greedyThenTied(values[s], thresholds, rand) != TLO_MI.greedyActions(values[s], thresholds))
+                {
+                    throw new IllegalStateException("TLOBenchmark - greedy actions differ in state " + s);
+                }
+            }
+            final SplitMix tieBreaker = SplitMix.derive(1, "ties");
+            double single = time(s -> sink += TLO_MI.greedyAction(values[s], thresholds, tieBreaker), millis);
+            double twoPass = time(s -> sink += choose(greedyThenTied(values[s], thresholds, tieBreaker), tieBreaker),
+                    millis);
+            double onePass = time(s -> sink += choose(TLO_MI.greedyActions(values[s], thresholds), tieBreaker),
+                    millis);
+
+            final double errors[] = new double[numObjectives];
+            for (int i = 0; i < numObjectives; i++)
+            {
+                errors[i] = rand.nextGaussian();
+            }
+            StringBuilder row = new StringBuilder();
+            row.append(numActions).append('\t').append(format(single)).append('\t').append(format(twoPass))
+                    .append('\t').append(format(onePass)).append('\t').append(format(twoPass / onePass)).append('x');
+            for (int layout : new int[]{QValueStorage.OBJECTIVE_MAJOR, QValueStorage.STATE_MAJOR})
+            {
+                final QValueStorage storage = QValueStorage.create(layout, numObjectives, numActions, NUM_STATES);
+                double getSet = time(s -> {
+                    int a = s % numActions;
+                    for (int i = 0; i < numObjectives; i++)
+                    {
+                        storage.set(i, a, s, storage.get(i, a, s) + 0.1 * (0.95 * errors[i]));
+                    }
+                }, millis);
+                double bulk = time(s -> storage.applyErrors(s % numActions, s, errors, 0.95, 0.1), millis);
+                sink += (long) storage.get(0, 0, 0);
+                row.append('\t').append(format(getSet)).append('\t').append(format(bulk)).append('\t')
+                        .append(format(getSet / bulk)).append('x');
+            }
+            System.out.println(row);
+        }
+        System.out.println("(nanoseconds per call, " + numObjectives + " objectives; checksum " + sink + ")");
+    }
+
+    private static String format(double x)
+    {
+        return String.format("%.2f", x);
+    }
+}
@@ -0,0 +1,170 @@
+// Runs the trials of an experiment concurrently on a fixed-size pool of worker threads. Every trial gets a freshly
+// created agent and environment joined by its own LocalMOGlue, so trials share nothing through the glue. The worker
+// also scopes the remaining per-process state to the trial while it runs - the actor's Attitude, and the plain-text
+// diagnostic files, which get a _T<trial> suffix - so a trial produces the same results whichever thread runs it.
+// The experiment is responsible for anything written outside the trial itself, e.g. merging the trials' sheets
+// into its workbook in trial order once runTrials returns.
+
+package experiments;
+
+import env.Attitude;
+import org.rlcommunity.rlglue.codec.RLGlueInterface;
+import org.rlcommunity.rlglue.codec.AgentInterface;
+import org.rlcommunity.rlglue.codec.EnvironmentInterface;
+import tools.glue.LocalMOGlue;
+import tools.trials.TrialOutput;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+public class TrialScheduler
+{
+    // The body of one trial, run on a worker thread with a glue of its own
+    public interface Trial
+    {
+        void run(RLGlueInterface glue, int trialNum);
+    }
+
+    private final int numThreads;
+    private final Supplier<? extends AgentInterface> agentFactory;
+    private final Supplier<? extends EnvironmentInterface> environmentFactory;
+    private String outputDirectory = null;
+
+    public TrialScheduler(int numThreads, Supplier<? extends AgentInterface> agentFactory,
+                          Supplier<? extends EnvironmentInterface> environmentFactory)
+    {
+        if (numThreads < 1)
+        {
+            throw new IllegalArgumentException("TrialScheduler needs at least one thread, not " + numThreads);
+        }
+        this.numThreads = numThreads;
+        this.agentFactory = agentFactory;
+        this.environmentFactory = environmentFactory;
+    }
+
+    // One worker per available core
+    public TrialScheduler(Supplier<? extends AgentInterface> agentFactory,
+                          Supplier<? extends EnvironmentInterface> environmentFactory)
+    {
+        this(Runtime.getRuntime().availableProcessors(), agentFactory, environmentFactory);
+    }
+
+    public int getNumThreads()
+    {
+        return numThreads;
+    }
+
+    // Write the trials' files to the given directory rather than the working directory (see TrialOutput)
+    public void setOutputDirectory(String outputDirectory)
+    {
+        this.outputDirectory = outputDirectory;
+    }
+
+    // A glue joining a new agent and environment, not yet initialised
+    public LocalMOGlue newGlue()
+    {
+        return new LocalMOGlue(environmentFactory.get(), agentFactory.get());
+    }
+
+    // Run trials 0 to numTrials-1 and wait for them all to finish. If any trial fails, the trials which haven't
+    // started yet are cancelled and the failure is rethrown once the running trials are done.
+    public void runTrials(int numTrials, final Trial trial)
+    {
+        ExecutorService pool = Executors.newFixedThreadPool(Math.max(1, Math.min(numThreads, numTrials)), new WorkerFactory());
+        List<Future<?>> results = new ArrayList<Future<?>>();
+        try
+        {
+            for (int t = 0; t < numTrials; t++)
+            {
+                final int trialNum = t;
+                results.add(pool.submit(new Runnable()
+                {
+                    public void run()
+                    {
+                        runInScope(trial, trialNum);
+                    }
+                }));
+            }
+            for (int t = 0; t < numTrials; t++)
+            {
+                try
+                {
+                    results.get(t).get();
+                }
+                catch (ExecutionException e)
+                {
+                    for (Future<?> f : results)
+                    {
+                        f.cancel(false);
+                    }
+                    awaitRunningTrials(pool);
+                    throw new RuntimeException("TrialScheduler - trial " + t + " failed", e.getCause());
+                }
+                catch (InterruptedException e)
+                {
+                    Thread.currentThread().interrupt();
+                    throw new RuntimeException("TrialScheduler - interrupted waiting for trial " + t, e);
+                }
+            }
+        }
+        finally
+        {
+            pool.shutdown();
+        }
+    }
+
+    // Let the trials already running finish - so none is still writing its files when the failure is rethrown
+    private static void awaitRunningTrials(ExecutorService pool)
+    {
+        pool.shutdown();
+        try
+        {
+            while (!pool.awaitTermination(1, TimeUnit.MINUTES))
+            {
+                // the trials have no time limit, so neither does the wait
+            }
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void runInScope(Trial trial, int trialNum)
+    {
+        Attitude.beginScope();
+        TrialOutput.setDirectory(outputDirectory);
+        TrialOutput.enter(trialNum);
+        try
+        {
+            LocalMOGlue glue = newGlue();
+            trial.run(glue, trialNum);
+        }
+        finally
+        {
+            TrialOutput.exit();
+            TrialOutput.setDirectory(null);
+            Attitude.endScope();
+        }
+    }
+
+    private static class WorkerFactory implements ThreadFactory
+    {
+        private final AtomicInteger count = new AtomicInteger();
+
+        public Thread newThread(Runnable r)
+        {
+            Thread t = new Thread(r, "TrialWorker-" + count.getAndIncrement());
+            t.setDaemon(true);
+            return t;
+        }
+    }
+}
@@ -17,6 +17,9 @@ package tools.approximators;
 
 import java.util.Random;
 
+import tools.random.Randoms;
+import tools.random.SplitMix;
+
 /**
  * This code is a direct port from C to Java of the code at
  * <a target=_new href=http://rlai.cs.ualberta.ca/RLAI/RLtoolkit/tilecoding.html>the RLAI Tile Coding Page</a>.
@@ -98,7 +101,7 @@ public class TileCoder {
     Takes an array of integers and returns the corresponding tile after hashing
      */
     static final int RNDSEQNUMBER = 16384;
-    static Random theRand = new Random();
+    static Random theRand = SplitMix.derive(Randoms.DEFAULT_SEED, "TileCoder");
     static int rndseq[] = new int[RNDSEQNUMBER];
     static boolean first_call = true;
 
@@ -0,0 +1,10 @@
+// An agent or environment which can be copied part way through a run, so LocalMOGlue.fork() can branch several
+// independent runs off one trained state. The copy must share nothing mutable with the original - value function,
+// traces, random number streams and all - so the two can carry on concurrently on different threads.
+
+package tools.glue;
+
+public interface Copyable<T>
+{
+    T copy();
+}
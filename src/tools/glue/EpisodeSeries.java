@@ -0,0 +1,52 @@
+// The results of running a series of episodes back to back: the vector return of each episode, stored as a
+// primitive [episode][objective] matrix, and the number of steps each episode took.
+
+package tools.glue;
+
+public class EpisodeSeries
+{
+    private final double returns[][];
+    private final int steps[];
+    private final boolean terminal[];
+
+    public EpisodeSeries(int numEpisodes, int numObjectives)
+    {
+        returns = new double[numEpisodes][numObjectives];
+        steps = new int[numEpisodes];
+        terminal = new boolean[numEpisodes];
+    }
+
+    void set(int episode, double episodeReturn[], int episodeSteps, boolean reachedTerminal)
+    {
+        System.arraycopy(episodeReturn, 0, returns[episode], 0, Math.min(episodeReturn.length, returns[episode].length));
+        steps[episode] = episodeSteps;
+        terminal[episode] = reachedTerminal;
+    }
+
+    public int getNumEpisodes()
+    {
+        return steps.length;
+    }
+
+    // returns[episode][objective]
+    public double[][] getReturns()
+    {
+        return returns;
+    }
+
+    public double[] getReturn(int episode)
+    {
+        return returns[episode];
+    }
+
+    public int[] getSteps()
+    {
+        return steps;
+    }
+
+    // false if the episode was cut off by the step limit before reaching a terminal state
+    public boolean isTerminal(int episode)
+    {
+        return terminal[episode];
+    }
+}
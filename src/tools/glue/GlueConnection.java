@@ -0,0 +1,199 @@
+// One client socket attached to the Java glue server. The selector thread reads from the socket and decodes every
+// complete frame in the buffer, so several pipelined messages arriving together are handled from a single read.
+// Outgoing frames are written straight to the socket when nothing else is queued; anything that doesn't go out
+// at once is queued and later flushed by the selector thread with a single gathering write.
+
+package tools.glue;
+
+import org.rlcommunity.rlglue.codec.network.Network;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+
+final class GlueConnection
+{
+    private static final int INITIAL_BUFFER_SIZE = 64 * 1024;
+    // placed on the reply queue when the socket closes, so a thread waiting on a reply doesn't block forever
+    private static final GlueFrames.Frame CLOSED = new GlueFrames.Frame(-1, ByteBuffer.allocate(0));
+
+    private final SocketChannel channel;
+    private final MOGlueServer server;
+    private final GlueSession session;
+    private SelectionKey key;
+    private ByteBuffer readBuffer = ByteBuffer.allocate(INITIAL_BUFFER_SIZE);
+    private final ArrayDeque<ByteBuffer> pendingWrites = new ArrayDeque<ByteBuffer>();
+    private final BlockingQueue<GlueFrames.Frame> replies = new LinkedBlockingQueue<GlueFrames.Frame>();
+    private int connectionType = 0; // unknown until the client's first frame arrives
+    private volatile boolean closed = false;
+
+    GlueConnection(SocketChannel channel, MOGlueServer server, GlueSession session)
+    {
+        this.channel = channel;
+        this.server = server;
+        this.session = session;
+    }
+
+    void setKey(SelectionKey key)
+    {
+        this.key = key;
+    }
+
+    SelectionKey getKey()
+    {
+        return key;
+    }
+
+    int getConnectionType()
+    {
+        return connectionType;
+    }
+
+    // Called on the selector thread when the socket is readable. Returns false once the client has disconnected.
+    boolean readFrames() throws IOException
+    {
+        if (channel.read(readBuffer) < 0)
+        {
+            return false;
+        }
+        readBuffer.flip();
+        int needed = 0;
+        while (readBuffer.remaining() >= GlueFrames.HEADER_SIZE)
+        {
+            int start = readBuffer.position();
+            int code = readBuffer.getInt(start);
+            int size = readBuffer.getInt(start + 4);
+            if (readBuffer.remaining() < GlueFrames.HEADER_SIZE + size)
+            {
+                needed = GlueFrames.HEADER_SIZE + size;
+                break;
+            }
+            ByteBuffer payload = ByteBuffer.allocate(size);
+            readBuffer.position(start + GlueFrames.HEADER_SIZE);
+            int limit = readBuffer.limit();
+            readBuffer.limit(readBuffer.position() + size);
+            payload.put(readBuffer);
+            readBuffer.limit(limit);
+            payload.flip();
+            deliver(new GlueFrames.Frame(code, payload));
+        }
+        readBuffer.compact();
+        // grow the buffer if a single frame is larger than it
+        if (needed > readBuffer.capacity())
+        {
+            ByteBuffer larger = ByteBuffer.allocate(Math.max(needed, readBuffer.capacity() * 2));
+            readBuffer.flip();
+            larger.put(readBuffer);
+            readBuffer = larger;
+        }
+        return true;
+    }
+
+    private void deliver(GlueFrames.Frame frame)
+    {
+        if (connectionType == 0)
+        {
+            // the first frame from a client just identifies what sort of client it is
+            connectionType = frame.code;
+            session.attach(this, connectionType);
+        }
+        else if (connectionType == Network.kExperimentConnection)
+        {
+            session.request(frame);
+        }
+        else
+        {
+            replies.add(frame);
+        }
+    }
+
+    // Send a frame to the client. Safe to call from any thread.
+    void send(ByteBuffer frame)
+    {
+        synchronized (pendingWrites)
+        {
+            if (pendingWrites.isEmpty())
+            {
+                try
+                {
+                    channel.write(frame);
+                }
+                catch (IOException e)
+                {
+                    System.err.println("GlueConnection - write failed :: " + e);
+                    close();
+                    return;
+                }
+                if (!frame.hasRemaining())
+                {
+                    return;
+                }
+            }
+            pendingWrites.add(frame);
+        }
+        server.requestWrite(this);
+    }
+
+    // Called on the selector thread when the socket is writable. Returns true once every queued frame is written.
+    boolean flush() throws IOException
+    {
+        synchronized (pendingWrites)
+        {
+            if (!pendingWrites.isEmpty())
+            {
+                ByteBuffer buffers[] = pendingWrites.toArray(new ByteBuffer[pendingWrites.size()]);
+                channel.write(buffers);
+                while (!pendingWrites.isEmpty() && !pendingWrites.peek().hasRemaining())
+                {
+                    pendingWrites.poll();
+                }
+            }
+            return pendingWrites.isEmpty();
+        }
+    }
+
+    // Block until the client replies, checking the reply is for the message we sent
+    GlueFrames.Frame awaitReply(int code) throws InterruptedException
+    {
+        GlueFrames.Frame reply = replies.take();
+        if (reply == CLOSED)
+        {
+            replies.add(CLOSED);
+            throw new IllegalStateException(MessageLatency.getName(code) + " - connection closed before reply");
+        }
+        if (reply.code != code)
+        {
+            throw new IllegalStateException("Not synched with client. Reply was " + MessageLatency.getName(reply.code)
+                    + " but should be " + MessageLatency.getName(code));
+        }
+        return reply;
+    }
+
+    boolean isClosed()
+    {
+        return closed;
+    }
+
+    void close()
+    {
+        if (closed)
+        {
+            return;
+        }
+        closed = true;
+        try
+        {
+            channel.close();
+        }
+        catch (IOException e)
+        {
+            e.printStackTrace();
+        }
+        replies.add(CLOSED);
+        session.detach(this);
+    }
+}
@@ -0,0 +1,197 @@
+// Encoding and decoding of RL-Glue wire frames, matching the layout used by JavaRLGlueCodec.jar's Network class.
+// Each frame is a big-endian int message code, an int payload size and then the payload. Abstract types
+// (observations, actions and rewards) are sent as three counts followed by the ints, doubles and chars, with
+// each char taking a single byte. Strings are an int length followed by UTF-8 bytes.
+// Frames are built as ready-to-send ByteBuffers so the server can hand several of them to one gathering write.
+
+package tools.glue;
+
+import org.rlcommunity.rlglue.codec.types.Action;
+import org.rlcommunity.rlglue.codec.types.Observation;
+import org.rlcommunity.rlglue.codec.types.RL_abstract_type;
+import org.rlcommunity.rlglue.codec.types.Reward;
+import org.rlcommunity.rlglue.codec.types.Reward_observation_action_terminal;
+import org.rlcommunity.rlglue.codec.types.Reward_observation_terminal;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+final class GlueFrames
+{
+    static final int HEADER_SIZE = 8;
+
+    // A single decoded frame. The payload is positioned at its start.
+    static final class Frame
+    {
+        final int code;
+        final ByteBuffer payload;
+        final long receivedNanos;
+
+        Frame(int code, ByteBuffer payload)
+        {
+            this.code = code;
+            this.payload = payload;
+            this.receivedNanos = System.nanoTime();
+        }
+    }
+
+    private GlueFrames()
+    {
+    }
+
+    private static ByteBuffer allocate(int code, int payloadSize)
+    {
+        ByteBuffer b = ByteBuffer.allocate(HEADER_SIZE + payloadSize);
+        b.putInt(code);
+        b.putInt(payloadSize);
+        return b;
+    }
+
+    static ByteBuffer empty(int code)
+    {
+        ByteBuffer b = allocate(code, 0);
+        b.flip();
+        return b;
+    }
+
+    static ByteBuffer ofInt(int code, int value)
+    {
+        ByteBuffer b = allocate(code, 4);
+        b.putInt(value);
+        b.flip();
+        return b;
+    }
+
+    static ByteBuffer ofString(int code, String s)
+    {
+        byte bytes[] = (s == null ? "" : s).getBytes(StandardCharsets.UTF_8);
+        ByteBuffer b = allocate(code, 4 + bytes.length);
+        b.putInt(bytes.length);
+        b.put(bytes);
+        b.flip();
+        return b;
+    }
+
+    static ByteBuffer ofAbstractType(int code, RL_abstract_type t)
+    {
+        ByteBuffer b = allocate(code, sizeOf(t));
+        putAbstractType(b, t);
+        b.flip();
+        return b;
+    }
+
+    static ByteBuffer ofAbstractTypes(int code, RL_abstract_type first, RL_abstract_type second)
+    {
+        ByteBuffer b = allocate(code, sizeOf(first) + sizeOf(second));
+        putAbstractType(b, first);
+        putAbstractType(b, second);
+        b.flip();
+        return b;
+    }
+
+    static ByteBuffer ofRewardObservation(int code, Reward_observation_terminal ro)
+    {
+        ByteBuffer b = allocate(code, 4 + sizeOf(ro.getReward()) + sizeOf(ro.getObservation()));
+        b.putInt(ro.isTerminal() ? 1 : 0);
+        putAbstractType(b, ro.getReward());
+        putAbstractType(b, ro.getObservation());
+        b.flip();
+        return b;
+    }
+
+    static ByteBuffer ofStepResult(int code, Reward_observation_action_terminal roat)
+    {
+        ByteBuffer b = allocate(code, 4 + sizeOf(roat.getReward()) + sizeOf(roat.getObservation())
+                + sizeOf(roat.getAction()));
+        b.putInt(roat.isTerminal() ? 1 : 0);
+        putAbstractType(b, roat.getReward());
+        putAbstractType(b, roat.getObservation());
+        putAbstractType(b, roat.getAction());
+        b.flip();
+        return b;
+    }
+
+    static int sizeOf(RL_abstract_type t)
+    {
+        if (t == null)
+        {
+            return 12;
+        }
+        return 12 + 4 * t.intArray.length + 8 * t.doubleArray.length + t.charArray.length;
+    }
+
+    static void putAbstractType(ByteBuffer b, RL_abstract_type t)
+    {
+        if (t == null)
+        {
+            b.putInt(0).putInt(0).putInt(0);
+            return;
+        }
+        b.putInt(t.intArray.length);
+        b.putInt(t.doubleArray.length);
+        b.putInt(t.charArray.length);
+        for (int i : t.intArray)
+        {
+            b.putInt(i);
+        }
+        for (double d : t.doubleArray)
+        {
+            b.putDouble(d);
+        }
+        for (char c : t.charArray)
+        {
+            b.put((byte) (c & 255));
+        }
+    }
+
+    private static void fillAbstractType(ByteBuffer b, RL_abstract_type t)
+    {
+        int numInts = b.getInt();
+        int numDoubles = b.getInt();
+        int numChars = b.getInt();
+        t.intArray = new int[numInts];
+        t.doubleArray = new double[numDoubles];
+        t.charArray = new char[numChars];
+        for (int i = 0; i < numInts; i++)
+        {
+            t.intArray[i] = b.getInt();
+        }
+        for (int i = 0; i < numDoubles; i++)
+        {
+            t.doubleArray[i] = b.getDouble();
+        }
+        for (int i = 0; i < numChars; i++)
+        {
+            t.charArray[i] = (char) (b.get() & 255);
+        }
+    }
+
+    static Observation getObservation(ByteBuffer b)
+    {
+        Observation o = new Observation();
+        fillAbstractType(b, o);
+        return o;
+    }
+
+    static Action getAction(ByteBuffer b)
+    {
+        Action a = new Action();
+        fillAbstractType(b, a);
+        return a;
+    }
+
+    static Reward getReward(ByteBuffer b)
+    {
+        Reward r = new Reward();
+        fillAbstractType(b, r);
+        return r;
+    }
+
+    static String getString(ByteBuffer b)
+    {
+        int length = b.getInt();
+        byte bytes[] = new byte[length];
+        b.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,287 @@
+// One experiment/agent/environment trio on a single port of the Java glue server. Experiment requests are queued by
+// the selector thread and handled in order on this session's own glue thread, which drives a LocalMOGlue over
+// remote proxies for the agent and environment. Running whole episodes here means RL_episode costs the experiment
+// a single round trip, rather than one per step as with morlglue_x64.exe.
+// When the experiment disconnects (or sends RL_term) the agent and environment are told to terminate, the latency
+// report for the run is printed, and the session waits for a new set of clients.
+
+package tools.glue;
+
+import org.rlcommunity.rlglue.codec.network.Network;
+import org.rlcommunity.rlglue.codec.types.Observation;
+import org.rlcommunity.rlglue.codec.types.Observation_action;
+import org.rlcommunity.rlglue.codec.types.Reward;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+
+final class GlueSession implements Runnable
+{
+    // queued when the experiment goes away, to end the current run
+    private static final GlueFrames.Frame END_OF_RUN = new GlueFrames.Frame(Network.kRLTerm, ByteBuffer.allocate(0));
+
+    private final int port;
+    private final BlockingQueue<GlueFrames.Frame> requests = new LinkedBlockingQueue<GlueFrames.Frame>();
+    private final MessageLatency latency = new MessageLatency();
+    private GlueConnection experiment = null;
+    private GlueConnection agent = null;
+    private GlueConnection environment = null;
+    private LocalMOGlue glue = null;
+    private boolean runActive = false;
+    private Thread thread;
+
+    GlueSession(int port)
+    {
+        this.port = port;
+    }
+
+    void start()
+    {
+        thread = new Thread(this, "MOGlueSession-" + port);
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    void stop()
+    {
+        if (thread != null)
+        {
+            thread.interrupt();
+        }
+    }
+
+    int getPort()
+    {
+        return port;
+    }
+
+    MessageLatency getLatency()
+    {
+        return latency;
+    }
+
+    synchronized void attach(GlueConnection connection, int connectionType)
+    {
+        switch (connectionType)
+        {
+            case Network.kExperimentConnection:
+                if (experiment == null)
+                {
+                    experiment = connection;
+                    System.out.println("MOGlueServer:" + port + " - experiment connected");
+                    notifyAll();
+                    return;
+                }
+                break;
+            case Network.kAgentConnection:
+                if (agent == null)
+                {
+                    agent = connection;
+                    System.out.println("MOGlueServer:" + port + " - agent connected");
+                    notifyAll();
+                    return;
+                }
+                break;
+            case Network.kEnvironmentConnection:
+                if (environment == null)
+                {
+                    environment = connection;
+                    System.out.println("MOGlueServer:" + port + " - environment connected");
+                    notifyAll();
+                    return;
+                }
+                break;
+            default:
+                System.err.println("MOGlueServer:" + port + " - unknown connection type " + connectionType);
+                connection.close();
+                return;
+        }
+        System.err.println("MOGlueServer:" + port + " - a client of type " + connectionType
+                + " is already connected, refusing another");
+        connection.close();
+    }
+
+    synchronized void detach(GlueConnection connection)
+    {
+        if (connection == experiment)
+        {
+            experiment = null;
+            requests.add(END_OF_RUN);
+        }
+        else if (connection == agent)
+        {
+            agent = null;
+        }
+        else if (connection == environment)
+        {
+            environment = null;
+        }
+    }
+
+    private synchronized GlueConnection awaitConnection(int connectionType) throws InterruptedException
+    {
+        while (true)
+        {
+            GlueConnection c = connectionType == Network.kAgentConnection ? agent
+                    : connectionType == Network.kEnvironmentConnection ? environment : experiment;
+            if (c != null)
+            {
+                return c;
+            }
+            wait();
+        }
+    }
+
+    void request(GlueFrames.Frame frame)
+    {
+        requests.add(frame);
+    }
+
+    // Send a message to the agent or environment and wait for its reply. Used by the remote proxies.
+    GlueFrames.Frame call(int connectionType, ByteBuffer message)
+    {
+        int code = message.getInt(0);
+        try
+        {
+            GlueConnection c = awaitConnection(connectionType);
+            long start = System.nanoTime();
+            c.send(message);
+            GlueFrames.Frame reply = c.awaitReply(code);
+            latency.record(code, System.nanoTime() - start);
+            return reply;
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted waiting for " + MessageLatency.getName(code));
+        }
+    }
+
+    public void run()
+    {
+        try
+        {
+            while (true)
+            {
+                GlueFrames.Frame request = requests.take();
+                if (request == END_OF_RUN || request.code == Network.kRLTerm)
+                {
+                    if (runActive)
+                    {
+                        endRun();
+                    }
+                    runActive = false;
+                    continue;
+                }
+                runActive = true;
+                GlueConnection client;
+                synchronized (this)
+                {
+                    client = experiment;
+                }
+                try
+                {
+                    ByteBuffer reply = handle(request);
+                    if (client != null)
+                    {
+                        client.send(reply);
+                    }
+                }
+                catch (IllegalStateException e)
+                {
+                    // the agent or environment has gone away, so this run can't continue
+                    System.err.println("MOGlueServer:" + port + " - " + e.getMessage());
+                    if (client != null)
+                    {
+                        client.close();
+                    }
+                }
+                latency.record(request.code, System.nanoTime() - request.receivedNanos);
+            }
+        }
+        catch (InterruptedException e)
+        {
+            // server shutting down
+        }
+    }
+
+    private LocalMOGlue getGlue()
+    {
+        if (glue == null)
+        {
+            glue = new LocalMOGlue(new RemoteEnvironment(this), new RemoteAgent(this));
+        }
+        return glue;
+    }
+
+    private ByteBuffer handle(GlueFrames.Frame request)
+    {
+        int code = request.code;
+        ByteBuffer p = request.payload;
+        LocalMOGlue g = getGlue();
+        switch (code)
+        {
+            case Network.kRLInit:
+                return GlueFrames.ofString(code, g.RL_init());
+            case Network.kRLStart:
+                Observation_action oa = g.RL_start();
+                return GlueFrames.ofAbstractTypes(code, oa.o, oa.a);
+            case Network.kRLStep:
+                return GlueFrames.ofStepResult(code, g.RL_step());
+            case Network.kRLCleanup:
+                g.RL_cleanup();
+                return GlueFrames.empty(code);
+            case Network.kRLReturn:
+                return GlueFrames.ofAbstractType(code, g.RL_return());
+            case Network.kRLNumSteps:
+                return GlueFrames.ofInt(code, g.RL_num_steps());
+            case Network.kRLNumEpisodes:
+                return GlueFrames.ofInt(code, g.RL_num_episodes());
+            case Network.kRLEpisode:
+                return GlueFrames.ofInt(code, g.RL_episode(p.getInt()));
+            case Network.kRLAgentMessage:
+                return GlueFrames.ofString(code, g.RL_agent_message(GlueFrames.getString(p)));
+            case Network.kRLEnvMessage:
+                return GlueFrames.ofString(code, g.RL_env_message(GlueFrames.getString(p)));
+            case Network.kRLEnvStart:
+                return GlueFrames.ofAbstractType(code, g.RL_env_start());
+            case Network.kRLEnvStep:
+                return GlueFrames.ofRewardObservation(code, g.RL_env_step(GlueFrames.getAction(p)));
+            case Network.kRLAgentStart:
+                return GlueFrames.ofAbstractType(code, g.RL_agent_start(GlueFrames.getObservation(p)));
+            case Network.kRLAgentStep:
+                Reward r = GlueFrames.getReward(p);
+                Observation o = GlueFrames.getObservation(p);
+                return GlueFrames.ofAbstractType(code, g.RL_agent_step(r, o));
+            case Network.kRLAgentEnd:
+                g.RL_agent_end(GlueFrames.getReward(p));
+                return GlueFrames.empty(code);
+            default:
+                System.err.println("MOGlueServer:" + port + " - unknown experiment message " + code);
+                return GlueFrames.empty(code);
+        }
+    }
+
+    // Tell the agent and environment the run is over and report how long each message took
+    private void endRun()
+    {
+        GlueConnection a, e;
+        synchronized (this)
+        {
+            a = agent;
+            e = environment;
+        }
+        if (a != null)
+        {
+            a.send(GlueFrames.empty(Network.kRLTerm));
+        }
+        if (e != null)
+        {
+            e.send(GlueFrames.empty(Network.kRLTerm));
+        }
+        glue = null;
+        latency.report(System.out, "MOGlueServer:" + port + " - message latency for this run");
+        latency.reset();
+    }
+}
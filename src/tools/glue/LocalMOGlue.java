@@ -0,0 +1,282 @@
+// An in-process replacement for the morlglue_x64.exe server. Rather than routing every agent_step and env_step
+// through a TCP round trip, this glue holds references to the agent and environment and calls them directly
+// on the caller's thread. It implements the same RLGlueInterface contract as the codec's NetGlue, so once it
+// has been registered via RLGlue.setGlue() the existing experiments drive it through the static RLGlue methods
+// without any changes.
+// The codec ships its own LocalGlue, but that accumulates the episode return into a zero-length Reward, which
+// silently drops every objective. This version sizes the return from the number of objectives in the task spec.
+
+package tools.glue;
+
+import org.rlcommunity.rlglue.codec.AgentInterface;
+import org.rlcommunity.rlglue.codec.EnvironmentInterface;
+import org.rlcommunity.rlglue.codec.RLGlueInterface;
+import org.rlcommunity.rlglue.codec.taskspec.TaskSpecVRLGLUE3;
+import org.rlcommunity.rlglue.codec.types.Action;
+import org.rlcommunity.rlglue.codec.types.Observation;
+import org.rlcommunity.rlglue.codec.types.Observation_action;
+import org.rlcommunity.rlglue.codec.types.Reward;
+import org.rlcommunity.rlglue.codec.types.Reward_observation_action_terminal;
+import org.rlcommunity.rlglue.codec.types.Reward_observation_terminal;
+
+import java.util.Arrays;
+import java.util.concurrent.CancellationException;
+
+public class LocalMOGlue implements RLGlueInterface
+{
+    private final EnvironmentInterface environment;
+    private final AgentInterface agent;
+
+    private Action lastAction = null;
+    private Reward_observation_terminal lastRewardObservation = null;
+    private boolean isTerminal = false;
+    private int numSteps = 0;
+    private int numEpisodes = 0;
+    private int numObjectives = 1;
+    private Reward totalReward = new Reward(0, 1, 0);
+    // set once totalReward has been handed out by RL_return, so it must be replaced rather than reset
+    private boolean returnShared = false;
+
+    // Note that this glue is not thread-safe - the agent, environment and experiment are expected to share the
+    // calling thread, which is the whole point of running them in-process
+    public LocalMOGlue(EnvironmentInterface environment, AgentInterface agent)
+    {
+        this.environment = environment;
+        this.agent = agent;
+    }
+
+    public String RL_init()
+    {
+        String taskSpec = environment.env_init();
+        numObjectives = getNumObjectives(taskSpec);
+        agent.agent_init(taskSpec);
+        numSteps = 0;
+        numEpisodes = 0;
+        totalReward = new Reward(0, numObjectives, 0);
+        return taskSpec;
+    }
+
+    // Read the number of objectives from the task spec. Falls back on the RLGLUE_NUM_REWARDS setting used by the
+    // codec if the spec can't be parsed
+    private static int getNumObjectives(String taskSpec)
+    {
+        try
+        {
+            return new TaskSpecVRLGLUE3(taskSpec).getNumOfObjectives();
+        }
+        catch (Exception e)
+        {
+            System.err.println("LocalMOGlue - could not read number of objectives from task spec, using "
+                    + Reward.getNumRewards() + " :: " + e);
+            return Reward.getNumRewards();
+        }
+    }
+
+    public Observation_action RL_start()
+    {
+        Observation o = RL_env_start();
+        lastAction = RL_agent_start(o);
+        return new Observation_action(o, lastAction);
+    }
+
+    public Observation RL_env_start()
+    {
+        // an interrupted thread is being asked to stop (e.g. its session was cancelled), so do so between episodes
+        if (Thread.currentThread().isInterrupted())
+        {
+            throw new CancellationException("LocalMOGlue - cancelled before episode " + (numEpisodes + 1));
+        }
+        numSteps = 1;
+        isTerminal = false;
+        if (returnShared || totalReward.doubleArray.length != numObjectives)
+        {
+            totalReward = new Reward(0, numObjectives, 0);
+            returnShared = false;
+        }
+        else
+        {
+            Arrays.fill(totalReward.doubleArray, 0.0);
+        }
+        Observation o = environment.env_start();
+        if (o == null)
+        {
+            System.err.println("o came back as null from RL_start");
+        }
+        return o;
+    }
+
+    public Action RL_agent_start(Observation o)
+    {
+        Action a = agent.agent_start(o);
+        if (a == null)
+        {
+            System.err.println("theAction came back as null from RL_start");
+        }
+        return a;
+    }
+
+    public Reward_observation_terminal RL_env_step(Action a)
+    {
+        Reward_observation_terminal ro = environment.env_step(a);
+        if (ro == null)
+        {
+            System.err.println("RO came back as null from RL_step");
+            return null;
+        }
+        accumulateReward(ro.getReward());
+        isTerminal = ro.isTerminal();
+        if (isTerminal)
+        {
+            numEpisodes++;
+        }
+        else
+        {
+            numSteps++;
+        }
+        return ro;
+    }
+
+    // Add the step reward into the episode return, one objective at a time
+    private void accumulateReward(Reward r)
+    {
+        double total[] = totalReward.doubleArray;
+        double step[] = r.doubleArray;
+        int n = Math.min(total.length, step.length);
+        for (int i = 0; i < n; i++)
+        {
+            total[i] += step[i];
+        }
+    }
+
+    public Action RL_agent_step(Reward r, Observation o)
+    {
+        Action a = agent.agent_step(r, o);
+        if (a == null)
+        {
+            System.err.println("theAction came back as null from agent_step");
+        }
+        return a;
+    }
+
+    public void RL_agent_end(Reward r)
+    {
+        agent.agent_end(r);
+    }
+
+    public Reward_observation_action_terminal RL_step()
+    {
+        step();
+        Reward_observation_terminal ro = lastRewardObservation;
+        return new Reward_observation_action_terminal(ro.getReward(), ro.getObservation(), lastAction, ro.isTerminal());
+    }
+
+    // Advance the current episode by one step, without building the Reward_observation_action_terminal that
+    // RL_step has to return. Returns true if the episode has ended.
+    private boolean step()
+    {
+        if (lastAction == null)
+        {
+            System.err.println("lastAction came back as null from RL_step");
+        }
+        lastRewardObservation = RL_env_step(lastAction);
+        if (lastRewardObservation.isTerminal())
+        {
+            RL_agent_end(lastRewardObservation.getReward());
+        }
+        else
+        {
+            lastAction = RL_agent_step(lastRewardObservation.getReward(), lastRewardObservation.getObservation());
+        }
+        return isTerminal;
+    }
+
+    public void RL_cleanup()
+    {
+        environment.env_cleanup();
+        agent.agent_cleanup();
+    }
+
+    public String RL_agent_message(String message)
+    {
+        String reply = agent.agent_message(message == null ? "" : message);
+        return reply == null ? "" : reply;
+    }
+
+    public String RL_env_message(String message)
+    {
+        String reply = environment.env_message(message == null ? "" : message);
+        return reply == null ? "" : reply;
+    }
+
+    public Reward RL_return()
+    {
+        returnShared = true;
+        return totalReward;
+    }
+
+    public int RL_num_steps()
+    {
+        return numSteps;
+    }
+
+    public int RL_num_episodes()
+    {
+        return numEpisodes;
+    }
+
+    // Run a single episode, stopping early once maxStepsThisEpisode steps have been taken (0 means no limit).
+    // Returns 1 if the episode reached a terminal state, or 0 if it was cut off.
+    public int RL_episode(int maxStepsThisEpisode)
+    {
+        RL_start();
+        boolean terminal = false;
+        while (!terminal && (maxStepsThisEpisode == 0 || numSteps < maxStepsThisEpisode))
+        {
+            terminal = step();
+        }
+        return terminal ? 1 : 0;
+    }
+
+    // Run numEpisodes episodes back to back, as RL_episode, collecting each episode's return and step count.
+    // The return vector is reused from episode to episode, so no per-episode Reward objects are created.
+    public EpisodeSeries RL_series(int numEpisodes, int maxStepsPerEpisode)
+    {
+        EpisodeSeries series = new EpisodeSeries(numEpisodes, numObjectives);
+        for (int i = 0; i < numEpisodes; i++)
+        {
+            int terminal = RL_episode(maxStepsPerEpisode);
+            series.set(i, totalReward.doubleArray, numSteps, terminal == 1);
+        }
+        return series;
+    }
+
+    // A new glue joining copies of this glue's agent and environment in their current state, which can carry on
+    // independently of this one (e.g. on another thread). Both must be Copyable and should be between episodes.
+    // The copies aren't initialised again - the fork picks up the episode and step counts where this glue is.
+    public LocalMOGlue fork()
+    {
+        if (!(agent instanceof Copyable) || !(environment instanceof Copyable))
+        {
+            throw new UnsupportedOperationException("LocalMOGlue - can't fork " + agent.getClass().getSimpleName()
+                    + " and " + environment.getClass().getSimpleName() + ", both must be Copyable");
+        }
+        LocalMOGlue fork = new LocalMOGlue((EnvironmentInterface) ((Copyable<?>) environment).copy(),
+                (AgentInterface) ((Copyable<?>) agent).copy());
+        fork.numObjectives = numObjectives;
+        fork.numSteps = numSteps;
+        fork.numEpisodes = numEpisodes;
+        fork.isTerminal = isTerminal;
+        fork.totalReward = totalReward.duplicate();
+        return fork;
+    }
+
+    public AgentInterface getAgent()
+    {
+        return agent;
+    }
+
+    public EnvironmentInterface getEnvironment()
+    {
+        return environment;
+    }
+}
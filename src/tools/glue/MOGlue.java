@@ -0,0 +1,59 @@
+// Static helpers alongside the codec's RLGlue facade, for calls that aren't part of the RL-Glue interface.
+// Register the glue with MOGlue.setGlue() rather than RLGlue.setGlue() so that RL_series can run the whole series
+// inside LocalMOGlue. For any other glue (e.g. NetGlue) it falls back to one RL_episode/RL_num_steps/RL_return
+// round trip per episode.
+
+package tools.glue;
+
+import org.rlcommunity.rlglue.codec.RLGlue;
+import org.rlcommunity.rlglue.codec.RLGlueInterface;
+import org.rlcommunity.rlglue.codec.types.Reward;
+
+public class MOGlue
+{
+    private static RLGlueInterface instance = null;
+
+    private MOGlue()
+    {
+    }
+
+    public static void setGlue(RLGlueInterface glue)
+    {
+        instance = glue;
+        RLGlue.setGlue(glue);
+    }
+
+    // Returns the registered glue, or one which forwards to RLGlue's own if setGlue() hasn't been called
+    public static RLGlueInterface getGlue()
+    {
+        return instance == null ? new StaticGlue() : instance;
+    }
+
+    // Run numEpisodes episodes back to back, each cut off after maxStepsPerEpisode steps (0 means no limit)
+    public static EpisodeSeries RL_series(int numEpisodes, int maxStepsPerEpisode)
+    {
+        return RL_series(getGlue(), numEpisodes, maxStepsPerEpisode);
+    }
+
+    // As above, but on a particular glue rather than the registered one
+    public static EpisodeSeries RL_series(RLGlueInterface glue, int numEpisodes, int maxStepsPerEpisode)
+    {
+        if (glue instanceof LocalMOGlue)
+        {
+            return ((LocalMOGlue) glue).RL_series(numEpisodes, maxStepsPerEpisode);
+        }
+        EpisodeSeries series = null;
+        for (int i = 0; i < numEpisodes; i++)
+        {
+            int terminal = glue.RL_episode(maxStepsPerEpisode);
+            int steps = glue.RL_num_steps();
+            Reward r = glue.RL_return();
+            if (series == null)
+            {
+                series = new EpisodeSeries(numEpisodes, r.doubleArray.length);
+            }
+            series.set(i, r.doubleArray, steps, terminal == 1);
+        }
+        return series == null ? new EpisodeSeries(0, 0) : series;
+    }
+}
@@ -0,0 +1,229 @@
+// A pure-Java replacement for morlglue_x64.exe, speaking the same wire protocol as JavaRLGlueCodec.jar, so the
+// existing AgentLoader/EnvironmentLoader/NetGlue clients connect to it unchanged and it runs on any platform.
+// A single selector thread services every socket without blocking: each read decodes all the frames that have
+// arrived, and any replies that can't be written immediately are flushed later with one gathering write.
+// Each listening port is a separate session with its own experiment, agent and environment, so several
+// experiments can share one server by using different ports. Per-message latency is printed at the end of each run.
+// Usage: MOGlueServer [port ...]   (defaults to RLGLUE_PORT, or 4096)
+
+package tools.glue;
+
+import org.rlcommunity.rlglue.codec.network.Network;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+public class MOGlueServer implements Runnable
+{
+    private final Selector selector;
+    private final List<GlueSession> sessions = new ArrayList<GlueSession>();
+    private final List<ServerSocketChannel> listeners = new ArrayList<ServerSocketChannel>();
+    private final ConcurrentLinkedQueue<GlueConnection> writeRequests = new ConcurrentLinkedQueue<GlueConnection>();
+    private volatile boolean running = false;
+
+    public MOGlueServer() throws IOException
+    {
+        selector = Selector.open();
+    }
+
+    // Open a port for a new session. Must be called before start().
+    public void listen(int port) throws IOException
+    {
+        if (running)
+        {
+            throw new IllegalStateException("MOGlueServer - listen() must be called before start()");
+        }
+        ServerSocketChannel server = ServerSocketChannel.open();
+        server.socket().setReuseAddress(true);
+        server.socket().bind(new InetSocketAddress(port));
+        server.configureBlocking(false);
+        GlueSession session = new GlueSession(port);
+        server.register(selector, SelectionKey.OP_ACCEPT, session);
+        sessions.add(session);
+        listeners.add(server);
+        System.out.println("MOGlueServer - listening on port " + port);
+    }
+
+    public void start()
+    {
+        running = true;
+        for (GlueSession session : sessions)
+        {
+            session.start();
+        }
+        new Thread(this, "MOGlueServer").start();
+    }
+
+    public void stop()
+    {
+        running = false;
+        selector.wakeup();
+    }
+
+    // Returns the latency counters for the session on the given port, or null if there isn't one
+    public MessageLatency getLatency(int port)
+    {
+        for (GlueSession session : sessions)
+        {
+            if (session.getPort() == port)
+            {
+                return session.getLatency();
+            }
+        }
+        return null;
+    }
+
+    // Create a server listening on each of the given ports and start it running
+    public static MOGlueServer launch(int... ports) throws IOException
+    {
+        MOGlueServer server = new MOGlueServer();
+        for (int port : ports)
+        {
+            server.listen(port);
+        }
+        server.start();
+        return server;
+    }
+
+    // Called from any thread when a connection has output that couldn't be written immediately
+    void requestWrite(GlueConnection connection)
+    {
+        writeRequests.add(connection);
+        selector.wakeup();
+    }
+
+    public void run()
+    {
+        try
+        {
+            while (running)
+            {
+                selector.select();
+                GlueConnection pending;
+                while ((pending = writeRequests.poll()) != null)
+                {
+                    SelectionKey key = pending.getKey();
+                    if (key != null && key.isValid())
+                    {
+                        key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+                    }
+                }
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext())
+                {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    if (!key.isValid())
+                    {
+                        continue;
+                    }
+                    if (key.isAcceptable())
+                    {
+                        accept(key);
+                        continue;
+                    }
+                    GlueConnection connection = (GlueConnection) key.attachment();
+                    try
+                    {
+                        if (key.isReadable() && !connection.readFrames())
+                        {
+                            connection.close();
+                            continue;
+                        }
+                        if (key.isValid() && key.isWritable() && connection.flush())
+                        {
+                            key.interestOps(SelectionKey.OP_READ);
+                        }
+                    }
+                    catch (IOException e)
+                    {
+                        System.err.println("MOGlueServer - connection error :: " + e);
+                        connection.close();
+                    }
+                }
+            }
+        }
+        catch (IOException e)
+        {
+            e.printStackTrace();
+        }
+        finally
+        {
+            shutdown();
+        }
+    }
+
+    private void accept(SelectionKey key) throws IOException
+    {
+        SocketChannel channel = ((ServerSocketChannel) key.channel()).accept();
+        if (channel == null)
+        {
+            return;
+        }
+        channel.configureBlocking(false);
+        channel.socket().setTcpNoDelay(true);
+        GlueConnection connection = new GlueConnection(channel, this, (GlueSession) key.attachment());
+        connection.setKey(channel.register(selector, SelectionKey.OP_READ, connection));
+    }
+
+    private void shutdown()
+    {
+        for (GlueSession session : sessions)
+        {
+            session.stop();
+        }
+        for (SelectionKey key : new ArrayList<SelectionKey>(selector.keys()))
+        {
+            if (key.attachment() instanceof GlueConnection)
+            {
+                ((GlueConnection) key.attachment()).close();
+            }
+        }
+        for (ServerSocketChannel server : listeners)
+        {
+            try
+            {
+                server.close();
+            }
+            catch (IOException e)
+            {
+                e.printStackTrace();
+            }
+        }
+        try
+        {
+            selector.close();
+        }
+        catch (IOException e)
+        {
+            e.printStackTrace();
+        }
+    }
+
+    public static void main(String[] args) throws IOException
+    {
+        int ports[];
+        if (args != null && args.length > 0)
+        {
+            ports = new int[args.length];
+            for (int i = 0; i < args.length; i++)
+            {
+                ports[i] = Integer.parseInt(args[i]);
+            }
+        }
+        else
+        {
+            String envPort = System.getenv("RLGLUE_PORT");
+            ports = new int[] { envPort == null ? Network.kDefaultPort : Integer.parseInt(envPort) };
+        }
+        launch(ports);
+    }
+}
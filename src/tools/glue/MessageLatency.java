@@ -0,0 +1,101 @@
+// Per-message latency counters for the Java glue server. Each RL-Glue message code keeps a count, total and
+// maximum time; experiment requests are timed from the moment their frame was decoded to the moment the reply
+// was queued, and agent/environment calls are timed as full round trips.
+
+package tools.glue;
+
+import org.rlcommunity.rlglue.codec.network.Network;
+
+import java.io.PrintStream;
+
+public class MessageLatency
+{
+    private static final int MAX_CODE = 64;
+
+    private final long count[] = new long[MAX_CODE];
+    private final long totalNanos[] = new long[MAX_CODE];
+    private final long maxNanos[] = new long[MAX_CODE];
+
+    public synchronized void record(int code, long nanos)
+    {
+        if (code < 0 || code >= MAX_CODE)
+        {
+            return;
+        }
+        count[code]++;
+        totalNanos[code] += nanos;
+        if (nanos > maxNanos[code])
+        {
+            maxNanos[code] = nanos;
+        }
+    }
+
+    public synchronized long getCount(int code)
+    {
+        return count[code];
+    }
+
+    public synchronized double getMeanMicros(int code)
+    {
+        return count[code] == 0 ? 0.0 : totalNanos[code] / (count[code] * 1000.0);
+    }
+
+    public synchronized void reset()
+    {
+        for (int i = 0; i < MAX_CODE; i++)
+        {
+            count[i] = 0;
+            totalNanos[i] = 0;
+            maxNanos[i] = 0;
+        }
+    }
+
+    public synchronized void report(PrintStream out, String title)
+    {
+        out.println(title);
+        out.println(String.format("  %-18s %10s %12s %12s", "message", "count", "mean(us)", "max(us)"));
+        for (int code = 0; code < MAX_CODE; code++)
+        {
+            if (count[code] > 0)
+            {
+                out.println(String.format("  %-18s %10d %12.1f %12.1f", getName(code), count[code],
+                        getMeanMicros(code), maxNanos[code] / 1000.0));
+            }
+        }
+    }
+
+    public static String getName(int code)
+    {
+        switch (code)
+        {
+            case Network.kAgentInit: return "agent_init";
+            case Network.kAgentStart: return "agent_start";
+            case Network.kAgentStep: return "agent_step";
+            case Network.kAgentEnd: return "agent_end";
+            case Network.kAgentCleanup: return "agent_cleanup";
+            case Network.kAgentMessage: return "agent_message";
+            case Network.kEnvInit: return "env_init";
+            case Network.kEnvStart: return "env_start";
+            case Network.kEnvStep: return "env_step";
+            case Network.kEnvCleanup: return "env_cleanup";
+            case Network.kEnvMessage: return "env_message";
+            case Network.kRLInit: return "RL_init";
+            case Network.kRLStart: return "RL_start";
+            case Network.kRLStep: return "RL_step";
+            case Network.kRLCleanup: return "RL_cleanup";
+            case Network.kRLReturn: return "RL_return";
+            case Network.kRLNumSteps: return "RL_num_steps";
+            case Network.kRLNumEpisodes: return "RL_num_episodes";
+            case Network.kRLEpisode: return "RL_episode";
+            case Network.kRLAgentMessage: return "RL_agent_message";
+            case Network.kRLEnvMessage: return "RL_env_message";
+            case Network.kRLTerm: return "RL_term";
+            case Network.kRLEnvStart: return "RL_env_start";
+            case Network.kRLEnvStep: return "RL_env_step";
+            case Network.kRLAgentStart: return "RL_agent_start";
+            case Network.kRLAgentStep: return "RL_agent_step";
+            case Network.kRLAgentEnd: return "RL_agent_end";
+            default: return "code " + code;
+        }
+    }
+}
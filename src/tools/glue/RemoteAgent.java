@@ -0,0 +1,57 @@
+// Stands in for an agent connected to the Java glue server, so the session's LocalMOGlue can call it as if it
+// were local. Each call is sent as a frame over the agent's socket and blocks until the matching reply arrives.
+
+package tools.glue;
+
+import org.rlcommunity.rlglue.codec.AgentInterface;
+import org.rlcommunity.rlglue.codec.network.Network;
+import org.rlcommunity.rlglue.codec.types.Action;
+import org.rlcommunity.rlglue.codec.types.Observation;
+import org.rlcommunity.rlglue.codec.types.Reward;
+
+import java.nio.ByteBuffer;
+
+final class RemoteAgent implements AgentInterface
+{
+    private final GlueSession session;
+
+    RemoteAgent(GlueSession session)
+    {
+        this.session = session;
+    }
+
+    private GlueFrames.Frame call(ByteBuffer message)
+    {
+        return session.call(Network.kAgentConnection, message);
+    }
+
+    public void agent_init(String taskSpec)
+    {
+        call(GlueFrames.ofString(Network.kAgentInit, taskSpec));
+    }
+
+    public Action agent_start(Observation o)
+    {
+        return GlueFrames.getAction(call(GlueFrames.ofAbstractType(Network.kAgentStart, o)).payload);
+    }
+
+    public Action agent_step(Reward r, Observation o)
+    {
+        return GlueFrames.getAction(call(GlueFrames.ofAbstractTypes(Network.kAgentStep, r, o)).payload);
+    }
+
+    public void agent_end(Reward r)
+    {
+        call(GlueFrames.ofAbstractType(Network.kAgentEnd, r));
+    }
+
+    public void agent_cleanup()
+    {
+        call(GlueFrames.empty(Network.kAgentCleanup));
+    }
+
+    public String agent_message(String message)
+    {
+        return GlueFrames.getString(call(GlueFrames.ofString(Network.kAgentMessage, message)).payload);
+    }
+}
@@ -0,0 +1,57 @@
+// Stands in for an environment connected to the Java glue server, so the session's LocalMOGlue can call it as if
+// it were local. Each call is sent as a frame over the environment's socket and blocks until the reply arrives.
+
+package tools.glue;
+
+import org.rlcommunity.rlglue.codec.EnvironmentInterface;
+import org.rlcommunity.rlglue.codec.network.Network;
+import org.rlcommunity.rlglue.codec.types.Action;
+import org.rlcommunity.rlglue.codec.types.Observation;
+import org.rlcommunity.rlglue.codec.types.Reward;
+import org.rlcommunity.rlglue.codec.types.Reward_observation_terminal;
+
+import java.nio.ByteBuffer;
+
+final class RemoteEnvironment implements EnvironmentInterface
+{
+    private final GlueSession session;
+
+    RemoteEnvironment(GlueSession session)
+    {
+        this.session = session;
+    }
+
+    private GlueFrames.Frame call(ByteBuffer message)
+    {
+        return session.call(Network.kEnvironmentConnection, message);
+    }
+
+    public String env_init()
+    {
+        return GlueFrames.getString(call(GlueFrames.empty(Network.kEnvInit)).payload);
+    }
+
+    public Observation env_start()
+    {
+        return GlueFrames.getObservation(call(GlueFrames.empty(Network.kEnvStart)).payload);
+    }
+
+    public Reward_observation_terminal env_step(Action a)
+    {
+        ByteBuffer reply = call(GlueFrames.ofAbstractType(Network.kEnvStep, a)).payload;
+        boolean terminal = reply.getInt() == 1;
+        Reward r = GlueFrames.getReward(reply);
+        Observation o = GlueFrames.getObservation(reply);
+        return new Reward_observation_terminal(r, o, terminal);
+    }
+
+    public void env_cleanup()
+    {
+        call(GlueFrames.empty(Network.kEnvCleanup));
+    }
+
+    public String env_message(String message)
+    {
+        return GlueFrames.getString(call(GlueFrames.ofString(Network.kEnvMessage, message)).payload);
+    }
+}
@@ -0,0 +1,91 @@
+// An RLGlueInterface which just forwards to the codec's static RLGlue facade, so code written against a glue
+// instance can also run over whatever glue RLGlue is using (e.g. the NetGlue it creates on first use).
+
+package tools.glue;
+
+import org.rlcommunity.rlglue.codec.RLGlue;
+import org.rlcommunity.rlglue.codec.RLGlueInterface;
+import org.rlcommunity.rlglue.codec.types.Action;
+import org.rlcommunity.rlglue.codec.types.Observation;
+import org.rlcommunity.rlglue.codec.types.Observation_action;
+import org.rlcommunity.rlglue.codec.types.Reward;
+import org.rlcommunity.rlglue.codec.types.Reward_observation_action_terminal;
+import org.rlcommunity.rlglue.codec.types.Reward_observation_terminal;
+
+final class StaticGlue implements RLGlueInterface
+{
+    public String RL_init()
+    {
+        return RLGlue.RL_init();
+    }
+
+    public Observation_action RL_start()
+    {
+        return RLGlue.RL_start();
+    }
+
+    public Observation RL_env_start()
+    {
+        return RLGlue.RL_env_start();
+    }
+
+    public Reward_observation_terminal RL_env_step(Action action)
+    {
+        return RLGlue.RL_env_step(action);
+    }
+
+    public Action RL_agent_start(Observation observation)
+    {
+        return RLGlue.RL_agent_start(observation);
+    }
+
+    public Action RL_agent_step(Reward reward, Observation observation)
+    {
+        return RLGlue.RL_agent_step(reward, observation);
+    }
+
+    public void RL_agent_end(Reward reward)
+    {
+        RLGlue.RL_agent_end(reward);
+    }
+
+    public Reward_observation_action_terminal RL_step()
+    {
+        return RLGlue.RL_step();
+    }
+
+    public void RL_cleanup()
+    {
+        RLGlue.RL_cleanup();
+    }
+
+    public String RL_agent_message(String message)
+    {
+        return RLGlue.RL_agent_message(message);
+    }
+
+    public String RL_env_message(String message)
+    {
+        return RLGlue.RL_env_message(message);
+    }
+
+    public Reward RL_return()
+    {
+        return RLGlue.RL_return();
+    }
+
+    public int RL_num_steps()
+    {
+        return RLGlue.RL_num_steps();
+    }
+
+    public int RL_num_episodes()
+    {
+        return RLGlue.RL_num_episodes();
+    }
+
+    public int RL_episode(int numSteps)
+    {
+        return RLGlue.RL_episode(numSteps);
+    }
+}
@@ -0,0 +1,67 @@
+// Helpers for the java.util.Random streams which the agents, value functions and actors draw from.
+
+package tools.random;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.Random;
+
+public final class Randoms
+{
+    // the experiment seed used by components which haven't been sent one, e.g. with a set_seed: message
+    public static final long DEFAULT_SEED = 471;
+
+    // streams for the old static helpers which don't take a Random (e.g. TLO.greedyAction(values, thresholds)), one
+    // per thread so callers on different threads never contend. Pass in a component's own Random where
+    // reproducibility matters, as the value functions do.
+    private static final ThreadLocal<Random> local = new ThreadLocal<Random>()
+    {
+        @Override
+        protected Random initialValue()
+        {
+            return SplitMix.derive(DEFAULT_SEED, "thread", Thread.currentThread().getName());
+        }
+    };
+
+    private Randoms()
+    {
+    }
+
+    // The calling thread's stream for code with no Random of its own
+    public static Random local()
+    {
+        return local.get();
+    }
+
+    // Parse the number in a set_seed:<seed> message
+    public static long parseSeed(String message)
+    {
+        return Long.parseLong(message.substring(message.indexOf(':') + 1).trim());
+    }
+
+    // An independent Random which produces exactly the numbers r would produce from here on. Random keeps its seed
+    // private, so the copy is made through its serialized form.
+    public static Random copy(Random r)
+    {
+        if (r == null)
+        {
+            return null;
+        }
+        try
+        {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            ObjectOutputStream out = new ObjectOutputStream(bytes);
+            out.writeObject(r);
+            out.close();
+            ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray()));
+            return (Random) in.readObject();
+        }
+        catch (IOException | ClassNotFoundException e)
+        {
+            throw new IllegalStateException("Randoms - unable to copy " + r.getClass().getName(), e);
+        }
+    }
+}
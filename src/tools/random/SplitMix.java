@@ -0,0 +1,123 @@
+// A java.util.Random driven by the SplitMix64 generator (the algorithm behind java.util.SplittableRandom), for the
+// random number streams of the agents, value functions and actors. It isn't thread-safe - each component owns its
+// stream, so there's no shared AtomicLong seed to contend on - and it's much cheaper per number than Random.
+// Streams are derived from one experiment seed by naming the component they're for, e.g.
+//   SplitMix.derive(experimentSeed, "trial", 3, "valuefunction")
+// so the same experiment seed always gives a component the same numbers, whichever thread it runs on and whatever
+// ran before it. Unlike SplittableRandom it's Serializable, so Randoms.copy() can copy it exactly.
+
+package tools.random;
+
+import java.util.Random;
+
+public class SplitMix extends Random
+{
+    private static final long serialVersionUID = 1L;
+    private static final long GOLDEN_GAMMA = 0x9e3779b97f4a7c15L;
+    private static final double DOUBLE_UNIT = 0x1.0p-53;
+
+    private long state;
+
+    public SplitMix(long seed)
+    {
+        super(seed); // calls setSeed
+    }
+
+    // The stream for the component at the given path below an experiment seed. Path elements may be names or
+    // numbers, e.g. derive(seed, "trial", 3, "actor").
+    public static SplitMix derive(long seed, Object... path)
+    {
+        long s = mix64(seed);
+        for (Object p : path)
+        {
+            s = mix64(s ^ hash(p));
+        }
+        return new SplitMix(s);
+    }
+
+    private static long hash(Object p)
+    {
+        if (p instanceof Number)
+        {
+            return mix64(((Number) p).longValue() + GOLDEN_GAMMA);
+        }
+        // FNV-1a over the name's characters
+        long h = 0xcbf29ce484222325L;
+        String s = String.valueOf(p);
+        for (int i = 0; i < s.length(); i++)
+        {
+            h = (h ^ s.charAt(i)) * 0x100000001b3L;
+        }
+        return h;
+    }
+
+    private static long mix64(long z)
+    {
+        z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+        z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+        return z ^ (z >>> 31);
+    }
+
+    @Override
+    public void setSeed(long seed)
+    {
+        super.setSeed(seed); // clears Random's stored gaussian
+        state = seed;
+    }
+
+    @Override
+    protected int next(int bits)
+    {
+        return (int) (nextLong() >>> (64 - bits));
+    }
+
+    @Override
+    public long nextLong()
+    {
+        return mix64(state += GOLDEN_GAMMA);
+    }
+
+    @Override
+    public int nextInt()
+    {
+        return (int) (nextLong() >>> 32);
+    }
+
+    // uniform on [0, bound), rejecting the values which would bias the result towards small numbers
+    @Override
+    public int nextInt(int bound)
+    {
+        if (bound <= 0)
+        {
+            throw new IllegalArgumentException("bound must be positive");
+        }
+        int r = nextInt();
+        int m = bound - 1;
+        if ((bound & m) == 0)
+        {
+            return r & m;
+        }
+        for (int u = r >>> 1; u + m - (r = u % bound) < 0; u = nextInt() >>> 1)
+        {
+        }
+        return r;
+    }
+
+    @Override
+    public double nextDouble()
+    {
+        return (nextLong() >>> 11) * DOUBLE_UNIT;
+    }
+
+    @Override
+    public float nextFloat()
+    {
+        return (nextInt() >>> 8) * 0x1.0p-24f;
+    }
+
+    @Override
+    public boolean nextBoolean()
+    {
+        return nextLong() < 0;
+    }
+}
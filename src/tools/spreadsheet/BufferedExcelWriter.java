@@ -0,0 +1,128 @@
+package tools.spreadsheet;
+
+import java.util.ArrayList;
+
+// An ExcelWriter which just records the sheets and rows written to it, so they can be written into a real
+// workbook later on. Used when trials run in parallel - each trial writes its sheet to its own buffer, and the
+// buffers are then replayed into the experiment's workbook in trial order so the file matches a sequential run.
+// Operations which need to see the finished workbook (cross-sheet addresses, summary sheets) aren't supported.
+public class BufferedExcelWriter extends ExcelWriter
+{
+	private static final int NEW_SHEET = 0;
+	private static final int NUMBERS = 1;
+	private static final int INT_NUMBERS = 2;
+	private static final int TEXT = 3;
+	private static final int TEXT_AND_NUMBERS = 4;
+	private static final int FORMULA = 5;
+	private static final int TEXT_AND_FORMULA = 6;
+
+	private static class Entry
+	{
+		final int kind;
+		final String text;
+		final String formulas;
+		final double numbers[];
+		final int ints[];
+		final int index;
+
+		Entry(int kind, String text, String formulas, double numbers[], int ints[], int index)
+		{
+			this.kind = kind;
+			this.text = text;
+			this.formulas = formulas;
+			this.numbers = numbers;
+			this.ints = ints;
+			this.index = index;
+		}
+	}
+
+	private final ArrayList<Entry> entries = new ArrayList<Entry>();
+
+	public void moveToNewSheet(String name, int index)
+	{
+		entries.add(new Entry(NEW_SHEET, name, null, null, null, index));
+	}
+
+	public void writeNextRowNumbers(double data[])
+	{
+		entries.add(new Entry(NUMBERS, null, null, data.clone(), null, 0));
+	}
+
+	public void writeNextRowNumbers(int data[])
+	{
+		entries.add(new Entry(INT_NUMBERS, null, null, null, data.clone(), 0));
+	}
+
+	public void writeNextRowText(String text)
+	{
+		entries.add(new Entry(TEXT, text, null, null, null, 0));
+	}
+
+	public void writeNextRowTextAndNumbers(String text, double data[])
+	{
+		entries.add(new Entry(TEXT_AND_NUMBERS, text, null, data.clone(), null, 0));
+	}
+
+	public void writeNextRowFormula(String text)
+	{
+		entries.add(new Entry(FORMULA, text, null, null, null, 0));
+	}
+
+	public void writeNextRowTextAndFormula(String text, String formulas)
+	{
+		entries.add(new Entry(TEXT_AND_FORMULA, text, formulas, null, null, 0));
+	}
+
+	// Addresses within the current sheet don't depend on the workbook, so can be worked out straight away
+	public String getAddress(int column, int row)
+	{
+		return jxl.CellReferenceHelper.getCellReference(column, row);
+	}
+
+	public String getAddress(int sheet, int column, int row)
+	{
+		throw new UnsupportedOperationException("BufferedExcelWriter can't address other sheets");
+	}
+
+	public void makeSummarySheet(int numSheets, String columnHeaders, int numLabels, int numHeaders, int numDataColumns, int numDataRows)
+	{
+		throw new UnsupportedOperationException("BufferedExcelWriter can't make summary sheets");
+	}
+
+	public void closeFile()
+	{
+		// nothing to close - the contents are written out by replayInto
+	}
+
+	// Write everything recorded so far into the target, in the order it was originally written
+	public void replayInto(ExcelWriter target)
+	{
+		for (Entry e : entries)
+		{
+			switch (e.kind)
+			{
+				case NEW_SHEET:
+					target.moveToNewSheet(e.text, e.index);
+					break;
+				case NUMBERS:
+					target.writeNextRowNumbers(e.numbers);
+					break;
+				case INT_NUMBERS:
+					target.writeNextRowNumbers(e.ints);
+					break;
+				case TEXT:
+					target.writeNextRowText(e.text);
+					break;
+				case TEXT_AND_NUMBERS:
+					target.writeNextRowTextAndNumbers(e.text, e.numbers);
+					break;
+				case FORMULA:
+					target.writeNextRowFormula(e.text);
+					break;
+				case TEXT_AND_FORMULA:
+					target.writeNextRowTextAndFormula(e.text, e.formulas);
+					break;
+			}
+		}
+	}
+}
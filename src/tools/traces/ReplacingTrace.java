@@ -0,0 +1,191 @@
+// The agents' eligibility trace: the most recent state-action pairs, up to a maximum length, for replacing traces.
+// It replaces the Stack of StateActionIndexPair/StateActionDiscrete the agents used to keep, where finding whether a
+// pair had been visited again since meant an indexOf() scan per entry, and adding one meant allocating a pair object.
+// Here the pairs are kept as ints in a ring buffer - adding one when the trace is full drops the oldest - and an
+// open-addressing hash table maps each pair to its latest position in the ring, so isLatest() is a single lookup.
+// clear() empties the table in one go by moving on to a new generation; slots stamped with an older generation
+// count as empty.
+// Entries are numbered by age - 0 is the most recent - which is the order the agents walk them in.
+
+package tools.traces;
+
+import java.util.Arrays;
+
+public class ReplacingTrace
+{
+    private final int capacity;
+    private final int numActions;
+    // the ring buffer: the oldest entry is at head, the newest at (head + size - 1) % capacity
+    private final int[] states;
+    private final int[] actions;
+    private int head;
+    private int size;
+    // hash table from a pair's key (state * numActions + action) to its latest position in the ring
+    private final long[] slotKeys;
+    private final int[] slotPositions;
+    private final int[] slotGenerations;
+    private int generation = 1;
+
+    public ReplacingTrace(int capacity, int numActions)
+    {
+        if (capacity < 1)
+        {
+            throw new IllegalArgumentException("ReplacingTrace - capacity must be at least 1, not " + capacity);
+        }
+        this.capacity = capacity;
+        this.numActions = numActions;
+        states = new int[capacity];
+        actions = new int[capacity];
+        // at most capacity pairs are ever held, so keep the table no more than half full
+        int tableSize = Integer.highestOneBit(capacity) * 4;
+        slotKeys = new long[tableSize];
+        slotPositions = new int[tableSize];
+        slotGenerations = new int[tableSize];
+    }
+
+    public ReplacingTrace(ReplacingTrace other)
+    {
+        capacity = other.capacity;
+        numActions = other.numActions;
+        states = other.states.clone();
+        actions = other.actions.clone();
+        head = other.head;
+        size = other.size;
+        slotKeys = other.slotKeys.clone();
+        slotPositions = other.slotPositions.clone();
+        slotGenerations = other.slotGenerations.clone();
+        generation = other.generation;
+    }
+
+    private long key(int state, int action)
+    {
+        return (long) state * numActions + action;
+    }
+
+    private int home(long key)
+    {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32)) & (slotKeys.length - 1);
+    }
+
+    // the slot holding the key, or -1
+    private int find(long key)
+    {
+        int mask = slotKeys.length - 1;
+        for (int slot = home(key); slotGenerations[slot] == generation; slot = (slot + 1) & mask)
+        {
+            if (slotKeys[slot] == key)
+            {
+                return slot;
+            }
+        }
+        return -1;
+    }
+
+    // Add the pair as the most recent entry, dropping the oldest entry if the trace is full
+    public void add(int state, int action)
+    {
+        if (size == capacity)
+        {
+            removeOldest();
+        }
+        int position = (head + size) % capacity;
+        states[position] = state;
+        actions[position] = action;
+        size++;
+        long key = key(state, action);
+        int slot = find(key);
+        if (slot < 0)
+        {
+            int mask = slotKeys.length - 1;
+            slot = home(key);
+            while (slotGenerations[slot] == generation)
+            {
+                slot = (slot + 1) & mask;
+            }
+            slotKeys[slot] = key;
+            slotGenerations[slot] = generation;
+        }
+        slotPositions[slot] = position;
+    }
+
+    private void removeOldest()
+    {
+        int slot = find(key(states[head], actions[head]));
+        if (slotPositions[slot] == head)
+        {
+            // the pair isn't anywhere else in the trace
+            deleteSlot(slot);
+        }
+        head = (head + 1) % capacity;
+        size--;
+    }
+
+    // empty a slot, moving later entries of its probe sequence back so none is cut off from its home slot
+    private void deleteSlot(int hole)
+    {
+        int mask = slotKeys.length - 1;
+        slotGenerations[hole] = 0;
+        for (int slot = (hole + 1) & mask; slotGenerations[slot] == generation; slot = (slot + 1) & mask)
+        {
+            int home = home(slotKeys[slot]);
+            if (((slot - home) & mask) >= ((slot - hole) & mask))
+            {
+                slotKeys[hole] = slotKeys[slot];
+                slotPositions[hole] = slotPositions[slot];
+                slotGenerations[hole] = generation;
+                slotGenerations[slot] = 0;
+                hole = slot;
+            }
+        }
+    }
+
+    public void clear()
+    {
+        head = 0;
+        size = 0;
+        generation++;
+        if (generation == Integer.MAX_VALUE)
+        {
+            Arrays.fill(slotGenerations, 0);
+            generation = 1;
+        }
+    }
+
+    public int size()
+    {
+        return size;
+    }
+
+    public boolean isEmpty()
+    {
+        return size == 0;
+    }
+
+    public int getCapacity()
+    {
+        return capacity;
+    }
+
+    private int position(int age)
+    {
+        return (head + size - 1 - age) % capacity;
+    }
+
+    public int getState(int age)
+    {
+        return states[position(age)];
+    }
+
+    public int getAction(int age)
+    {
+        return actions[position(age)];
+    }
+
+    // true if no more recent entry has the same state and action - i.e. this is the entry a replacing trace updates
+    public boolean isLatest(int age)
+    {
+        int position = position(age);
+        return slotPositions[find(key(states[position], actions[position]))] == position;
+    }
+}
@@ -0,0 +1,138 @@
+// Names for the files written by the agents, environments and actors while a trial runs. Normally every trial
+// appends to the same plain-text diagnostic files (AdditionalConsoleOutput, WatcherOutput, ConscienceOutput and
+// SimpleOutput) in the working directory. When trials run in parallel, each worker thread enters the scope of its
+// trial and the diagnostic file names get a trial suffix instead, e.g. WatcherOutput_T3.txt, so concurrent trials
+// don't interleave their lines. A thread can also be given an output directory (as the sweep runner does for each
+// configuration), in which case all of its files - diagnostics, thresholds and saved value functions - go there.
+
+package tools.trials;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+public final class TrialOutput
+{
+    public static final String[] DIAGNOSTIC_FILES = {"AdditionalConsoleOutput.txt", "WatcherOutput.txt",
+            "ConscienceOutput.txt", "SimpleOutput.txt"};
+
+    private static final ThreadLocal<Integer> trial = new ThreadLocal<>();
+    private static final ThreadLocal<String> directory = new ThreadLocal<>();
+
+    private TrialOutput()
+    {
+    }
+
+    // Write the calling thread's files to the given directory, or to the working directory if it's null
+    public static void setDirectory(String dir)
+    {
+        if (dir == null)
+        {
+            directory.remove();
+        }
+        else
+        {
+            new File(dir).mkdirs();
+            directory.set(dir);
+        }
+    }
+
+    // Start writing the calling thread's output to the files for the given trial, emptying any left from a
+    // previous run since nothing else will ever append to them
+    public static void enter(int trialNum)
+    {
+        trial.set(trialNum);
+        for (String file : DIAGNOSTIC_FILES)
+        {
+            try
+            {
+                new FileWriter(fileName(file), false).close();
+            }
+            catch (IOException e)
+            {
+                System.err.println("TrialOutput - unable to create " + fileName(file));
+                e.printStackTrace();
+            }
+        }
+    }
+
+    public static void exit()
+    {
+        trial.remove();
+    }
+
+    public static boolean isScoped()
+    {
+        return trial.get() != null;
+    }
+
+    // Returns the file name to use for the given diagnostic file (e.g. "WatcherOutput.txt") on the calling thread
+    public static String fileName(String baseName)
+    {
+        Integer t = trial.get();
+        if (t == null)
+        {
+            return path(baseName);
+        }
+        int dot = baseName.lastIndexOf('.');
+        if (dot < 0)
+        {
+            return path(baseName + "_T" + t);
+        }
+        return path(baseName.substring(0, dot) + "_T" + t + baseName.substring(dot));
+    }
+
+    // Returns where the calling thread should write a file which is already named per trial (e.g. a saved value
+    // function), without adding a suffix
+    public static String path(String name)
+    {
+        String dir = directory.get();
+        return dir == null ? name : new File(dir, name).getPath();
+    }
+
+    // As path(), but for a file to be read - falls back to the working directory if the file isn't in the thread's
+    // output directory, so runs in a sweep can still load value functions learned beforehand. The name can also be
+    // a glob (e.g. ValueFunction_T3_I*.txt), which is looked for in the output directory the same way.
+    public static String inputPath(String name)
+    {
+        String dir = directory.get();
+        if (dir != null && holds(dir, name))
+        {
+            return new File(dir, name).getPath();
+        }
+        return name;
+    }
+
+    // true if the directory holds the named file, or anything matching the name if it's a glob
+    private static boolean holds(String dir, String name)
+    {
+        if (new File(dir, name).exists())
+        {
+            return true;
+        }
+        if (name.indexOf('*') < 0 && name.indexOf('?') < 0 && name.indexOf('[') < 0 && name.indexOf('{') < 0)
+        {
+            return false;
+        }
+        try
+        {
+            DirectoryStream<Path> stream = Files.newDirectoryStream(Paths.get(dir), name);
+            try
+            {
+                return stream.iterator().hasNext();
+            }
+            finally
+            {
+                stream.close();
+            }
+        }
+        catch (IOException | RuntimeException e)
+        {
+            return false; // not a directory, or not a valid glob
+        }
+    }
+}
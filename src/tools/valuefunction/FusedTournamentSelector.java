@@ -0,0 +1,125 @@
+package tools.valuefunction;
+import java.util.Random;
+
+import tools.valuefunction.interfaces.ActionSelection;
+
+// Softmax-tournament action selection for the TLO lookup tables, worked out in one go. Done separately, a step
+// finds the greedy action (a pass of TLO comparisons), scores every action against every other
+// (TLO.getDominanceScore), takes the softmax of the scores (an exp per action) and then asks whether the chosen
+// action was greedy (more comparisons). Here each pair of actions is compared once, and everything else follows from
+// how many actions each one is at least as good as:
+//  - the greedy actions are those at least as good as every other action
+//  - an action's dominance score is that count / (numActions - 1), exactly as getDominanceScore
+//  - so the softmax terms are all powers of exp(1 / ((numActions - 1) * temperature)), needing a single exp
+//  - and whether the chosen action is greedy is just a lookup.
+// Greedy ties are broken by reservoir sampling, as TLO.greedyAction, and the softmax draws its random number as
+// Softmax.getAction does. All working space is allocated up front, so selecting allocates nothing.
+// One selector belongs to one table - it isn't thread-safe.
+
+public class FusedTournamentSelector
+{
+	private final boolean multiImpact; // compare with TLO_MI's ordering rather than TLO's
+	private final int wins[];          // how many other actions each action is at least as good as
+	private final double powers[];     // softmax term for each possible number of wins
+	private final double sums[];       // running sums of the softmax terms
+
+	public FusedTournamentSelector(int numActions, boolean multiImpact)
+	{
+		this.multiImpact = multiImpact;
+		wins = new int[numActions];
+		powers = new double[numActions];
+		sums = new double[numActions];
+	}
+
+	private int compare(double a[], double b[], double thresholds[])
+	{
+		return multiImpact ? TLO_MI.compare(a, b, thresholds) : TLO.compare(a, b, thresholds);
+	}
+
+	// Fill in selection for a state with the given action values ([action][objective], as the tables' thisStateValues).
+	// If the state's greedy action is already known (e.g. from the table's greedy cache) pass it in as knownGreedy,
+	// otherwise pass -1 and one will be chosen.
+	public void select(double actionValues[][], double thresholds[], double temperature, int knownGreedy, Random rand, ActionSelection selection)
+	{
+		int numActions = actionValues.length;
+		for (int a = 0; a < numActions; a++)
+		{
+			wins[a] = 0;
+		}
+		for (int a = 0; a < numActions-1; a++)
+		{
+			for (int b=a+1; b<numActions; b++)
+			{
+				int compareResult = compare(actionValues[a], actionValues[b], thresholds);
+				if (compareResult>=0)
+					wins[a]++;
+				if (compareResult<=0)
+					wins[b]++;
+			}
+		}
+
+		// the greedy actions are at least as good as every other action
+		int greedy = knownGreedy;
+		if (greedy < 0)
+		{
+			int numTied = 0;
+			for (int a = 0; a < numActions; a++)
+			{
+				if (wins[a] == numActions-1)
+				{
+					numTied++;
+					if (numTied == 1 || rand.nextInt(numTied) == 0)
+						greedy = a;
+				}
+			}
+		}
+		selection.greedyAction = greedy;
+		selection.action = softmax(numActions, temperature, greedy, rand);
+		selection.actionIsGreedy = wins[selection.action] == numActions-1;
+	}
+
+	// The greedy actions of the last select(), as TLO.greedyActions gives them
+	public long greedyActions()
+	{
+		int numActions = wins.length;
+		if (numActions > 64)
+			return 0;
+		long greedy = 0;
+		for (int a = 0; a < numActions; a++)
+		{
+			if (wins[a] == numActions-1)
+				greedy |= 1L << a;
+		}
+		return greedy;
+	}
+
+	// softmax selection on the dominance scores - should the calculations overflow as the temperature gets too low,
+	// return the greedy action instead, as Softmax.getAction does
+	private int softmax(int numActions, double temperature, int greedy, Random rand)
+	{
+		if (numActions == 1)
+			return 0;
+		double step = Math.exp(1.0 / ((numActions-1) * temperature));
+		powers[0] = 1.0;
+		for (int k = 1; k < numActions; k++)
+		{
+			powers[k] = powers[k-1] * step;
+		}
+		sums[0] = powers[wins[0]];
+		for (int a = 1; a < numActions; a++)
+		{
+			sums[a] = powers[wins[a]] + sums[a-1];
+			if (Double.isInfinite(sums[a]))
+			{
+				return greedy;
+			}
+		}
+		double nextRandom = rand.nextDouble();
+		int selectedAction = 0;
+		while((sums[selectedAction]/sums[numActions-1])<nextRandom)
+		{
+			selectedAction++;
+		}
+		return selectedAction;
+	}
+}
@@ -0,0 +1,164 @@
+// Remembers the greedy actions the TLO tables found for recently seen states, so that asking again for the same
+// state - as agent_step does three times a step, via chooseGreedyAction, the softmax selection and isGreedy - doesn't
+// copy the Q-values and rerun TLO each time. It keeps every action tied for greedy, not the one picked, and each
+// lookup picks one of them afresh with the table's Random, so ties are broken anew on every call as they would be
+// without the cache - a frozen policy doesn't settle on one of the tied actions. It also remembers which state's
+// values are in the table's thisStateValues array, so they needn't be copied again either.
+// The tables add the rewards accumulated so far this episode to the Q-values TLO sees, so an entry is tagged with
+// the accumulated rewards - the context - it was worked out in, and only answers in the same context. The agents
+// set new totals every step, so this is what lets a state seen again with the same totals, e.g. no impact yet, skip
+// TLO. An entry also only stands while its Q-values are unchanged: the table drops a state's entry when update()
+// changes that state, and drops every entry at once - by moving on to a new epoch - when its thresholds change or
+// its values are reset or loaded. Changes made directly to the table's QValueStorage bypass all this.
+// The cache is direct-mapped: state s can only be held in slot s % SIZE, so a lookup is one comparison and the
+// memory is the same however many states there are. The tied actions are a bit mask, so tables of more than 64
+// actions aren't cached.
+
+package tools.valuefunction;
+
+import java.util.Arrays;
+import java.util.Random;
+
+class GreedyCache
+{
+    private static final int SIZE = 64; // a power of two
+
+    private final int[] states = new int[SIZE];
+    private final long[] tied = new long[SIZE]; // bit a set if action a is greedy
+    private final int[] epochs = new int[SIZE];
+    private int epoch = 1;
+    // the current context, and the one each slot's entry was worked out in, contextSize values per slot
+    private final int contextSize;
+    private final double[] context;
+    private final double[] contexts;
+    // the state whose values are in thisStateValues, and the epoch and context they were copied in
+    private int valuesState = -1;
+    private int valuesEpoch = 0;
+    private final double[] valuesContext;
+
+    // a cache for a table adding contextSize accumulated rewards to its Q-values
+    GreedyCache(int contextSize)
+    {
+        this.contextSize = contextSize;
+        context = new double[contextSize];
+        contexts = new double[SIZE * contextSize];
+        valuesContext = new double[contextSize];
+    }
+
+    // a copy of another cache, so a copied table answers exactly as the original would
+    GreedyCache(GreedyCache other)
+    {
+        System.arraycopy(other.states, 0, states, 0, SIZE);
+        System.arraycopy(other.tied, 0, tied, 0, SIZE);
+        System.arraycopy(other.epochs, 0, epochs, 0, SIZE);
+        epoch = other.epoch;
+        contextSize = other.contextSize;
+        context = other.context.clone();
+        contexts = other.contexts.clone();
+        valuesState = other.valuesState;
+        valuesEpoch = other.valuesEpoch;
+        valuesContext = other.valuesContext.clone();
+    }
+
+    // set accumulated reward k of the current context
+    void setContext(int k, double value)
+    {
+        context[k] = value;
+    }
+
+    private boolean inContext(double[] values, int offset)
+    {
+        for (int k = 0; k < contextSize; k++)
+        {
+            if (values[offset + k] != context[k])
+            {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // the greedy actions remembered for the state, as TLO.greedyActions gives them, or 0 if there aren't any
+    long get(int state)
+    {
+        int slot = state & (SIZE - 1);
+        return epochs[slot] == epoch && states[slot] == state && inContext(contexts, slot * contextSize)
+                ? tied[slot] : 0;
+    }
+
+    // one of the greedy actions remembered for the state (see choose), or -1 if there aren't any
+    int choose(int state, Random rand)
+    {
+        long greedy = get(state);
+        return greedy == 0 ? -1 : choose(greedy, rand);
+    }
+
+    // One of a set of greedy actions, chosen as TLO.greedyAction breaks ties - by reservoir sampling, each equally
+    // likely
+    static int choose(long greedyActions, Random rand)
+    {
+        long remaining = greedyActions;
+        int greedy = -1;
+        int numTied = 0;
+        while (remaining != 0)
+        {
+            int a = Long.numberOfTrailingZeros(remaining);
+            remaining &= remaining - 1;
+            numTied++;
+            if (numTied == 1 || rand.nextInt(numTied) == 0)
+            {
+                greedy = a;
+            }
+        }
+        return greedy;
+    }
+
+    // remember the state's greedy actions, as TLO.greedyActions gives them - none (0) remembers nothing
+    void put(int state, long greedyActions)
+    {
+        int slot = state & (SIZE - 1);
+        states[slot] = state;
+        tied[slot] = greedyActions;
+        epochs[slot] = epoch;
+        System.arraycopy(context, 0, contexts, slot * contextSize, contextSize);
+    }
+
+    // true if thisStateValues still holds this state's values
+    boolean holdsValuesFor(int state)
+    {
+        return valuesEpoch == epoch && valuesState == state && inContext(valuesContext, 0);
+    }
+
+    void setValuesFor(int state)
+    {
+        valuesState = state;
+        valuesEpoch = epoch;
+        System.arraycopy(context, 0, valuesContext, 0, contextSize);
+    }
+
+    // this state's Q-values have changed
+    void invalidate(int state)
+    {
+        int slot = state & (SIZE - 1);
+        if (states[slot] == state)
+        {
+            epochs[slot] = 0;
+        }
+        if (valuesState == state)
+        {
+            valuesEpoch = 0;
+        }
+    }
+
+    // anything may have changed - forget everything
+    void clear()
+    {
+        epoch++;
+        if (epoch == Integer.MAX_VALUE)
+        {
+            Arrays.fill(epochs, 0);
+            valuesEpoch = 0;
+            epoch = 1;
+        }
+    }
+}
@@ -5,13 +5,6 @@
 // reward for the second objective) - i.e. maximise goal reward subject to minimising impact
 package tools.valuefunction;
 
-import java.io.DataInputStream;
-import java.io.DataOutputStream;
-import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileNotFoundException;
-import java.io.FileOutputStream;
-import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Random;
 
@@ -21,12 +14,21 @@ import tools.valuefunction.interfaces.LookupTable;
 public class SafetyFirstLookupTable extends LookupTable implements ActionSelector 
 {
     double thisStateValues[][];
+    // scratch space for the softmax selections, so choosing an action allocates nothing
+    private final double scores[] = new double[numberOfActions];
+    private final double softmaxSums[] = new double[numberOfActions];
     double summedImpact;
     double thresholds[];
 
-    public SafetyFirstLookupTable( int numberOfObjectives, int numberOfActions, int numberOfStates, int initValue, double threshold) 
+    public SafetyFirstLookupTable(int numberOfObjectives, int numberOfActions, int numberOfStates, int initValue, double threshold)
     {
-        super(numberOfObjectives, numberOfActions, numberOfStates, initValue);
+        this(numberOfObjectives, numberOfActions, numberOfStates, initValue, threshold, DEFAULT_LAYOUT);
+    }
+
+    // as above, with the Q-values stored in the given QValueStorage layout
+    public SafetyFirstLookupTable( int numberOfObjectives, int numberOfActions, int numberOfStates, int initValue, double threshold, int layout) 
+    {
+        super(numberOfObjectives, numberOfActions, numberOfStates, initValue, layout);
         if (numberOfObjectives!=3)
         	System.out.println("ERROR!!! Don't use SafetyFirstLookupTable for problems other than side-effects ones."); 
         thresholds = new double[1];
@@ -61,9 +63,9 @@ public class SafetyFirstLookupTable extends LookupTable implements ActionSelecto
 		for (int a=0; a<numberOfActions; a++)
 		{
 			// copy the impact-reward values + accumulated impact into the first field
-			thisStateValues[a][0] = valueFunction.get(1)[a][state] + summedImpact;
+			thisStateValues[a][0] = valueFunction.get(1, a, state) + summedImpact;
 			// copy the goal-reward into the second field
-			thisStateValues[a][1] = valueFunction.get(0)[a][state];
+			thisStateValues[a][1] = valueFunction.get(0, a, state);
 			// ignore the performance-reward values as we shouldn't have access to them anyway
 		}
     }
@@ -77,7 +79,7 @@ public class SafetyFirstLookupTable extends LookupTable implements ActionSelecto
     public int chooseGreedyAction(int state) 
     {
     	getActionValues(state);
-    	return TLO.greedyAction(thisStateValues, thresholds); 
+    	return TLO.greedyAction(thisStateValues, thresholds, r); 
     }
     
     // returns true if action is amongst the greedy actions for the specified
@@ -85,7 +87,7 @@ public class SafetyFirstLookupTable extends LookupTable implements ActionSelecto
     public boolean isGreedy(int state, int action)
     {  
     	getActionValues(state);
-    	int best = TLO.greedyAction(thisStateValues, thresholds); 
+    	int best = TLO.greedyAction(thisStateValues, thresholds, r); 
     	// this action is greedy if it is TLO-equal to the greedily selected action
     	return (TLO.compare(thisStateValues[action], thisStateValues[best], thresholds)==0);
     }
@@ -94,16 +96,16 @@ public class SafetyFirstLookupTable extends LookupTable implements ActionSelecto
     protected int softmaxTournament(double temperature, int state)
     {
     	int best = chooseGreedyAction(state); // as a side-effect this will also set up the Q-values array
-    	double scores[] = TLO.getDominanceScore(thisStateValues,thresholds);
-    	return Softmax.getAction(scores,temperature,best);
+    	TLO.getDominanceScore(thisStateValues, thresholds, scores);
+    	return Softmax.getAction(scores, temperature, best, r, softmaxSums);
     }
     
     // softmax selection based on each action's additive epsilon score
     protected int softmaxAdditiveEpsilon(double temperature, int state)
     {
     	int best = chooseGreedyAction(state); // as a side-effect this will also set up the Q-values array
-    	double scores[] = TLO.getInverseAdditiveEpsilonScore(thisStateValues,best);
-    	return Softmax.getAction(scores,temperature,best);
+    	TLO.getInverseAdditiveEpsilonScore(thisStateValues, best, scores);
+    	return Softmax.getAction(scores, temperature, best, r, softmaxSums);
     }    
 
     public double[] getThresholds() {
@@ -114,50 +116,9 @@ public class SafetyFirstLookupTable extends LookupTable implements ActionSelecto
         this.thresholds = thresholds;
     }
     
-     public void saveValueFunction(String theFileName) {
-    	System.out.println(theFileName);
-        for (int s = 0; s < numberOfStates; s++) {
-            for (int a = 0; a < numberOfActions; a++) {
-            	System.out.print("State "+s+"\tAction "+a+"\t");         	
-            	for (int i = 0; i < numberOfObjectives; i++) {
-                    System.out.print(valueFunction.get(i)[a][s] +"\t");
-                }
-            	System.out.println();
-            }                
-        }  	
-        try {
-            DataOutputStream DO = new DataOutputStream(new FileOutputStream(new File(theFileName)));
-            for (int i = 0; i < numberOfObjectives; i++) {
-                for (int a = 0; a < numberOfActions; a++) {
-                    for (int s = 0; s < numberOfStates; s++) {
-                        DO.writeDouble( valueFunction.get(i)[a][s] );
-                    }
-                }                
-            }
-            DO.close();
-        } catch (FileNotFoundException ex) {
-            System.err.println("Problem saving value function to file: " + theFileName + " :: " + ex);
-        } catch (IOException ex) {
-            System.err.println("Problem writing value function to file:: " + ex);
-        }
-    }
-    
-    public void loadValueFunction(String theFileName) {
-        try {
-            DataInputStream DI = new DataInputStream(new FileInputStream(new File(theFileName)));
-            for (int i = 0; i < numberOfObjectives; i++) {
-                for (int a = 0; a < numberOfActions; a++) {
-                    for (int s = 0; s < numberOfStates; s++) {
-                        valueFunction.get(i)[a][s] = DI.readDouble();
-                    }
-                }                
-            }
-            DI.close();
-        } catch (FileNotFoundException ex) {
-            System.err.println("Problem loading value function from file: " + theFileName + " :: " + ex);
-        } catch (IOException ex) {
-            System.err.println("Problem reading value function from file:: " + ex);
-        }
+    public void saveValueFunction(String theFileName) {
+        printValueFunction(theFileName);
+        super.saveValueFunction(theFileName);
     }
       
 }
\ No newline at end of file
@@ -7,13 +7,6 @@
 
 package tools.valuefunction;
 
-import java.io.DataInputStream;
-import java.io.DataOutputStream;
-import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileNotFoundException;
-import java.io.FileOutputStream;
-import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Random;
 
@@ -23,14 +16,23 @@ import tools.valuefunction.interfaces.LookupTable;
 public class SatisficingLookupTable extends LookupTable implements ActionSelector 
 {
     double thisStateValues[][];
+    // scratch space for the softmax selections, so choosing an action allocates nothing
+    private final double scores[] = new double[numberOfActions];
+    private final double softmaxSums[] = new double[numberOfActions];
     double summedPrimaryReward;
     double summedImpact;
     double thresholds[];
 
+    public SatisficingLookupTable(int numberOfObjectives, int numberOfActions, int numberOfStates, int initValue, double rewardThreshold, double safetyThreshold)
+    {
+        this(numberOfObjectives, numberOfActions, numberOfStates, initValue, rewardThreshold, safetyThreshold, DEFAULT_LAYOUT);
+    }
+
+    // as above, with the Q-values stored in the given QValueStorage layout
     public SatisficingLookupTable( int numberOfObjectives, int numberOfActions, int numberOfStates, int initValue, 
-    								double rewardThreshold, double safetyThreshold) 
+    								double rewardThreshold, double safetyThreshold, int layout) 
     {
-        super(numberOfObjectives, numberOfActions, numberOfStates, initValue);
+        super(numberOfObjectives, numberOfActions, numberOfStates, initValue, layout);
         if (numberOfObjectives!=3)
         	System.out.println("ERROR!!! Don't use SatisficingLookupTable for problems other than side-effects ones."); 
         thresholds = new double[2];
@@ -64,9 +66,9 @@ public class SatisficingLookupTable extends LookupTable implements ActionSelecto
 		for (int a=0; a<numberOfActions; a++)
 		{
 			// copy the primary-reward values + accumulated primary reward into the first field
-			thisStateValues[a][0] = valueFunction.get(0)[a][state] + summedPrimaryReward;
+			thisStateValues[a][0] = valueFunction.get(0, a, state) + summedPrimaryReward;
 			// copy the impact-reward into the second field
-			thisStateValues[a][1] = valueFunction.get(1)[a][state] + summedImpact;
+			thisStateValues[a][1] = valueFunction.get(1, a, state) + summedImpact;
 			// ignore the performance-reward values as we shouldn't have access to them anyway
 		}
     }
@@ -85,7 +87,7 @@ public class SatisficingLookupTable extends LookupTable implements ActionSelecto
     public int chooseGreedyAction(int state) 
     {
     	getActionValues(state);
-    	int greedy = TLO.greedyAction(thisStateValues, thresholds); 
+    	int greedy = TLO.greedyAction(thisStateValues, thresholds, r); 
     	// JUST FOR DEBUGGING
     	/*if (state==30 || state==31)
     	{
@@ -100,7 +102,7 @@ public class SatisficingLookupTable extends LookupTable implements ActionSelecto
     public boolean isGreedy(int state, int action)
     {  
     	getActionValues(state);
-    	int best = TLO.greedyAction(thisStateValues, thresholds); 
+    	int best = TLO.greedyAction(thisStateValues, thresholds, r); 
     	// this action is greedy if it is TLO-equal to the greedily selected action
     	return (TLO.compare(thisStateValues[action], thisStateValues[best], thresholds)==0);
     }
@@ -109,16 +111,16 @@ public class SatisficingLookupTable extends LookupTable implements ActionSelecto
     protected int softmaxTournament(double temperature, int state)
     {
     	int best = chooseGreedyAction(state); // as a side-effect this will also set up the Q-values array
-    	double scores[] = TLO.getDominanceScore(thisStateValues,thresholds);
-    	return Softmax.getAction(scores,temperature,best);
+    	TLO.getDominanceScore(thisStateValues, thresholds, scores);
+    	return Softmax.getAction(scores, temperature, best, r, softmaxSums);
     }
     
     // softmax selection based on each action's additive epsilon score
     protected int softmaxAdditiveEpsilon(double temperature, int state)
     {
     	int best = chooseGreedyAction(state); // as a side-effect this will also set up the Q-values array
-    	double scores[] = TLO.getInverseAdditiveEpsilonScore(thisStateValues,best);
-    	return Softmax.getAction(scores,temperature,best);
+    	TLO.getInverseAdditiveEpsilonScore(thisStateValues, best, scores);
+    	return Softmax.getAction(scores, temperature, best, r, softmaxSums);
     }    
 
     public double[] getThresholds() {
@@ -129,50 +131,9 @@ public class SatisficingLookupTable extends LookupTable implements ActionSelecto
         this.thresholds = thresholds;
     }
     
-     public void saveValueFunction(String theFileName) {
-    	System.out.println(theFileName);
-        for (int s = 0; s < numberOfStates; s++) {
-            for (int a = 0; a < numberOfActions; a++) {
-            	System.out.print("State "+s+"\tAction "+a+"\t");         	
-            	for (int i = 0; i < numberOfObjectives; i++) {
-                    System.out.print(valueFunction.get(i)[a][s] +"\t");
-                }
-            	System.out.println();
-            }                
-        }  	
-        try {
-            DataOutputStream DO = new DataOutputStream(new FileOutputStream(new File(theFileName)));
-            for (int i = 0; i < numberOfObjectives; i++) {
-                for (int a = 0; a < numberOfActions; a++) {
-                    for (int s = 0; s < numberOfStates; s++) {
-                        DO.writeDouble( valueFunction.get(i)[a][s] );
-                    }
-                }                
-            }
-            DO.close();
-        } catch (FileNotFoundException ex) {
-            System.err.println("Problem saving value function to file: " + theFileName + " :: " + ex);
-        } catch (IOException ex) {
-            System.err.println("Problem writing value function to file:: " + ex);
-        }
-    }
-    
-    public void loadValueFunction(String theFileName) {
-        try {
-            DataInputStream DI = new DataInputStream(new FileInputStream(new File(theFileName)));
-            for (int i = 0; i < numberOfObjectives; i++) {
-                for (int a = 0; a < numberOfActions; a++) {
-                    for (int s = 0; s < numberOfStates; s++) {
-                        valueFunction.get(i)[a][s] = DI.readDouble();
-                    }
-                }                
-            }
-            DI.close();
-        } catch (FileNotFoundException ex) {
-            System.err.println("Problem loading value function from file: " + theFileName + " :: " + ex);
-        } catch (IOException ex) {
-            System.err.println("Problem reading value function from file:: " + ex);
-        }
+    public void saveValueFunction(String theFileName) {
+        printValueFunction(theFileName);
+        super.saveValueFunction(theFileName);
     }
    
 }
\ No newline at end of file
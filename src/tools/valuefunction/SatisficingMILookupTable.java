@@ -7,23 +7,46 @@
 
 package tools.valuefunction;
 
+import tools.valuefunction.interfaces.ActionSelection;
 import tools.valuefunction.interfaces.ActionSelector;
 import tools.valuefunction.interfaces.LookupTable;
+import tools.trials.TrialOutput;
+import tools.valuefunction.storage.QValueFile;
+import tools.valuefunction.storage.QValueStorage;
+import tools.valuefunction.storage.SparseQValueStorage;
+import tools.valuefunction.storage.ValueFunctionAverager;
 
 import java.io.*;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 
 public class SatisficingMILookupTable extends LookupTable implements ActionSelector
 {
     double thisStateValues[][];
+    // scratch space for the softmax selections, so choosing an action allocates nothing
+    private final double scores[] = new double[numberOfActions];
+    private final double softmaxSums[] = new double[numberOfActions];
+    // softmax-tournament selection in one pass, for selectAction
+    private final FusedTournamentSelector tournament = new FusedTournamentSelector(numberOfActions, true);
     double summedPrimaryReward;
     double summedImpact1; // MI altered
     double summedImpact2; // MI new
     double thresholds[];
+    // greedy actions already worked out for the current thresholds, tagged with the accumulated rewards
+    private final GreedyCache greedyCache;
 
+    public SatisficingMILookupTable(int numberOfObjectives, int numberOfActions, int numberOfStates, int initValue, double rewardThreshold, double impactThreshold1, double impactThreshold2)
+    {
+        this(numberOfObjectives, numberOfActions, numberOfStates, initValue, rewardThreshold, impactThreshold1, impactThreshold2, DEFAULT_LAYOUT);
+    }
+
+    // as above, with the Q-values stored in the given QValueStorage layout
     public SatisficingMILookupTable(int numberOfObjectives, int numberOfActions, int numberOfStates, int initValue,
-                                    double rewardThreshold, double impactThreshold1, double impactThreshold2)
+                                    double rewardThreshold, double impactThreshold1, double impactThreshold2, int layout)
     {
-        super(numberOfObjectives, numberOfActions, numberOfStates, initValue);
+        super(numberOfObjectives, numberOfActions, numberOfStates, initValue, layout);
 //        if (numberOfObjectives!=3)
 //        	System.out.println("ERROR!!! Don't use SatisficingLookupTable for problems other than side-effects ones."); // MI altered
         thresholds = new double[3]; // MI altered
@@ -32,6 +55,23 @@ public class SatisficingMILookupTable extends LookupTable implements ActionSelec
         thresholds[2] = impactThreshold2; // MI new
         thisStateValues = new double[numberOfActions][3]; // leave out the performance objective to avoid any risk of accidentally using it in action selection // MI altered
         summedPrimaryReward = 0;
+        greedyCache = new GreedyCache(3);
+    }
+
+    // a deep copy of another table, including its thresholds and the accumulated rewards it was last given
+    public SatisficingMILookupTable(SatisficingMILookupTable other)
+    {
+        super(other);
+        thresholds = other.thresholds.clone();
+        thisStateValues = new double[numberOfActions][];
+        for (int a = 0; a < numberOfActions; a++)
+        {
+            thisStateValues[a] = other.thisStateValues[a].clone();
+        }
+        summedPrimaryReward = other.summedPrimaryReward;
+        summedImpact1 = other.summedImpact1;
+        summedImpact2 = other.summedImpact2;
+        greedyCache = new GreedyCache(other.greedyCache);
     }
     
        
@@ -55,71 +95,133 @@ public class SatisficingMILookupTable extends LookupTable implements ActionSelec
     // Unlike the SafetyFirstLookupTable this doesn't need to reorder the objective values
     private void getActionValues(int state)
     {
+		// copy the first three objectives' values in one read - thisStateValues has no room for the performance-reward
+		// values, as we shouldn't have access to them anyway
+		valueFunction.getActionValues(state, thisStateValues);
 		for (int a=0; a<numberOfActions; a++)
 		{
-			// copy the primary-reward values + accumulated primary reward into the first field
-			thisStateValues[a][0] = valueFunction.get(0)[a][state] + summedPrimaryReward;
-			// copy the impact1-reward into the second field
-			thisStateValues[a][1] = valueFunction.get(1)[a][state] + summedImpact1; // MI altered
-			// copy the impact2 reward into the third field // MI new
-            thisStateValues[a][2] = valueFunction.get(2)[a][state] + summedImpact2;// MI new
-			// ignore the performance-reward values as we shouldn't have access to them anyway
+			// add the accumulated primary reward to the primary-reward values in the first field
+			thisStateValues[a][0] += summedPrimaryReward;
+			// and the accumulated impact1-reward to the second field
+			thisStateValues[a][1] += summedImpact1; // MI altered
+			// and the accumulated impact2 reward to the third field // MI new
+            thisStateValues[a][2] += summedImpact2;// MI new
 		}
     }
     
+    // copy the action values into thisStateValues, unless they're already there
+    private void loadActionValues(int state)
+    {
+    	if (valueFunction.isConcurrent() || !greedyCache.holdsValuesFor(state))
+    	{
+    		getActionValues(state);
+    		greedyCache.setValuesFor(state);
+    	}
+    }
+    
+    // the accumulated rewards are added to every Q-value TLO sees, so cached actions only stand for the accumulated
+    // rewards they were worked out with
     public void setAccumulatedReward(double accumulatedReward)
     {
+    	greedyCache.setContext(0, accumulatedReward);
     	summedPrimaryReward = accumulatedReward;
     }
     
     public void setAccumulatedImpact1(double accumulatedImpact1)
     {
+    	greedyCache.setContext(1, accumulatedImpact1);
     	summedImpact1 = accumulatedImpact1;
     } // MI altered
 
     public void setAccumulatedImpact2(double accumulatedImpact2)
     {
+    	greedyCache.setContext(2, accumulatedImpact2);
         summedImpact2 = accumulatedImpact2;
     } //MI new
 
+    // the greedy cache is bypassed while the storage is concurrent
+    @Override
+    protected boolean allowsConcurrentStorage()
+    {
+    	return true;
+    }
+
+    @Override
+    protected void valuesChanged(int state)
+    {
+    	if (state == ALL_STATES)
+    		greedyCache.clear();
+    	else
+    		greedyCache.invalidate(state);
+    }
+
+    // Ties are broken at random on every call. Which actions are tied is worked out the first time a state is asked
+    // about with the same accumulated rewards, and comes from the cache until its Q-values or the thresholds change.
+    // Nothing is cached while other threads are learning into the same values, as the table doesn't see their updates.
     @Override
     public int chooseGreedyAction(int state) 
     {
-    	getActionValues(state);
-    	int greedy = TLO_MI.greedyAction(thisStateValues, thresholds);
+    	long greedy = valueFunction.isConcurrent() ? 0 : greedyCache.get(state);
+    	if (greedy == 0)
+    	{
+    		loadActionValues(state);
+    		greedy = TLO_MI.greedyActions(thisStateValues, thresholds);
+    		if (greedy == 0) // too many actions for a mask
+    			return TLO_MI.greedyAction(thisStateValues, thresholds, r);
+    		greedyCache.put(state, greedy);
+    	}
+    	int action = GreedyCache.choose(greedy, r);
     	// JUST FOR DEBUGGING
     	/*if (state==30 || state==31)
     	{
     		printCurrentStateValues(state);
-    		System.out.println("Greedy action\t" + greedy);
+    		System.out.println("Greedy action\t" + action);
     	}*/
-    	return greedy;
+    	return action;
     }
     
     // returns true if action is amongst the greedy actions for the specified
     // state, otherwise false
     public boolean isGreedy(int state, int action)
     {  
-    	getActionValues(state);
-    	int best = TLO_MI.greedyAction(thisStateValues, thresholds);
+    	int best = chooseGreedyAction(state);
+    	loadActionValues(state);
     	// this action is greedy if it is TLO-equal to the greedily selected action
     	return (TLO_MI.compare(thisStateValues[action], thisStateValues[best], thresholds)==0);
     }
        
+    // Softmax-tournament exploration works out the greedy action, the exploratory one and whether the latter is greedy
+    // together, in one pass (see FusedTournamentSelector). Everything else makes the separate calls.
+    @Override
+    public void selectAction(double parameter, int state, boolean explore, ActionSelection selection)
+    {
+    	if (!explore || explorationStrategy != SOFTMAX_TOURNAMENT)
+    	{
+    		ActionSelector.super.selectAction(parameter, state, explore, selection);
+    		return;
+    	}
+    	int knownGreedy = valueFunction.isConcurrent() ? -1 : greedyCache.choose(state, r);
+    	loadActionValues(state);
+    	tournament.select(thisStateValues, thresholds, parameter, knownGreedy, r, selection);
+    	greedyCache.put(state, tournament.greedyActions());
+    }
+    
     // softmax selection based on tournament score (i.e. the number of actions which each action TLO-dominates)
     protected int softmaxTournament(double temperature, int state)
     {
-    	int best = chooseGreedyAction(state); // as a side-effect this will also set up the Q-values array
-    	double scores[] = TLO_MI.getDominanceScore(thisStateValues,thresholds);
-    	return SoftmaxMI.getAction(scores,temperature,best);
+    	int best = chooseGreedyAction(state);
+    	loadActionValues(state);
+    	TLO_MI.getDominanceScore(thisStateValues, thresholds, scores);
+    	return SoftmaxMI.getAction(scores, temperature, best, r, softmaxSums);
     }
     
     // softmax selection based on each action's additive epsilon score
     protected int softmaxAdditiveEpsilon(double temperature, int state)
     {
-    	int best = chooseGreedyAction(state); // as a side-effect this will also set up the Q-values array
-    	double scores[] = TLO_MI.getInverseAdditiveEpsilonScore(thisStateValues,best);
-    	return SoftmaxMI.getAction(scores,temperature,best);
+    	int best = chooseGreedyAction(state);
+    	loadActionValues(state);
+    	TLO_MI.getInverseAdditiveEpsilonScore(thisStateValues, best, scores);
+    	return SoftmaxMI.getAction(scores, temperature, best, r, softmaxSums);
     }    
 
     public double[] getThresholds() {
@@ -128,119 +230,92 @@ public class SatisficingMILookupTable extends LookupTable implements ActionSelec
 
     public void setThresholds(double[] thresholds) {
         this.thresholds = thresholds;
+        greedyCache.clear();
     }
     
-     public void saveValueFunction(String theFileName) {
-//    	System.out.println(theFileName);
-//        for (int s = 0; s < numberOfStates; s++) {
-//            for (int a = 0; a < numberOfActions; a++) {
-//            	System.out.print("State "+s+"\tAction "+a+"\t");
-//            	for (int i = 0; i < numberOfObjectives; i++) {
-//                    System.out.print(valueFunction.get(i)[a][s] +"\t");
-//                }
-//            	System.out.println();
-//            }
-//        }
-        try {
-            DataOutputStream DO = new DataOutputStream(new FileOutputStream(new File(theFileName)));
-            for (int i = 0; i < numberOfObjectives; i++) {
-                for (int a = 0; a < numberOfActions; a++) {
-                    for (int s = 0; s < numberOfStates; s++) {
-                        DO.writeDouble( valueFunction.get(i)[a][s] );
-                    }
-                }                
+    // Average the value functions saved in the given files into this table, and save the result to
+    // ValueFunctionAverage_T<numTrial>.txt. A dense table is averaged file to file by ValueFunctionAverager, a chunk
+    // at a time, and the result loaded. For a sparse table only the states populated in at least one of the files
+    // are averaged - just the states some trial visited - in memory, reading each file once. Either way, if any file
+    // can't be read the problem is reported, nothing is saved and the table is left as it was.
+    public void averageValueFunction(String[] theFileNames, String numTrial) {
+        String output = TrialOutput.path("ValueFunctionAverage_T" + numTrial + ".txt");
+        if (valueFunction.getLayout() != QValueStorage.SPARSE) {
+            List<File> files = new ArrayList<>();
+            for (String fileName : theFileNames) {
+                files.add(new File(fileName));
             }
-            DO.close();
-        } catch (FileNotFoundException ex) {
-            System.err.println("Problem saving value function to file: " + theFileName + " :: " + ex);
-        } catch (IOException ex) {
-            System.err.println("Problem writing value function to file:: " + ex);
-        }
-    }
-    
-    public void loadValueFunction(String theFileName) {
-        try {
-            DataInputStream DI = new DataInputStream(new FileInputStream(new File(theFileName)));
-            for (int i = 0; i < numberOfObjectives; i++) {
-                for (int a = 0; a < numberOfActions; a++) {
-                    for (int s = 0; s < numberOfStates; s++) {
-                        valueFunction.get(i)[a][s] = DI.readDouble();
-                    }
-                }                
+            ValueFunctionAverager averager = new ValueFunctionAverager(numberOfObjectives, numberOfActions, numberOfStates);
+            averager.setThresholds(thresholds);
+            averager.setCompress(getCompressSavedValues());
+            try {
+                averager.average(files, null, new File(output));
+            } catch (IOException ex) {
+                System.err.println("Problem averaging value functions into " + output + " :: " + ex);
+                return;
             }
-            DI.close();
-        } catch (FileNotFoundException ex) {
-            System.err.println("Problem loading value function from file: " + theFileName + " :: " + ex);
-        } catch (IOException ex) {
-            System.err.println("Problem reading value function from file:: " + ex);
+            loadValueFunction(output);
+            return;
         }
-    }
-    public void averageValueFunction(String[] theFileNames, String numTrial) {
-        // load the first value function
-        try {
-            DataInputStream DI = new DataInputStream(new FileInputStream(new File(theFileNames[0])));
+
+        // Each file is read once. A state a file doesn't populate reads as that file's default, so the defaults
+        // are summed over all the files, and each populated state's sum only holds how far its values are from
+        // its file's defaults - then every state's average is (sum of defaults + its differences) / files.
+        int blockSize = numberOfActions * numberOfObjectives;
+        double[] defaultSums = new double[numberOfObjectives];
+        Map<Integer, double[]> differences = new HashMap<>();
+        int loaded = 0;
+        for (String fileName : theFileNames) {
+            QValueStorage vf = valueFunction.blank();
+            try {
+                QValueFile.loadAny(vf, new File(fileName));
+            } catch (IOException ex) {
+                System.err.println("Problem averaging value functions into " + output + " :: " + ex);
+                return;
+            }
+            loaded++;
+            double[] defaults = new double[numberOfObjectives];
             for (int i = 0; i < numberOfObjectives; i++) {
+                defaults[i] = ((SparseQValueStorage) vf).getDefault(i);
+                defaultSums[i] += defaults[i];
+            }
+            for (int k = 0; k < vf.getPopulatedStateCount(); k++) {
+                int s = vf.getPopulatedState(k);
+                double[] sums = differences.computeIfAbsent(s, state -> new double[blockSize]);
+                int j = 0;
                 for (int a = 0; a < numberOfActions; a++) {
-                    for (int s = 0; s < numberOfStates; s++) {
-                        valueFunction.get(i)[a][s] = DI.readDouble();
+                    for (int i = 0; i < numberOfObjectives; i++) {
+                        sums[j++] += vf.get(i, a, s) - defaults[i];
                     }
                 }
             }
-            DI.close();
-        } catch (FileNotFoundException ex) {
-            System.err.println("Problem loading value function from file: " + theFileNames[0] + " :: " + ex);
-        } catch (IOException ex) {
-            System.err.println("Problem reading value function from file:: " + ex);
         }
-
-        // for each subsequent vf listed, read in the values to a blank VF
-        for (int vf = 1; vf < theFileNames.length; vf++) {
-            // take each vf cell value and add it to the existing value function cell value
-            try {
-                DataInputStream DI = new DataInputStream(new FileInputStream(new File(theFileNames[vf])));
-                for (int i = 0; i < numberOfObjectives; i++) {
-                    for (int a = 0; a < numberOfActions; a++) {
-                        for (int s = 0; s < numberOfStates; s++) {
-                            valueFunction.get(i)[a][s] += DI.readDouble();
-                        }
-                    }
-                }
-                DI.close();
-            } catch (FileNotFoundException ex) {
-                System.err.println("Problem loading value function from file: " + theFileNames[vf] + " :: " + ex);
-            } catch (IOException ex) {
-                System.err.println("Problem reading value function from file:: " + ex);
-            }
-
+        if (loaded == 0) {
+            System.err.println("No value functions to average into " + output);
+            return;
         }
 
         // divide the final values by the number of files to create an average
+        double[] defaults = new double[numberOfObjectives];
         for (int i = 0; i < numberOfObjectives; i++) {
+            defaults[i] = defaultSums[i] / loaded;
+        }
+        valueFunction.fill(defaults);
+        markAllDirty();
+        valuesChanged(ALL_STATES);
+        for (Map.Entry<Integer, double[]> entry : differences.entrySet()) {
+            int s = entry.getKey();
+            double[] sums = entry.getValue();
+            int j = 0;
             for (int a = 0; a < numberOfActions; a++) {
-                for (int s = 0; s < numberOfStates; s++) {
-                    valueFunction.get(i)[a][s] = (valueFunction.get(i)[a][s]/ theFileNames.length);
+                for (int i = 0; i < numberOfObjectives; i++) {
+                    valueFunction.set(i, a, s, (defaultSums[i] + sums[j++]) / loaded);
                 }
             }
         }
 
         // Save this vf to a file
-        try {
-            DataOutputStream DO = new DataOutputStream(new FileOutputStream(
-                    new File("ValueFunctionAverage_T" + numTrial + ".txt")));
-            for (int i = 0; i < numberOfObjectives; i++) {
-                for (int a = 0; a < numberOfActions; a++) {
-                    for (int s = 0; s < numberOfStates; s++) {
-                        DO.writeDouble( valueFunction.get(i)[a][s] );
-                    }
-                }
-            }
-            DO.close();
-        } catch (FileNotFoundException ex) {
-            System.err.println("Problem saving value function to file: "
-                    + "ValueFunctionAverage" + numTrial + ".txt" + " :: " + ex);
-        } catch (IOException ex) {
-            System.err.println("Problem writing value function to file:: " + ex);
-        }
+        saveValueFunction(output);
     }
    
 }
\ No newline at end of file
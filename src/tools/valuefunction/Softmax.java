@@ -2,16 +2,29 @@
 package tools.valuefunction;
 import java.util.Random;
 
+import tools.random.Randoms;
+
 public abstract class Softmax 
 {
-	static Random r = new Random(548);
 	
 	// Performs softmax selection. Should an error occur in the calculations as temperature gets too low, we detect this
 	// and simply return the greedy action instead
 	public static int getAction(double actionValues[], double temperature, int greedyAction)
+	{
+		return getAction(actionValues, temperature, greedyAction, Randoms.local());
+	}
+	
+	// As above, but using the supplied generator rather than the shared static one
+	public static int getAction(double actionValues[], double temperature, int greedyAction, Random rand)
+	{
+		return getAction(actionValues, temperature, greedyAction, rand, new double[actionValues.length]);
+	}
+	
+	// As above, but with the running sums kept in the supplied array (at least as long as actionValues), so nothing
+	// is allocated
+	public static int getAction(double actionValues[], double temperature, int greedyAction, Random rand, double sumOfSoftmaxTerms[])
 	{
 		int numActions = actionValues.length;
-		double sumOfSoftmaxTerms[] = new double[numActions];
 		sumOfSoftmaxTerms[0] = Math.exp(actionValues[0]/temperature);
 		for (int a=1; a<numActions; a++)
 		{
@@ -21,7 +34,7 @@ public abstract class Softmax
 				return greedyAction;
 			}
 		}
-		double nextRandom = r.nextDouble();
+		double nextRandom = rand.nextDouble();
 		int selectedAction = 0;
 		while((sumOfSoftmaxTerms[selectedAction]/sumOfSoftmaxTerms[numActions-1])<nextRandom)
 		{
@@ -34,6 +47,12 @@ public abstract class Softmax
 	// provided for compatibility with the softmax-tournament method used by my multiobjective RL methods. Should an error occur in the calculations as temperature gets too low, we detect this
 	// and simply return the greedy action instead
 	public static int getTournamentAction(double actionValues[], double temperature, int greedyAction)
+	{
+		return getTournamentAction(actionValues, temperature, greedyAction, Randoms.local());
+	}
+	
+	// As above, but using the supplied generator rather than the shared static one
+	public static int getTournamentAction(double actionValues[], double temperature, int greedyAction, Random rand)
 	{
 		// first calculate the ranking score for each action
 		double score[] = new double[actionValues.length];
@@ -57,7 +76,7 @@ public abstract class Softmax
 	    	score[a] /= (actionValues.length-1); // numActions -1 as an action is not compared against itself
 	    }
 	    // now do softmax selection on those scores
-	    return getAction(score, temperature, greedyAction);
+	    return getAction(score, temperature, greedyAction, rand);
 	}
 	
 }
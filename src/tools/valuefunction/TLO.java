@@ -1,15 +1,14 @@
 package tools.valuefunction;
-import java.util.ArrayList;
 import java.util.Random;
 
+import tools.random.Randoms;
+
 // Implement functionality related to the Thresholded Lexicographic Ordering multiobjective action selection
 // approach of Gabor et al.
 // Written by Peter Vamplew, Nov 2015
 
 public abstract class TLO {
 	
-	static Random r = new Random();
-	
 	// Compare two sets of values based on TLO ordering
 	// Returns 1 if a is ranked higher, -1 if b is higher, 0 if they are equal
 	// a and b should be of the same length. Thresholds might be the same length or shorter, in which case 
@@ -50,42 +49,70 @@ public abstract class TLO {
 	// Returns the index of the highest-ranked action in the provided array
 	public static int greedyAction(double actionValues[][], double thresholds[])
 	{
-        ArrayList<Integer> bestActions = new ArrayList<>();        
-        bestActions.add(0);
-
-        for (int a = 1; a < actionValues.length; a++) 
-        {
-        	int compareResult = compare(actionValues[a], actionValues[bestActions.get(0)], thresholds);
-            if (compareResult>0) 
-            {
-            	bestActions.clear();
-            	bestActions.add(a);
-            } 
-            else if (compareResult==0)
-            {
-                bestActions.add(a);
-            }            
-        }
-       /* for (int i=0; i<bestActions.size(); i++)
-        {
-        	System.out.print(bestActions.get(i) + " ");
-        }
-        System.out.println();*/
-        if (bestActions.size() > 1) 
-        {
-            return bestActions.get(r.nextInt(bestActions.size()));
-        } 
-        else 
-        {
-            return bestActions.get(0);
-        }		
+		return greedyAction(actionValues, thresholds, Randoms.local());
+	}
+	
+	// As above, but ties are broken using the supplied generator rather than the shared static one. Value functions
+	// pass in their own Random so that agents running in parallel don't share random state.
+	// Ties are broken by reservoir sampling as they're found, rather than by listing them all first: the k-th action
+	// found to be equal to the best so far replaces it with probability 1/k, which leaves each of the tied actions
+	// equally likely to be chosen, in one pass and without allocating anything.
+	public static int greedyAction(double actionValues[][], double thresholds[], Random rand)
+	{
+		int best = 0;
+		int numTied = 1;
+		for (int a = 1; a < actionValues.length; a++) 
+		{
+			// tied actions are exactly equal, so comparing against whichever of them is held gives the same answer
+			int compareResult = compare(actionValues[a], actionValues[best], thresholds);
+			if (compareResult>0) 
+			{
+				best = a;
+				numTied = 1;
+			} 
+			else if (compareResult==0)
+			{
+				numTied++;
+				if (rand.nextInt(numTied)==0)
+					best = a;
+			}            
+		}
+		return best;
+	}
+	
+	// All the greedy actions at once, as a bit mask with bit a set for action a: one pass comparing each action
+	// against the best so far, as greedyAction makes, but keeping every action tied with it rather than drawing
+	// one. GreedyCache.choose breaks the tie. Returns 0 if there are more actions than bits in a long.
+	public static long greedyActions(double actionValues[][], double thresholds[])
+	{
+		if (actionValues.length > 64)
+			return 0;
+		int best = 0;
+		long tied = 1;
+		for (int a = 1; a < actionValues.length; a++) 
+		{
+			int compareResult = compare(actionValues[a], actionValues[best], thresholds);
+			if (compareResult>0) 
+			{
+				best = a;
+				tied = 1L << a;
+			} 
+			else if (compareResult==0)
+				tied |= 1L << a;
+		}
+		return tied;
 	}
 	
 	// Returns a score array with the dominance score of each action (ie the proportion of actions which this action is 
 	// equal to our better than according to TLO comparisons)
 	public static double[] getDominanceScore(double actionValues[][], double thresholds[])
 	{
-		double score[] = new double[actionValues.length];
+		return getDominanceScore(actionValues, thresholds, new double[actionValues.length]);
+	}
+	
+	// As above, but the scores are written into (and returned in) the supplied array, so nothing is allocated
+	public static double[] getDominanceScore(double actionValues[][], double thresholds[], double score[])
+	{
         for (int a = 0; a < actionValues.length; a++)
         {
         	score[a] = 0;
@@ -110,42 +137,43 @@ public abstract class TLO {
 	// Returns a score array with the inverse additive-epsilon score for each action (ie 1 - the maximum difference on any objective
 	// between this action and the TLO-optimal action)
 	public static double[] getInverseAdditiveEpsilonScore(double actionValues[][], int bestIndex)
+	{
+		return getInverseAdditiveEpsilonScore(actionValues, bestIndex, new double[actionValues.length]);
+	}
+	
+	// As above, but the scores are written into (and returned in) the supplied array, so nothing is allocated. Each
+	// objective is scaled and compared in turn, so no per-objective arrays are needed either.
+	public static double[] getInverseAdditiveEpsilonScore(double actionValues[][], int bestIndex, double score[])
 	{
 		int numObjectives = actionValues[0].length;
-		double score[] = new double[actionValues.length];
-		// first scale the values, so one objective with a wide range can't dominate the results
-		double min[] = new double[numObjectives];
-		double max[] = new double[numObjectives];
-		for (int i=0; i<min.length; i++)
+		for (int a = 0; a < actionValues.length; a++)
+		{
+			score[a] = 0.0;
+		}
+		for (int i=0; i<numObjectives; i++)
 		{
-			double tempMin = actionValues[0][i];
-			double tempMax = tempMin;
+			// first scale the values, so one objective with a wide range can't dominate the results
+			double min = actionValues[0][i];
+			double max = min;
 	        for (int a = 1; a < actionValues.length; a++)
 	        {
-	        	if (actionValues[a][i]<tempMin)
-	        		tempMin = actionValues[a][i];
-	        	else if (actionValues[a][i]>tempMax)
-	        		tempMax = actionValues[a][i];
+	        	if (actionValues[a][i]<min)
+	        		min = actionValues[a][i];
+	        	else if (actionValues[a][i]>max)
+	        		max = actionValues[a][i];
 	        }  
-	        min[i] = tempMin;
-	        max[i] = tempMax;
+	        double scaledBest = (actionValues[bestIndex][i]-min)/(max-min);
+	        // the additive epsilon for each action is its largest scaled shortfall on any objective
+	        for (int a = 0; a < actionValues.length; a++)
+	        {
+	        	double diff = scaledBest - (actionValues[a][i]-min)/(max-min);
+	        	if (diff>score[a])
+	        		score[a] = diff;
+	        }
 		}
-        double scaledBest[] = new double[numObjectives];
-        for (int i=0; i<scaledBest.length; i++)
-        {
-        	scaledBest[i] = (actionValues[bestIndex][i]-min[i])/(max[i]-min[i]);
-        }
-        // now calculate the additive epsilon for each action, scaling as we go
         // finally subtract the additive epsilon from 1 so better solutions get higher scores
         for (int a = 0; a < actionValues.length; a++)
         {
-        	score[a] = 0.0;
-        	for (int i=0; i<numObjectives; i++)
-        	{
-        		double diff = scaledBest[i] - (actionValues[a][i]-min[i])/(max[i]-min[i]);
-        		if (diff>score[a])
-        			score[a] = diff;
-        	}
         	score[a] = 1.0 - score[a];
         }
         return score;        	
@@ -3,13 +3,6 @@
 
 package tools.valuefunction;
 
-import java.io.DataInputStream;
-import java.io.DataOutputStream;
-import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileNotFoundException;
-import java.io.FileOutputStream;
-import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Random;
 
@@ -19,14 +12,23 @@ import tools.valuefunction.interfaces.LookupTable;
 public class TLOConditionedLookupTable extends LookupTable implements ActionSelector 
 {
     double thisStateValues[][];
+    // scratch space for the softmax selections, so choosing an action allocates nothing
+    private final double scores[] = new double[numberOfActions];
+    private final double softmaxSums[] = new double[numberOfActions];
     double conditioningValues[]; // array of dimensionality one less than number of objectives
     double thresholds[];
     int numThresholds; // will be numObjectives minus 1
 
+    public TLOConditionedLookupTable(int numberOfObjectives, int numberOfActions, int numberOfStates, int initValue, double theseThresholds[])
+    {
+        this(numberOfObjectives, numberOfActions, numberOfStates, initValue, theseThresholds, DEFAULT_LAYOUT);
+    }
+
+    // as above, with the Q-values stored in the given QValueStorage layout
     public TLOConditionedLookupTable( int numberOfObjectives, int numberOfActions, int numberOfStates, int initValue, 
-    								double theseThresholds[]) 
+    								double theseThresholds[], int layout) 
     {
-        super(numberOfObjectives, numberOfActions, numberOfStates, initValue); 
+        super(numberOfObjectives, numberOfActions, numberOfStates, initValue, layout); 
         thresholds = theseThresholds.clone();
         numThresholds = numberOfObjectives -1;
         thisStateValues = new double[numberOfActions][numberOfObjectives]; 
@@ -70,10 +72,10 @@ public class TLOConditionedLookupTable extends LookupTable implements ActionSele
 		{
 			for (int i=0; i<numThresholds; i++)
 			{
-				thisStateValues[a][i] = valueFunction.get(0)[a][state] + conditioningValues[i];
+				thisStateValues[a][i] = valueFunction.get(0, a, state) + conditioningValues[i];
 			}
 			// the final objective doesn't need to be conditioned as no thresholding is applied to it
-			thisStateValues[a][numThresholds] = valueFunction.get(numThresholds)[a][state];
+			thisStateValues[a][numThresholds] = valueFunction.get(numThresholds, a, state);
 		}
     }
     
@@ -90,7 +92,7 @@ public class TLOConditionedLookupTable extends LookupTable implements ActionSele
     public int chooseGreedyAction(int state) 
     {
     	getActionValues(state);
-    	int greedy = TLO.greedyAction(thisStateValues, thresholds); 
+    	int greedy = TLO.greedyAction(thisStateValues, thresholds, r); 
     	return greedy;
     }
     
@@ -99,7 +101,7 @@ public class TLOConditionedLookupTable extends LookupTable implements ActionSele
     public boolean isGreedy(int state, int action)
     {  
     	getActionValues(state);
-    	int best = TLO.greedyAction(thisStateValues, thresholds); 
+    	int best = TLO.greedyAction(thisStateValues, thresholds, r); 
     	// this action is greedy if it is TLO-equal to the greedily selected action
     	return (TLO.compare(thisStateValues[action], thisStateValues[best], thresholds)==0);
     }
@@ -108,16 +110,16 @@ public class TLOConditionedLookupTable extends LookupTable implements ActionSele
     protected int softmaxTournament(double temperature, int state)
     {
     	int best = chooseGreedyAction(state); // as a side-effect this will also set up the Q-values array
-    	double scores[] = TLO.getDominanceScore(thisStateValues,thresholds);
-    	return Softmax.getAction(scores,temperature,best);
+    	TLO.getDominanceScore(thisStateValues, thresholds, scores);
+    	return Softmax.getAction(scores, temperature, best, r, softmaxSums);
     }
     
     // softmax selection based on each action's additive epsilon score
     protected int softmaxAdditiveEpsilon(double temperature, int state)
     {
     	int best = chooseGreedyAction(state); // as a side-effect this will also set up the Q-values array
-    	double scores[] = TLO.getInverseAdditiveEpsilonScore(thisStateValues,best);
-    	return Softmax.getAction(scores,temperature,best);
+    	TLO.getInverseAdditiveEpsilonScore(thisStateValues, best, scores);
+    	return Softmax.getAction(scores, temperature, best, r, softmaxSums);
     }    
 
     public double[] getThresholds() {
@@ -128,50 +130,9 @@ public class TLOConditionedLookupTable extends LookupTable implements ActionSele
         this.thresholds = thresholds;
     }
     
-     public void saveValueFunction(String theFileName) {
-    	System.out.println(theFileName);
-        for (int s = 0; s < numberOfStates; s++) {
-            for (int a = 0; a < numberOfActions; a++) {
-            	System.out.print("State "+s+"\tAction "+a+"\t");         	
-            	for (int i = 0; i < numberOfObjectives; i++) {
-                    System.out.print(valueFunction.get(i)[a][s] +"\t");
-                }
-            	System.out.println();
-            }                
-        }  	
-        try {
-            DataOutputStream DO = new DataOutputStream(new FileOutputStream(new File(theFileName)));
-            for (int i = 0; i < numberOfObjectives; i++) {
-                for (int a = 0; a < numberOfActions; a++) {
-                    for (int s = 0; s < numberOfStates; s++) {
-                        DO.writeDouble( valueFunction.get(i)[a][s] );
-                    }
-                }                
-            }
-            DO.close();
-        } catch (FileNotFoundException ex) {
-            System.err.println("Problem saving value function to file: " + theFileName + " :: " + ex);
-        } catch (IOException ex) {
-            System.err.println("Problem writing value function to file:: " + ex);
-        }
-    }
-    
-    public void loadValueFunction(String theFileName) {
-        try {
-            DataInputStream DI = new DataInputStream(new FileInputStream(new File(theFileName)));
-            for (int i = 0; i < numberOfObjectives; i++) {
-                for (int a = 0; a < numberOfActions; a++) {
-                    for (int s = 0; s < numberOfStates; s++) {
-                        valueFunction.get(i)[a][s] = DI.readDouble();
-                    }
-                }                
-            }
-            DI.close();
-        } catch (FileNotFoundException ex) {
-            System.err.println("Problem loading value function from file: " + theFileName + " :: " + ex);
-        } catch (IOException ex) {
-            System.err.println("Problem reading value function from file:: " + ex);
-        }
+    public void saveValueFunction(String theFileName) {
+        printValueFunction(theFileName);
+        super.saveValueFunction(theFileName);
     }
    
 }
\ No newline at end of file
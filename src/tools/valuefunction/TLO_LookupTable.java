@@ -1,26 +1,33 @@
 package tools.valuefunction;
 
-import java.io.DataInputStream;
-import java.io.DataOutputStream;
-import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileNotFoundException;
-import java.io.FileOutputStream;
-import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Random;
 
+import tools.valuefunction.interfaces.ActionSelection;
 import tools.valuefunction.interfaces.ActionSelector;
 import tools.valuefunction.interfaces.LookupTable;
 
 public class TLO_LookupTable extends LookupTable implements ActionSelector 
 {
     double thresholds[];
+    // greedy actions already worked out for the current thresholds
+    private final GreedyCache greedyCache = new GreedyCache(0);
     double thisStateValues[][];
+    // scratch space for the softmax selections, so choosing an action allocates nothing
+    private final double scores[] = new double[numberOfActions];
+    private final double softmaxSums[] = new double[numberOfActions];
+    // softmax-tournament selection in one pass, for selectAction
+    private final FusedTournamentSelector tournament = new FusedTournamentSelector(numberOfActions, false);
 
-    public TLO_LookupTable( int numberOfObjectives, int numberOfActions, int numberOfStates, int initValue, double thresholds[]) 
+    public TLO_LookupTable(int numberOfObjectives, int numberOfActions, int numberOfStates, int initValue, double thresholds[])
     {
-        super(numberOfObjectives, numberOfActions, numberOfStates, initValue);    
+        this(numberOfObjectives, numberOfActions, numberOfStates, initValue, thresholds, DEFAULT_LAYOUT);
+    }
+
+    // as above, with the Q-values stored in the given QValueStorage layout
+    public TLO_LookupTable( int numberOfObjectives, int numberOfActions, int numberOfStates, int initValue, double thresholds[], int layout) 
+    {
+        super(numberOfObjectives, numberOfActions, numberOfStates, initValue, layout);    
         this.thresholds = thresholds;
         thisStateValues = new double[numberOfActions][numberOfObjectives];
     }
@@ -30,7 +37,7 @@ public class TLO_LookupTable extends LookupTable implements ActionSelector
     // for debugging purposes - print out Q- values for all actions for the current state
     public void printCurrentStateValues(int state)
     {
-    	getActionValues(state); // copy the action values into the 2D array thisStateValues
+    	loadActionValues(state); // copy the action values into the 2D array thisStateValues
     	System.out.print("State " + state + ": ");
 		for (int a=0; a<numberOfActions; a++)
 		{
@@ -49,47 +56,87 @@ public class TLO_LookupTable extends LookupTable implements ActionSelector
     // Copies the q-values for the current state into the 2 dimensional arraythisStateValues index by [action][objective]
     private void getActionValues(int state)
     {
-    	for (int obj=0; obj<numberOfObjectives; obj++)
+    	valueFunction.getActionValues(state, thisStateValues);
+    }
+
+    // copy the action values into thisStateValues, unless they're already there
+    private void loadActionValues(int state)
+    {
+    	if (!greedyCache.holdsValuesFor(state))
     	{
-    		double[][] thisObjQ = valueFunction.get(obj);
-    		for (int a=0; a<numberOfActions; a++)
-    		{
-    			thisStateValues[a][obj] = thisObjQ[a][state];
-    		}
-    	}    	
+    		getActionValues(state);
+    		greedyCache.setValuesFor(state);
+    	}
+    }
+
+    @Override
+    protected void valuesChanged(int state)
+    {
+    	if (state == ALL_STATES)
+    		greedyCache.clear();
+    	else
+    		greedyCache.invalidate(state);
     }
 
+    // Ties are broken at random on every call. Which actions are tied is worked out the first time a state is asked
+    // about, and comes from the cache until its Q-values or the thresholds change.
     @Override
     public int chooseGreedyAction(int state) 
     {
-    	getActionValues(state);
-    	return TLO.greedyAction(thisStateValues, thresholds); 
+    	long greedy = greedyCache.get(state);
+    	if (greedy == 0)
+    	{
+    		loadActionValues(state);
+    		greedy = TLO.greedyActions(thisStateValues, thresholds);
+    		if (greedy == 0) // too many actions for a mask
+    			return TLO.greedyAction(thisStateValues, thresholds, r);
+    		greedyCache.put(state, greedy);
+    	}
+    	return GreedyCache.choose(greedy, r);
     }
     
     // returns true if action is amongst the greedy actions for the specified
     // state, otherwise false
     public boolean isGreedy(int state, int action)
     {  
-    	getActionValues(state);
-    	int best = TLO.greedyAction(thisStateValues, thresholds); 
+    	int best = chooseGreedyAction(state);
+    	loadActionValues(state);
     	// this action is greedy if it is TLO-equal to the greedily selected action
     	return (TLO.compare(thisStateValues[action], thisStateValues[best], thresholds)==0);
     }
        
+    // Softmax-tournament exploration works out the greedy action, the exploratory one and whether the latter is greedy
+    // together, in one pass (see FusedTournamentSelector). Everything else makes the separate calls.
+    @Override
+    public void selectAction(double parameter, int state, boolean explore, ActionSelection selection)
+    {
+    	if (!explore || explorationStrategy != SOFTMAX_TOURNAMENT)
+    	{
+    		ActionSelector.super.selectAction(parameter, state, explore, selection);
+    		return;
+    	}
+    	int knownGreedy = greedyCache.choose(state, r);
+    	loadActionValues(state);
+    	tournament.select(thisStateValues, thresholds, parameter, knownGreedy, r, selection);
+    	greedyCache.put(state, tournament.greedyActions());
+    }
+    
     // softmax selection based on tournament score (i.e. the number of actions which each action TLO-dominates)
     protected int softmaxTournament(double temperature, int state)
     {
-    	int best = chooseGreedyAction(state); // as a side-effect this will also set up the Q-values array
-    	double scores[] = TLO.getDominanceScore(thisStateValues,thresholds);
-    	return Softmax.getAction(scores,temperature,best);
+    	int best = chooseGreedyAction(state);
+    	loadActionValues(state);
+    	TLO.getDominanceScore(thisStateValues, thresholds, scores);
+    	return Softmax.getAction(scores, temperature, best, r, softmaxSums);
     }
     
     // softmax selection based on each action's additive epsilon score
     protected int softmaxAdditiveEpsilon(double temperature, int state)
     {
-    	int best = chooseGreedyAction(state); // as a side-effect this will also set up the Q-values array
-    	double scores[] = TLO.getInverseAdditiveEpsilonScore(thisStateValues,best);
-    	return Softmax.getAction(scores,temperature,best);
+    	int best = chooseGreedyAction(state);
+    	loadActionValues(state);
+    	TLO.getInverseAdditiveEpsilonScore(thisStateValues, best, scores);
+    	return Softmax.getAction(scores, temperature, best, r, softmaxSums);
     }
     
    
@@ -98,54 +145,15 @@ public class TLO_LookupTable extends LookupTable implements ActionSelector
         return thresholds;
     }
 
+    // the thresholds aren't copied, so after changing the array in place pass it here again to clear the cache
     public void setThresholds(double[] thresholds) {
         this.thresholds = thresholds;
+        greedyCache.clear();
     }
     
-     public void saveValueFunction(String theFileName) {
-    	System.out.println(theFileName);
-        for (int s = 0; s < numberOfStates; s++) {
-            for (int a = 0; a < numberOfActions; a++) {
-            	System.out.print("State "+s+"\tAction "+a+"\t");         	
-            	for (int i = 0; i < numberOfObjectives; i++) {
-                    System.out.print(valueFunction.get(i)[a][s] +"\t");
-                }
-            	System.out.println();
-            }                
-        }  	
-        try {
-            DataOutputStream DO = new DataOutputStream(new FileOutputStream(new File(theFileName)));
-            for (int i = 0; i < numberOfObjectives; i++) {
-                for (int a = 0; a < numberOfActions; a++) {
-                    for (int s = 0; s < numberOfStates; s++) {
-                        DO.writeDouble( valueFunction.get(i)[a][s] );
-                    }
-                }                
-            }
-            DO.close();
-        } catch (FileNotFoundException ex) {
-            System.err.println("Problem saving value function to file: " + theFileName + " :: " + ex);
-        } catch (IOException ex) {
-            System.err.println("Problem writing value function to file:: " + ex);
-        }
-    }
-    
-    public void loadValueFunction(String theFileName) {
-        try {
-            DataInputStream DI = new DataInputStream(new FileInputStream(new File(theFileName)));
-            for (int i = 0; i < numberOfObjectives; i++) {
-                for (int a = 0; a < numberOfActions; a++) {
-                    for (int s = 0; s < numberOfStates; s++) {
-                        valueFunction.get(i)[a][s] = DI.readDouble();
-                    }
-                }                
-            }
-            DI.close();
-        } catch (FileNotFoundException ex) {
-            System.err.println("Problem loading value function from file: " + theFileName + " :: " + ex);
-        } catch (IOException ex) {
-            System.err.println("Problem reading value function from file:: " + ex);
-        }
+    public void saveValueFunction(String theFileName) {
+        printValueFunction(theFileName);
+        super.saveValueFunction(theFileName);
     }
    
 }
\ No newline at end of file
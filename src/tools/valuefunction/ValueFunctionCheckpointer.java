@@ -0,0 +1,388 @@
+// Periodic checkpoints of a table's Q-values during online learning, so a long run which dies can carry on from
+// the latest one rather than starting again. Every so many episodes, or seconds - checked as each episode ends - the
+// table's storage is copied on the learning thread and the copy saved (see QValueFile) by a background thread while
+// learning carries on. For a CopyOnWriteStorage the copy just shares its pages, so taking it costs next to nothing;
+// any other storage is copied whole. Should the previous checkpoint still be being written when the next is due, the
+// new one waits for the next episode rather than queueing up behind it.
+// Checkpoints are written to <stem>_C<sequence>_E<episode>.txt, the sequence numbering on from any already there,
+// and only the latest few generations are kept. Each file is renamed into place once it's complete, so a run killed
+// part way through a save leaves the previous checkpoints as they were. resume() loads the latest which reads back
+// successfully and says which episode it was taken after.
+// Checkpoints can also be incremental (setIncremental()): after a full one, each of the next few is a delta,
+// <stem>_C<sequence>_E<episode>.delta, holding just the blocks of states the table's updated since the checkpoint
+// before (see LookupTable.takeDirtyBlocks() and QValueFile.saveDelta()), so its cost goes with the states visited
+// rather than the size of the table. Once there are enough deltas they're compacted - folded into their base to
+// make a new full checkpoint - in the background. A delta follows on from the checkpoint numbered one before it, so
+// resume() loads the latest full checkpoint and applies the deltas after it, in order, for as long as they last.
+
+package tools.valuefunction;
+
+import tools.valuefunction.interfaces.LookupTable;
+import tools.valuefunction.storage.QValueFile;
+import tools.valuefunction.storage.QValueStorage;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+public class ValueFunctionCheckpointer
+{
+    private final File directory;
+    private final String prefix;
+    private final Pattern names;
+    private final int everyEpisodes;
+    private final long everyMillis;
+    private final int generations;
+    private boolean compress = false;
+    private int maxDeltas = 0;
+
+    private final ExecutorService writer;
+    private Future<?> pending = null;
+    private long nextSequence;
+    private int lastEpisode = 0;
+    private long lastTime;
+    private int skipped = 0;
+    private int deltas = 0; // since the last full checkpoint
+    // set when the next checkpoint must be full - e.g. a delta failed, so later ones would have nothing to follow
+    private volatile boolean needsFull = true;
+
+    // Checkpoint every everyEpisodes episodes and/or everySeconds seconds (0 for neither), to files starting with
+    // stem, keeping the latest generations of them
+    public ValueFunctionCheckpointer(String stem, int everyEpisodes, double everySeconds, int generations)
+    {
+        if (generations < 1)
+        {
+            throw new IllegalArgumentException("ValueFunctionCheckpointer - must keep at least 1 generation, not "
+                    + generations);
+        }
+        File file = new File(stem).getAbsoluteFile();
+        directory = file.getParentFile();
+        prefix = file.getName() + "_C";
+        names = Pattern.compile(Pattern.quote(prefix) + "(\\d+)_E(\\d+)\\.(txt|delta)");
+        this.everyEpisodes = everyEpisodes;
+        this.everyMillis = (long) (everySeconds * 1000);
+        this.generations = generations;
+        List<Checkpoint> existing = list();
+        nextSequence = existing.isEmpty() ? 0 : existing.get(0).sequence + 1;
+        lastTime = System.currentTimeMillis();
+        writer = Executors.newSingleThreadExecutor(r -> {
+            Thread t = new Thread(r, "checkpoint " + file.getName());
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    // deflate the checkpoints (see QValueFile)
+    public void setCompress(boolean compress)
+    {
+        this.compress = compress;
+    }
+
+    // Write up to maxDeltas deltas after each full checkpoint, compacting them into a new full checkpoint once there
+    // are that many - or, with 0, make every checkpoint full
+    public void setIncremental(int maxDeltas)
+    {
+        this.maxDeltas = maxDeltas;
+    }
+
+    // a checkpoint on disk
+    public static class Checkpoint
+    {
+        public final File file;
+        public final long sequence;
+        public final int episode;
+        public final boolean delta;
+
+        Checkpoint(File file, long sequence, int episode, boolean delta)
+        {
+            this.file = file;
+            this.sequence = sequence;
+            this.episode = episode;
+            this.delta = delta;
+        }
+    }
+
+    // the checkpoints on disk, latest first
+    public List<Checkpoint> list()
+    {
+        List<Checkpoint> checkpoints = new ArrayList<>();
+        String[] files = directory.list();
+        if (files != null)
+        {
+            for (String name : files)
+            {
+                Matcher m = names.matcher(name);
+                if (m.matches())
+                {
+                    checkpoints.add(new Checkpoint(new File(directory, name), Long.parseLong(m.group(1)),
+                            Integer.parseInt(m.group(2)), m.group(3).equals("delta")));
+                }
+            }
+        }
+        // a full checkpoint comes before a delta with the same number - it's the delta compacted
+        Collections.sort(checkpoints, (a, b) -> a.sequence != b.sequence ? Long.compare(b.sequence, a.sequence)
+                : Boolean.compare(a.delta, b.delta));
+        return checkpoints;
+    }
+
+    // the deltas following on from a full checkpoint, in order, up to the first missing one
+    private static List<Checkpoint> deltasAfter(Checkpoint base, List<Checkpoint> checkpoints)
+    {
+        List<Checkpoint> chain = new ArrayList<>();
+        for (long next = base.sequence + 1; ; next++)
+        {
+            Checkpoint found = null;
+            for (Checkpoint c : checkpoints)
+            {
+                if (c.delta && c.sequence == next)
+                {
+                    found = c;
+                }
+            }
+            if (found == null)
+            {
+                return chain;
+            }
+            chain.add(found);
+        }
+    }
+
+    // Called as each episode of learning ends: checkpoint the table if one is due. Returns true if one was taken.
+    public boolean episodeEnded(LookupTable table, int episode)
+    {
+        boolean due = (everyEpisodes > 0 && episode - lastEpisode >= everyEpisodes)
+                || (everyMillis > 0 && System.currentTimeMillis() - lastTime >= everyMillis);
+        return due && checkpoint(table, episode);
+    }
+
+    // Checkpoint the table now, as it is after the given episode, unless the last checkpoint is still being written.
+    // Returns true if one was taken.
+    public boolean checkpoint(LookupTable table, int episode)
+    {
+        if (pending != null && !pending.isDone())
+        {
+            skipped++;
+            return false;
+        }
+        final QValueStorage snapshot = table.getStorage().copy();
+        final BitSet dirty = table.takeDirtyBlocks();
+        double[] tableThresholds = table.getThresholds();
+        final double[] thresholds = tableThresholds == null ? new double[0] : tableThresholds.clone();
+        final boolean full = maxDeltas <= 0 || needsFull;
+        deltas = full ? 0 : deltas + 1;
+        final boolean compactAfter = !full && deltas >= maxDeltas;
+        if (compactAfter)
+        {
+            deltas = 0;
+        }
+        needsFull = false;
+        final File file = new File(directory, prefix + String.format("%04d", nextSequence++) + "_E" + episode
+                + (full ? ".txt" : ".delta"));
+        pending = writer.submit(() -> {
+            try
+            {
+                if (full)
+                {
+                    QValueFile.save(snapshot, thresholds, compress, file);
+                }
+                else
+                {
+                    QValueFile.saveDelta(snapshot, dirty, LookupTable.DIRTY_BLOCK_STATES, thresholds, compress, file);
+                }
+            }
+            catch (IOException e)
+            {
+                System.err.println("Problem writing checkpoint " + file + " :: " + e);
+                needsFull = true;
+                return;
+            }
+            if (compactAfter)
+            {
+                compact();
+            }
+            prune();
+        });
+        lastEpisode = episode;
+        lastTime = System.currentTimeMillis();
+        return true;
+    }
+
+    // delete all but the latest generations of full checkpoints, and the deltas before them
+    private void prune()
+    {
+        int kept = 0;
+        for (Checkpoint c : list())
+        {
+            if (kept == generations)
+            {
+                c.file.delete();
+            }
+            else if (!c.delta)
+            {
+                kept++;
+            }
+        }
+    }
+
+    // Fold the deltas after the latest full checkpoint into it, as a new full checkpoint numbered as the last of
+    // them, and delete them. Returns false if that can't be done - the checkpoints are then left as they were. The
+    // values are put together in memory, a table's worth.
+    public boolean compact()
+    {
+        List<Checkpoint> checkpoints = list();
+        Checkpoint base = null;
+        for (Checkpoint c : checkpoints)
+        {
+            if (!c.delta)
+            {
+                base = c;
+                break;
+            }
+        }
+        if (base == null)
+        {
+            return false;
+        }
+        List<Checkpoint> chain = deltasAfter(base, checkpoints);
+        if (chain.isEmpty())
+        {
+            return false;
+        }
+        Checkpoint last = chain.get(chain.size() - 1);
+        try
+        {
+            int[] size = QValueFile.readSize(base.file);
+            if (size == null)
+            {
+                throw new IOException(base.file + " doesn't record its size");
+            }
+            QValueStorage values = QValueStorage.create(QValueStorage.STATE_MAJOR, size[0], size[1], size[2]);
+            double[] thresholds = QValueFile.loadAny(values, base.file);
+            for (Checkpoint delta : chain)
+            {
+                thresholds = QValueFile.applyDelta(values, delta.file);
+            }
+            QValueFile.save(values, thresholds, compress, new File(directory, prefix
+                    + String.format("%04d", last.sequence) + "_E" + last.episode + ".txt"));
+        }
+        catch (IOException e)
+        {
+            System.err.println("Problem compacting checkpoints after " + base.file + " :: " + e);
+            return false;
+        }
+        for (Checkpoint delta : chain)
+        {
+            delta.file.delete();
+        }
+        return true;
+    }
+
+    // how many checkpoints have been put off because the one before was still being written
+    public int getSkippedCount()
+    {
+        return skipped;
+    }
+
+    // wait for the checkpoint being written, if there is one
+    public void flush()
+    {
+        if (pending == null)
+        {
+            return;
+        }
+        try
+        {
+            pending.get();
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+        }
+        catch (ExecutionException e)
+        {
+            System.err.println("Problem writing checkpoint :: " + e.getCause());
+        }
+    }
+
+    // Load the latest checkpoint that can be read into the table - the latest full checkpoint, falling back to
+    // older ones if it's damaged, and the deltas after it up to any that's damaged - and return the episode it was
+    // taken after, or -1 if there's none. Checkpointing carries on from that episode, with a full checkpoint.
+    // Damaged checkpoints are renamed with .damaged on the end.
+    public int resume(LookupTable table)
+    {
+        flush();
+        List<Checkpoint> checkpoints = list();
+        for (Checkpoint base : checkpoints)
+        {
+            if (base.delta)
+            {
+                continue;
+            }
+            QValueStorage values = table.blankStorage();
+            try
+            {
+                QValueFile.loadAny(values, base.file);
+            }
+            catch (IOException e)
+            {
+                setAside(base, e);
+                continue;
+            }
+            int episode = base.episode;
+            for (Checkpoint delta : deltasAfter(base, checkpoints))
+            {
+                try
+                {
+                    QValueFile.applyDelta(values, delta.file);
+                    episode = delta.episode;
+                }
+                catch (IOException e)
+                {
+                    setAside(delta, e);
+                    break;
+                }
+            }
+            table.setStorage(values);
+            table.takeDirtyBlocks();
+            needsFull = true;
+            lastEpisode = episode;
+            lastTime = System.currentTimeMillis();
+            return episode;
+        }
+        return -1;
+    }
+
+    // rename a damaged checkpoint, so it isn't kept as one of the generations in place of a good one
+    private static void setAside(Checkpoint checkpoint, IOException e)
+    {
+        File damaged = new File(checkpoint.file.getPath() + ".damaged");
+        System.err.println("Problem loading checkpoint " + checkpoint.file + " :: " + e + " - moved to "
+                + damaged.getName());
+        checkpoint.file.renameTo(damaged);
+    }
+
+    // finish writing the last checkpoint and stop the background thread
+    public void close()
+    {
+        flush();
+        writer.shutdown();
+        try
+        {
+            writer.awaitTermination(1, TimeUnit.MINUTES);
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
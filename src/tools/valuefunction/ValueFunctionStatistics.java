@@ -0,0 +1,695 @@
+// Statistics across any number of saved value functions - e.g. the ten trials of an experiment - to show which
+// states' Q-values the trials disagree about. For every (objective, action, state) cell it keeps the mean, variance,
+// min and max over the files, updated a file at a time by Welford's method, so hundreds of files can go through it
+// without being in memory together: just the file being worked on and the next, which is read while the current one
+// is added. For every state it also counts how often each action was greedy - a state with tied greedy actions gives
+// each of them an equal share of the vote - so greedy agreement is the share the most popular action got.
+// The greedy actions are those TLO (or TLO_MI, for the impact-minimising tables) picks with the thresholds the files
+// were saved with, or those given to setThresholds(), and no reward accumulated yet.
+// Memory is 32 bytes per cell for the statistics, 16 for the file being added and the next, and 4 per state-action
+// for the votes. Each file is added by fork/join tasks, each taking a range of states.
+// save() writes the statistics as a compact binary table, which load() reads back:
+//   long   MAGIC, int VERSION
+//   int    numberOfObjectives, numberOfActions, numberOfStates, number of files, 1 if TLO_MI's ordering was used
+//   int    number of thresholds, then the thresholds (doubles)
+//   the mean, then the variance, min and max of every cell, each as floats in [objective][action][state] order
+//   the greedy agreement (float) and most popular greedy action (int) of every state
+//   CRC32 (int) of everything before it
+// printSummary() lists the most divergent states. Also runs offline:
+//   ValueFunctionStatistics [-size objectives,actions,states] [-thresholds t1,t2,...] [-mi] [-top states]
+//                           output input...
+// where each input is a file or a glob such as ValueFunction_T*_IA8.txt.
+
+package tools.valuefunction;
+
+import tools.valuefunction.storage.QValueFile;
+import tools.valuefunction.storage.ValueFunctionAverager;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.ByteBuffer;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.CheckedOutputStream;
+
+public class ValueFunctionStatistics
+{
+    public static final long MAGIC = 0x7FF8_5156_4653_0000L;
+    public static final int VERSION = 1;
+
+    private static final int STATES_PER_TASK = 1024; // states one fork/join task adds without splitting
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    private final int numberOfObjectives;
+    private final int numberOfActions;
+    private final int numberOfStates;
+    private final boolean multiImpact;
+    private double[] thresholds = null;
+    private final ForkJoinPool pool;
+
+    // the statistics of each cell, in [objective][action][state] order
+    private int count = 0;
+    private final double[] mean;
+    private final double[] m2; // sum of squared differences from the mean
+    private final double[] min;
+    private final double[] max;
+    // greedy votes, in [state][action] order
+    private final float[] votes;
+
+    public ValueFunctionStatistics(int numberOfObjectives, int numberOfActions, int numberOfStates, boolean multiImpact)
+    {
+        this(numberOfObjectives, numberOfActions, numberOfStates, multiImpact, ForkJoinPool.commonPool());
+    }
+
+    // as above, reading and adding the files in the given pool
+    public ValueFunctionStatistics(int numberOfObjectives, int numberOfActions, int numberOfStates, boolean multiImpact,
+                                   ForkJoinPool pool)
+    {
+        this.numberOfObjectives = numberOfObjectives;
+        this.numberOfActions = numberOfActions;
+        this.numberOfStates = numberOfStates;
+        this.multiImpact = multiImpact;
+        this.pool = pool;
+        int cells = numberOfObjectives * numberOfActions * numberOfStates;
+        mean = new double[cells];
+        m2 = new double[cells];
+        min = new double[cells];
+        max = new double[cells];
+        votes = new float[numberOfActions * numberOfStates];
+    }
+
+    // the thresholds the greedy actions are chosen with - if they're not set, the first file's are used
+    public void setThresholds(double[] thresholds)
+    {
+        this.thresholds = thresholds == null ? null : thresholds.clone();
+    }
+
+    public double[] getThresholds()
+    {
+        return thresholds == null ? new double[0] : thresholds.clone();
+    }
+
+    // Add the files, one after another. If one can't be read, those before it stay added.
+    public void addAll(List<File> files) throws IOException
+    {
+        if (files.isEmpty())
+        {
+            return;
+        }
+        double[] current = new double[mean.length];
+        double[] next = new double[mean.length];
+        double[] fileThresholds = read(files.get(0), current);
+        checkThresholds(files.get(0), fileThresholds);
+        for (int f = 0; f < files.size(); f++)
+        {
+            ForkJoinTask<double[]> reading = null;
+            if (f + 1 < files.size())
+            {
+                final File nextFile = files.get(f + 1);
+                final double[] into = next;
+                reading = pool.submit(() -> read(nextFile, into));
+            }
+            add(current);
+            if (reading != null)
+            {
+                checkThresholds(files.get(f + 1), join(reading));
+                double[] swap = current;
+                current = next;
+                next = swap;
+            }
+        }
+    }
+
+    // Add a single file
+    public void add(File file) throws IOException
+    {
+        double[] values = new double[mean.length];
+        checkThresholds(file, read(file, values));
+        add(values);
+    }
+
+    // Add a value function's values, in [objective][action][state] order
+    public void add(double[] values)
+    {
+        if (values.length != mean.length)
+        {
+            throw new IllegalArgumentException("ValueFunctionStatistics - " + values.length + " values, not "
+                    + mean.length);
+        }
+        count++;
+        pool.invoke(new Add(values, thresholds == null ? new double[0] : thresholds, 0, numberOfStates));
+    }
+
+    // read a file's values, returning the thresholds it was saved with
+    private double[] read(File file, double[] values) throws IOException
+    {
+        QValueFile.Reader reader = new QValueFile.Reader(file, numberOfObjectives, numberOfActions, numberOfStates);
+        try
+        {
+            for (int done = 0; done < values.length; done += BUFFER_SIZE)
+            {
+                reader.read(values, done, Math.min(BUFFER_SIZE, values.length - done));
+            }
+            return reader.getThresholds();
+        }
+        finally
+        {
+            reader.close();
+        }
+    }
+
+    private static double[] join(ForkJoinTask<double[]> task) throws IOException
+    {
+        try
+        {
+            return task.get();
+        }
+        catch (ExecutionException e)
+        {
+            throw ValueFunctionAverager.toIOException(e, "ValueFunctionStatistics");
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            throw new IOException("ValueFunctionStatistics - interrupted", e);
+        }
+    }
+
+    // take the first thresholds seen, unless some were set, and warn about files saved with different ones
+    private void checkThresholds(File file, double[] fileThresholds)
+    {
+        if (thresholds == null)
+        {
+            if (fileThresholds.length == 0)
+            {
+                System.err.println("ValueFunctionStatistics - " + file + " doesn't record its thresholds, and none "
+                        + "were given - greedy actions will be chosen without them");
+            }
+            thresholds = fileThresholds.clone();
+        }
+        else if (fileThresholds.length > 0 && !Arrays.equals(thresholds, fileThresholds))
+        {
+            System.err.println("ValueFunctionStatistics - " + file + " was saved with thresholds "
+                    + Arrays.toString(fileThresholds) + ", not " + Arrays.toString(thresholds));
+        }
+    }
+
+    // adds states [from, to) of a value function, halving the range until it's small enough to do directly
+    private class Add extends RecursiveAction
+    {
+        private static final long serialVersionUID = 1L;
+
+        private final double[] values;
+        private final double[] greedyThresholds;
+        private final int from;
+        private final int to;
+
+        Add(double[] values, double[] greedyThresholds, int from, int to)
+        {
+            this.values = values;
+            this.greedyThresholds = greedyThresholds;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute()
+        {
+            if (to - from > STATES_PER_TASK)
+            {
+                int middle = (from + to) >>> 1;
+                invokeAll(new Add(values, greedyThresholds, from, middle), new Add(values, greedyThresholds, middle, to));
+                return;
+            }
+            for (int row = 0; row < numberOfObjectives * numberOfActions; row++)
+            {
+                int start = row * numberOfStates;
+                for (int c = start + from; c < start + to; c++)
+                {
+                    double x = values[c];
+                    double delta = x - mean[c];
+                    mean[c] += delta / count;
+                    m2[c] += delta * (x - mean[c]);
+                    if (count == 1 || x < min[c])
+                    {
+                        min[c] = x;
+                    }
+                    if (count == 1 || x > max[c])
+                    {
+                        max[c] = x;
+                    }
+                }
+            }
+            double[][] actionValues = new double[numberOfActions][numberOfObjectives];
+            boolean[] greedy = new boolean[numberOfActions];
+            for (int s = from; s < to; s++)
+            {
+                for (int a = 0; a < numberOfActions; a++)
+                {
+                    for (int i = 0; i < numberOfObjectives; i++)
+                    {
+                        actionValues[a][i] = values[(i * numberOfActions + a) * numberOfStates + s];
+                    }
+                }
+                // an action is greedy if it's as good as the best so far - those before a better one are dropped
+                int best = 0;
+                int numTied = 1;
+                greedy[0] = true;
+                for (int a = 1; a < numberOfActions; a++)
+                {
+                    int compareResult = compare(actionValues[a], actionValues[best]);
+                    greedy[a] = compareResult >= 0;
+                    if (compareResult > 0)
+                    {
+                        Arrays.fill(greedy, 0, a, false);
+                        best = a;
+                        numTied = 1;
+                    }
+                    else if (compareResult == 0)
+                    {
+                        numTied++;
+                    }
+                }
+                float share = 1.0f / numTied;
+                for (int a = 0; a < numberOfActions; a++)
+                {
+                    if (greedy[a])
+                    {
+                        votes[s * numberOfActions + a] += share;
+                    }
+                }
+            }
+        }
+
+        private int compare(double[] a, double[] b)
+        {
+            return multiImpact ? TLO_MI.compare(a, b, greedyThresholds) : TLO.compare(a, b, greedyThresholds);
+        }
+    }
+
+    private int cell(int objective, int action, int state)
+    {
+        return (objective * numberOfActions + action) * numberOfStates + state;
+    }
+
+    public int getNumberOfObjectives()
+    {
+        return numberOfObjectives;
+    }
+
+    public int getNumberOfActions()
+    {
+        return numberOfActions;
+    }
+
+    public int getNumberOfStates()
+    {
+        return numberOfStates;
+    }
+
+    // how many value functions have been added
+    public int getCount()
+    {
+        return count;
+    }
+
+    public double getMean(int objective, int action, int state)
+    {
+        return mean[cell(objective, action, state)];
+    }
+
+    // the sample variance - 0 until there are two value functions
+    public double getVariance(int objective, int action, int state)
+    {
+        return count < 2 ? 0 : m2[cell(objective, action, state)] / (count - 1);
+    }
+
+    public double getMin(int objective, int action, int state)
+    {
+        return min[cell(objective, action, state)];
+    }
+
+    public double getMax(int objective, int action, int state)
+    {
+        return max[cell(objective, action, state)];
+    }
+
+    // the share of the value functions in which the state's most popular greedy action was greedy, from 1 (they
+    // all agree) down to 1 / numberOfActions
+    public double getGreedyAgreement(int state)
+    {
+        return count == 0 ? 0 : votes[state * numberOfActions + getModalGreedyAction(state)] / count;
+    }
+
+    // the action greedy in the most value functions - the first, if several are
+    public int getModalGreedyAction(int state)
+    {
+        int modal = 0;
+        for (int a = 1; a < numberOfActions; a++)
+        {
+            if (votes[state * numberOfActions + a] > votes[state * numberOfActions + modal])
+            {
+                modal = a;
+            }
+        }
+        return modal;
+    }
+
+    // the largest standard deviation of any of the state's cells
+    public double getSpread(int state)
+    {
+        double spread = 0;
+        for (int i = 0; i < numberOfObjectives; i++)
+        {
+            for (int a = 0; a < numberOfActions; a++)
+            {
+                spread = Math.max(spread, getVariance(i, a, state));
+            }
+        }
+        return Math.sqrt(spread);
+    }
+
+    // Print the number of states whose Q-values vary at all, and of those whose greedy action does, then the top
+    // states by spread and by lack of greedy agreement. States which are the same in every value function - e.g.
+    // those no trial visited - are left out, even though their tied greedy actions give them a low agreement.
+    public void printSummary(PrintStream out, int top)
+    {
+        // each queue holds the top states so far, the least divergent - or, if equally so, the highest numbered -
+        // at its head, ready to drop
+        PriorityQueue<Integer> bySpread = new PriorityQueue<>(
+                (a, b) -> getSpread(a) != getSpread(b) ? Double.compare(getSpread(a), getSpread(b))
+                        : Integer.compare(b, a));
+        PriorityQueue<Integer> byAgreement = new PriorityQueue<>(
+                (a, b) -> getGreedyAgreement(a) != getGreedyAgreement(b)
+                        ? Double.compare(getGreedyAgreement(b), getGreedyAgreement(a)) : Integer.compare(b, a));
+        int varying = 0;
+        int disputed = 0;
+        for (int s = 0; s < numberOfStates; s++)
+        {
+            if (getSpread(s) == 0)
+            {
+                continue;
+            }
+            varying++;
+            bySpread.add(s);
+            if (bySpread.size() > top)
+            {
+                bySpread.poll();
+            }
+            if (getGreedyAgreement(s) < 1)
+            {
+                disputed++;
+                byAgreement.add(s);
+                if (byAgreement.size() > top)
+                {
+                    byAgreement.poll();
+                }
+            }
+        }
+        out.println("Statistics of " + count + " value functions of " + numberOfObjectives + " objectives x "
+                + numberOfActions + " actions x " + numberOfStates + " states, greedy by "
+                + (multiImpact ? "TLO_MI" : "TLO") + " with thresholds " + Arrays.toString(getThresholds()));
+        out.println(varying + " states have Q-values which vary, and the greedy action varies in " + disputed);
+        out.println();
+        out.println("Largest spread (standard deviation of the state's most variable Q-value)");
+        printStates(out, bySpread);
+        out.println();
+        out.println("Least greedy agreement");
+        printStates(out, byAgreement);
+    }
+
+    private void printStates(PrintStream out, PriorityQueue<Integer> queue)
+    {
+        Integer[] states = new Integer[queue.size()];
+        for (int k = states.length - 1; k >= 0; k--)
+        {
+            states[k] = queue.poll();
+        }
+        out.println("State\tSpread\tAgreement\tGreedy\tMean Q-values of the greedy action (min - max)");
+        for (int s : states)
+        {
+            int greedy = getModalGreedyAction(s);
+            StringBuilder line = new StringBuilder();
+            line.append(s).append('\t').append(String.format("%.4g", getSpread(s))).append('\t')
+                    .append(String.format("%.2f", getGreedyAgreement(s))).append('\t').append(greedy);
+            for (int i = 0; i < numberOfObjectives; i++)
+            {
+                line.append('\t').append(String.format("%.4g (%.4g - %.4g)", getMean(i, greedy, s),
+                        getMin(i, greedy, s), getMax(i, greedy, s)));
+            }
+            out.println(line);
+        }
+    }
+
+    // Save the statistics in the format described at the top, via a temporary file renamed over the target
+    public void save(File file) throws IOException
+    {
+        File target = file.getAbsoluteFile();
+        File temp = File.createTempFile(target.getName() + ".part", ".tmp", target.getParentFile());
+        try
+        {
+            CRC32 crc = new CRC32();
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                    new CheckedOutputStream(new FileOutputStream(temp), crc), BUFFER_SIZE));
+            try
+            {
+                double[] saved = getThresholds();
+                out.writeLong(MAGIC);
+                out.writeInt(VERSION);
+                out.writeInt(numberOfObjectives);
+                out.writeInt(numberOfActions);
+                out.writeInt(numberOfStates);
+                out.writeInt(count);
+                out.writeInt(multiImpact ? 1 : 0);
+                out.writeInt(saved.length);
+                for (double t : saved)
+                {
+                    out.writeDouble(t);
+                }
+                double[] variance = new double[m2.length];
+                for (int c = 0; c < m2.length; c++)
+                {
+                    variance[c] = count < 2 ? 0 : m2[c] / (count - 1);
+                }
+                byte[] block = new byte[BUFFER_SIZE];
+                writeFloats(out, mean, block);
+                writeFloats(out, variance, block);
+                writeFloats(out, min, block);
+                writeFloats(out, max, block);
+                for (int s = 0; s < numberOfStates; s++)
+                {
+                    out.writeFloat((float) getGreedyAgreement(s));
+                    out.writeInt(getModalGreedyAction(s));
+                }
+                out.flush();
+                out.writeInt((int) crc.getValue());
+            }
+            finally
+            {
+                out.close();
+            }
+            try
+            {
+                Files.move(temp.toPath(), target.toPath(), StandardCopyOption.ATOMIC_MOVE,
+                        StandardCopyOption.REPLACE_EXISTING);
+            }
+            catch (AtomicMoveNotSupportedException e)
+            {
+                Files.move(temp.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            }
+        }
+        finally
+        {
+            temp.delete();
+        }
+    }
+
+    // Read statistics written by save(). The values come back at float precision, and the greedy votes as just
+    // the most popular action and its share, so more value functions can't be added to them.
+    public static ValueFunctionStatistics load(File file) throws IOException
+    {
+        // the checksum goes outside the buffering, so it only sees what's been read
+        CRC32 crc = new CRC32();
+        DataInputStream in = new DataInputStream(new CheckedInputStream(
+                new BufferedInputStream(new FileInputStream(file), BUFFER_SIZE), crc));
+        try
+        {
+            if (in.readLong() != MAGIC)
+            {
+                throw new IOException("ValueFunctionStatistics - " + file + " isn't a statistics file");
+            }
+            int version = in.readInt();
+            if (version != VERSION)
+            {
+                throw new IOException("ValueFunctionStatistics - " + file + " is version " + version + ", not "
+                        + VERSION);
+            }
+            int objectives = in.readInt();
+            int actions = in.readInt();
+            int states = in.readInt();
+            int count = in.readInt();
+            ValueFunctionStatistics stats = new ValueFunctionStatistics(objectives, actions, states, in.readInt() != 0);
+            double[] thresholds = new double[in.readInt()];
+            for (int t = 0; t < thresholds.length; t++)
+            {
+                thresholds[t] = in.readDouble();
+            }
+            stats.thresholds = thresholds;
+            stats.count = count;
+            byte[] block = new byte[BUFFER_SIZE];
+            readFloats(in, stats.mean, block);
+            readFloats(in, stats.m2, block);
+            for (int c = 0; c < stats.m2.length; c++)
+            {
+                stats.m2[c] *= Math.max(count - 1, 0);
+            }
+            readFloats(in, stats.min, block);
+            readFloats(in, stats.max, block);
+            for (int s = 0; s < states; s++)
+            {
+                float agreement = in.readFloat();
+                stats.votes[s * actions + in.readInt()] = agreement * count;
+            }
+            int expected = (int) crc.getValue();
+            if (in.readInt() != expected)
+            {
+                throw new IOException("ValueFunctionStatistics - " + file + " fails its checksum");
+            }
+            return stats;
+        }
+        finally
+        {
+            in.close();
+        }
+    }
+
+    // the values as floats, a block at a time
+    private static void writeFloats(DataOutputStream out, double[] values, byte[] block) throws IOException
+    {
+        ByteBuffer buffer = ByteBuffer.wrap(block);
+        for (double v : values)
+        {
+            if (!buffer.hasRemaining())
+            {
+                out.write(block, 0, buffer.position());
+                buffer.clear();
+            }
+            buffer.putFloat((float) v);
+        }
+        out.write(block, 0, buffer.position());
+    }
+
+    private static void readFloats(DataInputStream in, double[] values, byte[] block) throws IOException
+    {
+        ByteBuffer buffer = ByteBuffer.wrap(block);
+        for (int done = 0; done < values.length; )
+        {
+            int n = Math.min(block.length / 4, values.length - done);
+            in.readFully(block, 0, n * 4);
+            buffer.clear();
+            for (int k = 0; k < n; k++)
+            {
+                values[done++] = buffer.getFloat();
+            }
+        }
+    }
+
+    public static void main(String[] args)
+    {
+        int[] size = null;
+        double[] thresholds = null;
+        boolean multiImpact = false;
+        int top = 20;
+        int arg = 0;
+        try
+        {
+            for (; arg < args.length && args[arg].startsWith("-"); arg++)
+            {
+                if (args[arg].equals("-size"))
+                {
+                    String[] parts = args[++arg].split(",");
+                    size = new int[]{Integer.parseInt(parts[0]), Integer.parseInt(parts[1]), Integer.parseInt(parts[2])};
+                }
+                else if (args[arg].equals("-thresholds"))
+                {
+                    String[] parts = args[++arg].split(",");
+                    thresholds = new double[parts.length];
+                    for (int k = 0; k < parts.length; k++)
+                    {
+                        thresholds[k] = Double.parseDouble(parts[k]);
+                    }
+                }
+                else if (args[arg].equals("-mi"))
+                {
+                    multiImpact = true;
+                }
+                else if (args[arg].equals("-top"))
+                {
+                    top = Integer.parseInt(args[++arg]);
+                }
+                else
+                {
+                    throw new IllegalArgumentException("unknown option " + args[arg]);
+                }
+            }
+            if (args.length - arg < 2)
+            {
+                throw new IllegalArgumentException("an output and at least one input are needed");
+            }
+        }
+        catch (RuntimeException e)
+        {
+            System.err.println("ValueFunctionStatistics - " + e.getMessage());
+            System.err.println("Usage: ValueFunctionStatistics [-size objectives,actions,states] "
+                    + "[-thresholds t1,t2,...] [-mi] [-top states] output input...");
+            System.exit(1);
+            return;
+        }
+
+        File output = new File(args[arg]);
+        String[] patterns = Arrays.copyOfRange(args, arg + 1, args.length);
+        try
+        {
+            List<File> files = ValueFunctionAverager.expand(patterns);
+            if (size == null)
+            {
+                size = QValueFile.readSize(files.get(0));
+                if (size == null)
+                {
+                    throw new IOException("ValueFunctionStatistics - " + files.get(0)
+                            + " doesn't record its size - give it with -size");
+                }
+            }
+            ValueFunctionStatistics stats = new ValueFunctionStatistics(size[0], size[1], size[2], multiImpact);
+            stats.setThresholds(thresholds);
+            long start = System.currentTimeMillis();
+            stats.addAll(files);
+            stats.save(output);
+            System.out.println("ValueFunctionStatistics - " + files.size() + " value functions into " + output
+                    + " in " + (System.currentTimeMillis() - start) + "ms");
+            stats.printSummary(System.out, top);
+        }
+        catch (IOException | IllegalArgumentException e)
+        {
+            System.err.println(e.getMessage());
+            System.exit(1);
+        }
+    }
+}
@@ -1,12 +1,5 @@
 package tools.valuefunction;
 
-import java.io.DataInputStream;
-import java.io.DataOutputStream;
-import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileNotFoundException;
-import java.io.FileOutputStream;
-import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Random;
 
@@ -17,8 +10,13 @@ public class WSLookupTable extends LookupTable implements ActionSelector {
     
     double[] weights = null;
     
-    public WSLookupTable( int numberOfObjectives, int numberOfActions, int numberOfStates, int initValue,double[] weights ) {
-        super(numberOfObjectives, numberOfActions, numberOfStates, initValue);
+    public WSLookupTable(int numberOfObjectives, int numberOfActions, int numberOfStates, int initValue, double[] weights) {
+        this(numberOfObjectives, numberOfActions, numberOfStates, initValue, weights, DEFAULT_LAYOUT);
+    }
+
+    // as above, with the Q-values stored in the given QValueStorage layout
+    public WSLookupTable( int numberOfObjectives, int numberOfActions, int numberOfStates, int initValue,double[] weights, int layout) {
+        super(numberOfObjectives, numberOfActions, numberOfStates, initValue, layout);
         this.weights = weights;        
     }
 
@@ -28,7 +26,7 @@ public class WSLookupTable extends LookupTable implements ActionSelector {
         double bestValue = 0.0;
         
         for (int i = 0; i < numberOfObjectives; i++) {
-            bestValue += weights[i] * valueFunction.get(i) [0][state];
+            bestValue += weights[i] * valueFunction.get(i, 0, state);
         }
         bestActions.add(0);
 
@@ -37,7 +35,7 @@ public class WSLookupTable extends LookupTable implements ActionSelector {
             double scalarValue = 0.0;
 
             for (int i = 0; i < numberOfObjectives; i++) {
-                scalarValue += weights[i] * valueFunction.get(i)[a][state];
+                scalarValue += weights[i] * valueFunction.get(i, a, state);
             }
             
             if ( scalarValue >= bestValue ) {
@@ -68,7 +66,7 @@ public class WSLookupTable extends LookupTable implements ActionSelector {
     	double actionValue = 0.0;
         
         for (int i = 0; i < numberOfObjectives; i++) {
-            actionValue += weights[i] * valueFunction.get(i) [action][state];
+            actionValue += weights[i] * valueFunction.get(i, action, state);
         }
         // check if any other actions are valued more highly - can
         // return false immediately if they are
@@ -78,7 +76,7 @@ public class WSLookupTable extends LookupTable implements ActionSelector {
             {
             	double scalarValue = 0.0;
 	            for (int i = 0; i < numberOfObjectives; i++) {
-	                scalarValue += weights[i] * valueFunction.get(i)[a][state];
+	                scalarValue += weights[i] * valueFunction.get(i, a, state);
 	            }
 	            
 	            if ( scalarValue > actionValue ) {
@@ -100,10 +98,10 @@ public class WSLookupTable extends LookupTable implements ActionSelector {
         {
             scalarisedValue[a] = 0.0;
             for (int i = 0; i < numberOfObjectives; i++) {
-            	scalarisedValue[a] += weights[i] * valueFunction.get(i)[a][state];
+            	scalarisedValue[a] += weights[i] * valueFunction.get(i, a, state);
             }
         }
-    	return Softmax.getAction(scalarisedValue,temperature,best);
+    	return Softmax.getAction(scalarisedValue,temperature,best, r);
     }
     
     // For this type of agent, the mo-softmax operations are just mapped onto
@@ -116,10 +114,10 @@ public class WSLookupTable extends LookupTable implements ActionSelector {
         {
             scalarisedValue[a] = 0.0;
             for (int i = 0; i < numberOfObjectives; i++) {
-            	scalarisedValue[a] += weights[i] * valueFunction.get(i)[a][state];
+            	scalarisedValue[a] += weights[i] * valueFunction.get(i, a, state);
             }
         }
-    	return Softmax.getTournamentAction(scalarisedValue,temperature,best);
+    	return Softmax.getTournamentAction(scalarisedValue,temperature,best, r);
     }
     
     protected int softmaxAdditiveEpsilon(double temperature, int state)
@@ -135,50 +133,9 @@ public class WSLookupTable extends LookupTable implements ActionSelector {
         this.weights = weights;
     }
     
-     public void saveValueFunction(String theFileName) {
-    	System.out.println(theFileName);
-        for (int s = 0; s < numberOfStates; s++) {
-            for (int a = 0; a < numberOfActions; a++) {
-            	System.out.print("State "+s+"\tAction "+a+"\t");         	
-            	for (int i = 0; i < numberOfObjectives; i++) {
-                    System.out.print(valueFunction.get(i)[a][s] +"\t");
-                }
-            	System.out.println();
-            }                
-        }  	
-        try {
-            DataOutputStream DO = new DataOutputStream(new FileOutputStream(new File(theFileName)));
-            for (int i = 0; i < numberOfObjectives; i++) {
-                for (int a = 0; a < numberOfActions; a++) {
-                    for (int s = 0; s < numberOfStates; s++) {
-                        DO.writeDouble( valueFunction.get(i)[a][s] );
-                    }
-                }                
-            }
-            DO.close();
-        } catch (FileNotFoundException ex) {
-            System.err.println("Problem saving value function to file: " + theFileName + " :: " + ex);
-        } catch (IOException ex) {
-            System.err.println("Problem writing value function to file:: " + ex);
-        }
-    }
-    
-    public void loadValueFunction(String theFileName) {
-        try {
-            DataInputStream DI = new DataInputStream(new FileInputStream(new File(theFileName)));
-            for (int i = 0; i < numberOfObjectives; i++) {
-                for (int a = 0; a < numberOfActions; a++) {
-                    for (int s = 0; s < numberOfStates; s++) {
-                        valueFunction.get(i)[a][s] = DI.readDouble();
-                    }
-                }                
-            }
-            DI.close();
-        } catch (FileNotFoundException ex) {
-            System.err.println("Problem loading value function from file: " + theFileName + " :: " + ex);
-        } catch (IOException ex) {
-            System.err.println("Problem reading value function from file:: " + ex);
-        }
+    public void saveValueFunction(String theFileName) {
+        printValueFunction(theFileName);
+        super.saveValueFunction(theFileName);
     }
    
 }
\ No newline at end of file
@@ -0,0 +1,11 @@
+package tools.valuefunction.interfaces;
+
+// The result of one step's action selection (see ActionSelector.selectAction). An agent keeps one and passes it in
+// every step, so selecting an action allocates nothing.
+public class ActionSelection {
+
+    public int action;              // the action to take, exploratory or not
+    public int greedyAction;        // a greedy action for the state
+    public boolean actionIsGreedy;  // true if action is amongst the state's greedy actions
+
+}
@@ -9,4 +9,14 @@ public interface ActionSelector {
     
     public boolean isGreedy(int state, int action);
     
+    // A whole step's action selection in one call: fills in selection with the action to take - chosen by
+    // choosePossiblyExploratoryAction(parameter, state) if explore is true, otherwise greedily - along with a greedy
+    // action and whether the action taken is greedy. Tables which can work these out together (see
+    // FusedTournamentSelector) override this; by default it just makes the separate calls.
+    default void selectAction(double parameter, int state, boolean explore, ActionSelection selection) {
+        selection.greedyAction = chooseGreedyAction(state);
+        selection.action = explore ? choosePossiblyExploratoryAction(parameter, state) : selection.greedyAction;
+        selection.actionIsGreedy = selection.action == selection.greedyAction || isGreedy(state, selection.action);
+    }
+    
 }
@@ -1,12 +1,21 @@
 package tools.valuefunction.interfaces;
 
+import java.io.File;
+import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
 import java.util.Random;
 
 import org.rlcommunity.rlglue.codec.types.Reward;
 
+import tools.random.Randoms;
+import tools.random.SplitMix;
 import tools.valuefunction.Softmax;
 import tools.valuefunction.TLO;
+import tools.valuefunction.storage.MappedQValueStorage;
+import tools.valuefunction.storage.QValueStorage;
+import tools.valuefunction.storage.QValueFile;
 
 public abstract class LookupTable extends ValueFunction {
     
@@ -22,35 +31,78 @@ public abstract class LookupTable extends ValueFunction {
 	public static final int SOFTMAX_ADDITIVE_EPSILON = 2;
     protected int explorationStrategy = 0; // default is egreedy
     
-    protected ArrayList<double[][]> valueFunction = null;
+    // the layout new tables' Q-values are stored in, unless their constructor is given another
+    public static final int DEFAULT_LAYOUT = QValueStorage.OBJECTIVE_MAJOR;
+
+    protected QValueStorage valueFunction;
+    // passed to valuesChanged when every state's values may have changed
+    protected static final int ALL_STATES = -1;
     protected double[] errors = null;
+    private boolean compressSavedValues = false;
+    // the Q-values calculateErrors reads, one per objective
+    private final double[] thisQs;
+    private final double[] nextQs;
+    // The blocks of DIRTY_BLOCK_STATES states whose values have changed since takeDirtyBlocks() was last called, a
+    // bit per block, so incremental checkpoints only write what's been learnt since the last one (see
+    // ValueFunctionCheckpointer). Anything writing the storage other than through the table should call
+    // markAllDirty().
+    public static final int DIRTY_BLOCK_STATES = 64;
+    private final long[] dirtyBlocks;
 
     public LookupTable( int numberOfObjectives, int numberOfActions, int numberOfStates, int initValue ) {
+        this(numberOfObjectives, numberOfActions, numberOfStates, initValue, DEFAULT_LAYOUT);
+    }
+
+    // as above, with the Q-values stored in the given QValueStorage layout
+    public LookupTable( int numberOfObjectives, int numberOfActions, int numberOfStates, int initValue, int layout ) {
         this.numberOfObjectives = numberOfObjectives;
         this.numberOfActions = numberOfActions;
         this.numberOfStates = numberOfStates;
-        r = new Random(499);
+        r = SplitMix.derive(Randoms.DEFAULT_SEED, "trial", 0, "valuefunction");
         
-        valueFunction = new ArrayList<>();
-        for(int i=0 ; i<numberOfObjectives ; i++) {
-            double[][] array = new double[numberOfActions][numberOfStates];
-            valueFunction.add( array );
-        }
+        valueFunction = QValueStorage.create(layout, numberOfObjectives, numberOfActions, numberOfStates);
+        checkConcurrent(valueFunction);
         
         if( initValue != 0 ) {
-            for (int i = 0; i < numberOfObjectives; i++) {
-                double[][] array = valueFunction.get(i);
-                for (int j = 0; j < numberOfActions; j++) {
-                    for (int k = 0; k < numberOfStates; k++) {
-                        array[j][k] = initValue;
-                    }
-                }
-            }
+            double[] init = new double[numberOfObjectives];
+            Arrays.fill(init, initValue);
+            valueFunction.fill(init);
         }
         errors = new double[numberOfObjectives];
+        thisQs = new double[numberOfObjectives];
+        nextQs = new double[numberOfObjectives];
+        dirtyBlocks = new long[(getNumberOfDirtyBlocks() + 63) / 64];
+        markAllDirty();
         
     }
     
+    // a deep copy of another table - its values, errors, exploration strategy and the state of its random number stream
+    protected LookupTable( LookupTable other ) {
+        this.numberOfObjectives = other.numberOfObjectives;
+        this.numberOfActions = other.numberOfActions;
+        this.numberOfStates = other.numberOfStates;
+        this.r = Randoms.copy(other.r);
+        this.explorationStrategy = other.explorationStrategy;
+        this.valueFunction = other.valueFunction.copy();
+        errors = other.errors.clone();
+        compressSavedValues = other.compressSavedValues;
+        thisQs = new double[numberOfObjectives];
+        nextQs = new double[numberOfObjectives];
+        dirtyBlocks = other.dirtyBlocks.clone();
+    }
+    
+    // restart the random number stream for a new trial - trial 0 gets the same stream as a newly created table
+    public void reseed(int trial)
+    {
+    	reseed(Randoms.DEFAULT_SEED, trial);
+    }
+
+    // as above, but with the trial's stream derived from the given experiment seed
+    public void reseed(long experimentSeed, int trial)
+    {
+    	r = SplitMix.derive(experimentSeed, "trial", trial, "valuefunction");
+    }
+
     // set the exploration strategy
     public void setExplorationStrategy(int ex)
     {
@@ -102,13 +154,16 @@ public abstract class LookupTable extends ValueFunction {
     	}	
     }
     
+    // The errors and updates read and write all of a state-action pair's objectives at once - through the
+    // storage's bulk getQValues and applyErrors - rather than one get() and set() per objective, so for a storage
+    // holding them side by side each is a single loop over contiguous values.
     @Override
     public void calculateErrors(int action, int previousState, int greedyAction, int newState, double gamma, Reward reward) {
+        valueFunction.getQValues( action, previousState, thisQs );
+        valueFunction.getQValues( greedyAction, newState, nextQs );
         for (int i = 0; i < numberOfObjectives; i++) {
-            double[][] qValues = valueFunction.get(i);
-            
-            double thisQ = qValues[ action ][ previousState ];                        
-            double maxQ = qValues[ greedyAction ][ newState ];
+            double thisQ = thisQs[i];
+            double maxQ = nextQs[i];
             
             double err = getRewardForThisObjective(reward, i) + gamma * maxQ - thisQ;
             
@@ -119,10 +174,9 @@ public abstract class LookupTable extends ValueFunction {
     }
     @Override
     public void calculateTerminalErrors(int action, int previousState, double gamma, Reward reward) {
+        valueFunction.getQValues( action, previousState, thisQs );
         for (int i = 0; i < numberOfObjectives; i++) {
-            double[][] qValues = valueFunction.get(i);
-            
-            double thisQ = qValues[ action ][ previousState ];                        
+            double thisQ = thisQs[i];
             
             errors[i] =  getRewardForThisObjective(reward, i) - thisQ;
             if (debugtrace && i==0)         System.out.println("\t\tCalc terminal errors - prev state, action " + previousState + ", " + action + " = " + thisQ + "-> " + errors[i]);
@@ -160,6 +214,29 @@ public abstract class LookupTable extends ValueFunction {
     }
     */
 
+    // calculateErrors followed by update(action, previousState, 1.0, alpha), the update of the most recent
+    // state-action pair, done as one read-compute-apply of the pair's values - which a concurrent storage makes
+    // atomic (see ConcurrentQValueStorage). The errors are left for updating the rest of the trace, as usual.
+    public void calculateErrorsAndUpdate(int action, int previousState, int greedyAction, int newState, double gamma, Reward reward, double alpha) {
+        valueFunction.getQValues( greedyAction, newState, nextQs );
+        for (int i = 0; i < numberOfObjectives; i++) {
+            nextQs[i] = getRewardForThisObjective(reward, i) + gamma * nextQs[i];
+        }
+        valueFunction.applyTargets( action, previousState, nextQs, 1.0, alpha, errors );
+        if (debugtrace)         System.out.println("\t\tCalc errors and update - prev state, action " + previousState + ", " + action + " new state, action " + newState + ", " + greedyAction + " -> " + errors[0]);
+        valuesUpdated(previousState);
+    }
+
+    // as above, for the last state-action pair of an episode
+    public void calculateTerminalErrorsAndUpdate(int action, int previousState, Reward reward, double alpha) {
+        for (int i = 0; i < numberOfObjectives; i++) {
+            nextQs[i] = getRewardForThisObjective(reward, i);
+        }
+        valueFunction.applyTargets( action, previousState, nextQs, 1.0, alpha, errors );
+        if (debugtrace)         System.out.println("\t\tCalc terminal errors and update - prev state, action " + previousState + ", " + action + " -> " + errors[0]);
+        valuesUpdated(previousState);
+    }
+
     protected double getRewardForThisObjective(Reward reward, int i) {
         return reward.doubleArray[i];
     }
@@ -167,23 +244,42 @@ public abstract class LookupTable extends ValueFunction {
     @Override
     public void update(int action, int state, double lambda, double alpha) {
         //System.out.println("\t\tUpdate - state,action " + state + ", " + action);       
-        for (int i = 0; i < numberOfObjectives; i++) {
-            double[][] qValues = valueFunction.get(i);
-            double thisQ = qValues[ action ][ state ];
+        valueFunction.applyErrors( action, state, errors, lambda, alpha );
+        valuesUpdated(state);
+    }
+
+    private void valuesUpdated(int state) {
+        dirtyBlocks[state >>> 12] |= 1L << (state >>> 6); // block state / 64, a bit in word state / (64 x 64)
+        valuesChanged(state);
+    }
+
+    public int getNumberOfDirtyBlocks() {
+        return (numberOfStates + DIRTY_BLOCK_STATES - 1) / DIRTY_BLOCK_STATES;
+    }
 
-            double newQ = thisQ + alpha * ( lambda * errors[i] );
-            qValues[ action ][ state ] = newQ;
-            //System.out.println(i + ": " + thisQ + " -> " + newQ);
-        }        
+    // The blocks of states changed since the last call, each of states [DIRTY_BLOCK_STATES x block,
+    // DIRTY_BLOCK_STATES x (block + 1)), and start again with none. Every block is dirty to begin with.
+    public BitSet takeDirtyBlocks() {
+        BitSet dirty = BitSet.valueOf(dirtyBlocks);
+        dirty.clear(getNumberOfDirtyBlocks(), Math.max(dirty.length(), getNumberOfDirtyBlocks()));
+        Arrays.fill(dirtyBlocks, 0L);
+        return dirty;
+    }
+
+    // every state has changed, or may have
+    protected void markAllDirty() {
+        Arrays.fill(dirtyBlocks, -1L);
+    }
+
+    // called whenever the Q-values of a state change (or of every state, if state is ALL_STATES), for subclasses
+    // which keep anything worked out from them
+    protected void valuesChanged(int state) {
     }
     
     @Override
     public double[] getQValues(int action, int state) {
         double[] result = new double[ numberOfObjectives ];
-        for (int i = 0; i < numberOfObjectives; i++) {
-            double[][] qValues = valueFunction.get(i);
-            result[i] = qValues[ action ][ state ];
-        }
+        valueFunction.getQValues( action, state, result );
         return result;
     }
     
@@ -196,8 +292,7 @@ public abstract class LookupTable extends ValueFunction {
     		System.out.print("[");
 	        for (int i = 0; i < numberOfObjectives; i++) 
 	        {
-	            double[][] qValues = valueFunction.get(i);
-	            System.out.print(qValues[ action ][ state ]+" ");
+	            System.out.print(valueFunction.get( i, action, state )+" ");
 	        } 
 	        System.out.print("], ");
     	}
@@ -216,23 +311,172 @@ public abstract class LookupTable extends ValueFunction {
         return numberOfStates;
     }
 
+    // the Q-values as [action][state] arrays, one per objective - the table's own arrays for an objective-major
+    // table, otherwise a copy
     public ArrayList<double[][]> getValueFunction() {
+        return valueFunction.toObjectiveMajor();
+    }
+
+    public QValueStorage getStorage() {
         return valueFunction;
     }
+
+    // Move the Q-values into the given file, memory-mapped (see MappedQValueStorage), so the table lives off the heap
+    // and saving it to that file is just a flush
+    public void mapToFile(String theFileName) throws IOException {
+        MappedQValueStorage mapped = MappedQValueStorage.open(new File(theFileName), numberOfObjectives, numberOfActions, numberOfStates);
+        for (int i = 0; i < numberOfObjectives; i++) {
+            for (int a = 0; a < numberOfActions; a++) {
+                for (int s = 0; s < numberOfStates; s++) {
+                    mapped.set(i, a, s, valueFunction.get(i, a, s));
+                }
+            }
+        }
+        mapped.force();
+        valueFunction = mapped;
+    }
+
+    // the thresholds a saved value function records it was learnt with - none, for a table without any
+    public double[] getThresholds() {
+        return new double[0];
+    }
+
+    // Deflate value functions as they're saved - often a third of the size or less, for a few times the
+    // saving time. Loading handles either.
+    public void setCompressSavedValues(boolean compress) {
+        compressSavedValues = compress;
+    }
+
+    public boolean getCompressSavedValues() {
+        return compressSavedValues;
+    }
+
+    // Save the Q-values in the QValueFile format, along with the thresholds - except for a mapped table, which is
+    // flushed if it's being saved to its own file, and otherwise has its mapped pages written out in bulk as a file
+    // of doubles, so the file can be mapped back in
+    public void saveValueFunction(String theFileName) {
+        try {
+            if (valueFunction instanceof MappedQValueStorage) {
+                ((MappedQValueStorage) valueFunction).saveTo(new File(theFileName));
+            } else {
+                double[] thresholds = getThresholds();
+                QValueFile.save(valueFunction, thresholds == null ? new double[0] : thresholds, compressSavedValues,
+                        new File(theFileName));
+            }
+        } catch (IOException ex) {
+            System.err.println("Problem saving value function to file: " + theFileName + " :: " + ex);
+        }
+    }
+
+    // Load a saved value function, converting it into whatever this table stores. A file of the wrong size or a
+    // corrupt one is reported and leaves the table as it was. A legacy file of doubles loaded into a mapped table is
+    // mapped copy-on-write, so its pages are only read as they're needed and the file itself is left alone.
+    public void loadValueFunction(String theFileName) {
+        File file = new File(theFileName);
+        try {
+            if (valueFunction instanceof MappedQValueStorage && !QValueFile.hasHeader(file)) {
+                valueFunction = MappedQValueStorage.openPrivate(file, numberOfObjectives, numberOfActions, numberOfStates);
+            } else {
+                double[] thresholds = loadValues(file);
+                double[] ours = getThresholds();
+                if (thresholds.length > 0 && ours != null && !Arrays.equals(thresholds, ours)) {
+                    System.err.println("Value function " + theFileName + " was learnt with thresholds "
+                            + Arrays.toString(thresholds) + ", not " + Arrays.toString(ours));
+                }
+            }
+            markAllDirty();
+            valuesChanged(ALL_STATES);
+        } catch (IOException ex) {
+            System.err.println("Problem loading value function from file: " + theFileName + " :: " + ex);
+        }
+    }
+
+    // As loadValueFunction, but throwing if the file can't be loaded, e.g. to fall back to an older checkpoint.
+    // Returns the thresholds the file was saved with.
+    public double[] loadValues(File file) throws IOException {
+        QValueStorage loaded = blankStorage();
+        double[] thresholds = QValueFile.loadAny(loaded, file);
+        valueFunction = loaded;
+        markAllDirty();
+        valuesChanged(ALL_STATES);
+        return thresholds;
+    }
+
+    // A new zeroed storage to load this table's values into: the same layout, and for a mapped table a temporary
+    // mapping of its own, so it stays off the heap (MappedQValueStorage.blank() is on the heap)
+    public QValueStorage blankStorage() {
+        if (valueFunction instanceof MappedQValueStorage) {
+            return MappedQValueStorage.createTemporary(numberOfObjectives, numberOfActions, numberOfStates);
+        }
+        return valueFunction.blank();
+    }
+
+    // Replace the Q-values with the given storage, which must be the same size, e.g. one put together from a
+    // checkpoint and the deltas after it
+    public void setStorage(QValueStorage storage) {
+        if (storage.getNumberOfObjectives() != numberOfObjectives || storage.getNumberOfActions() != numberOfActions
+                || storage.getNumberOfStates() != numberOfStates) {
+            throw new IllegalArgumentException("LookupTable - storage of " + storage.getNumberOfObjectives() + " x "
+                    + storage.getNumberOfActions() + " x " + storage.getNumberOfStates() + " values for a table of "
+                    + numberOfObjectives + " x " + numberOfActions + " x " + numberOfStates);
+        }
+        checkConcurrent(storage);
+        valueFunction = storage;
+        markAllDirty();
+        valuesChanged(ALL_STATES);
+    }
+
+    // Whether the table can learn from values other threads are writing at the same time (see
+    // QValueStorage.isConcurrent()) - it mustn't keep anything worked out from them, e.g. cached greedy actions,
+    // since it doesn't see the other threads' updates. Only tables which have been checked for this say yes.
+    protected boolean allowsConcurrentStorage() {
+        return false;
+    }
+
+    private void checkConcurrent(QValueStorage storage) {
+        if (storage.isConcurrent() && !allowsConcurrentStorage()) {
+            throw new IllegalArgumentException(getClass().getSimpleName() + " - can't learn from storage other threads are writing to");
+        }
+    }
+
+    // Move the Q-values into storage of another layout (see QValueStorage)
+    public void changeLayout(int layout) {
+        if (layout == valueFunction.getLayout()) {
+            return;
+        }
+        QValueStorage changed = QValueStorage.create(layout, numberOfObjectives, numberOfActions, numberOfStates);
+        checkConcurrent(changed);
+        for (int i = 0; i < numberOfObjectives; i++) {
+            for (int a = 0; a < numberOfActions; a++) {
+                for (int s = 0; s < numberOfStates; s++) {
+                    changed.set(i, a, s, valueFunction.get(i, a, s));
+                }
+            }
+        }
+        valueFunction = changed;
+    }
+
+    // print every Q-value, as some tables do when they're saved
+    protected void printValueFunction(String theFileName) {
+    	System.out.println(theFileName);
+        for (int s = 0; s < numberOfStates; s++) {
+            for (int a = 0; a < numberOfActions; a++) {
+            	System.out.print("State "+s+"\tAction "+a+"\t");
+            	for (int i = 0; i < numberOfObjectives; i++) {
+                    System.out.print(valueFunction.get(i, a, s) +"\t");
+                }
+            	System.out.println();
+            }
+        }
+    }
     
     // resets all table values to 0
     public void resetQValues(double initValue[])
     {
     	//System.out.println("reset q values");
-        for (int i = 0; i < numberOfObjectives; i++) {
-        	//System.out.println(i + ": " + initValue[i]);
-            double[][] array = valueFunction.get(i);
-            for (int j = 0; j < numberOfActions; j++) {
-                for (int k = 0; k < numberOfStates; k++) {
-                    array[j][k] = initValue[i];
-                }
-            }
-        }   	
+        valueFunction.fill(initValue);
+        markAllDirty();
+        valuesChanged(ALL_STATES);
     }
     
     
@@ -61,11 +61,11 @@ public class ApologeticSatisficingMILookupTable extends LookupTable implements A
 		for (int a=0; a<numberOfActions; a++)
 		{
 			// copy the primary-reward values + accumulated primary reward into the first field
-			thisStateValues[a][0] = valueFunction.get(0)[a][state] + summedPrimaryReward;
+			thisStateValues[a][0] = valueFunction.get(0, a, state) + summedPrimaryReward;
 			// copy the impact1-reward into the second field
-			thisStateValues[a][1] = valueFunction.get(1)[a][state] + summedImpact1; // MI altered
+			thisStateValues[a][1] = valueFunction.get(1, a, state) + summedImpact1; // MI altered
 			// copy the impact2 reward into the third field // MI new
-            thisStateValues[a][2] = valueFunction.get(2)[a][state] + summedImpact2;// MI new
+            thisStateValues[a][2] = valueFunction.get(2, a, state) + summedImpact2;// MI new
 			// ignore the performance-reward values as we shouldn't have access to them anyway
 		}
     }
@@ -134,50 +134,9 @@ public class ApologeticSatisficingMILookupTable extends LookupTable implements A
         this.thresholds = Thresholds.getThresholds();
     }
     
-     public void saveValueFunction(String theFileName) {
-    	System.out.println(theFileName);
-        for (int s = 0; s < numberOfStates; s++) {
-            for (int a = 0; a < numberOfActions; a++) {
-            	System.out.print("State "+s+"\tAction "+a+"\t");         	
-            	for (int i = 0; i < numberOfObjectives; i++) {
-                    System.out.print(valueFunction.get(i)[a][s] +"\t");
-                }
-            	System.out.println();
-            }                
-        }  	
-        try {
-            DataOutputStream DO = new DataOutputStream(new FileOutputStream(new File(theFileName)));
-            for (int i = 0; i < numberOfObjectives; i++) {
-                for (int a = 0; a < numberOfActions; a++) {
-                    for (int s = 0; s < numberOfStates; s++) {
-                        DO.writeDouble( valueFunction.get(i)[a][s] );
-                    }
-                }                
-            }
-            DO.close();
-        } catch (FileNotFoundException ex) {
-            System.err.println("Problem saving value function to file: " + theFileName + " :: " + ex);
-        } catch (IOException ex) {
-            System.err.println("Problem writing value function to file:: " + ex);
-        }
-    }
-    
-    public void loadValueFunction(String theFileName) {
-        try {
-            DataInputStream DI = new DataInputStream(new FileInputStream(new File(theFileName)));
-            for (int i = 0; i < numberOfObjectives; i++) {
-                for (int a = 0; a < numberOfActions; a++) {
-                    for (int s = 0; s < numberOfStates; s++) {
-                        valueFunction.get(i)[a][s] = DI.readDouble();
-                    }
-                }                
-            }
-            DI.close();
-        } catch (FileNotFoundException ex) {
-            System.err.println("Problem loading value function from file: " + theFileName + " :: " + ex);
-        } catch (IOException ex) {
-            System.err.println("Problem reading value function from file:: " + ex);
-        }
+    public void saveValueFunction(String theFileName) {
+        printValueFunction(theFileName);
+        super.saveValueFunction(theFileName);
     }
    
 }
\ No newline at end of file
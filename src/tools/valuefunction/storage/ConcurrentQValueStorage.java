@@ -0,0 +1,288 @@
+// Q-values laid out [state][action][objective] as in StateMajorStorage, which several threads can learn into at
+// once - e.g. the workers of a ParallelActorLearner, each with its own table, trace and environment, all updating
+// the one set of values. Each value is held as the bits of a double in an AtomicLongArray, so a read never sees half
+// of a write. How concurrent updates to the same state are reconciled is the write mode:
+//   HOGWILD - each TD update reads, adds and writes each value without any locking, as in Hogwild! (Niu et al.):
+//             two workers updating the same value at the same instant can lose one update, which for sparse
+//             updates costs little, and in return nothing ever waits
+//   ATOMIC  - each value's update is a compare-and-set loop, so no update is lost, though a state's objectives are
+//             still updated one at a time. The most recent pair's update (applyTargets) works its error out from
+//             the value it replaces, so each objective's TD step is exact.
+//   LOCKED  - striped per-state locks: a state-action pair's update, and every read of a state's values for action
+//             selection, happens whole, so no update is lost and TLO never compares objectives from different
+//             updates. The most recent pair's update holds its state's lock from reading the pair's values,
+//             through working out the errors, to writing them back, so the pair's TD step is exactly the one a
+//             single thread would make from the values it finds.
+// What no mode makes atomic is everything around that: the next state's values are read beforehand, and the rest
+// of a worker's trace (each worker has its own) is updated afterwards with the same errors, each under its own
+// state's lock at most - another worker can change any of those in between. So learning on many threads still
+// isn't step for step what it would be on one.
+// get() and set() of a single value never lock. fill() and copy() are for when no worker is writing - a copy taken
+// while they are is a mix of before and after (though in LOCKED mode each state's values are copied whole).
+
+package tools.valuefunction.storage;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+public class ConcurrentQValueStorage extends QValueStorage
+{
+    // the write modes
+    public static final int HOGWILD = 0;
+    public static final int ATOMIC = 1;
+    public static final int LOCKED = 2;
+
+    private static final int LOCK_STRIPES = 256; // a power of two - consecutive states get different locks
+
+    private final AtomicLongArray values;
+    private final int stateStride;
+    private final int mode;
+    private final Object[] locks;
+
+    public ConcurrentQValueStorage(int numberOfObjectives, int numberOfActions, int numberOfStates)
+    {
+        this(numberOfObjectives, numberOfActions, numberOfStates, HOGWILD);
+    }
+
+    public ConcurrentQValueStorage(int numberOfObjectives, int numberOfActions, int numberOfStates, int mode)
+    {
+        super(numberOfObjectives, numberOfActions, numberOfStates);
+        if (mode < HOGWILD || mode > LOCKED)
+        {
+            throw new IllegalArgumentException("ConcurrentQValueStorage - unknown write mode " + mode);
+        }
+        stateStride = numberOfActions * numberOfObjectives;
+        values = new AtomicLongArray(numberOfStates * stateStride);
+        this.mode = mode;
+        if (mode == LOCKED)
+        {
+            locks = new Object[LOCK_STRIPES];
+            for (int k = 0; k < LOCK_STRIPES; k++)
+            {
+                locks[k] = new Object();
+            }
+        }
+        else
+        {
+            locks = null;
+        }
+    }
+
+    public static String modeToString(int mode)
+    {
+        switch (mode)
+        {
+            case HOGWILD: return "hogwild";
+            case ATOMIC: return "atomic";
+            case LOCKED: return "locked";
+            default: return "Unknown";
+        }
+    }
+
+    public int getMode()
+    {
+        return mode;
+    }
+
+    private int index(int objective, int action, int state)
+    {
+        return state * stateStride + action * numberOfObjectives + objective;
+    }
+
+    private Object lock(int state)
+    {
+        return locks[state & (LOCK_STRIPES - 1)];
+    }
+
+    @Override
+    public int getLayout()
+    {
+        return CONCURRENT;
+    }
+
+    @Override
+    public boolean isConcurrent()
+    {
+        return true;
+    }
+
+    // a new storage of the same size and write mode, all zeros
+    @Override
+    public QValueStorage blank()
+    {
+        return new ConcurrentQValueStorage(numberOfObjectives, numberOfActions, numberOfStates, mode);
+    }
+
+    @Override
+    public double get(int objective, int action, int state)
+    {
+        return Double.longBitsToDouble(values.get(index(objective, action, state)));
+    }
+
+    @Override
+    public void set(int objective, int action, int state, double value)
+    {
+        values.set(index(objective, action, state), Double.doubleToRawLongBits(value));
+    }
+
+    @Override
+    public QValueStorage copy()
+    {
+        ConcurrentQValueStorage copy = (ConcurrentQValueStorage) blank();
+        for (int s = 0; s < numberOfStates; s++)
+        {
+            if (locks != null)
+            {
+                synchronized (lock(s))
+                {
+                    copyState(s, copy);
+                }
+            }
+            else
+            {
+                copyState(s, copy);
+            }
+        }
+        return copy;
+    }
+
+    private void copyState(int state, ConcurrentQValueStorage copy)
+    {
+        int base = state * stateStride;
+        for (int k = base; k < base + stateStride; k++)
+        {
+            copy.values.lazySet(k, values.get(k));
+        }
+    }
+
+    @Override
+    public void getQValues(int action, int state, double[] result)
+    {
+        if (locks != null)
+        {
+            synchronized (lock(state))
+            {
+                readQValues(index(0, action, state), result);
+            }
+        }
+        else
+        {
+            readQValues(index(0, action, state), result);
+        }
+    }
+
+    private void readQValues(int base, double[] result)
+    {
+        int n = Math.min(numberOfObjectives, result.length);
+        for (int i = 0; i < n; i++)
+        {
+            result[i] = Double.longBitsToDouble(values.get(base + i));
+        }
+    }
+
+    @Override
+    public void getActionValues(int state, double[][] result)
+    {
+        int base = state * stateStride;
+        if (locks != null)
+        {
+            synchronized (lock(state))
+            {
+                for (int a = 0; a < numberOfActions; a++)
+                {
+                    readQValues(base + a * numberOfObjectives, result[a]);
+                }
+            }
+        }
+        else
+        {
+            for (int a = 0; a < numberOfActions; a++)
+            {
+                readQValues(base + a * numberOfObjectives, result[a]);
+            }
+        }
+    }
+
+    @Override
+    public void applyErrors(int action, int state, double[] errors, double lambda, double alpha)
+    {
+        int base = index(0, action, state);
+        switch (mode)
+        {
+            case HOGWILD:
+                for (int i = 0; i < numberOfObjectives; i++)
+                {
+                    double value = Double.longBitsToDouble(values.get(base + i)) + alpha * (lambda * errors[i]);
+                    values.lazySet(base + i, Double.doubleToRawLongBits(value));
+                }
+                break;
+            case ATOMIC:
+                for (int i = 0; i < numberOfObjectives; i++)
+                {
+                    double change = alpha * (lambda * errors[i]);
+                    long bits;
+                    do
+                    {
+                        bits = values.get(base + i);
+                    }
+                    while (!values.compareAndSet(base + i, bits,
+                            Double.doubleToRawLongBits(Double.longBitsToDouble(bits) + change)));
+                }
+                break;
+            default:
+                synchronized (lock(state))
+                {
+                    for (int i = 0; i < numberOfObjectives; i++)
+                    {
+                        double value = Double.longBitsToDouble(values.get(base + i)) + alpha * (lambda * errors[i]);
+                        values.lazySet(base + i, Double.doubleToRawLongBits(value));
+                    }
+                }
+        }
+    }
+
+    @Override
+    public void applyTargets(int action, int state, double[] targets, double lambda, double alpha, double[] errors)
+    {
+        int base = index(0, action, state);
+        switch (mode)
+        {
+            case HOGWILD:
+                super.applyTargets(action, state, targets, lambda, alpha, errors);
+                break;
+            case ATOMIC:
+                for (int i = 0; i < numberOfObjectives; i++)
+                {
+                    long bits;
+                    double value;
+                    do
+                    {
+                        bits = values.get(base + i);
+                        value = Double.longBitsToDouble(bits);
+                        errors[i] = targets[i] - value;
+                    }
+                    while (!values.compareAndSet(base + i, bits,
+                            Double.doubleToRawLongBits(value + alpha * (lambda * errors[i]))));
+                }
+                break;
+            default:
+                synchronized (lock(state))
+                {
+                    for (int i = 0; i < numberOfObjectives; i++)
+                    {
+                        double value = Double.longBitsToDouble(values.get(base + i));
+                        errors[i] = targets[i] - value;
+                        values.lazySet(base + i, Double.doubleToRawLongBits(value + alpha * (lambda * errors[i])));
+                    }
+                }
+        }
+    }
+
+    @Override
+    public void fill(double[] initValue)
+    {
+        for (int k = 0; k < values.length(); k++)
+        {
+            values.set(k, Double.doubleToRawLongBits(initValue[k % numberOfObjectives]));
+        }
+    }
+}
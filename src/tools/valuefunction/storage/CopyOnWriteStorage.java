@@ -0,0 +1,150 @@
+// Q-values laid out [state][action][objective] as in StateMajorStorage, but split into pages of a few hundred states
+// which copies share until one of them writes to a page - so copy() costs a pointer per page rather than a copy of
+// every value. Its point is checkpointing while learning carries on (see ValueFunctionCheckpointer): a copy taken
+// between episodes can be saved by another thread, since pages are never changed once shared - whichever storage
+// writes next gets a page of its own first. Each storage stamps the pages it owns with its current epoch, and
+// copying moves both storages on to a new one, so owning a page is a single comparison per write.
+
+package tools.valuefunction.storage;
+
+public class CopyOnWriteStorage extends QValueStorage
+{
+    private static final int PAGE_VALUES = 4096; // about how many values a page holds
+
+    private final int stateStride;
+    private final int pageShift; // log2 of states per page
+    private final int pageMask;
+    private final double[][] pages;
+    private final int[] pageEpochs; // the epoch each page was made ours in
+    private int epoch = 1;
+
+    public CopyOnWriteStorage(int numberOfObjectives, int numberOfActions, int numberOfStates)
+    {
+        super(numberOfObjectives, numberOfActions, numberOfStates);
+        stateStride = numberOfActions * numberOfObjectives;
+        int statesPerPage = Integer.highestOneBit(Math.max(1, PAGE_VALUES / Math.max(1, stateStride)));
+        pageShift = Integer.numberOfTrailingZeros(statesPerPage);
+        pageMask = statesPerPage - 1;
+        pages = new double[(numberOfStates + statesPerPage - 1) >> pageShift][];
+        pageEpochs = new int[pages.length];
+        for (int p = 0; p < pages.length; p++)
+        {
+            pages[p] = new double[Math.min(statesPerPage, numberOfStates - (p << pageShift)) * stateStride];
+            pageEpochs[p] = epoch;
+        }
+    }
+
+    // a copy sharing every page of other
+    private CopyOnWriteStorage(CopyOnWriteStorage other)
+    {
+        super(other.numberOfObjectives, other.numberOfActions, other.numberOfStates);
+        stateStride = other.stateStride;
+        pageShift = other.pageShift;
+        pageMask = other.pageMask;
+        pages = other.pages.clone();
+        pageEpochs = new int[pages.length]; // owning none of them
+    }
+
+    private int offset(int objective, int action, int state)
+    {
+        return (state & pageMask) * stateStride + action * numberOfObjectives + objective;
+    }
+
+    // the state's page, copied first if it's shared
+    private double[] writablePage(int state)
+    {
+        int p = state >> pageShift;
+        if (pageEpochs[p] != epoch)
+        {
+            pages[p] = pages[p].clone();
+            pageEpochs[p] = epoch;
+        }
+        return pages[p];
+    }
+
+    @Override
+    public int getLayout()
+    {
+        return COPY_ON_WRITE;
+    }
+
+    @Override
+    public double get(int objective, int action, int state)
+    {
+        return pages[state >> pageShift][offset(objective, action, state)];
+    }
+
+    @Override
+    public void set(int objective, int action, int state, double value)
+    {
+        writablePage(state)[offset(objective, action, state)] = value;
+    }
+
+    // A copy sharing all of these pages, so it's cheap to take, and which another thread can read - e.g. to save it
+    // - while this storage carries on being written
+    @Override
+    public QValueStorage copy()
+    {
+        epoch++;
+        return new CopyOnWriteStorage(this);
+    }
+
+    @Override
+    public void getQValues(int action, int state, double[] result)
+    {
+        System.arraycopy(pages[state >> pageShift], offset(0, action, state), result, 0,
+                Math.min(numberOfObjectives, result.length));
+    }
+
+    @Override
+    public void applyErrors(int action, int state, double[] errors, double lambda, double alpha)
+    {
+        double[] page = writablePage(state);
+        int base = offset(0, action, state);
+        for (int i = 0; i < numberOfObjectives; i++)
+        {
+            page[base + i] += alpha * (lambda * errors[i]);
+        }
+    }
+
+    @Override
+    public void getActionValues(int state, double[][] result)
+    {
+        double[] page = pages[state >> pageShift];
+        int base = (state & pageMask) * stateStride;
+        for (int a = 0; a < numberOfActions; a++)
+        {
+            System.arraycopy(page, base + a * numberOfObjectives, result[a], 0, Math.min(numberOfObjectives, result[a].length));
+        }
+    }
+
+    // every page is overwritten, so rather than copying shared ones first, each gets a new one
+    @Override
+    public void fill(double[] initValue)
+    {
+        for (int p = 0; p < pages.length; p++)
+        {
+            double[] page = new double[pages[p].length];
+            for (int k = 0; k < page.length; k += numberOfObjectives)
+            {
+                System.arraycopy(initValue, 0, page, k, numberOfObjectives);
+            }
+            pages[p] = page;
+            pageEpochs[p] = epoch;
+        }
+    }
+
+    // how many pages haven't been written since the last copy was taken, so would be copied before being written
+    public int getSharedPageCount()
+    {
+        int shared = 0;
+        for (int stamp : pageEpochs)
+        {
+            if (stamp != epoch)
+            {
+                shared++;
+            }
+        }
+        return shared;
+    }
+}
@@ -0,0 +1,76 @@
+// Q-values as 32-bit floats in one flat array laid out [state][action][objective], as StateMajorStorage, for half
+// the memory of doubles. Values are widened back to double whenever they're read, so the TD error and update are
+// still calculated in double precision - only the stored result is rounded, to about 7 significant figures. NaN and
+// infinities are kept as they are, as in the double layouts.
+
+package tools.valuefunction.storage;
+
+public class Float32Storage extends QValueStorage
+{
+    private final float[] values;
+    private final int stateStride;
+
+    public Float32Storage(int numberOfObjectives, int numberOfActions, int numberOfStates)
+    {
+        super(numberOfObjectives, numberOfActions, numberOfStates);
+        stateStride = numberOfActions * numberOfObjectives;
+        values = new float[numberOfStates * stateStride];
+    }
+
+    private Float32Storage(Float32Storage other)
+    {
+        super(other.numberOfObjectives, other.numberOfActions, other.numberOfStates);
+        stateStride = other.stateStride;
+        values = other.values.clone();
+    }
+
+    private int index(int objective, int action, int state)
+    {
+        return state * stateStride + action * numberOfObjectives + objective;
+    }
+
+    @Override
+    public int getLayout()
+    {
+        return FLOAT32;
+    }
+
+    @Override
+    public double get(int objective, int action, int state)
+    {
+        return values[index(objective, action, state)];
+    }
+
+    @Override
+    public void set(int objective, int action, int state, double value)
+    {
+        values[index(objective, action, state)] = (float) value;
+    }
+
+    @Override
+    public QValueStorage copy()
+    {
+        return new Float32Storage(this);
+    }
+
+    @Override
+    public void getQValues(int action, int state, double[] result)
+    {
+        int base = index(0, action, state);
+        int n = Math.min(numberOfObjectives, result.length);
+        for (int i = 0; i < n; i++)
+        {
+            result[i] = values[base + i];
+        }
+    }
+
+    @Override
+    public void applyErrors(int action, int state, double[] errors, double lambda, double alpha)
+    {
+        int base = index(0, action, state);
+        for (int i = 0; i < numberOfObjectives; i++)
+        {
+            values[base + i] = (float) (values[base + i] + alpha * (lambda * errors[i]));
+        }
+    }
+}
@@ -0,0 +1,140 @@
+// Q-values as 16-bit fixed-point numbers in one flat array laid out [state][action][objective], for a quarter of the
+// memory of doubles. Each objective has its own scale: a value v is stored as round(v * scale), so the objective's
+// values are held to within 0.5 / scale, anywhere in +/- 32767 / scale. Scales are powers of two, starting at
+// INITIAL_SCALE; when a value too big for its objective's range is stored, the scale is halved - and every value
+// of that objective shifted down to match - until it fits. The range only ever grows, and only a few times per
+// table, since the Q-values of our problems are bounded by the size of their rewards.
+// Values are widened back to double whenever they're read, so the TD error and update are still calculated in
+// double precision. An update smaller than half the resolution is lost, though, so this is for tables whose
+// learning rate times reward is well above that - with rewards like -1 and 50, the default of 1/2048 is plenty.
+// There's no fixed-point NaN or infinity, so storing either is an IllegalArgumentException rather than a silent 0.
+
+package tools.valuefunction.storage;
+
+import java.util.Arrays;
+
+public class Int16Storage extends QValueStorage
+{
+    public static final double INITIAL_SCALE = 1024;
+
+    private final short[] values;
+    private final double[] scales;
+    private final double[] inverseScales;
+    private final int stateStride;
+
+    public Int16Storage(int numberOfObjectives, int numberOfActions, int numberOfStates)
+    {
+        super(numberOfObjectives, numberOfActions, numberOfStates);
+        stateStride = numberOfActions * numberOfObjectives;
+        values = new short[numberOfStates * stateStride];
+        scales = new double[numberOfObjectives];
+        inverseScales = new double[numberOfObjectives];
+        for (int i = 0; i < numberOfObjectives; i++)
+        {
+            setScale(i, INITIAL_SCALE);
+        }
+    }
+
+    private Int16Storage(Int16Storage other)
+    {
+        super(other.numberOfObjectives, other.numberOfActions, other.numberOfStates);
+        stateStride = other.stateStride;
+        values = other.values.clone();
+        scales = other.scales.clone();
+        inverseScales = other.inverseScales.clone();
+    }
+
+    private int index(int objective, int action, int state)
+    {
+        return state * stateStride + action * numberOfObjectives + objective;
+    }
+
+    @Override
+    public int getLayout()
+    {
+        return INT16;
+    }
+
+    @Override
+    public double get(int objective, int action, int state)
+    {
+        return values[index(objective, action, state)] * inverseScales[objective];
+    }
+
+    @Override
+    public void set(int objective, int action, int state, double value)
+    {
+        if (Double.isNaN(value) || Double.isInfinite(value))
+        {
+            throw new IllegalArgumentException("Int16Storage - objective " + objective + " can't hold " + value);
+        }
+        long q = Math.round(value * scales[objective]);
+        while (q > Short.MAX_VALUE || q < -Short.MAX_VALUE)
+        {
+            widen(objective);
+            q = Math.round(value * scales[objective]);
+        }
+        values[index(objective, action, state)] = (short) q;
+    }
+
+    // halve an objective's scale, doubling its range, and shift its stored values to match
+    private void widen(int objective)
+    {
+        for (int k = objective; k < values.length; k += numberOfObjectives)
+        {
+            values[k] = (short) Math.round(values[k] * 0.5);
+        }
+        setScale(objective, scales[objective] * 0.5);
+    }
+
+    @Override
+    public QValueStorage copy()
+    {
+        return new Int16Storage(this);
+    }
+
+    @Override
+    public void getQValues(int action, int state, double[] result)
+    {
+        int base = index(0, action, state);
+        int n = Math.min(numberOfObjectives, result.length);
+        for (int i = 0; i < n; i++)
+        {
+            result[i] = values[base + i] * inverseScales[i];
+        }
+    }
+
+    // Start every objective back at INITIAL_SCALE, so a table reset for a new trial doesn't depend on the last one
+    @Override
+    public void fill(double[] initValue)
+    {
+        Arrays.fill(values, (short) 0);
+        for (int i = 0; i < numberOfObjectives; i++)
+        {
+            setScale(i, INITIAL_SCALE);
+        }
+        super.fill(initValue);
+    }
+
+    public double getScale(int objective)
+    {
+        return scales[objective];
+    }
+
+    // for QValueFile, which saves the stored values as they are
+    void setScale(int objective, double scale)
+    {
+        scales[objective] = scale;
+        inverseScales[objective] = 1 / scale;
+    }
+
+    short getRaw(int objective, int action, int state)
+    {
+        return values[index(objective, action, state)];
+    }
+
+    void setRaw(int objective, int action, int state, short value)
+    {
+        values[index(objective, action, state)] = value;
+    }
+}
@@ -0,0 +1,212 @@
+// Q-values kept off the heap, in a file mapped into memory. The file holds big-endian doubles in [objective][action]
+// [state] order - the legacy format LookupTable.saveValueFunction used to write, and still writes for a mapped
+// table (see QValueFile) - so a saved value function can be mapped straight back in, with pages read from disk as
+// they're first touched rather than all up front, and a table can be bigger than the heap. Files over 1GB are mapped
+// in 1GB chunks.
+// A table opened with open() writes through to its file, so saving it to that file is just force(). One opened
+// with openPrivate() (e.g. by loadValueFunction) is copy-on-write: changes stay in memory and the file isn't
+// touched unless the table is saved to it.
+// Java 8 has no way to unmap a file - the mapping goes when the storage is garbage collected. So a temporary table's
+// file is deleted as soon as it's mapped, leaving the space to be freed along with the mapping, and copy() and blank()
+// give an ordinary StateMajorStorage on the heap rather than mapping yet another file for every checkpoint snapshot
+// or value function being averaged.
+
+package tools.valuefunction.storage;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+public class MappedQValueStorage extends QValueStorage
+{
+    private static final int CHUNK_SHIFT = 27; // doubles per chunk = 2^27, i.e. 1GB
+    private static final long CHUNK_MASK = (1L << CHUNK_SHIFT) - 1;
+
+    private final File file;
+    private final boolean shared;
+    private final MappedByteBuffer[] chunks;
+
+    private MappedQValueStorage(File file, boolean shared, int numberOfObjectives, int numberOfActions,
+                                int numberOfStates) throws IOException
+    {
+        super(numberOfObjectives, numberOfActions, numberOfStates);
+        this.file = file;
+        this.shared = shared;
+        long numValues = (long) numberOfObjectives * numberOfActions * numberOfStates;
+        long bytes = numValues * 8;
+        // a private mapping needs a writable channel too, although nothing is ever written through it
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try
+        {
+            if (shared && raf.length() < bytes)
+            {
+                raf.setLength(bytes);
+            }
+            else if (!shared && raf.length() < bytes)
+            {
+                throw new IOException("MappedQValueStorage - " + file + " holds " + raf.length() / 8
+                        + " values, not " + numValues);
+            }
+            FileChannel channel = raf.getChannel();
+            int numChunks = (int) ((numValues + CHUNK_MASK) >>> CHUNK_SHIFT);
+            chunks = new MappedByteBuffer[numChunks];
+            for (int c = 0; c < numChunks; c++)
+            {
+                long start = ((long) c << CHUNK_SHIFT) * 8;
+                chunks[c] = channel.map(shared ? FileChannel.MapMode.READ_WRITE : FileChannel.MapMode.PRIVATE,
+                        start, Math.min(bytes - start, (CHUNK_MASK + 1) * 8));
+            }
+        }
+        finally
+        {
+            raf.close(); // the mappings stay valid
+        }
+    }
+
+    // Map a table's file, creating it (all zeros) or extending it if need be. Changes are written through to the file.
+    public static MappedQValueStorage open(File file, int numberOfObjectives, int numberOfActions, int numberOfStates)
+            throws IOException
+    {
+        return new MappedQValueStorage(file, true, numberOfObjectives, numberOfActions, numberOfStates);
+    }
+
+    // Map an existing value function file copy-on-write, so changes to the table never reach the file
+    public static MappedQValueStorage openPrivate(File file, int numberOfObjectives, int numberOfActions,
+                                                  int numberOfStates) throws IOException
+    {
+        return new MappedQValueStorage(file, false, numberOfObjectives, numberOfActions, numberOfStates);
+    }
+
+    // A zeroed table in a temporary file. The file is deleted once it's mapped (or, where a mapped file can't be
+    // deleted, when the JVM exits), so its space goes when the table is garbage collected.
+    public static MappedQValueStorage createTemporary(int numberOfObjectives, int numberOfActions, int numberOfStates)
+    {
+        try
+        {
+            File temp = File.createTempFile("QValues", ".vf");
+            try
+            {
+                return open(temp, numberOfObjectives, numberOfActions, numberOfStates);
+            }
+            finally
+            {
+                if (!temp.delete())
+                {
+                    temp.deleteOnExit();
+                }
+            }
+        }
+        catch (IOException e)
+        {
+            throw new IllegalStateException("MappedQValueStorage - unable to create a temporary table", e);
+        }
+    }
+
+    private long index(int objective, int action, int state)
+    {
+        return ((long) objective * numberOfActions + action) * numberOfStates + state;
+    }
+
+    @Override
+    public int getLayout()
+    {
+        return MAPPED;
+    }
+
+    @Override
+    public double get(int objective, int action, int state)
+    {
+        long i = index(objective, action, state);
+        return chunks[(int) (i >>> CHUNK_SHIFT)].getDouble((int) (i & CHUNK_MASK) << 3);
+    }
+
+    @Override
+    public void set(int objective, int action, int state, double value)
+    {
+        long i = index(objective, action, state);
+        chunks[(int) (i >>> CHUNK_SHIFT)].putDouble((int) (i & CHUNK_MASK) << 3, value);
+    }
+
+    // A copy on the heap, laid out state-major
+    @Override
+    public QValueStorage copy()
+    {
+        StateMajorStorage copy = new StateMajorStorage(numberOfObjectives, numberOfActions, numberOfStates);
+        for (int i = 0; i < numberOfObjectives; i++)
+        {
+            for (int a = 0; a < numberOfActions; a++)
+            {
+                for (int s = 0; s < numberOfStates; s++)
+                {
+                    copy.set(i, a, s, get(i, a, s));
+                }
+            }
+        }
+        return copy;
+    }
+
+    // A zeroed table on the heap, laid out state-major
+    @Override
+    public QValueStorage blank()
+    {
+        return new StateMajorStorage(numberOfObjectives, numberOfActions, numberOfStates);
+    }
+
+    // Write any changes still in memory out to the file. Does nothing for a copy-on-write table.
+    public void force()
+    {
+        if (shared)
+        {
+            for (MappedByteBuffer chunk : chunks)
+            {
+                chunk.force();
+            }
+        }
+    }
+
+    // Save the values to a file in the usual value function format. For the table's own file that's just force();
+    // for any other file, the mapped pages are written out in bulk.
+    public void saveTo(File target) throws IOException
+    {
+        if (shared && target.getCanonicalFile().equals(file.getCanonicalFile()))
+        {
+            force();
+            return;
+        }
+        RandomAccessFile raf = new RandomAccessFile(target, "rw");
+        try
+        {
+            // overwrite rather than truncate first - the target may be the file this table was loaded from, and
+            // touching a mapped page beyond the end of its file is fatal
+            FileChannel channel = raf.getChannel();
+            for (MappedByteBuffer chunk : chunks)
+            {
+                ByteBuffer b = chunk.duplicate();
+                b.clear();
+                while (b.hasRemaining())
+                {
+                    channel.write(b);
+                }
+            }
+            raf.setLength(channel.position());
+        }
+        finally
+        {
+            raf.close();
+        }
+    }
+
+    public File getFile()
+    {
+        return file;
+    }
+
+    // true if changes are written through to the file
+    public boolean isShared()
+    {
+        return shared;
+    }
+}
@@ -0,0 +1,75 @@
+// Q-values laid out [objective][action][state], a separate array for each objective and action - the layout
+// LookupTable has always used.
+
+package tools.valuefunction.storage;
+
+import java.util.ArrayList;
+
+public class ObjectiveMajorStorage extends QValueStorage
+{
+    private final double[][][] values;
+
+    public ObjectiveMajorStorage(int numberOfObjectives, int numberOfActions, int numberOfStates)
+    {
+        super(numberOfObjectives, numberOfActions, numberOfStates);
+        values = new double[numberOfObjectives][numberOfActions][numberOfStates];
+    }
+
+    private ObjectiveMajorStorage(ObjectiveMajorStorage other)
+    {
+        super(other.numberOfObjectives, other.numberOfActions, other.numberOfStates);
+        values = new double[numberOfObjectives][numberOfActions][];
+        for (int i = 0; i < numberOfObjectives; i++)
+        {
+            for (int a = 0; a < numberOfActions; a++)
+            {
+                values[i][a] = other.values[i][a].clone();
+            }
+        }
+    }
+
+    @Override
+    public int getLayout()
+    {
+        return OBJECTIVE_MAJOR;
+    }
+
+    @Override
+    public double get(int objective, int action, int state)
+    {
+        return values[objective][action][state];
+    }
+
+    @Override
+    public void set(int objective, int action, int state, double value)
+    {
+        values[objective][action][state] = value;
+    }
+
+    @Override
+    public QValueStorage copy()
+    {
+        return new ObjectiveMajorStorage(this);
+    }
+
+    @Override
+    public void applyErrors(int action, int state, double[] errors, double lambda, double alpha)
+    {
+        for (int i = 0; i < numberOfObjectives; i++)
+        {
+            values[i][action][state] += alpha * (lambda * errors[i]);
+        }
+    }
+
+    // the arrays themselves, so changes to them are changes to the table
+    @Override
+    public ArrayList<double[][]> toObjectiveMajor()
+    {
+        ArrayList<double[][]> list = new ArrayList<>();
+        for (double[][] array : values)
+        {
+            list.add(array);
+        }
+        return list;
+    }
+}
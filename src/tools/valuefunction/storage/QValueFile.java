@@ -0,0 +1,1172 @@
+// The value function file format. A file starts with a header recording what it holds, so loading it into a table
+// of the wrong size is an error rather than garbage:
+//   long   MAGIC - a NaN bit pattern, so it can't be mistaken for the first Q-value of a legacy file of doubles
+//   int    VERSION
+//   int    layout of the storage it was saved from (QValueStorage.OBJECTIVE_MAJOR etc.)
+//   int    precision - bytes per stored value: 8 (doubles), 4 (FLOAT32) or 2 (INT16)
+//   int    flags - DEFLATE if the body is compressed, DELTA if it only holds some blocks of states (see below)
+//   int    numberOfObjectives, numberOfActions, numberOfStates
+//   int    number of thresholds, then the thresholds (doubles) of the table it was saved from
+//   long   length of the body as stored, and uncompressed
+// then the body, deflated if the flag is set:
+//   SPARSE: the value of each objective in an unpopulated state (doubles), the number of populated states (int),
+//           then for each of those its state (int) and values (doubles) in [action][objective] order
+//   INT16:  the scale of each objective (doubles), then the values in [objective][action][state] order as shorts
+//   others: the values in [objective][action][state] order, as floats for FLOAT32 and doubles otherwise
+//   DELTA:  the values of just some blocks of states, as changed since an earlier file, with layout STATE_MAJOR:
+//           the states per block (int), the number of blocks (int), then for each block in increasing order its
+//           index (int) and the values (doubles) of its states in [state][action][objective] order
+// and finally a CRC32 (int) of the uncompressed body followed by the header.
+// Everything goes through a FileChannel a buffer at a time rather than a value at a time, and is written to a
+// temporary file which is then renamed over the target, so a reader never sees a partly written file and a save
+// that fails leaves the old one in place.
+// load() also reads version 1 files, the same header without precision, flags, thresholds or lengths and with an
+// uncompressed, unchecked body, and loadAny() reads the legacy files LookupTable.saveValueFunction used to write -
+// just the doubles, in [objective][action][state] order. Any storage can load any of these files - values are
+// converted to whatever it stores. Reader and Writer stream them a chunk at a time instead, for tables which needn't
+// be in memory all at once. A delta can't be loaded by itself - applyDelta() writes its blocks over a storage
+// holding the file it follows on from (see ValueFunctionCheckpointer).
+
+package tools.valuefunction.storage;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.BitSet;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+public class QValueFile
+{
+    public static final long MAGIC = 0x7FF8_5156_4631_0000L;
+    public static final int VERSION = 2;
+    // flags
+    public static final int DEFLATE = 1;
+    public static final int DELTA = 2;
+
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    private QValueFile()
+    {
+    }
+
+    // true if the file starts with a header, i.e. was written by save()
+    public static boolean hasHeader(File file) throws IOException
+    {
+        if (file.length() < 8)
+        {
+            return false;
+        }
+        DataInputStream in = new DataInputStream(new FileInputStream(file));
+        try
+        {
+            return in.readLong() == MAGIC;
+        }
+        finally
+        {
+            in.close();
+        }
+    }
+
+    public static void save(QValueStorage storage, File file) throws IOException
+    {
+        save(storage, new double[0], false, file);
+    }
+
+    // Save the storage's values, along with the thresholds of the table they belong to, deflating the body if
+    // compress is set
+    public static void save(QValueStorage storage, double[] thresholds, boolean compress, File file) throws IOException
+    {
+        Writer writer = new Writer(file, storage.getLayout(), storage.numberOfObjectives, storage.numberOfActions,
+                storage.numberOfStates, thresholds, compress, 0);
+        try
+        {
+            if (storage.getLayout() == QValueStorage.SPARSE)
+            {
+                writeSparse((SparseQValueStorage) storage, writer.body);
+            }
+            else
+            {
+                writeDense(storage, writer.body);
+            }
+            writer.close();
+        }
+        finally
+        {
+            writer.abort();
+        }
+    }
+
+    // bytes per value in a file saved from a storage with this layout
+    public static int getPrecision(int layout)
+    {
+        return layout == QValueStorage.FLOAT32 ? 4 : layout == QValueStorage.INT16 ? 2 : 8;
+    }
+
+    private static void writeDense(QValueStorage storage, BodyWriter body) throws IOException
+    {
+        int layout = storage.getLayout();
+        Int16Storage int16 = layout == QValueStorage.INT16 ? (Int16Storage) storage : null;
+        if (int16 != null)
+        {
+            for (int i = 0; i < storage.numberOfObjectives; i++)
+            {
+                body.reserve(8).putDouble(int16.getScale(i));
+            }
+        }
+        int precision = getPrecision(layout);
+        for (int i = 0; i < storage.numberOfObjectives; i++)
+        {
+            for (int a = 0; a < storage.numberOfActions; a++)
+            {
+                for (int s = 0; s < storage.numberOfStates; s++)
+                {
+                    ByteBuffer buffer = body.reserve(precision);
+                    if (int16 != null)
+                    {
+                        buffer.putShort(int16.getRaw(i, a, s));
+                    }
+                    else if (precision == 4)
+                    {
+                        buffer.putFloat((float) storage.get(i, a, s));
+                    }
+                    else
+                    {
+                        buffer.putDouble(storage.get(i, a, s));
+                    }
+                }
+            }
+        }
+    }
+
+    private static void writeSparse(SparseQValueStorage storage, BodyWriter body) throws IOException
+    {
+        for (int i = 0; i < storage.numberOfObjectives; i++)
+        {
+            body.reserve(8).putDouble(storage.getDefault(i));
+        }
+        int count = storage.getPopulatedStateCount();
+        body.reserve(4).putInt(count);
+        for (int k = 0; k < count; k++)
+        {
+            int s = storage.getPopulatedState(k);
+            body.reserve(4).putInt(s);
+            for (int a = 0; a < storage.numberOfActions; a++)
+            {
+                for (int i = 0; i < storage.numberOfObjectives; i++)
+                {
+                    body.reserve(8).putDouble(storage.get(i, a, s));
+                }
+            }
+        }
+    }
+
+    // Load a file written by save() into the storage, which must be the same size, and return the thresholds it was
+    // saved with (none for a version 1 file). An Int16Storage loading an int16 file takes its scales and values
+    // exactly as saved; anything else has the values converted.
+    public static double[] load(QValueStorage storage, File file) throws IOException
+    {
+        FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+        try
+        {
+            Header header = readHeader(channel, file);
+            if (header == null)
+            {
+                loadVersion1(storage, file);
+                return new double[0];
+            }
+            checkNotDelta(header, file);
+            checkSize(storage, file, header.numberOfObjectives, header.numberOfActions, header.numberOfStates);
+            BodyReader body = new BodyReader(channel, header.stored, (header.flags & DEFLATE) != 0, file);
+            if (header.layout == QValueStorage.SPARSE)
+            {
+                readSparse(storage, body);
+            }
+            else
+            {
+                readDense(storage, header.layout, header.precision, body, file);
+            }
+            checkBody(channel, header, body, file);
+            return header.thresholds;
+        }
+        finally
+        {
+            channel.close();
+        }
+    }
+
+    // a version 2 header, as read from a file
+    private static class Header
+    {
+        int layout;
+        int precision;
+        int flags;
+        int numberOfObjectives;
+        int numberOfActions;
+        int numberOfStates;
+        double[] thresholds;
+        long stored;
+        long length;
+        byte[] bytes; // as read, for the checksum
+    }
+
+    // Read the header of a file written by save(), leaving the channel at the start of the body. Returns null for a
+    // version 1 file, which is read separately.
+    private static Header readHeader(FileChannel channel, File file) throws IOException
+    {
+        ByteBuffer start = ByteBuffer.allocate(12);
+        readFully(channel, start, file);
+        start.flip();
+        if (start.getLong() != MAGIC)
+        {
+            throw new IOException("QValueFile - " + file + " has no header");
+        }
+        int version = start.getInt();
+        if (version == 1)
+        {
+            return null;
+        }
+        if (version != VERSION)
+        {
+            throw new IOException("QValueFile - " + file + " is version " + version + ", not " + VERSION);
+        }
+
+        Header header = new Header();
+        ByteBuffer fixed = ByteBuffer.allocate(28);
+        readFully(channel, fixed, file);
+        fixed.flip();
+        header.layout = fixed.getInt();
+        header.precision = fixed.getInt();
+        header.flags = fixed.getInt();
+        header.numberOfObjectives = fixed.getInt();
+        header.numberOfActions = fixed.getInt();
+        header.numberOfStates = fixed.getInt();
+        int numThresholds = fixed.getInt();
+        if (numThresholds < 0 || numThresholds > 1024)
+        {
+            throw new IOException("QValueFile - " + file + " has a corrupt header");
+        }
+        ByteBuffer rest = ByteBuffer.allocate(8 * numThresholds + 16);
+        readFully(channel, rest, file);
+        rest.flip();
+        header.thresholds = new double[numThresholds];
+        for (int t = 0; t < numThresholds; t++)
+        {
+            header.thresholds[t] = rest.getDouble();
+        }
+        header.stored = rest.getLong();
+        header.length = rest.getLong();
+        int headerSize = 40 + rest.limit();
+        if (header.stored < 0 || headerSize + header.stored + 4 != channel.size())
+        {
+            throw new IOException("QValueFile - " + file + " is " + channel.size() + " bytes, not "
+                    + (headerSize + header.stored + 4));
+        }
+        header.bytes = ByteBuffer.allocate(headerSize).put(start.array()).put(fixed.array()).put(rest.array())
+                .array();
+        return header;
+    }
+
+    // once the body's been read, check it was as long as the header says and the file passes its checksum - the
+    // header is checked after the body, in the order save() wrote them
+    private static void checkBody(FileChannel channel, Header header, BodyReader body, File file) throws IOException
+    {
+        body.finish(header.length);
+        body.crc.update(header.bytes, 0, header.bytes.length);
+        ByteBuffer crc = ByteBuffer.allocate(4);
+        readFully(channel, crc, file);
+        crc.flip();
+        if (crc.getInt() != (int) body.crc.getValue())
+        {
+            throw new IOException("QValueFile - " + file + " fails its checksum");
+        }
+    }
+
+    private static void checkNotDelta(Header header, File file) throws IOException
+    {
+        if ((header.flags & DELTA) != 0)
+        {
+            throw new IOException("QValueFile - " + file + " is a delta, which needs applying to the file before it");
+        }
+    }
+
+    // Save the values of the given blocks of states, each of statesPerBlock states, as a delta
+    public static void saveDelta(QValueStorage storage, BitSet blocks, int statesPerBlock, double[] thresholds,
+                                 boolean compress, File file) throws IOException
+    {
+        int numberOfStates = storage.numberOfStates;
+        Writer writer = new Writer(file, QValueStorage.STATE_MAJOR, storage.numberOfObjectives,
+                storage.numberOfActions, numberOfStates, thresholds, compress, DELTA);
+        try
+        {
+            BodyWriter body = writer.body;
+            body.reserve(8).putInt(statesPerBlock).putInt(blocks.cardinality());
+            double[][] actionValues = new double[storage.numberOfActions][storage.numberOfObjectives];
+            for (int b = blocks.nextSetBit(0); b >= 0; b = blocks.nextSetBit(b + 1))
+            {
+                body.reserve(4).putInt(b);
+                int end = (int) Math.min(numberOfStates, (long) (b + 1) * statesPerBlock);
+                for (int s = b * statesPerBlock; s < end; s++)
+                {
+                    storage.getActionValues(s, actionValues);
+                    for (double[] values : actionValues)
+                    {
+                        for (double v : values)
+                        {
+                            body.reserve(8).putDouble(v);
+                        }
+                    }
+                }
+            }
+            writer.close();
+        }
+        finally
+        {
+            writer.abort();
+        }
+    }
+
+    // Write the blocks saved in a delta over the storage, which must be the same size, and return the thresholds
+    // the delta was saved with. The whole delta is read and checked before any of it is written, so a damaged one
+    // leaves the storage as it was.
+    public static double[] applyDelta(QValueStorage storage, File file) throws IOException
+    {
+        int[] blocks;
+        double[] values;
+        int statesPerBlock;
+        Header header;
+        FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+        try
+        {
+            header = readHeader(channel, file);
+            if (header == null || (header.flags & DELTA) == 0)
+            {
+                throw new IOException("QValueFile - " + file + " isn't a delta");
+            }
+            checkSize(storage, file, header.numberOfObjectives, header.numberOfActions, header.numberOfStates);
+            BodyReader body = new BodyReader(channel, header.stored, (header.flags & DEFLATE) != 0, file);
+            ByteBuffer counts = body.next(8);
+            statesPerBlock = counts.getInt();
+            int count = counts.getInt();
+            long numberOfBlocks = statesPerBlock < 1 ? 0
+                    : ((long) storage.numberOfStates + statesPerBlock - 1) / statesPerBlock;
+            if (statesPerBlock < 1 || count < 0 || count > numberOfBlocks)
+            {
+                throw new IOException("QValueFile - " + file + " has a corrupt delta");
+            }
+            int stride = storage.numberOfActions * storage.numberOfObjectives;
+            blocks = new int[count];
+            values = new double[(int) Math.min((long) count * statesPerBlock, storage.numberOfStates) * stride];
+            int k = 0;
+            for (int n = 0; n < count; n++)
+            {
+                blocks[n] = body.next(4).getInt();
+                if (blocks[n] < 0 || blocks[n] >= numberOfBlocks || (n > 0 && blocks[n] <= blocks[n - 1]))
+                {
+                    throw new IOException("QValueFile - " + file + " has a corrupt delta");
+                }
+                int states = (int) Math.min(statesPerBlock, storage.numberOfStates - (long) blocks[n] * statesPerBlock);
+                for (int v = 0; v < states * stride; v++)
+                {
+                    values[k++] = body.next(8).getDouble();
+                }
+            }
+            checkBody(channel, header, body, file);
+        }
+        finally
+        {
+            channel.close();
+        }
+        int k = 0;
+        for (int b : blocks)
+        {
+            int end = (int) Math.min(storage.numberOfStates, (long) (b + 1) * statesPerBlock);
+            for (int s = b * statesPerBlock; s < end; s++)
+            {
+                for (int a = 0; a < storage.numberOfActions; a++)
+                {
+                    for (int i = 0; i < storage.numberOfObjectives; i++)
+                    {
+                        storage.set(i, a, s, values[k++]);
+                    }
+                }
+            }
+        }
+        return header.thresholds;
+    }
+
+    private static void checkSize(QValueStorage storage, File file, int o, int a, int s) throws IOException
+    {
+        if (o != storage.numberOfObjectives || a != storage.numberOfActions || s != storage.numberOfStates)
+        {
+            throw new IOException("QValueFile - " + file + " holds " + o + " objectives x " + a
+                    + " actions x " + s + " states, not " + storage.numberOfObjectives + " x "
+                    + storage.numberOfActions + " x " + storage.numberOfStates);
+        }
+    }
+
+    private static void readDense(QValueStorage storage, int layout, int precision, BodyReader body, File file)
+            throws IOException
+    {
+        if (precision != getPrecision(layout))
+        {
+            throw new IOException("QValueFile - " + file + " has " + precision + "-byte values, not "
+                    + getPrecision(layout));
+        }
+        double[] scales = null;
+        Int16Storage int16 = null;
+        if (layout == QValueStorage.INT16)
+        {
+            scales = new double[storage.numberOfObjectives];
+            for (int i = 0; i < scales.length; i++)
+            {
+                scales[i] = body.next(8).getDouble();
+            }
+            if (storage instanceof Int16Storage)
+            {
+                int16 = (Int16Storage) storage;
+                for (int i = 0; i < scales.length; i++)
+                {
+                    int16.setScale(i, scales[i]);
+                }
+            }
+        }
+        for (int i = 0; i < storage.numberOfObjectives; i++)
+        {
+            for (int a = 0; a < storage.numberOfActions; a++)
+            {
+                for (int s = 0; s < storage.numberOfStates; s++)
+                {
+                    ByteBuffer buffer = body.next(precision);
+                    if (int16 != null)
+                    {
+                        int16.setRaw(i, a, s, buffer.getShort());
+                    }
+                    else if (scales != null)
+                    {
+                        storage.set(i, a, s, buffer.getShort() / scales[i]);
+                    }
+                    else if (precision == 4)
+                    {
+                        storage.set(i, a, s, buffer.getFloat());
+                    }
+                    else
+                    {
+                        storage.set(i, a, s, buffer.getDouble());
+                    }
+                }
+            }
+        }
+    }
+
+    // the unpopulated states take the saved defaults, so a dense storage is filled with them first
+    private static void readSparse(QValueStorage storage, BodyReader body) throws IOException
+    {
+        double[] defaults = new double[storage.numberOfObjectives];
+        for (int i = 0; i < defaults.length; i++)
+        {
+            defaults[i] = body.next(8).getDouble();
+        }
+        storage.fill(defaults);
+        int count = body.next(4).getInt();
+        for (int k = 0; k < count; k++)
+        {
+            int s = body.next(4).getInt();
+            for (int a = 0; a < storage.numberOfActions; a++)
+            {
+                for (int i = 0; i < storage.numberOfObjectives; i++)
+                {
+                    storage.set(i, a, s, body.next(8).getDouble());
+                }
+            }
+        }
+    }
+
+    // version 1: float32, int16 and sparse tables only, read a value at a time
+    private static void loadVersion1(QValueStorage storage, File file) throws IOException
+    {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+        try
+        {
+            in.readLong();
+            in.readInt();
+            int layout = in.readInt();
+            checkSize(storage, file, in.readInt(), in.readInt(), in.readInt());
+            if (layout == QValueStorage.INT16)
+            {
+                double[] scales = new double[storage.numberOfObjectives];
+                for (int i = 0; i < scales.length; i++)
+                {
+                    scales[i] = in.readDouble();
+                }
+                Int16Storage int16 = storage instanceof Int16Storage ? (Int16Storage) storage : null;
+                if (int16 != null)
+                {
+                    for (int i = 0; i < scales.length; i++)
+                    {
+                        int16.setScale(i, scales[i]);
+                    }
+                }
+                for (int i = 0; i < storage.numberOfObjectives; i++)
+                {
+                    for (int a = 0; a < storage.numberOfActions; a++)
+                    {
+                        for (int s = 0; s < storage.numberOfStates; s++)
+                        {
+                            short raw = in.readShort();
+                            if (int16 != null)
+                            {
+                                int16.setRaw(i, a, s, raw);
+                            }
+                            else
+                            {
+                                storage.set(i, a, s, raw / scales[i]);
+                            }
+                        }
+                    }
+                }
+            }
+            else if (layout == QValueStorage.FLOAT32)
+            {
+                for (int i = 0; i < storage.numberOfObjectives; i++)
+                {
+                    for (int a = 0; a < storage.numberOfActions; a++)
+                    {
+                        for (int s = 0; s < storage.numberOfStates; s++)
+                        {
+                            storage.set(i, a, s, in.readFloat());
+                        }
+                    }
+                }
+            }
+            else if (layout == QValueStorage.SPARSE)
+            {
+                double[] defaults = new double[storage.numberOfObjectives];
+                for (int i = 0; i < defaults.length; i++)
+                {
+                    defaults[i] = in.readDouble();
+                }
+                storage.fill(defaults);
+                int count = in.readInt();
+                for (int k = 0; k < count; k++)
+                {
+                    int s = in.readInt();
+                    for (int a = 0; a < storage.numberOfActions; a++)
+                    {
+                        for (int i = 0; i < storage.numberOfObjectives; i++)
+                        {
+                            storage.set(i, a, s, in.readDouble());
+                        }
+                    }
+                }
+            }
+            else
+            {
+                throw new IOException("QValueFile - " + file + " has unknown layout " + layout);
+            }
+        }
+        finally
+        {
+            in.close();
+        }
+    }
+
+    // Load any value function file into the storage - one written by save(), or a legacy file of doubles, which
+    // must hold exactly as many values as the storage. Returns the thresholds it was saved with, if it has any.
+    public static double[] loadAny(QValueStorage storage, File file) throws IOException
+    {
+        if (hasHeader(file))
+        {
+            return load(storage, file);
+        }
+        long expected = (long) storage.numberOfObjectives * storage.numberOfActions * storage.numberOfStates * 8;
+        if (file.length() != expected)
+        {
+            throw new IOException("QValueFile - " + file + " holds " + file.length() / 8 + " values, not "
+                    + expected / 8);
+        }
+        FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+        try
+        {
+            BodyReader body = new BodyReader(channel, expected, false, file);
+            for (int i = 0; i < storage.numberOfObjectives; i++)
+            {
+                for (int a = 0; a < storage.numberOfActions; a++)
+                {
+                    for (int s = 0; s < storage.numberOfStates; s++)
+                    {
+                        storage.set(i, a, s, body.next(8).getDouble());
+                    }
+                }
+            }
+        }
+        finally
+        {
+            channel.close();
+        }
+        return new double[0];
+    }
+
+    // the size of table a file holds, as {objectives, actions, states}, or null for a legacy file, which doesn't say
+    public static int[] readSize(File file) throws IOException
+    {
+        if (!file.isFile())
+        {
+            throw new FileNotFoundException("QValueFile - " + file + " doesn't exist");
+        }
+        if (!hasHeader(file))
+        {
+            return null;
+        }
+        DataInputStream in = new DataInputStream(new FileInputStream(file));
+        try
+        {
+            in.readLong();
+            int version = in.readInt();
+            in.readInt();
+            if (version != 1)
+            {
+                in.readInt();
+                in.readInt();
+            }
+            return new int[]{in.readInt(), in.readInt(), in.readInt()};
+        }
+        finally
+        {
+            in.close();
+        }
+    }
+
+    // Writes a file of doubles a chunk at a time, in [objective][action][state] order, for values which are never
+    // all in memory at once (see ValueFunctionAverager). Nothing appears at the target until close() - abort() gives
+    // up and deletes what's been written.
+    public static class Writer
+    {
+        private final File target;
+        private final File temp;
+        private final FileChannel channel;
+        private final BodyWriter body;
+        private final int layout;
+        private final int numberOfObjectives;
+        private final int numberOfActions;
+        private final int numberOfStates;
+        private final double[] thresholds;
+        private final boolean compress;
+        private final int flags; // besides DEFLATE
+        private boolean closed = false;
+
+        public Writer(File file, int numberOfObjectives, int numberOfActions, int numberOfStates, double[] thresholds,
+                      boolean compress) throws IOException
+        {
+            this(file, QValueStorage.OBJECTIVE_MAJOR, numberOfObjectives, numberOfActions, numberOfStates, thresholds,
+                    compress, 0);
+        }
+
+        private Writer(File file, int layout, int numberOfObjectives, int numberOfActions, int numberOfStates,
+                       double[] thresholds, boolean compress, int flags) throws IOException
+        {
+            this.flags = flags;
+            this.layout = layout;
+            this.numberOfObjectives = numberOfObjectives;
+            this.numberOfActions = numberOfActions;
+            this.numberOfStates = numberOfStates;
+            this.thresholds = thresholds.clone();
+            this.compress = compress;
+            target = file.getAbsoluteFile();
+            temp = File.createTempFile(target.getName() + ".part", ".tmp", target.getParentFile());
+            FileChannel opened = null;
+            try
+            {
+                opened = FileChannel.open(temp.toPath(), StandardOpenOption.WRITE);
+                opened.position(headerSize());
+            }
+            catch (IOException e)
+            {
+                if (opened != null)
+                {
+                    opened.close();
+                }
+                temp.delete();
+                throw e;
+            }
+            channel = opened;
+            body = new BodyWriter(channel, compress);
+        }
+
+        private int headerSize()
+        {
+            return 56 + 8 * thresholds.length;
+        }
+
+        // write the next count values, from values[offset] on
+        public void write(double[] values, int offset, int count) throws IOException
+        {
+            for (int k = offset; k < offset + count; k++)
+            {
+                body.reserve(8).putDouble(values[k]);
+            }
+        }
+
+        // finish the file and move it into place
+        public void close() throws IOException
+        {
+            body.finish();
+            long values = (long) numberOfObjectives * numberOfActions * numberOfStates;
+            if (layout != QValueStorage.SPARSE && (flags & DELTA) == 0
+                    && body.length != denseBodyLength(layout, numberOfObjectives, values))
+            {
+                throw new IOException("QValueFile - " + body.length + " bytes written to " + target + ", not "
+                        + denseBodyLength(layout, numberOfObjectives, values));
+            }
+            ByteBuffer header = ByteBuffer.allocate(headerSize());
+            header.putLong(MAGIC);
+            header.putInt(VERSION);
+            header.putInt(layout);
+            header.putInt(getPrecision(layout));
+            header.putInt((compress ? DEFLATE : 0) | flags);
+            header.putInt(numberOfObjectives);
+            header.putInt(numberOfActions);
+            header.putInt(numberOfStates);
+            header.putInt(thresholds.length);
+            for (double t : thresholds)
+            {
+                header.putDouble(t);
+            }
+            header.putLong(body.stored);
+            header.putLong(body.length);
+            body.crc.update(header.array(), 0, header.position());
+            header.flip();
+            writeFully(channel, header, 0);
+
+            ByteBuffer crc = ByteBuffer.allocate(4);
+            crc.putInt((int) body.crc.getValue());
+            crc.flip();
+            writeFully(channel, crc, headerSize() + body.stored);
+            channel.close();
+            try
+            {
+                Files.move(temp.toPath(), target.toPath(), StandardCopyOption.ATOMIC_MOVE,
+                        StandardCopyOption.REPLACE_EXISTING);
+            }
+            catch (AtomicMoveNotSupportedException e)
+            {
+                Files.move(temp.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            }
+            closed = true;
+        }
+
+        // give up, deleting the partly written file - does nothing once the file's been closed
+        public void abort()
+        {
+            if (closed)
+            {
+                return;
+            }
+            closed = true;
+            try
+            {
+                channel.close();
+            }
+            catch (IOException e)
+            {
+                // it's being thrown away anyway
+            }
+            temp.delete();
+        }
+    }
+
+    // the length of a dense body - the values, plus the scales for INT16
+    private static long denseBodyLength(int layout, int numberOfObjectives, long values)
+    {
+        return values * getPrecision(layout) + (layout == QValueStorage.INT16 ? 8L * numberOfObjectives : 0);
+    }
+
+    // Reads any value function file a chunk at a time, as doubles in [objective][action][state] order, for values
+    // which are never all in memory at once (see ValueFunctionAverager). Legacy files and those saved from dense
+    // tables are streamed; sparse and version 1 files are loaded whole first.
+    public static class Reader
+    {
+        private final File file;
+        private final int numberOfActions;
+        private final int numberOfStates;
+        private final long total;
+        private long position = 0;
+        private double[] thresholds = new double[0];
+        // a streamed file
+        private FileChannel channel = null;
+        private Header header = null;
+        private BodyReader body = null;
+        private int precision = 8;
+        private double[] scales = null;
+        // or one loaded whole
+        private QValueStorage loaded = null;
+
+        public Reader(File file, int numberOfObjectives, int numberOfActions, int numberOfStates) throws IOException
+        {
+            this.file = file;
+            this.numberOfActions = numberOfActions;
+            this.numberOfStates = numberOfStates;
+            total = (long) numberOfObjectives * numberOfActions * numberOfStates;
+            if (!hasHeader(file))
+            {
+                if (file.length() != total * 8)
+                {
+                    throw new IOException("QValueFile - " + file + " holds " + file.length() / 8 + " values, not "
+                            + total);
+                }
+                channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+                body = new BodyReader(channel, total * 8, false, file);
+                return;
+            }
+            channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+            try
+            {
+                header = readHeader(channel, file);
+                if (header != null)
+                {
+                    checkNotDelta(header, file);
+                }
+                if (header != null && header.layout != QValueStorage.SPARSE)
+                {
+                    if (header.numberOfObjectives != numberOfObjectives || header.numberOfActions != numberOfActions
+                            || header.numberOfStates != numberOfStates)
+                    {
+                        throw new IOException("QValueFile - " + file + " holds " + header.numberOfObjectives
+                                + " objectives x " + header.numberOfActions + " actions x " + header.numberOfStates
+                                + " states, not " + numberOfObjectives + " x " + numberOfActions + " x "
+                                + numberOfStates);
+                    }
+                    if (header.precision != getPrecision(header.layout))
+                    {
+                        throw new IOException("QValueFile - " + file + " has " + header.precision
+                                + "-byte values, not " + getPrecision(header.layout));
+                    }
+                    precision = header.precision;
+                    thresholds = header.thresholds;
+                    body = new BodyReader(channel, header.stored, (header.flags & DEFLATE) != 0, file);
+                    if (header.layout == QValueStorage.INT16)
+                    {
+                        scales = new double[numberOfObjectives];
+                        for (int i = 0; i < numberOfObjectives; i++)
+                        {
+                            scales[i] = body.next(8).getDouble();
+                        }
+                    }
+                    return;
+                }
+            }
+            catch (IOException e)
+            {
+                channel.close();
+                throw e;
+            }
+            channel.close();
+            channel = null;
+            loaded = QValueStorage.create(header == null ? QValueStorage.OBJECTIVE_MAJOR : QValueStorage.SPARSE,
+                    numberOfObjectives, numberOfActions, numberOfStates);
+            thresholds = load(loaded, file);
+        }
+
+        // the thresholds the file was saved with, if any
+        public double[] getThresholds()
+        {
+            return thresholds;
+        }
+
+        // read the next count values into values[offset] on
+        public void read(double[] values, int offset, int count) throws IOException
+        {
+            if (position + count > total)
+            {
+                throw new IOException("QValueFile - " + file + " only holds " + total + " values");
+            }
+            long valuesPerObjective = (long) numberOfActions * numberOfStates;
+            for (int k = offset; k < offset + count; k++, position++)
+            {
+                if (loaded != null)
+                {
+                    int i = (int) (position / valuesPerObjective);
+                    int rest = (int) (position % valuesPerObjective);
+                    values[k] = loaded.get(i, rest / numberOfStates, rest % numberOfStates);
+                    continue;
+                }
+                ByteBuffer buffer = body.next(precision);
+                if (scales != null)
+                {
+                    values[k] = buffer.getShort() / scales[(int) (position / valuesPerObjective)];
+                }
+                else if (precision == 4)
+                {
+                    values[k] = buffer.getFloat();
+                }
+                else
+                {
+                    values[k] = buffer.getDouble();
+                }
+            }
+        }
+
+        // close the file - checking its checksum, if every value has been read
+        public void close() throws IOException
+        {
+            if (channel == null)
+            {
+                return;
+            }
+            try
+            {
+                if (position == total)
+                {
+                    if (header != null)
+                    {
+                        checkBody(channel, header, body, file);
+                    }
+                    else
+                    {
+                        body.finish(total * 8);
+                    }
+                }
+            }
+            finally
+            {
+                channel.close();
+                channel = null;
+            }
+        }
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException
+    {
+        while (buffer.hasRemaining())
+        {
+            position += channel.write(buffer, position);
+        }
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, File file) throws IOException
+    {
+        while (buffer.hasRemaining())
+        {
+            if (channel.read(buffer) < 0)
+            {
+                throw new EOFException("QValueFile - " + file + " ends early");
+            }
+        }
+    }
+
+    // The body on its way out: values are put into a buffer, which is checksummed and written - deflated, if asked
+    // - whenever it fills up
+    private static class BodyWriter
+    {
+        final CRC32 crc = new CRC32();
+        long length; // bytes of body
+        long stored; // bytes written to the file
+        private final FileChannel channel;
+        private final ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+        private final Deflater deflater;
+        private final ByteBuffer deflated;
+
+        BodyWriter(FileChannel channel, boolean compress)
+        {
+            this.channel = channel;
+            deflater = compress ? new Deflater(Deflater.BEST_SPEED) : null;
+            deflated = compress ? ByteBuffer.allocate(BUFFER_SIZE) : null;
+        }
+
+        // the buffer, with room for the given number of bytes
+        ByteBuffer reserve(int bytes) throws IOException
+        {
+            if (buffer.remaining() < bytes)
+            {
+                flush();
+            }
+            return buffer;
+        }
+
+        private void flush() throws IOException
+        {
+            crc.update(buffer.array(), 0, buffer.position());
+            length += buffer.position();
+            if (deflater != null)
+            {
+                deflater.setInput(buffer.array(), 0, buffer.position());
+                while (!deflater.needsInput())
+                {
+                    drain();
+                }
+            }
+            else
+            {
+                buffer.flip();
+                stored += buffer.remaining();
+                while (buffer.hasRemaining())
+                {
+                    channel.write(buffer);
+                }
+            }
+            buffer.clear();
+        }
+
+        private void drain() throws IOException
+        {
+            int n = deflater.deflate(deflated.array());
+            deflated.limit(n);
+            stored += n;
+            while (deflated.hasRemaining())
+            {
+                channel.write(deflated);
+            }
+            deflated.clear();
+        }
+
+        void finish() throws IOException
+        {
+            flush();
+            if (deflater != null)
+            {
+                deflater.finish();
+                while (!deflater.finished())
+                {
+                    drain();
+                }
+                deflater.end();
+            }
+        }
+    }
+
+    // The body on its way in: read from the file - and inflated, if need be - a buffer at a time, and checksummed
+    private static class BodyReader
+    {
+        final CRC32 crc = new CRC32();
+        private final FileChannel channel;
+        private final File file;
+        private long unread; // bytes of the file's body not yet read
+        private long length;  // bytes of body handed out so far
+        private final ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+        private final Inflater inflater;
+        private final ByteBuffer compressed;
+
+        BodyReader(FileChannel channel, long stored, boolean compressed, File file)
+        {
+            this.channel = channel;
+            this.file = file;
+            unread = stored;
+            inflater = compressed ? new Inflater() : null;
+            this.compressed = compressed ? ByteBuffer.allocate(BUFFER_SIZE) : null;
+            buffer.limit(0);
+        }
+
+        // the buffer, with at least the given number of bytes left in it
+        ByteBuffer next(int bytes) throws IOException
+        {
+            if (buffer.remaining() < bytes)
+            {
+                refill(bytes);
+            }
+            return buffer;
+        }
+
+        private void refill(int bytes) throws IOException
+        {
+            buffer.compact();
+            while (buffer.position() < bytes)
+            {
+                int start = buffer.position();
+                int n = inflater != null ? inflate() : read();
+                if (n < 0)
+                {
+                    throw new EOFException("QValueFile - the body of " + file + " ends early");
+                }
+                crc.update(buffer.array(), start, n);
+                length += n;
+            }
+            buffer.flip();
+        }
+
+        private int read() throws IOException
+        {
+            if (unread == 0)
+            {
+                return -1;
+            }
+            int limit = buffer.limit();
+            if (buffer.remaining() > unread)
+            {
+                buffer.limit(buffer.position() + (int) unread);
+            }
+            int n = channel.read(buffer);
+            buffer.limit(limit);
+            if (n < 0)
+            {
+                throw new EOFException("QValueFile - " + file + " ends early");
+            }
+            unread -= n;
+            return n;
+        }
+
+        private int inflate() throws IOException
+        {
+            try
+            {
+                while (true)
+                {
+                    int n = inflater.inflate(buffer.array(), buffer.position(), buffer.remaining());
+                    if (n > 0)
+                    {
+                        buffer.position(buffer.position() + n);
+                        return n;
+                    }
+                    if (inflater.finished() || inflater.needsDictionary())
+                    {
+                        return -1;
+                    }
+                    if (unread == 0)
+                    {
+                        return -1;
+                    }
+                    compressed.clear();
+                    if (compressed.remaining() > unread)
+                    {
+                        compressed.limit((int) unread);
+                    }
+                    int read = channel.read(compressed);
+                    if (read < 0)
+                    {
+                        throw new EOFException("QValueFile - " + file + " ends early");
+                    }
+                    unread -= read;
+                    inflater.setInput(compressed.array(), 0, read);
+                }
+            }
+            catch (DataFormatException e)
+            {
+                throw new IOException("QValueFile - the body of " + file + " is corrupt", e);
+            }
+        }
+
+        // check the whole body has been read, and it was as long as the header says
+        void finish(long expectedLength) throws IOException
+        {
+            if (buffer.hasRemaining() || length != expectedLength)
+            {
+                throw new IOException("QValueFile - the body of " + file + " is the wrong length");
+            }
+            if (inflater != null)
+            {
+                inflater.end();
+            }
+        }
+    }
+}
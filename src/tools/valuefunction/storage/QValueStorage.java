@@ -0,0 +1,212 @@
+// The Q-values behind a LookupTable: one value per objective, action and state. How they're laid out in memory is
+// up to the implementation - LookupTable and its subclasses only go through the methods here, so any of them can
+// be given any layout (see LookupTable's constructors).
+//   OBJECTIVE_MAJOR - [objective][action][state], a separate array per objective and action, as the tables have
+//                     always been stored
+//   STATE_MAJOR     - one flat array laid out [state][action][objective], so every value for a state is a single
+//                     contiguous read
+//   MAPPED          - off the heap in a memory-mapped file, laid out as saved value function files are (see
+//                     MappedQValueStorage). create() puts it in a temporary file; LookupTable.mapToFile() moves a
+//                     table into a file of your choosing. Its copies and blanks are STATE_MAJOR, on the heap.
+//   FLOAT32, INT16  - laid out as STATE_MAJOR, but as 32-bit floats or 16-bit fixed-point numbers scaled per
+//                     objective (see Float32Storage, Int16Storage), for 2 or 4 times as many tables per GB. Values
+//                     are widened to double when read, so the TD update is still done in double precision. They're
+//                     saved at their own precision, with a header recording it (see QValueFile).
+//   SPARSE          - only the states which have been written to, in a hash table; the rest read as the initial
+//                     value (see SparseQValueStorage). For large state spaces which are mostly never visited.
+//   COPY_ON_WRITE   - laid out as STATE_MAJOR, in pages which copies share until they're written (see
+//                     CopyOnWriteStorage), so a copy can be taken between episodes and saved while learning goes on.
+//   CONCURRENT      - laid out as STATE_MAJOR, for several threads' tables to learn into at once (see
+//                     ConcurrentQValueStorage). create() gives one with Hogwild-style unlocked updates. Only
+//                     tables which allow it take one (see LookupTable.allowsConcurrentStorage()).
+
+package tools.valuefunction.storage;
+
+import java.util.ArrayList;
+
+public abstract class QValueStorage
+{
+    // constants to label the different layouts
+    public static final int OBJECTIVE_MAJOR = 0;
+    public static final int STATE_MAJOR = 1;
+    public static final int MAPPED = 2;
+    public static final int FLOAT32 = 3;
+    public static final int INT16 = 4;
+    public static final int SPARSE = 5;
+    public static final int COPY_ON_WRITE = 6;
+    public static final int CONCURRENT = 7;
+
+    protected final int numberOfObjectives;
+    protected final int numberOfActions;
+    protected final int numberOfStates;
+
+    protected QValueStorage(int numberOfObjectives, int numberOfActions, int numberOfStates)
+    {
+        this.numberOfObjectives = numberOfObjectives;
+        this.numberOfActions = numberOfActions;
+        this.numberOfStates = numberOfStates;
+    }
+
+    public static QValueStorage create(int layout, int numberOfObjectives, int numberOfActions, int numberOfStates)
+    {
+        switch (layout)
+        {
+            case OBJECTIVE_MAJOR: return new ObjectiveMajorStorage(numberOfObjectives, numberOfActions, numberOfStates);
+            case STATE_MAJOR: return new StateMajorStorage(numberOfObjectives, numberOfActions, numberOfStates);
+            case MAPPED: return MappedQValueStorage.createTemporary(numberOfObjectives, numberOfActions, numberOfStates);
+            case FLOAT32: return new Float32Storage(numberOfObjectives, numberOfActions, numberOfStates);
+            case INT16: return new Int16Storage(numberOfObjectives, numberOfActions, numberOfStates);
+            case SPARSE: return new SparseQValueStorage(numberOfObjectives, numberOfActions, numberOfStates);
+            case COPY_ON_WRITE: return new CopyOnWriteStorage(numberOfObjectives, numberOfActions, numberOfStates);
+            case CONCURRENT: return new ConcurrentQValueStorage(numberOfObjectives, numberOfActions, numberOfStates);
+            default: throw new IllegalArgumentException("QValueStorage - unknown layout " + layout);
+        }
+    }
+
+    public static String layoutToString(int layout)
+    {
+        switch (layout)
+        {
+            case OBJECTIVE_MAJOR: return "objective-major";
+            case STATE_MAJOR: return "state-major";
+            case MAPPED: return "mapped";
+            case FLOAT32: return "float32";
+            case INT16: return "int16";
+            case SPARSE: return "sparse";
+            case COPY_ON_WRITE: return "copy-on-write";
+            case CONCURRENT: return "concurrent";
+            default: return "Unknown";
+        }
+    }
+
+    // the layout constant this storage was created with
+    public abstract int getLayout();
+
+    // true if other threads may be writing these values at the same time, so nothing worked out from them should
+    // be kept for later
+    public boolean isConcurrent()
+    {
+        return false;
+    }
+
+    // A new storage of the same layout and size, all zeros (but see MappedQValueStorage)
+    public QValueStorage blank()
+    {
+        return create(getLayout(), numberOfObjectives, numberOfActions, numberOfStates);
+    }
+
+    public abstract double get(int objective, int action, int state);
+
+    public abstract void set(int objective, int action, int state, double value);
+
+    // An independent copy of these values, in the same layout (but see MappedQValueStorage)
+    public abstract QValueStorage copy();
+
+    // Copy the value of every objective for one state-action pair into values[objective]. If values is shorter
+    // than the number of objectives, only the first values.length objectives are copied.
+    public void getQValues(int action, int state, double[] values)
+    {
+        int n = Math.min(numberOfObjectives, values.length);
+        for (int i = 0; i < n; i++)
+        {
+            values[i] = get(i, action, state);
+        }
+    }
+
+    // The TD update for every objective of one state-action pair: value[i] += alpha * (lambda * errors[i]). Storages
+    // which hold a pair's objectives side by side override this with one loop over them, which HotSpot can compile
+    // to SIMD instructions.
+    public void applyErrors(int action, int state, double[] errors, double lambda, double alpha)
+    {
+        for (int i = 0; i < numberOfObjectives; i++)
+        {
+            set(i, action, state, get(i, action, state) + alpha * (lambda * errors[i]));
+        }
+    }
+
+    // The TD update of one state-action pair towards targets[objective] (reward + discounted next value): errors[i] =
+    // targets[i] - value[i], then value[i] += alpha * (lambda * errors[i]) - just what working out the errors from
+    // getQValues and then calling applyErrors gives. The errors used are left in errors, for the rest of the trace.
+    // Concurrent storages override this so nothing else can change the pair between the read and the write.
+    public void applyTargets(int action, int state, double[] targets, double lambda, double alpha, double[] errors)
+    {
+        getQValues(action, state, errors);
+        for (int i = 0; i < numberOfObjectives; i++)
+        {
+            errors[i] = targets[i] - errors[i];
+        }
+        applyErrors(action, state, errors, lambda, alpha);
+    }
+
+    // Copy every action's values for one state into values[action][objective], as getQValues
+    public void getActionValues(int state, double[][] values)
+    {
+        for (int a = 0; a < numberOfActions; a++)
+        {
+            getQValues(a, state, values[a]);
+        }
+    }
+
+    // Set every value of each objective to initValue[objective]
+    public void fill(double[] initValue)
+    {
+        for (int i = 0; i < numberOfObjectives; i++)
+        {
+            for (int a = 0; a < numberOfActions; a++)
+            {
+                for (int s = 0; s < numberOfStates; s++)
+                {
+                    set(i, a, s, initValue[i]);
+                }
+            }
+        }
+    }
+
+    // The values as a list of [action][state] arrays, one per objective. A copy unless the storage is already laid
+    // out that way.
+    public ArrayList<double[][]> toObjectiveMajor()
+    {
+        ArrayList<double[][]> list = new ArrayList<>();
+        for (int i = 0; i < numberOfObjectives; i++)
+        {
+            double[][] array = new double[numberOfActions][numberOfStates];
+            for (int a = 0; a < numberOfActions; a++)
+            {
+                for (int s = 0; s < numberOfStates; s++)
+                {
+                    array[a][s] = get(i, a, s);
+                }
+            }
+            list.add(array);
+        }
+        return list;
+    }
+
+    // The states holding values of their own, for walking over a table without visiting every state: state
+    // getPopulatedState(i) for i from 0 to getPopulatedStateCount() - 1. Every state, in order, unless the storage is
+    // sparse.
+    public int getPopulatedStateCount()
+    {
+        return numberOfStates;
+    }
+
+    public int getPopulatedState(int i)
+    {
+        return i;
+    }
+
+    public int getNumberOfObjectives()
+    {
+        return numberOfObjectives;
+    }
+
+    public int getNumberOfActions()
+    {
+        return numberOfActions;
+    }
+
+    public int getNumberOfStates()
+    {
+        return numberOfStates;
+    }
+}
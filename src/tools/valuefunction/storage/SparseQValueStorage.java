@@ -0,0 +1,239 @@
+// Q-values only for the states which have actually been written to, for state spaces which are large or mostly
+// never visited (e.g. an environment advertising far more observations than it can reach, times the agent's
+// accumulated-reward states). An open-addressing hash table of primitive ints maps each populated state to a block
+// holding all of its values, laid out [action][objective] as in StateMajorStorage; blocks are allocated in the order
+// states are first written to, so the populated states can be walked with getPopulatedState() without going near
+// the rest. Every other state reads as the objective's default, set by fill() - i.e. the table's initial value - and
+// writing the default to an unpopulated state doesn't populate it. Memory is about
+// numberOfActions x numberOfObjectives x 8 + 12 bytes per populated state.
+
+package tools.valuefunction.storage;
+
+import java.util.Arrays;
+
+public class SparseQValueStorage extends QValueStorage
+{
+    private static final int EMPTY = -1;
+    private static final int INITIAL_CAPACITY = 64; // hash slots, a power of two
+
+    private final int blockSize;
+    private double[] defaults;
+    // hash slots: the state in each slot (or EMPTY) and the index of its block
+    private int[] slotStates;
+    private int[] slotBlocks;
+    // the blocks, in order of allocation, and the state each belongs to
+    private double[] blocks;
+    private int[] blockStates;
+    private int size;
+
+    public SparseQValueStorage(int numberOfObjectives, int numberOfActions, int numberOfStates)
+    {
+        super(numberOfObjectives, numberOfActions, numberOfStates);
+        blockSize = numberOfActions * numberOfObjectives;
+        defaults = new double[numberOfObjectives];
+        clear();
+    }
+
+    private SparseQValueStorage(SparseQValueStorage other)
+    {
+        super(other.numberOfObjectives, other.numberOfActions, other.numberOfStates);
+        blockSize = other.blockSize;
+        defaults = other.defaults.clone();
+        slotStates = other.slotStates.clone();
+        slotBlocks = other.slotBlocks.clone();
+        blocks = other.blocks.clone();
+        blockStates = other.blockStates.clone();
+        size = other.size;
+    }
+
+    private void clear()
+    {
+        slotStates = new int[INITIAL_CAPACITY];
+        Arrays.fill(slotStates, EMPTY);
+        slotBlocks = new int[INITIAL_CAPACITY];
+        blocks = new double[INITIAL_CAPACITY / 2 * blockSize];
+        blockStates = new int[INITIAL_CAPACITY / 2];
+        size = 0;
+    }
+
+    private static int hash(int state)
+    {
+        int h = state * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+    // the start of a state's block in blocks, or -1 if it isn't populated
+    private int find(int state)
+    {
+        int mask = slotStates.length - 1;
+        for (int slot = hash(state) & mask; ; slot = (slot + 1) & mask)
+        {
+            int s = slotStates[slot];
+            if (s == state)
+            {
+                return slotBlocks[slot] * blockSize;
+            }
+            if (s == EMPTY)
+            {
+                return -1;
+            }
+        }
+    }
+
+    // give a state a block holding the defaults, and return its start
+    private int populate(int state)
+    {
+        if (size * 2 >= slotStates.length)
+        {
+            rehash(slotStates.length * 2);
+        }
+        if (size == blockStates.length)
+        {
+            blockStates = Arrays.copyOf(blockStates, size * 2);
+            blocks = Arrays.copyOf(blocks, size * 2 * blockSize);
+        }
+        int mask = slotStates.length - 1;
+        int slot = hash(state) & mask;
+        while (slotStates[slot] != EMPTY)
+        {
+            slot = (slot + 1) & mask;
+        }
+        slotStates[slot] = state;
+        slotBlocks[slot] = size;
+        blockStates[size] = state;
+        int start = size * blockSize;
+        for (int k = 0; k < blockSize; k += numberOfObjectives)
+        {
+            System.arraycopy(defaults, 0, blocks, start + k, numberOfObjectives);
+        }
+        size++;
+        return start;
+    }
+
+    private void rehash(int capacity)
+    {
+        slotStates = new int[capacity];
+        Arrays.fill(slotStates, EMPTY);
+        slotBlocks = new int[capacity];
+        int mask = capacity - 1;
+        for (int b = 0; b < size; b++)
+        {
+            int slot = hash(blockStates[b]) & mask;
+            while (slotStates[slot] != EMPTY)
+            {
+                slot = (slot + 1) & mask;
+            }
+            slotStates[slot] = blockStates[b];
+            slotBlocks[slot] = b;
+        }
+    }
+
+    @Override
+    public int getLayout()
+    {
+        return SPARSE;
+    }
+
+    @Override
+    public double get(int objective, int action, int state)
+    {
+        int start = find(state);
+        return start < 0 ? defaults[objective] : blocks[start + action * numberOfObjectives + objective];
+    }
+
+    @Override
+    public void set(int objective, int action, int state, double value)
+    {
+        int start = find(state);
+        if (start < 0)
+        {
+            if (value == defaults[objective])
+            {
+                return;
+            }
+            start = populate(state);
+        }
+        blocks[start + action * numberOfObjectives + objective] = value;
+    }
+
+    @Override
+    public QValueStorage copy()
+    {
+        return new SparseQValueStorage(this);
+    }
+
+    @Override
+    public void getQValues(int action, int state, double[] result)
+    {
+        int n = Math.min(numberOfObjectives, result.length);
+        int start = find(state);
+        if (start < 0)
+        {
+            System.arraycopy(defaults, 0, result, 0, n);
+        }
+        else
+        {
+            System.arraycopy(blocks, start + action * numberOfObjectives, result, 0, n);
+        }
+    }
+
+    @Override
+    public void getActionValues(int state, double[][] result)
+    {
+        int start = find(state);
+        for (int a = 0; a < numberOfActions; a++)
+        {
+            int n = Math.min(numberOfObjectives, result[a].length);
+            if (start < 0)
+            {
+                System.arraycopy(defaults, 0, result[a], 0, n);
+            }
+            else
+            {
+                System.arraycopy(blocks, start + a * numberOfObjectives, result[a], 0, n);
+            }
+        }
+    }
+
+    @Override
+    public void applyErrors(int action, int state, double[] errors, double lambda, double alpha)
+    {
+        int start = find(state);
+        if (start < 0)
+        {
+            super.applyErrors(action, state, errors, lambda, alpha);
+            return;
+        }
+        int base = start + action * numberOfObjectives;
+        for (int i = 0; i < numberOfObjectives; i++)
+        {
+            blocks[base + i] += alpha * (lambda * errors[i]);
+        }
+    }
+
+    // Empty the table - every state reads as initValue until it's written to
+    @Override
+    public void fill(double[] initValue)
+    {
+        defaults = Arrays.copyOf(initValue, numberOfObjectives);
+        clear();
+    }
+
+    @Override
+    public int getPopulatedStateCount()
+    {
+        return size;
+    }
+
+    @Override
+    public int getPopulatedState(int i)
+    {
+        return blockStates[i];
+    }
+
+    // the value of an objective in every unpopulated state
+    public double getDefault(int objective)
+    {
+        return defaults[objective];
+    }
+}
@@ -0,0 +1,89 @@
+// Q-values in one flat array laid out [state][action][objective]. Every value for a state - all the actions, all
+// the objectives - sits in one contiguous run, so reading them for action selection touches a couple of cache
+// lines rather than numberOfObjectives x numberOfActions separate arrays.
+
+package tools.valuefunction.storage;
+
+public class StateMajorStorage extends QValueStorage
+{
+    private final double[] values;
+    private final int stateStride;
+
+    public StateMajorStorage(int numberOfObjectives, int numberOfActions, int numberOfStates)
+    {
+        super(numberOfObjectives, numberOfActions, numberOfStates);
+        stateStride = numberOfActions * numberOfObjectives;
+        values = new double[numberOfStates * stateStride];
+    }
+
+    private StateMajorStorage(StateMajorStorage other)
+    {
+        super(other.numberOfObjectives, other.numberOfActions, other.numberOfStates);
+        stateStride = other.stateStride;
+        values = other.values.clone();
+    }
+
+    private int index(int objective, int action, int state)
+    {
+        return state * stateStride + action * numberOfObjectives + objective;
+    }
+
+    @Override
+    public int getLayout()
+    {
+        return STATE_MAJOR;
+    }
+
+    @Override
+    public double get(int objective, int action, int state)
+    {
+        return values[index(objective, action, state)];
+    }
+
+    @Override
+    public void set(int objective, int action, int state, double value)
+    {
+        values[index(objective, action, state)] = value;
+    }
+
+    @Override
+    public QValueStorage copy()
+    {
+        return new StateMajorStorage(this);
+    }
+
+    @Override
+    public void getQValues(int action, int state, double[] result)
+    {
+        System.arraycopy(values, index(0, action, state), result, 0, Math.min(numberOfObjectives, result.length));
+    }
+
+    @Override
+    public void applyErrors(int action, int state, double[] errors, double lambda, double alpha)
+    {
+        int base = index(0, action, state);
+        for (int i = 0; i < numberOfObjectives; i++)
+        {
+            values[base + i] += alpha * (lambda * errors[i]);
+        }
+    }
+
+    @Override
+    public void getActionValues(int state, double[][] result)
+    {
+        int base = state * stateStride;
+        for (int a = 0; a < numberOfActions; a++)
+        {
+            System.arraycopy(values, base + a * numberOfObjectives, result[a], 0, Math.min(numberOfObjectives, result[a].length));
+        }
+    }
+
+    @Override
+    public void fill(double[] initValue)
+    {
+        for (int k = 0; k < values.length; k += numberOfObjectives)
+        {
+            System.arraycopy(initValue, 0, values, k, numberOfObjectives);
+        }
+    }
+}
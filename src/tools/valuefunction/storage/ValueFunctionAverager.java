@@ -0,0 +1,381 @@
+// Averages any number of saved value functions, cell by cell, into a new file, without loading any of them whole.
+// Every file is read a chunk of values at a time through a QValueFile.Reader - the files are read concurrently - and
+// each chunk's cells are summed across the files by fork/join tasks, each taking a range of cells, then the averages
+// are streamed out through a QValueFile.Writer. So memory is (number of files + 1) x the chunk size, however big the
+// tables are. The files can be in any format QValueFile reads, mixed; sparse files are loaded whole, though, so
+// averaging large sparse tables is better done by SatisficingMILookupTable.averageValueFunction.
+// Each cell's values are summed in file order, so an unweighted average is exactly what summing the tables one after
+// another and dividing by their number gives. Files can also be weighted, e.g. by how many episodes each was
+// trained for.
+// Also runs offline:
+//   ValueFunctionAverager [-size objectives,actions,states] [-weights w1,w2,...] [-chunk values] [-compress]
+//                         output input...
+// where each input is a file or a glob such as ValueFunction_T3_I*.txt. The size is read from the first input
+// unless it's a legacy file, which doesn't record it.
+
+package tools.valuefunction.storage;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.RecursiveAction;
+
+public class ValueFunctionAverager
+{
+    public static final int DEFAULT_CHUNK_SIZE = 1 << 16; // values read from each file at a time
+    private static final int CELLS_PER_TASK = 4096;      // cells one fork/join task sums without splitting
+
+    private final int numberOfObjectives;
+    private final int numberOfActions;
+    private final int numberOfStates;
+    private int chunkSize = DEFAULT_CHUNK_SIZE;
+    private double[] thresholds = null;
+    private boolean compress = false;
+    private final ForkJoinPool pool;
+
+    public ValueFunctionAverager(int numberOfObjectives, int numberOfActions, int numberOfStates)
+    {
+        this(numberOfObjectives, numberOfActions, numberOfStates, ForkJoinPool.commonPool());
+    }
+
+    // as above, running the reads and sums in the given pool
+    public ValueFunctionAverager(int numberOfObjectives, int numberOfActions, int numberOfStates, ForkJoinPool pool)
+    {
+        this.numberOfObjectives = numberOfObjectives;
+        this.numberOfActions = numberOfActions;
+        this.numberOfStates = numberOfStates;
+        this.pool = pool;
+    }
+
+    public void setChunkSize(int chunkSize)
+    {
+        if (chunkSize < 1)
+        {
+            throw new IllegalArgumentException("ValueFunctionAverager - chunk size must be at least 1, not " + chunkSize);
+        }
+        this.chunkSize = chunkSize;
+    }
+
+    // the thresholds recorded in the averaged file - if they're not set, the first file's are used
+    public void setThresholds(double[] thresholds)
+    {
+        this.thresholds = thresholds == null ? null : thresholds.clone();
+    }
+
+    // deflate the averaged file (see QValueFile)
+    public void setCompress(boolean compress)
+    {
+        this.compress = compress;
+    }
+
+    // Average the files into output, each weighted by weights[k], or equally if weights is null. If anything can't
+    // be read, nothing is written.
+    public void average(List<File> files, double[] weights, File output) throws IOException
+    {
+        int n = files.size();
+        if (n == 0)
+        {
+            throw new IOException("ValueFunctionAverager - no value functions to average");
+        }
+        double totalWeight = n;
+        if (weights != null)
+        {
+            if (weights.length != n)
+            {
+                throw new IllegalArgumentException("ValueFunctionAverager - " + weights.length + " weights for " + n
+                        + " files");
+            }
+            totalWeight = 0;
+            for (double w : weights)
+            {
+                totalWeight += w;
+            }
+            if (!(totalWeight > 0))
+            {
+                throw new IllegalArgumentException("ValueFunctionAverager - the weights must add up to more than 0");
+            }
+        }
+
+        final QValueFile.Reader[] readers = new QValueFile.Reader[n];
+        QValueFile.Writer writer = null;
+        try
+        {
+            List<Callable<Void>> opens = new ArrayList<>();
+            for (int f = 0; f < n; f++)
+            {
+                final int file = f;
+                final File name = files.get(f);
+                opens.add(() -> {
+                    readers[file] = new QValueFile.Reader(name, numberOfObjectives, numberOfActions, numberOfStates);
+                    return null;
+                });
+            }
+            runAll(opens);
+            writer = new QValueFile.Writer(output, numberOfObjectives, numberOfActions, numberOfStates,
+                    thresholds != null ? thresholds : readers[0].getThresholds(), compress);
+
+            final double[][] chunks = new double[n][chunkSize];
+            double[] result = new double[chunkSize];
+            long total = (long) numberOfObjectives * numberOfActions * numberOfStates;
+            List<Callable<Void>> reads = new ArrayList<>();
+            for (long done = 0; done < total; )
+            {
+                final int count = (int) Math.min(chunkSize, total - done);
+                reads.clear();
+                for (int f = 0; f < n; f++)
+                {
+                    final int file = f;
+                    reads.add(() -> {
+                        readers[file].read(chunks[file], 0, count);
+                        return null;
+                    });
+                }
+                runAll(reads);
+                pool.invoke(new Sum(chunks, weights, totalWeight, result, 0, count));
+                writer.write(result, 0, count);
+                done += count;
+            }
+            for (QValueFile.Reader reader : readers)
+            {
+                reader.close();
+            }
+            writer.close();
+        }
+        finally
+        {
+            if (writer != null)
+            {
+                writer.abort();
+            }
+            for (QValueFile.Reader reader : readers)
+            {
+                if (reader != null)
+                {
+                    try
+                    {
+                        reader.close();
+                    }
+                    catch (IOException e)
+                    {
+                        // already failing
+                    }
+                }
+            }
+        }
+    }
+
+    // run the tasks in the pool and wait for them all, passing on the first failure
+    private void runAll(List<Callable<Void>> tasks) throws IOException
+    {
+        IOException failure = null;
+        for (Future<Void> result : pool.invokeAll(tasks))
+        {
+            try
+            {
+                result.get();
+            }
+            catch (ExecutionException e)
+            {
+                if (failure == null)
+                {
+                    failure = toIOException(e, "ValueFunctionAverager");
+                }
+            }
+            catch (InterruptedException e)
+            {
+                Thread.currentThread().interrupt();
+                throw new IOException("ValueFunctionAverager - interrupted", e);
+            }
+        }
+        if (failure != null)
+        {
+            throw failure;
+        }
+    }
+
+    // The IOException behind a failed pool task, which the pool wraps, perhaps more than once - or, if there isn't
+    // one, an IOException from the given class carrying whatever did fail
+    public static IOException toIOException(ExecutionException e, String source)
+    {
+        Throwable cause = e.getCause();
+        while (!(cause instanceof IOException) && cause.getCause() != null)
+        {
+            cause = cause.getCause();
+        }
+        return cause instanceof IOException ? (IOException) cause : new IOException(source + " - " + cause, cause);
+    }
+
+    // sums cells [from, to) of a chunk across the files, halving the range until it's small enough to do directly
+    private static class Sum extends RecursiveAction
+    {
+        private static final long serialVersionUID = 1L;
+
+        private final double[][] chunks;
+        private final double[] weights;
+        private final double totalWeight;
+        private final double[] result;
+        private final int from;
+        private final int to;
+
+        Sum(double[][] chunks, double[] weights, double totalWeight, double[] result, int from, int to)
+        {
+            this.chunks = chunks;
+            this.weights = weights;
+            this.totalWeight = totalWeight;
+            this.result = result;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute()
+        {
+            if (to - from > CELLS_PER_TASK)
+            {
+                int middle = (from + to) >>> 1;
+                invokeAll(new Sum(chunks, weights, totalWeight, result, from, middle),
+                        new Sum(chunks, weights, totalWeight, result, middle, to));
+                return;
+            }
+            for (int c = from; c < to; c++)
+            {
+                double sum = 0;
+                for (int f = 0; f < chunks.length; f++)
+                {
+                    sum += weights == null ? chunks[f][c] : weights[f] * chunks[f][c];
+                }
+                result[c] = sum / totalWeight;
+            }
+        }
+    }
+
+    // The files named by a list of file names and globs - a glob's matches come in name order, and it's an error
+    // for one to match nothing
+    public static List<File> expand(String... patterns) throws IOException
+    {
+        List<File> files = new ArrayList<>();
+        for (String pattern : patterns)
+        {
+            File file = new File(pattern);
+            String name = file.getName();
+            if (name.indexOf('*') < 0 && name.indexOf('?') < 0 && name.indexOf('[') < 0 && name.indexOf('{') < 0)
+            {
+                files.add(file);
+                continue;
+            }
+            File dir = file.getAbsoluteFile().getParentFile();
+            List<File> matches = new ArrayList<>();
+            DirectoryStream<Path> stream = Files.newDirectoryStream(dir.toPath(), name);
+            try
+            {
+                for (Path path : stream)
+                {
+                    matches.add(new File(file.getParentFile(), path.getFileName().toString()));
+                }
+            }
+            finally
+            {
+                stream.close();
+            }
+            if (matches.isEmpty())
+            {
+                throw new IOException("ValueFunctionAverager - nothing matches " + pattern);
+            }
+            Collections.sort(matches);
+            files.addAll(matches);
+        }
+        return files;
+    }
+
+    public static void main(String[] args)
+    {
+        int[] size = null;
+        double[] weights = null;
+        int chunkSize = DEFAULT_CHUNK_SIZE;
+        boolean compress = false;
+        int arg = 0;
+        try
+        {
+            for (; arg < args.length && args[arg].startsWith("-"); arg++)
+            {
+                if (args[arg].equals("-size"))
+                {
+                    String[] parts = args[++arg].split(",");
+                    size = new int[]{Integer.parseInt(parts[0]), Integer.parseInt(parts[1]), Integer.parseInt(parts[2])};
+                }
+                else if (args[arg].equals("-weights"))
+                {
+                    String[] parts = args[++arg].split(",");
+                    weights = new double[parts.length];
+                    for (int k = 0; k < parts.length; k++)
+                    {
+                        weights[k] = Double.parseDouble(parts[k]);
+                    }
+                }
+                else if (args[arg].equals("-chunk"))
+                {
+                    chunkSize = Integer.parseInt(args[++arg]);
+                }
+                else if (args[arg].equals("-compress"))
+                {
+                    compress = true;
+                }
+                else
+                {
+                    throw new IllegalArgumentException("unknown option " + args[arg]);
+                }
+            }
+            if (args.length - arg < 2)
+            {
+                throw new IllegalArgumentException("an output and at least one input are needed");
+            }
+        }
+        catch (RuntimeException e)
+        {
+            System.err.println("ValueFunctionAverager - " + e.getMessage());
+            System.err.println("Usage: ValueFunctionAverager [-size objectives,actions,states] [-weights w1,w2,...] "
+                    + "[-chunk values] [-compress] output input...");
+            System.exit(1);
+            return;
+        }
+
+        File output = new File(args[arg]);
+        String[] patterns = new String[args.length - arg - 1];
+        System.arraycopy(args, arg + 1, patterns, 0, patterns.length);
+        try
+        {
+            List<File> files = expand(patterns);
+            if (size == null)
+            {
+                size = QValueFile.readSize(files.get(0));
+                if (size == null)
+                {
+                    throw new IOException("ValueFunctionAverager - " + files.get(0)
+                            + " doesn't record its size - give it with -size");
+                }
+            }
+            ValueFunctionAverager averager = new ValueFunctionAverager(size[0], size[1], size[2]);
+            averager.setChunkSize(chunkSize);
+            averager.setCompress(compress);
+            long start = System.currentTimeMillis();
+            averager.average(files, weights, output);
+            System.out.println("ValueFunctionAverager - averaged " + files.size() + " value functions of " + size[0]
+                    + " x " + size[1] + " x " + size[2] + " into " + output + " in "
+                    + (System.currentTimeMillis() - start) + "ms");
+        }
+        catch (IOException | IllegalArgumentException e)
+        {
+            System.err.println(e.getMessage());
+            System.exit(1);
+        }
+    }
+}